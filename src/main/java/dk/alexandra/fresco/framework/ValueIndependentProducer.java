@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework;
+
+/**
+ * A protocol producer that can tell whether its next call to
+ * {@link ProtocolProducer#getNextProtocols(NativeProtocol[], int)} accesses
+ * the content of any value, e.g. reads an opened value or copies a value
+ * locally.
+ * 
+ * Most evaluators only ask for more protocols once the protocols returned
+ * earlier are evaluated. Evaluators that produce ahead of evaluation, such as
+ * the pipelined and the dependency graph evaluators, only do so when the next
+ * call of the producer is value independent. Otherwise they first wait for
+ * all protocols returned earlier to be evaluated. A producer not implementing
+ * this interface is assumed to access values on every call.
+ */
+public interface ValueIndependentProducer extends ProtocolProducer {
+
+	/**
+	 * Returns true if the next call to getNextProtocols neither reads nor
+	 * writes the content of any value, also in the producers created during
+	 * that call. The producer may prepare the next call, e.g. build its
+	 * sub-producers, as long as this does not access values.
+	 */
+	public boolean isValueIndependent();
+
+	/**
+	 * Returns true if the next call to getNextProtocols of the given producer
+	 * does not access the content of any value. Native protocols only return
+	 * themselves, so they are value independent.
+	 */
+	public static boolean isValueIndependent(ProtocolProducer producer) {
+		if (producer instanceof NativeProtocol) {
+			return true;
+		}
+		if (producer instanceof ValueIndependentProducer) {
+			return ((ValueIndependentProducer) producer).isValueIndependent();
+		}
+		return false;
+	}
+}
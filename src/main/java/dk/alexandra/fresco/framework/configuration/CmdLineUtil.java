@@ -44,6 +44,9 @@ import org.apache.commons.cli.ParseException;
 import dk.alexandra.fresco.framework.Party;
 import dk.alexandra.fresco.framework.ProtocolEvaluator;
 import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.network.NetworkStrategy;
+import dk.alexandra.fresco.framework.network.NioNetworkImpl;
+import dk.alexandra.fresco.framework.network.SecureChannelStrategy;
 import dk.alexandra.fresco.framework.sce.configuration.ProtocolSuiteConfiguration;
 import dk.alexandra.fresco.framework.sce.configuration.SCEConfiguration;
 import dk.alexandra.fresco.framework.sce.evaluator.EvaluationStrategy;
@@ -161,6 +164,48 @@ public class CmdLineUtil {
 				.hasArg(true)
 				.build());
 		
+		options.addOption(Option.builder()
+				.desc("Adapt the batch size to the measured throughput, using batches of at least this many native protocols. Defaults to always using the maximum batch size")
+				.longOpt("min-batch")
+				.required(false)
+				.hasArg(true)
+				.build());
+		
+		options.addOption(Option.builder()
+				.desc("The number of batches measured before an adaptive batch size is adjusted. Defaults to 16")
+				.longOpt("batch-window")
+				.required(false)
+				.hasArg(true)
+				.build());
+		
+		options.addOption(Option.builder()
+				.desc("Write a timeline of the evaluation to this file in the Chrome trace event format. Any %d in the name is replaced by the id of the party.")
+				.longOpt("trace")
+				.required(false)
+				.hasArg(true)
+				.build());
+		
+		options.addOption(Option.builder()
+				.desc("The network to connect to the other parties with. Can be one of: " + Arrays.toString(NetworkStrategy.values()) + ". Defaults to " + NetworkStrategy.SCAPI)
+				.longOpt("network")
+				.required(false)
+				.hasArg(true)
+				.build());
+		
+		options.addOption(Option.builder()
+				.desc("How to encrypt and authenticate channels to parties with a shared secret key. Can be one of: " + Arrays.toString(SecureChannelStrategy.values()) + ". Defaults to " + SecureChannelStrategy.ENC_THEN_MAC + ". The NIO network always uses " + SecureChannelStrategy.AES_GCM)
+				.longOpt("secure-channel")
+				.required(false)
+				.hasArg(true)
+				.build());
+		
+		options.addOption(Option.builder()
+				.desc("The maximum length in bytes of a message received from another party. A longer message fails the connection. Only used by the " + NetworkStrategy.NIO + " network. Defaults to " + NioNetworkImpl.DEFAULT_MAX_MESSAGE_SIZE)
+				.longOpt("max-message-size")
+				.required(false)
+				.hasArg(true)
+				.build());
+		
 		options.addOption(Option.builder("D")
 				.argName("property=value")
 				.desc("Used to set properties of protocol suite and other customizable components.")
@@ -305,6 +350,35 @@ public class CmdLineUtil {
 			maxBatchSize = 4096;
 		}		
 		
+		final int minBatchSize = this.cmd.hasOption("min-batch") ? parseNonzeroInt("min-batch") : -1;
+		final int batchSizeWindow = this.cmd.hasOption("batch-window") ? parseNonzeroInt("batch-window") : 16;
+		
+		final String traceFile = this.cmd.getOptionValue("trace");
+		
+		final NetworkStrategy network;
+		if (this.cmd.hasOption("network")) {
+			try {
+				network = NetworkStrategy.fromString(this.cmd.getOptionValue("network"));
+			} catch (ConfigurationException e) {
+				throw new ParseException("Invalid network strategy: " + this.cmd.getOptionValue("network"));
+			}
+		} else {
+			network = NetworkStrategy.SCAPI;
+		}
+		
+		final SecureChannelStrategy secureChannel;
+		if (this.cmd.hasOption("secure-channel")) {
+			try {
+				secureChannel = SecureChannelStrategy.fromString(this.cmd.getOptionValue("secure-channel"));
+			} catch (ConfigurationException e) {
+				throw new ParseException("Invalid secure channel strategy: " + this.cmd.getOptionValue("secure-channel"));
+			}
+		} else {
+			secureChannel = SecureChannelStrategy.ENC_THEN_MAC;
+		}
+		
+		final int maxMessageSize = this.cmd.hasOption("max-message-size") ? parseNonzeroInt("max-message-size") : -1;
+		
 		// TODO: Rather: Just log sceConf.toString()
 		Reporter.config("Player id          : " + myId);
 		Reporter.config("Protocol suite     : " + suite);
@@ -315,6 +389,12 @@ public class CmdLineUtil {
 		Reporter.config("Evaluation strategy: " + evaluator);
 		Reporter.config("Storage strategy   : " + storage);
 		Reporter.config("Maximum batch size : " + maxBatchSize);
+		Reporter.config("Minimum batch size : " + minBatchSize);
+		Reporter.config("Batch size window  : " + batchSizeWindow);
+		Reporter.config("Trace file         : " + traceFile);
+		Reporter.config("Network strategy   : " + network);
+		Reporter.config("Secure channel     : " + secureChannel);
+		Reporter.config("Max message size   : " + maxMessageSize);
 		
 		this.sceConf = new SCEConfiguration() {
 
@@ -363,6 +443,41 @@ public class CmdLineUtil {
 					return maxBatchSize;
 				}
 
+				@Override
+				public int getMinBatchSize() {
+					return minBatchSize;
+				}
+
+				@Override
+				public int getBatchSizeWindow() {
+					return batchSizeWindow;
+				}
+
+				@Override
+				public int getMaxConcurrentSessions() {
+					return 1;
+				}
+
+				@Override
+				public String getTraceFile() {
+					return traceFile;
+				}
+
+				@Override
+				public NetworkStrategy getNetworkStrategy() {
+					return network;
+				}
+
+				@Override
+				public SecureChannelStrategy getSecureChannelStrategy() {
+					return secureChannel;
+				}
+
+				@Override
+				public int getMaxMessageSize() {
+					return maxMessageSize;
+				}
+
 				@Override
 				public StreamedStorage getStreamedStorage() {
 					if(storage instanceof StreamedStorage) {
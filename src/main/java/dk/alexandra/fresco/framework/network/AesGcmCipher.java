@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import dk.alexandra.fresco.framework.MPCException;
+
+/**
+ * Authenticated encryption of the messages one party sends to another on one
+ * channel, using AES-GCM from the JCE. On HotSpot this is accelerated by the
+ * AES-NI and carry-less multiplication instructions.
+ * 
+ * An instance handles one direction of one channel: the sender seals messages
+ * and the receiver opens them with its own instance made with the same
+ * arguments. The nonce of a message is its sequence number on the channel,
+ * so messages that are dropped, replayed or reordered fail to open.
+ * 
+ * Since sequence numbers start over on each connection, the key must be new
+ * for each connection. When connecting, each party sends the other a fresh
+ * random nonce, see {@link #newConnectionNonce()}, and the sender draws a
+ * random salt which is sent in front of the first message. The AES key is
+ * derived from the shared key, both connection nonces, the salt, the parties
+ * and the channel. So no key and nonce pair is ever used twice, and since the
+ * receiver contributes a nonce of its own, messages recorded on an earlier
+ * connection fail to open on a later one.
+ */
+public class AesGcmCipher {
+
+	public static final int SALT_SIZE = 16;
+	public static final int TAG_SIZE = 16;
+	public static final int CONNECTION_NONCE_SIZE = 16;
+	private static final int NONCE_SIZE = 12;
+
+	private static final SecureRandom random = new SecureRandom();
+
+	private final byte[] sharedKey;
+	private final byte[] context;
+	private final Cipher cipher;
+	private final byte[] nonce = new byte[NONCE_SIZE];
+	private SecretKeySpec key;
+	private long sequence;
+
+	/**
+	 * @param sharedKey
+	 *            the AES key shared by the two parties.
+	 * @param senderId
+	 *            the id of the party sending on the channel.
+	 * @param receiverId
+	 *            the id of the party receiving on the channel.
+	 * @param channel
+	 *            the name of the channel.
+	 * @param senderNonce
+	 *            the nonce the sending party sent when connecting.
+	 * @param receiverNonce
+	 *            the nonce the receiving party sent when connecting.
+	 */
+	public AesGcmCipher(byte[] sharedKey, int senderId, int receiverId, String channel, byte[] senderNonce,
+			byte[] receiverNonce) {
+		if (sharedKey.length != 16 && sharedKey.length != 24 && sharedKey.length != 32) {
+			throw new MPCException("The shared key must be a 128, 192 or 256 bit AES key, but it has "
+					+ sharedKey.length * 8 + " bits");
+		}
+		if (senderNonce.length != CONNECTION_NONCE_SIZE || receiverNonce.length != CONNECTION_NONCE_SIZE) {
+			throw new MPCException("The connection nonces must be " + CONNECTION_NONCE_SIZE + " bytes");
+		}
+		this.sharedKey = sharedKey.clone();
+		byte[] name = channel.getBytes(StandardCharsets.UTF_8);
+		this.context = ByteBuffer.allocate(8 + 2 * CONNECTION_NONCE_SIZE + name.length).putInt(senderId)
+				.putInt(receiverId).put(senderNonce).put(receiverNonce).put(name).array();
+		try {
+			this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		} catch (GeneralSecurityException e) {
+			throw new MPCException("AES-GCM is not supported on this system", e);
+		}
+	}
+
+	/**
+	 * @return a fresh random nonce for a party to send when connecting.
+	 */
+	public static byte[] newConnectionNonce() {
+		byte[] nonce = new byte[CONNECTION_NONCE_SIZE];
+		random.nextBytes(nonce);
+		return nonce;
+	}
+
+	/**
+	 * Encrypts and authenticates the next message on the channel.
+	 * 
+	 * @return the sealed message, which is {@link #TAG_SIZE} bytes longer
+	 *         than the message, and {@link #SALT_SIZE} bytes more for the
+	 *         first message.
+	 */
+	public synchronized byte[] seal(byte[] message, int offset, int length) {
+		int pos = 0;
+		byte[] sealed;
+		if (this.key == null) {
+			byte[] salt = new byte[SALT_SIZE];
+			random.nextBytes(salt);
+			this.key = deriveKey(salt);
+			sealed = new byte[SALT_SIZE + length + TAG_SIZE];
+			System.arraycopy(salt, 0, sealed, 0, SALT_SIZE);
+			pos = SALT_SIZE;
+		} else {
+			sealed = new byte[length + TAG_SIZE];
+		}
+		try {
+			this.cipher.init(Cipher.ENCRYPT_MODE, this.key, nextNonce());
+			this.cipher.doFinal(message, offset, length, sealed, pos);
+		} catch (GeneralSecurityException e) {
+			throw new MPCException("Could not encrypt message", e);
+		}
+		return sealed;
+	}
+
+	/**
+	 * Checks and decrypts the next message on the channel.
+	 * 
+	 * @throws IOException
+	 *             if the message was not sealed by the other party as the next
+	 *             message on the channel.
+	 */
+	public synchronized byte[] open(byte[] sealed) throws IOException {
+		int pos = 0;
+		if (this.key == null) {
+			if (sealed.length < SALT_SIZE) {
+				throw new IOException("The first message on the channel is too short");
+			}
+			this.key = deriveKey(Arrays.copyOf(sealed, SALT_SIZE));
+			pos = SALT_SIZE;
+		}
+		if (sealed.length - pos < TAG_SIZE) {
+			throw new IOException("The message is too short to be authenticated");
+		}
+		try {
+			this.cipher.init(Cipher.DECRYPT_MODE, this.key, nextNonce());
+			return this.cipher.doFinal(sealed, pos, sealed.length - pos);
+		} catch (AEADBadTagException e) {
+			throw new IOException("Message failed authentication", e);
+		} catch (GeneralSecurityException e) {
+			throw new MPCException("Could not decrypt message", e);
+		}
+	}
+
+	private GCMParameterSpec nextNonce() {
+		ByteBuffer.wrap(this.nonce).putInt(0).putLong(this.sequence++);
+		return new GCMParameterSpec(TAG_SIZE * 8, this.nonce);
+	}
+
+	/**
+	 * HMAC-SHA256 of the salt and the context, which holds the parties, the
+	 * connection nonces and the channel, keyed by the shared key,
+	 * truncated to the length of the shared key.
+	 */
+	private SecretKeySpec deriveKey(byte[] salt) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(this.sharedKey, "HmacSHA256"));
+			mac.update(salt);
+			mac.update(this.context);
+			return new SecretKeySpec(mac.doFinal(), 0, this.sharedKey.length, "AES");
+		} catch (GeneralSecurityException e) {
+			throw new MPCException("Could not derive channel key", e);
+		}
+	}
+}
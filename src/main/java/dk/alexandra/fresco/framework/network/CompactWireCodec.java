@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+
+import dk.alexandra.fresco.framework.MPCException;
+
+/**
+ * A {@link WireCodec} that writes each message as a one byte tag followed by
+ * a compact encoding of the value:
+ * 
+ * - Non-negative BigIntegers that fit in the field size given to the codec,
+ * and arrays of these, are written with exactly field size bytes each. Other
+ * BigIntegers are written with a length prefix.
+ * 
+ * - Consecutive Booleans, and boolean arrays, are packed 8 per byte.
+ * 
+ * - Byte arrays, Integers and int arrays are written as is, and
+ * Serializable arrays are written recursively.
+ * 
+ * - Everything else falls back to Java object serialization.
+ * 
+ * Subclasses can add encodings for the types of their protocol suite by
+ * overriding {@link #writeCustom(Serializable, DataOutputStream)} and
+ * {@link #readCustom(byte, DataInputStream)}, using tags from
+ * {@link #FIRST_CUSTOM_TAG} and up.
+ */
+public class CompactWireCodec implements WireCodec {
+
+	private static final byte NULL = 0;
+	private static final byte FIELD = 1;
+	private static final byte BIG_INTEGER = 2;
+	private static final byte FIELD_ARRAY = 3;
+	private static final byte BITS = 4;
+	private static final byte BOOLEAN_ARRAY = 5;
+	private static final byte BYTES = 6;
+	private static final byte INT = 7;
+	private static final byte INT_ARRAY = 8;
+	private static final byte ARRAY = 9;
+	private static final byte JAVA = 10;
+
+	/**
+	 * The first tag subclasses may use for their own encodings.
+	 */
+	protected static final byte FIRST_CUSTOM_TAG = 32;
+
+	private final int fieldSize;
+
+	/**
+	 * Creates a codec without a field, i.e., all BigIntegers are written with a
+	 * length prefix.
+	 */
+	public CompactWireCodec() {
+		this(0);
+	}
+
+	/**
+	 * @param fieldSize
+	 *            the number of bytes used for each field element.
+	 */
+	public CompactWireCodec(int fieldSize) {
+		if (fieldSize < 0) {
+			throw new IllegalArgumentException("Field size must be non-negative, was " + fieldSize);
+		}
+		this.fieldSize = fieldSize;
+	}
+
+	public int getFieldSize() {
+		return this.fieldSize;
+	}
+
+	@Override
+	public byte[] encode(Serializable[] messages) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + messages.length * (fieldSize + 1));
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			writeElements(messages, out);
+			out.flush();
+		} catch (IOException e) {
+			throw new MPCException("Could not encode messages.", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public Serializable[] decode(byte[] data) {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+		try {
+			Serializable[] messages = readElements(in);
+			if (in.available() > 0) {
+				throw new MPCException("Encoded messages had " + in.available() + " trailing bytes.");
+			}
+			return messages;
+		} catch (IOException e) {
+			throw new MPCException("Could not decode messages.", e);
+		}
+	}
+
+	/**
+	 * Writes a value of a type specific to a protocol suite. Implementations
+	 * must write a tag of at least {@link #FIRST_CUSTOM_TAG} before the value.
+	 * 
+	 * @return true if the value was written, false if the value should be
+	 *         written by the default encodings.
+	 */
+	protected boolean writeCustom(Serializable value, DataOutputStream out) throws IOException {
+		return false;
+	}
+
+	/**
+	 * Reads a value written by
+	 * {@link #writeCustom(Serializable, DataOutputStream)}.
+	 * 
+	 * @param tag
+	 *            the tag written before the value.
+	 */
+	protected Serializable readCustom(byte tag, DataInputStream in) throws IOException {
+		throw new MPCException("Unknown tag in encoded messages: " + tag);
+	}
+
+	private void writeElements(Serializable[] elements, DataOutputStream out) throws IOException {
+		writeLength(elements.length, out);
+		int i = 0;
+		while (i < elements.length) {
+			if (elements[i] instanceof Boolean) {
+				int end = i + 1;
+				while (end < elements.length && elements[end] instanceof Boolean) {
+					end++;
+				}
+				out.writeByte(BITS);
+				writeLength(end - i, out);
+				int current = 0;
+				for (int j = i; j < end; j++) {
+					if ((Boolean) elements[j]) {
+						current |= 1 << ((j - i) & 7);
+					}
+					if (((j - i) & 7) == 7) {
+						out.writeByte(current);
+						current = 0;
+					}
+				}
+				if (((end - i) & 7) != 0) {
+					out.writeByte(current);
+				}
+				i = end;
+			} else {
+				writeElement(elements[i], out);
+				i++;
+			}
+		}
+	}
+
+	private Serializable[] readElements(DataInputStream in) throws IOException {
+		Serializable[] elements = new Serializable[readLength(in)];
+		int i = 0;
+		while (i < elements.length) {
+			byte tag = in.readByte();
+			if (tag == BITS) {
+				int count = readLength(in);
+				if (count > elements.length - i) {
+					throw new MPCException("Encoded messages had more bits than elements.");
+				}
+				int current = 0;
+				for (int j = 0; j < count; j++) {
+					if ((j & 7) == 0) {
+						current = in.readUnsignedByte();
+					}
+					elements[i++] = ((current >>> (j & 7)) & 1) == 1;
+				}
+			} else {
+				elements[i++] = readElement(tag, in);
+			}
+		}
+		return elements;
+	}
+
+	private void writeElement(Serializable value, DataOutputStream out) throws IOException {
+		if (value == null) {
+			out.writeByte(NULL);
+		} else if (writeCustom(value, out)) {
+			return;
+		} else if (value instanceof BigInteger) {
+			BigInteger b = (BigInteger) value;
+			if (isFieldElement(b)) {
+				out.writeByte(FIELD);
+				writeFieldElement(b, out);
+			} else {
+				out.writeByte(BIG_INTEGER);
+				writeBytes(b.toByteArray(), out);
+			}
+		} else if (value.getClass() == BigInteger[].class && isFieldArray((BigInteger[]) value)) {
+			BigInteger[] array = (BigInteger[]) value;
+			out.writeByte(FIELD_ARRAY);
+			writeLength(array.length, out);
+			for (BigInteger b : array) {
+				writeFieldElement(b, out);
+			}
+		} else if (value instanceof boolean[]) {
+			boolean[] bits = (boolean[]) value;
+			out.writeByte(BOOLEAN_ARRAY);
+			writeLength(bits.length, out);
+			for (int i = 0; i < bits.length; i += 8) {
+				int current = 0;
+				for (int j = i; j < Math.min(i + 8, bits.length); j++) {
+					if (bits[j]) {
+						current |= 1 << (j - i);
+					}
+				}
+				out.writeByte(current);
+			}
+		} else if (value instanceof byte[]) {
+			out.writeByte(BYTES);
+			writeBytes((byte[]) value, out);
+		} else if (value instanceof Integer) {
+			out.writeByte(INT);
+			out.writeInt((Integer) value);
+		} else if (value instanceof int[]) {
+			int[] ints = (int[]) value;
+			out.writeByte(INT_ARRAY);
+			writeLength(ints.length, out);
+			for (int i : ints) {
+				out.writeInt(i);
+			}
+		} else if (value.getClass() == Serializable[].class) {
+			out.writeByte(ARRAY);
+			writeElements((Serializable[]) value, out);
+		} else {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(bytes);
+			oos.writeObject(value);
+			oos.close();
+			out.writeByte(JAVA);
+			writeBytes(bytes.toByteArray(), out);
+		}
+	}
+
+	private Serializable readElement(byte tag, DataInputStream in) throws IOException {
+		switch (tag) {
+		case NULL:
+			return null;
+		case FIELD:
+			return readFieldElement(in);
+		case BIG_INTEGER:
+			return new BigInteger(readBytes(in));
+		case FIELD_ARRAY:
+			BigInteger[] array = new BigInteger[readLength(in)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = readFieldElement(in);
+			}
+			return array;
+		case BOOLEAN_ARRAY:
+			boolean[] bits = new boolean[readLength(in)];
+			int current = 0;
+			for (int i = 0; i < bits.length; i++) {
+				if ((i & 7) == 0) {
+					current = in.readUnsignedByte();
+				}
+				bits[i] = ((current >>> (i & 7)) & 1) == 1;
+			}
+			return bits;
+		case BYTES:
+			return readBytes(in);
+		case INT:
+			return in.readInt();
+		case INT_ARRAY:
+			int[] ints = new int[readLength(in)];
+			for (int i = 0; i < ints.length; i++) {
+				ints[i] = in.readInt();
+			}
+			return ints;
+		case ARRAY:
+			return readElements(in);
+		case JAVA:
+			ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)));
+			try {
+				return (Serializable) ois.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new MPCException("Could not decode Java serialized message.", e);
+			}
+		default:
+			return readCustom(tag, in);
+		}
+	}
+
+	private boolean isFieldElement(BigInteger b) {
+		return fieldSize > 0 && b.signum() >= 0 && b.bitLength() <= fieldSize * 8;
+	}
+
+	private boolean isFieldArray(BigInteger[] array) {
+		for (BigInteger b : array) {
+			if (b == null || !isFieldElement(b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a non-negative BigInteger of at most field size bytes as exactly
+	 * field size bytes.
+	 */
+	private void writeFieldElement(BigInteger b, DataOutputStream out) throws IOException {
+		byte[] bytes = b.toByteArray();
+		// toByteArray() may add a leading zero byte for the sign.
+		int offset = bytes.length > fieldSize ? bytes.length - fieldSize : 0;
+		for (int i = bytes.length - offset; i < fieldSize; i++) {
+			out.writeByte(0);
+		}
+		out.write(bytes, offset, bytes.length - offset);
+	}
+
+	private BigInteger readFieldElement(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[fieldSize];
+		in.readFully(bytes);
+		return new BigInteger(1, bytes);
+	}
+
+	private static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+		writeLength(bytes.length, out);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[readLength(in)];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Writes a non-negative int using 7 bits per byte, least significant group
+	 * first, with the high bit set on all but the last byte.
+	 */
+	private static void writeLength(int length, DataOutputStream out) throws IOException {
+		while ((length & ~0x7F) != 0) {
+			out.writeByte((length & 0x7F) | 0x80);
+			length >>>= 7;
+		}
+		out.writeByte(length);
+	}
+
+	private static int readLength(DataInputStream in) throws IOException {
+		int length = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			length |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (length < 0) {
+					throw new MPCException("Negative length in encoded messages.");
+				}
+				return length;
+			}
+		}
+		throw new MPCException("Malformed length in encoded messages.");
+	}
+}
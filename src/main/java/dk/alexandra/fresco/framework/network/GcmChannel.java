@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import edu.biu.scapi.comm.Channel;
+
+/**
+ * A SCAPI channel that serializes each message and sends it as one AES-GCM
+ * sealed byte array over an underlying plain channel.
+ * 
+ * When created, the channel sends a fresh nonce to the other party and
+ * receives the nonce of the other party, to which the keys of both directions
+ * are bound. Both parties must therefore create their channels at the same
+ * time, in the same order.
+ */
+public class GcmChannel implements Channel {
+
+	private final Channel channel;
+	private final AesGcmCipher sendCipher;
+	private final AesGcmCipher receiveCipher;
+
+	/**
+	 * @param channel
+	 *            the channel to send the sealed messages on.
+	 * @param sharedKey
+	 *            the AES key shared with the other party.
+	 * @param myId
+	 *            the id of this party.
+	 * @param otherId
+	 *            the id of the other party.
+	 * @param name
+	 *            the name of the channel.
+	 * @throws IOException
+	 *             if the nonces could not be exchanged.
+	 */
+	public GcmChannel(Channel channel, byte[] sharedKey, int myId, int otherId, String name) throws IOException {
+		this.channel = channel;
+		byte[] myNonce = AesGcmCipher.newConnectionNonce();
+		channel.send(myNonce);
+		Serializable nonce;
+		try {
+			nonce = channel.receive();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Expected the nonce of party " + otherId, e);
+		}
+		if (!(nonce instanceof byte[]) || ((byte[]) nonce).length != AesGcmCipher.CONNECTION_NONCE_SIZE) {
+			throw new IOException("Expected the nonce of party " + otherId + ", but received " + nonce);
+		}
+		this.sendCipher = new AesGcmCipher(sharedKey, myId, otherId, name, myNonce, (byte[]) nonce);
+		this.receiveCipher = new AesGcmCipher(sharedKey, otherId, myId, name, (byte[]) nonce, myNonce);
+	}
+
+	@Override
+	public void send(Serializable data) throws IOException {
+		sendSerialized(serialize(data));
+	}
+
+	/**
+	 * Sends data already serialized by {@link #serialize(Serializable)}. Lets
+	 * a broadcast serialize the data once for all channels.
+	 */
+	void sendSerialized(byte[] serialized) throws IOException {
+		this.channel.send(this.sendCipher.seal(serialized, 0, serialized.length));
+	}
+
+	static byte[] serialize(Serializable data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(data);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	@Override
+	public Serializable receive() throws ClassNotFoundException, IOException {
+		Serializable sealed = this.channel.receive();
+		if (!(sealed instanceof byte[])) {
+			throw new IOException("Expected a sealed message, but received " + sealed);
+		}
+		byte[] message = this.receiveCipher.open((byte[]) sealed);
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(message));
+		return (Serializable) in.readObject();
+	}
+
+	@Override
+	public void close() {
+		this.channel.close();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return this.channel.isClosed();
+	}
+}
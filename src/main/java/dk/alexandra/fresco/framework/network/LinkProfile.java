@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+/**
+ * The conditions on a simulated link from one party to another: the one-way
+ * latency, the bandwidth, and the jitter, which is a random extra delay of at
+ * most the given amount added to each message.
+ */
+public class LinkProfile {
+
+	/**
+	 * No delay and unlimited bandwidth.
+	 */
+	public static final LinkProfile NONE = new LinkProfile(0, 0, 0);
+
+	/**
+	 * A local network: 0.1 ms latency and 1 Gbit/s.
+	 */
+	public static final LinkProfile LAN = ofMillis(0.1, 1000, 0);
+
+	/**
+	 * A wide area network: 40 ms latency, 100 Mbit/s and 5 ms jitter.
+	 */
+	public static final LinkProfile WAN = ofMillis(40, 100, 5);
+
+	private final long latencyNanos;
+	private final long bytesPerSecond;
+	private final long jitterNanos;
+
+	/**
+	 * @param latencyNanos
+	 *            the one-way latency in nanoseconds.
+	 * @param bytesPerSecond
+	 *            the bandwidth in bytes per second, or 0 for unlimited.
+	 * @param jitterNanos
+	 *            the largest extra delay of a message in nanoseconds.
+	 */
+	public LinkProfile(long latencyNanos, long bytesPerSecond, long jitterNanos) {
+		if (latencyNanos < 0 || bytesPerSecond < 0 || jitterNanos < 0) {
+			throw new IllegalArgumentException("Negative latency, bandwidth or jitter: " + latencyNanos + ", "
+					+ bytesPerSecond + ", " + jitterNanos);
+		}
+		this.latencyNanos = latencyNanos;
+		this.bytesPerSecond = bytesPerSecond;
+		this.jitterNanos = jitterNanos;
+	}
+
+	/**
+	 * @param latencyMillis
+	 *            the one-way latency in milliseconds.
+	 * @param megabitsPerSecond
+	 *            the bandwidth in Mbit/s, or 0 for unlimited.
+	 * @param jitterMillis
+	 *            the largest extra delay of a message in milliseconds.
+	 */
+	public static LinkProfile ofMillis(double latencyMillis, double megabitsPerSecond, double jitterMillis) {
+		return new LinkProfile((long) (latencyMillis * 1000000), (long) (megabitsPerSecond * 1000000 / 8),
+				(long) (jitterMillis * 1000000));
+	}
+
+	public long getLatencyNanos() {
+		return this.latencyNanos;
+	}
+
+	public long getBytesPerSecond() {
+		return this.bytesPerSecond;
+	}
+
+	public long getJitterNanos() {
+		return this.jitterNanos;
+	}
+
+	/**
+	 * Returns the time it takes to put the given number of bytes on the link.
+	 */
+	long transmissionNanos(int bytes) {
+		if (this.bytesPerSecond == 0) {
+			return 0;
+		}
+		return (long) (bytes * 1e9 / this.bytesPerSecond);
+	}
+
+	@Override
+	public String toString() {
+		return "LinkProfile [latency=" + this.latencyNanos / 1e6 + " ms, bandwidth="
+				+ (this.bytesPerSecond == 0 ? "unlimited" : this.bytesPerSecond * 8 / 1e6 + " Mbit/s") + ", jitter="
+				+ this.jitterNanos / 1e6 + " ms]";
+	}
+}
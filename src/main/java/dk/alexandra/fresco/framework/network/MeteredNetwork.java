@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+
+/**
+ * Feeds the messages sent and received over a network, and the time spent
+ * waiting for them, to a metrics registry.
+ */
+public class MeteredNetwork implements Network {
+
+	private final Network network;
+	private final int myId;
+	private final int noOfParties;
+	private final MetricsRegistry metrics;
+
+	public MeteredNetwork(Network network, int myId, int noOfParties, MetricsRegistry metrics) {
+		this.network = network;
+		this.myId = myId;
+		this.noOfParties = noOfParties;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void connect(int timeoutMillis) throws IOException {
+		this.network.connect(timeoutMillis);
+	}
+
+	@Override
+	public void send(String channel, int partyId, Serializable data) throws IOException {
+		this.network.send(channel, partyId, data);
+		this.metrics.messageSent(partyId, channel, data);
+	}
+
+	@Override
+	public void broadcast(String channel, Serializable data) throws IOException {
+		this.network.broadcast(channel, data);
+		for (int partyId = 1; partyId <= this.noOfParties; partyId++) {
+			if (partyId != this.myId) {
+				this.metrics.messageSent(partyId, channel, data);
+			}
+		}
+	}
+
+	@Override
+	public <T extends Serializable> T receive(String channel, int partyId) throws IOException {
+		long then = System.nanoTime();
+		T data = this.network.receive(channel, partyId);
+		this.metrics.messageReceived(partyId, channel, data, System.nanoTime() - then);
+		return data;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.network.close();
+	}
+}
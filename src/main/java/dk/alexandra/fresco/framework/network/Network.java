@@ -61,6 +61,21 @@ public interface Network {
 	void send(String channel, int partyId, Serializable data)
 			throws IOException;
 
+	/**
+	 * Sends the same data to all other parties. The data is serialized at
+	 * most once for all of them. Messages to this party are delivered by the
+	 * SCENetwork without going through the network, see
+	 * {@link SCENetworkSupplier}.
+	 * 
+	 * @param channel
+	 *            the channel to send data over.
+	 * @param data
+	 *            the data to send
+	 * @throws IOException
+	 *             thrown if a connection has problems.
+	 */
+	void broadcast(String channel, Serializable data) throws IOException;
+
 	/**
 	 * Blocking call that only returns once the data has been fully received and
 	 * deserialized.
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import dk.alexandra.fresco.framework.configuration.ConfigurationException;
+import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
+
+/**
+ * The networks parties can connect with. SCAPI opens a connection per channel
+ * to each party, while NIO multiplexes any number of channels over a single
+ * connection to each party. SIMULATED connects parties running in the same
+ * JVM in memory, with the link conditions of {@link SimulatedNetwork}.
+ */
+public enum NetworkStrategy {
+	SCAPI, NIO, SIMULATED;
+
+	public static NetworkStrategy fromString(String networkStr) throws ConfigurationException {
+		try {
+			return NetworkStrategy.valueOf(networkStr.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new ConfigurationException("Unrecognized network strategy:" + networkStr);
+		}
+	}
+
+	/**
+	 * Creates a network of the given kind.
+	 * 
+	 * @param strat
+	 *            the kind of network.
+	 * @param conf
+	 *            the parties to connect to.
+	 * @param channelAmount
+	 *            the amount of channels each party needs to each other.
+	 */
+	public static Network fromEnum(NetworkStrategy strat, NetworkConfiguration conf, int channelAmount)
+			throws ConfigurationException {
+		return fromEnum(strat, conf, channelAmount, SecureChannelStrategy.ENC_THEN_MAC);
+	}
+
+	/**
+	 * Creates a network of the given kind.
+	 * 
+	 * @param strat
+	 *            the kind of network.
+	 * @param conf
+	 *            the parties to connect to.
+	 * @param channelAmount
+	 *            the amount of channels each party needs to each other.
+	 * @param secureChannel
+	 *            how to secure the channels to parties with a shared secret
+	 *            key. Only used by the SCAPI network.
+	 */
+	public static Network fromEnum(NetworkStrategy strat, NetworkConfiguration conf, int channelAmount,
+			SecureChannelStrategy secureChannel) throws ConfigurationException {
+		return fromEnum(strat, conf, channelAmount, secureChannel, NioNetworkImpl.DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
+	/**
+	 * Creates a network of the given kind.
+	 * 
+	 * @param strat
+	 *            the kind of network.
+	 * @param conf
+	 *            the parties to connect to.
+	 * @param channelAmount
+	 *            the amount of channels each party needs to each other.
+	 * @param secureChannel
+	 *            how to secure the channels to parties with a shared secret
+	 *            key. Only used by the SCAPI network.
+	 * @param maxMessageSize
+	 *            the maximum length in bytes of a message received. Only
+	 *            used by the NIO network.
+	 */
+	public static Network fromEnum(NetworkStrategy strat, NetworkConfiguration conf, int channelAmount,
+			SecureChannelStrategy secureChannel, int maxMessageSize) throws ConfigurationException {
+		switch (strat) {
+		case SCAPI:
+			return new ScapiNetworkImpl(conf, channelAmount, secureChannel);
+		case NIO:
+			return new NioNetworkImpl(conf, channelAmount, maxMessageSize);
+		case SIMULATED:
+			return new SimulatedNetwork(conf);
+		default:
+			throw new ConfigurationException("Unrecognized network strategy:" + strat);
+		}
+	}
+}
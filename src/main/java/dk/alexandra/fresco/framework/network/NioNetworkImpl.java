@@ -0,0 +1,952 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.Party;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+import dk.alexandra.fresco.framework.sce.metrics.Tracer;
+import dk.alexandra.fresco.framework.util.Base64;
+
+/**
+ * Network based on java.nio.
+ * 
+ * Each pair of parties shares one TCP connection, over which all channels are
+ * multiplexed, so the number of sockets does not grow with the number of
+ * channels. Any channel name can be used. A channel is announced to the other
+ * party the first time something is sent on it.
+ * 
+ * Each connection has its own selector thread doing all the reading and
+ * writing, so send() only serializes the message and queues it, and never
+ * blocks on the socket. It only waits when more than
+ * {@link SendBudget#DEFAULT_CAPACITY} bytes are queued for the party. The selector thread writes messages in chunks of at
+ * most {@link #CHUNK_SIZE} bytes, and the channels with queued messages take
+ * turns writing a chunk. A large message on one channel thus does not hold
+ * back the messages on the other channels. Since the selector thread keeps
+ * reading while it writes, two parties sending large amounts of data to each
+ * other at once cannot deadlock as they can with blocking sockets.
+ * 
+ * The party with the higher id connects to the party with the lower id and
+ * sends its id and a fresh nonce, to which the other party answers with a
+ * fresh nonce of its own. If a secret key is shared with a party, each message
+ * to it is encrypted and authenticated with AES-GCM using a key bound to both
+ * nonces, see {@link AesGcmCipher}.
+ * 
+ * A message longer than the maximum message size is taken as a malformed
+ * frame and fails the connection. The buffer of a message being received
+ * grows with the chunks that arrive, so a frame announcing a large message
+ * does not by itself allocate the memory for it.
+ */
+public class NioNetworkImpl implements Network {
+
+	// A frame is a type, a channel id and a length, followed by the payload of
+	// the frame:
+	//
+	// OPEN: the channel with the id is named by the UTF-8 encoded payload of
+	// the given length. Channels are opened in the order of their ids,
+	// starting from 0.
+	//
+	// START: a message of the given length is sent on the channel. The first
+	// min(length, CHUNK_SIZE) bytes of the message follow.
+	//
+	// MORE: the given number of bytes of the message being sent on the
+	// channel follow.
+	private static final byte OPEN = 0;
+	private static final byte START = 1;
+	private static final byte MORE = 2;
+	private static final int HEADER_SIZE = 9;
+
+	static final int CHUNK_SIZE = 16 * 1024;
+
+	private static final int MAX_CHANNEL_NAME_SIZE = 1024;
+
+	/**
+	 * The default maximum length in bytes of a message received.
+	 */
+	public static final int DEFAULT_MAX_MESSAGE_SIZE = 256 * 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final long CONNECT_RETRY_MILLIS = 50;
+
+	// Put in the inboxes of a connection when it is closed or fails.
+	private static final byte[] CLOSED = new byte[0];
+
+	private final NetworkConfiguration conf;
+	private final int channelAmount;
+	private final int maxMessageSize;
+
+	// Indexed by party id.
+	private Link[] links;
+
+	// Queues for self-sending, by channel.
+	private final ConcurrentHashMap<String, BlockingQueue<Serializable>> selfQueues;
+
+	private Tracer tracer;
+
+	/**
+	 * 
+	 * @param conf
+	 *            The configuration with info about whom to connect to.
+	 * @param channelAmount
+	 *            The amount of channels each player expects to use. Any number
+	 *            of channels can be used, this is only a hint.
+	 */
+	public NioNetworkImpl(NetworkConfiguration conf, int channelAmount) {
+		this(conf, channelAmount, DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
+	/**
+	 * @param conf
+	 *            The configuration with info about whom to connect to.
+	 * @param channelAmount
+	 *            The amount of channels each player expects to use. Any number
+	 *            of channels can be used, this is only a hint.
+	 * @param maxMessageSize
+	 *            The maximum length in bytes of a message received, after
+	 *            serialization and encryption.
+	 */
+	public NioNetworkImpl(NetworkConfiguration conf, int channelAmount, int maxMessageSize) {
+		if (maxMessageSize < 1) {
+			throw new IllegalArgumentException("The maximum message size must be positive, but was " + maxMessageSize);
+		}
+		this.conf = conf;
+		this.maxMessageSize = maxMessageSize;
+		this.channelAmount = Math.max(1, channelAmount);
+		this.selfQueues = new ConcurrentHashMap<String, BlockingQueue<Serializable>>(this.channelAmount);
+	}
+
+	@Override
+	public void connect(int timeoutMillis) throws IOException {
+		int myId = this.conf.getMyId();
+		int n = this.conf.noOfParties();
+		this.tracer = Tracer.getInstance(myId);
+		SocketChannel[] sockets = new SocketChannel[n + 1];
+		byte[] myNonce = AesGcmCipher.newConnectionNonce();
+		byte[][] nonces = new byte[n + 1][];
+		long start = System.nanoTime();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		ServerSocketChannel server = null;
+		try {
+			if (myId < n) {
+				Party me = this.conf.getMe();
+				server = ServerSocketChannel.open();
+				server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+				server.bind(new InetSocketAddress(me.getHostname(), me.getPort()));
+			}
+			for (int id = 1; id < myId; id++) {
+				sockets[id] = connectTo(this.conf.getParty(id), deadline);
+				ByteBuffer hello = ByteBuffer.allocate(4 + AesGcmCipher.CONNECTION_NONCE_SIZE);
+				hello.putInt(myId).put(myNonce).flip();
+				while (hello.hasRemaining()) {
+					sockets[id].write(hello);
+				}
+				ByteBuffer answer = ByteBuffer.allocate(AesGcmCipher.CONNECTION_NONCE_SIZE);
+				while (answer.hasRemaining()) {
+					if (sockets[id].read(answer) < 0) {
+						throw new IOException("Connection to party " + id + " closed before it answered");
+					}
+				}
+				nonces[id] = answer.array();
+			}
+			if (server != null) {
+				acceptFrom(server, sockets, myNonce, nonces, deadline);
+			}
+			this.links = new Link[n + 1];
+			for (int id = 1; id <= n; id++) {
+				if (id != myId) {
+					sockets[id].setOption(StandardSocketOptions.TCP_NODELAY, true);
+					sockets[id].configureBlocking(false);
+					String key = this.conf.getParty(id).getSecretSharedKey();
+					this.links[id] = new Link(id, sockets[id], key == null ? null : Base64.decodeFromString(key),
+							myNonce, nonces[id]);
+				}
+			}
+		} catch (IOException e) {
+			for (SocketChannel socket : sockets) {
+				if (socket != null) {
+					socket.close();
+				}
+			}
+			throw e;
+		} finally {
+			if (server != null) {
+				server.close();
+			}
+		}
+		MetricsRegistry.getInstance(myId).startupPhaseDone("network.connect", System.nanoTime() - start);
+		for (Link link : this.links) {
+			if (link != null) {
+				Thread thread = new Thread(link, "NIO-" + myId + "-" + link.partyId);
+				thread.setDaemon(true);
+				link.thread = thread;
+				thread.start();
+			}
+		}
+		Reporter.fine("Party " + myId + " connected to " + (n - 1) + " parties using NIO");
+	}
+
+	private SocketChannel connectTo(Party party, long deadline) throws IOException {
+		InetSocketAddress address = new InetSocketAddress(party.getHostname(), party.getPort());
+		while (true) {
+			SocketChannel socket = SocketChannel.open();
+			try {
+				int remaining = (int) Math.max(1, deadline - System.currentTimeMillis());
+				socket.socket().connect(address, remaining);
+				return socket;
+			} catch (ConnectException e) {
+				socket.close();
+				if (System.currentTimeMillis() + CONNECT_RETRY_MILLIS > deadline) {
+					throw new IOException("Could not connect to party " + party.getPartyId() + " at " + address, e);
+				}
+				try {
+					Thread.sleep(CONNECT_RETRY_MILLIS);
+				} catch (InterruptedException ie) {
+					throw new IOException("Interrupted while connecting to party " + party.getPartyId(), ie);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Accepts the connections of the parties with higher ids. The hello of
+	 * each connection is read through the selector as well, so a connection
+	 * that never says who it is cannot hold up the others past the deadline.
+	 * A connection that closes before its hello, or claims to be a party
+	 * that is not expected, is dropped, and the parties are still waited for.
+	 */
+	private void acceptFrom(ServerSocketChannel server, SocketChannel[] sockets, byte[] myNonce, byte[][] nonces,
+			long deadline) throws IOException {
+		int myId = this.conf.getMyId();
+		int missing = this.conf.noOfParties() - myId;
+		server.configureBlocking(false);
+		Selector selector = Selector.open();
+		try {
+			server.register(selector, SelectionKey.OP_ACCEPT);
+			while (missing > 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					throw new IOException("Party " + myId + " timed out waiting for " + missing
+							+ " parties to connect");
+				}
+				selector.select(remaining);
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (key.isAcceptable()) {
+						SocketChannel socket;
+						while ((socket = server.accept()) != null) {
+							socket.configureBlocking(false);
+							socket.register(selector, SelectionKey.OP_READ,
+									ByteBuffer.allocate(4 + AesGcmCipher.CONNECTION_NONCE_SIZE));
+						}
+					} else if (key.isReadable() && readHello(key, sockets, myNonce, nonces)) {
+						missing--;
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+		} finally {
+			// Close the connections that are still waiting for their hello.
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() != null) {
+					key.channel().close();
+				}
+			}
+			selector.close();
+		}
+	}
+
+	/**
+	 * Reads what has arrived of the hello of an accepted connection, and
+	 * answers with the nonce of this party once it is complete.
+	 * 
+	 * @return true if the connection is now the one of the party it claims to
+	 *         be.
+	 */
+	private boolean readHello(SelectionKey key, SocketChannel[] sockets, byte[] myNonce, byte[][] nonces)
+			throws IOException {
+		SocketChannel socket = (SocketChannel) key.channel();
+		ByteBuffer hello = (ByteBuffer) key.attachment();
+		int read;
+		try {
+			read = socket.read(hello);
+		} catch (IOException e) {
+			drop(key, "it failed before the connecting party said who it is: " + e);
+			return false;
+		}
+		if (read < 0) {
+			drop(key, "it closed before the connecting party said who it is");
+			return false;
+		}
+		if (hello.hasRemaining()) {
+			return false;
+		}
+		hello.flip();
+		int id = hello.getInt();
+		if (id <= this.conf.getMyId() || id > this.conf.noOfParties() || sockets[id] != null) {
+			drop(key, "it claimed to be party " + id + ", which is not expected");
+			return false;
+		}
+		key.attach(null);
+		key.cancel();
+		// The answer fits in the send buffer of the new connection.
+		ByteBuffer answer = ByteBuffer.wrap(myNonce);
+		while (answer.hasRemaining()) {
+			socket.write(answer);
+		}
+		nonces[id] = new byte[AesGcmCipher.CONNECTION_NONCE_SIZE];
+		hello.get(nonces[id]);
+		sockets[id] = socket;
+		return true;
+	}
+
+	private void drop(SelectionKey key, String reason) throws IOException {
+		Reporter.warn("Party " + this.conf.getMyId() + " dropped an incoming connection from "
+				+ ((SocketChannel) key.channel()).socket().getRemoteSocketAddress() + ", since " + reason);
+		key.channel().close();
+	}
+
+	private Link link(int partyId) {
+		if (partyId < 1 || partyId >= this.links.length) {
+			throw new MPCException("No party with id " + partyId);
+		}
+		return this.links[partyId];
+	}
+
+	private BlockingQueue<Serializable> selfQueue(String channel) {
+		BlockingQueue<Serializable> queue = this.selfQueues.get(channel);
+		if (queue == null) {
+			queue = new LinkedBlockingQueue<Serializable>();
+			BlockingQueue<Serializable> existing = this.selfQueues.putIfAbsent(channel, queue);
+			if (existing != null) {
+				queue = existing;
+			}
+		}
+		return queue;
+	}
+
+	@Override
+	public void send(String channel, int partyId, Serializable data) throws IOException {
+		if (partyId == this.conf.getMyId()) {
+			selfQueue(channel).add(data);
+			return;
+		}
+		Link link = link(partyId);
+		long start = this.tracer.begin();
+		MessageOutputStream message = new MessageOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(message);
+		out.writeObject(data);
+		out.close();
+		link.enqueue(channel, message.toBuffer());
+		this.tracer.end(Tracer.SEND, start, partyId, channel);
+	}
+
+	/**
+	 * Serializes the data once, and queues the same buffer on the connections
+	 * to all other parties.
+	 */
+	@Override
+	public void broadcast(String channel, Serializable data) throws IOException {
+		MessageOutputStream message = new MessageOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(message);
+		out.writeObject(data);
+		out.close();
+		ByteBuffer buffer = message.toBuffer();
+		for (int partyId = 1; partyId < this.links.length; partyId++) {
+			if (partyId == this.conf.getMyId()) {
+				continue;
+			}
+			long start = this.tracer.begin();
+			// Each link reads the shared bytes through its own position.
+			this.links[partyId].enqueue(channel, buffer.duplicate());
+			this.tracer.end(Tracer.SEND, start, partyId, channel);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends Serializable> T receive(String channel, int partyId) throws IOException {
+		if (partyId == this.conf.getMyId()) {
+			Serializable res = selfQueue(channel).poll();
+			if (res == null) {
+				throw new MPCException("Self(" + partyId + ") have not send anything on channel " + channel
+						+ " before receive was called.");
+			}
+			return (T) res;
+		}
+		Link link = link(partyId);
+		long start = this.tracer.begin();
+		byte[] payload = link.take(channel);
+		this.tracer.end(Tracer.RECEIVE, start, partyId, channel);
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload));
+		try {
+			return (T) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new MPCException("Received an object of an unknown class from party " + partyId, e);
+		}
+	}
+
+	/**
+	 * Sends what is already queued and closes the connections to the other
+	 * parties.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.links == null) {
+			return;
+		}
+		for (Link link : this.links) {
+			if (link != null) {
+				link.close();
+			}
+		}
+	}
+
+	/**
+	 * Gives access to the serialized message without copying it.
+	 */
+	private static class MessageOutputStream extends ByteArrayOutputStream {
+
+		MessageOutputStream() {
+			super(256);
+		}
+
+		ByteBuffer toBuffer() {
+			return ByteBuffer.wrap(this.buf, 0, this.count);
+		}
+	}
+
+	/**
+	 * A channel we send on to one party.
+	 */
+	private static class OutChannel {
+
+		final int id;
+		final byte[] name;
+		final ConcurrentLinkedQueue<ByteBuffer> queue = new ConcurrentLinkedQueue<ByteBuffer>();
+		// Null if the messages are not encrypted.
+		final AesGcmCipher cipher;
+
+		// Only used by the selector thread: the message being written, its
+		// size, and whether its START frame has been written.
+		ByteBuffer current;
+		int currentSize;
+		boolean started;
+
+		OutChannel(int id, byte[] name, AesGcmCipher cipher) {
+			this.id = id;
+			this.name = name;
+			this.cipher = cipher;
+		}
+	}
+
+	/**
+	 * The received messages of a channel.
+	 */
+	private static class Inbox {
+
+		final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+		// Null if the messages are not encrypted.
+		final AesGcmCipher cipher;
+
+		Inbox(AesGcmCipher cipher) {
+			this.cipher = cipher;
+		}
+	}
+
+	/**
+	 * A channel the other party sends on. Only used by the selector thread.
+	 */
+	private static class InChannel {
+
+		final BlockingQueue<byte[]> inbox;
+
+		// The message being received, its length and how much of it has been
+		// received. The payload only holds what has been received so far.
+		byte[] payload;
+		int length;
+		int received;
+
+		InChannel(BlockingQueue<byte[]> inbox) {
+			this.inbox = inbox;
+		}
+	}
+
+	/**
+	 * The connection to one other party and the thread serving it.
+	 */
+	private class Link implements Runnable {
+
+		final int partyId;
+		final SocketChannel socket;
+		final Selector selector;
+		final SelectionKey key;
+		Thread thread;
+
+		// The key shared with the party, or null if messages are not
+		// encrypted, and the nonces the parties sent when connecting.
+		final byte[] sharedKey;
+		final byte[] myNonce;
+		final byte[] nonce;
+
+		// The channels we send on by name, the channels not yet seen by the
+		// selector thread, and whether the selector thread has been woken up
+		// to write.
+		final ConcurrentHashMap<String, OutChannel> outChannels;
+		final ConcurrentLinkedQueue<OutChannel> newOutChannels = new ConcurrentLinkedQueue<OutChannel>();
+		final AtomicBoolean wakeupPending = new AtomicBoolean();
+		final SendBudget budget = new SendBudget(SendBudget.DEFAULT_CAPACITY);
+
+		// Only used by the selector thread: the channels in the order they
+		// take turns, how many of them have been announced, and whose turn it
+		// is.
+		final List<OutChannel> writeOrder = new ArrayList<OutChannel>();
+		int announced;
+		int turn;
+		final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		// Received messages by channel name. Inboxes made after the connection
+		// is closed start out closed.
+		final ConcurrentHashMap<String, Inbox> inboxes;
+		boolean inboxesClosed;
+
+		// Only used by the selector thread: the channels opened by the other
+		// party by id, and the channel and size of the chunk being read.
+		final List<InChannel> inChannels = new ArrayList<InChannel>();
+		final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		InChannel reading;
+		int chunkRemaining;
+
+		volatile boolean closing;
+		volatile IOException failure;
+
+		Link(int partyId, SocketChannel socket, byte[] sharedKey, byte[] myNonce, byte[] nonce) throws IOException {
+			this.partyId = partyId;
+			this.socket = socket;
+			this.sharedKey = sharedKey;
+			this.myNonce = myNonce;
+			this.nonce = nonce;
+			this.selector = Selector.open();
+			this.key = socket.register(this.selector, SelectionKey.OP_READ);
+			this.outChannels = new ConcurrentHashMap<String, OutChannel>(channelAmount);
+			this.inboxes = new ConcurrentHashMap<String, Inbox>(channelAmount);
+		}
+
+		void enqueue(String channel, ByteBuffer message) throws IOException {
+			if (this.failure != null) {
+				throw new IOException("The connection to party " + this.partyId + " has failed", this.failure);
+			}
+			if (this.closing) {
+				throw new IOException("The connection to party " + this.partyId + " is closed");
+			}
+			OutChannel out = outChannel(channel);
+			if (out.cipher == null) {
+				this.budget.acquire(message.remaining());
+				out.queue.add(message);
+			} else {
+				// Messages must be queued in the order of their sequence
+				// numbers.
+				synchronized (out) {
+					byte[] sealed = out.cipher.seal(message.array(), message.arrayOffset() + message.position(),
+							message.remaining());
+					this.budget.acquire(sealed.length);
+					out.queue.add(ByteBuffer.wrap(sealed));
+				}
+			}
+			if (this.wakeupPending.compareAndSet(false, true)) {
+				this.selector.wakeup();
+			}
+		}
+
+		private OutChannel outChannel(String channel) {
+			OutChannel out = this.outChannels.get(channel);
+			if (out == null) {
+				byte[] name = channel.getBytes(StandardCharsets.UTF_8);
+				if (name.length > MAX_CHANNEL_NAME_SIZE) {
+					throw new MPCException("Channel name is longer than " + MAX_CHANNEL_NAME_SIZE + " bytes: " + channel);
+				}
+				// Ids must reach the selector thread in order.
+				synchronized (this.outChannels) {
+					out = this.outChannels.get(channel);
+					if (out == null) {
+						AesGcmCipher cipher = this.sharedKey == null ? null
+								: new AesGcmCipher(this.sharedKey, conf.getMyId(), this.partyId, channel, this.myNonce,
+										this.nonce);
+						out = new OutChannel(this.outChannels.size(), name, cipher);
+						this.outChannels.put(channel, out);
+						this.newOutChannels.add(out);
+					}
+				}
+			}
+			return out;
+		}
+
+		byte[] take(String channel) throws IOException {
+			Inbox inbox = inbox(channel);
+			// Messages must be opened in the order they were received.
+			synchronized (inbox) {
+				byte[] payload;
+				try {
+					payload = inbox.queue.take();
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while receiving from party " + this.partyId, e);
+				}
+				if (payload == CLOSED) {
+					// Leave it for other receivers on the channel.
+					inbox.queue.add(CLOSED);
+					if (this.failure != null) {
+						throw new IOException("The connection to party " + this.partyId + " has failed", this.failure);
+					}
+					throw new EOFException("The connection to party " + this.partyId + " is closed");
+				}
+				if (inbox.cipher != null) {
+					try {
+						payload = inbox.cipher.open(payload);
+					} catch (IOException e) {
+						throw new IOException("Could not open message from party " + this.partyId + " on channel "
+								+ channel, e);
+					}
+				}
+				return payload;
+			}
+		}
+
+		private Inbox inbox(String channel) {
+			Inbox inbox = this.inboxes.get(channel);
+			if (inbox == null) {
+				synchronized (this.inboxes) {
+					inbox = this.inboxes.get(channel);
+					if (inbox == null) {
+						inbox = new Inbox(this.sharedKey == null ? null
+								: new AesGcmCipher(this.sharedKey, this.partyId, conf.getMyId(), channel, this.nonce,
+										this.myNonce));
+						if (this.inboxesClosed) {
+							inbox.queue.add(CLOSED);
+						}
+						this.inboxes.put(channel, inbox);
+					}
+				}
+			}
+			return inbox;
+		}
+
+		private void closeInboxes() {
+			synchronized (this.inboxes) {
+				this.inboxesClosed = true;
+				for (Inbox inbox : this.inboxes.values()) {
+					inbox.queue.add(CLOSED);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!this.closing) {
+					this.selector.select();
+					this.selector.selectedKeys().clear();
+					if (this.key.isValid() && this.key.isReadable()) {
+						read();
+					}
+					this.wakeupPending.set(false);
+					write();
+				}
+				// Deliver what was sent before close(). Keep reading meanwhile,
+				// since the other party may be flushing towards us too.
+				while (!write()) {
+					this.selector.select();
+					this.selector.selectedKeys().clear();
+					if (this.key.isValid() && this.key.isReadable()) {
+						read();
+					}
+				}
+				this.socket.shutdownOutput();
+			} catch (IOException e) {
+				if (!this.closing) {
+					this.failure = e;
+					Reporter.warn("The connection to party " + this.partyId + " failed: " + e.getMessage());
+				}
+			} finally {
+				closeInboxes();
+				this.budget.fail(this.failure != null ? this.failure
+						: new IOException("The connection to party " + this.partyId + " is closed"));
+			}
+		}
+
+		/**
+		 * Reads what is available and puts the completed messages in the
+		 * inboxes.
+		 */
+		private void read() throws IOException {
+			int read;
+			while ((read = this.socket.read(this.readBuffer)) > 0) {
+				this.readBuffer.flip();
+				while (readFrame()) {
+					// Continue until more must be read.
+				}
+				this.readBuffer.compact();
+			}
+			if (read < 0) {
+				// The other party closed its end. Any receive after the
+				// messages already delivered fails.
+				this.key.interestOps(this.key.interestOps() & ~SelectionKey.OP_READ);
+				closeInboxes();
+			}
+		}
+
+		/**
+		 * Consumes a frame header or the chunk following it from the read
+		 * buffer.
+		 * 
+		 * @return false if more must be read to continue.
+		 */
+		private boolean readFrame() throws IOException {
+			if (this.reading != null) {
+				int n = Math.min(this.readBuffer.remaining(), this.chunkRemaining);
+				if (n == 0) {
+					return false;
+				}
+				InChannel in = this.reading;
+				if (in.payload.length < in.received + n) {
+					// Grow by doubling up to the length of the message.
+					in.payload = Arrays.copyOf(in.payload,
+							Math.min(in.length, Math.max(in.received + n, 2 * in.payload.length)));
+				}
+				this.readBuffer.get(in.payload, in.received, n);
+				in.received += n;
+				this.chunkRemaining -= n;
+				if (this.chunkRemaining == 0) {
+					this.reading = null;
+					if (in.received == in.length) {
+						in.inbox.add(in.payload);
+						in.payload = null;
+					}
+				}
+				return true;
+			}
+			if (this.readBuffer.remaining() < HEADER_SIZE) {
+				return false;
+			}
+			int pos = this.readBuffer.position();
+			byte type = this.readBuffer.get(pos);
+			int channel = this.readBuffer.getInt(pos + 1);
+			int length = this.readBuffer.getInt(pos + 5);
+			if (length < 0) {
+				throw malformed();
+			}
+			InChannel in;
+			switch (type) {
+			case OPEN:
+				if (channel != this.inChannels.size() || length > MAX_CHANNEL_NAME_SIZE) {
+					throw malformed();
+				}
+				if (this.readBuffer.remaining() < HEADER_SIZE + length) {
+					return false;
+				}
+				this.readBuffer.position(pos + HEADER_SIZE);
+				byte[] name = new byte[length];
+				this.readBuffer.get(name);
+				this.inChannels.add(new InChannel(inbox(new String(name, StandardCharsets.UTF_8)).queue));
+				return true;
+			case START:
+				in = inChannel(channel);
+				if (in.payload != null || length > maxMessageSize) {
+					throw malformed();
+				}
+				this.readBuffer.position(pos + HEADER_SIZE);
+				if (length == 0) {
+					in.inbox.add(new byte[0]);
+					return true;
+				}
+				this.chunkRemaining = Math.min(length, CHUNK_SIZE);
+				in.payload = new byte[this.chunkRemaining];
+				in.length = length;
+				in.received = 0;
+				this.reading = in;
+				return true;
+			case MORE:
+				in = inChannel(channel);
+				if (in.payload == null || length == 0 || length > in.length - in.received) {
+					throw malformed();
+				}
+				this.readBuffer.position(pos + HEADER_SIZE);
+				this.reading = in;
+				this.chunkRemaining = length;
+				return true;
+			default:
+				throw malformed();
+			}
+		}
+
+		private InChannel inChannel(int channel) throws IOException {
+			if (channel < 0 || channel >= this.inChannels.size()) {
+				throw malformed();
+			}
+			return this.inChannels.get(channel);
+		}
+
+		private IOException malformed() {
+			return new IOException("Received a malformed frame from party " + this.partyId);
+		}
+
+		/**
+		 * Fills the direct write buffer with queued chunks and writes as much
+		 * as the socket takes. Asks to be woken up when the socket can take
+		 * more.
+		 * 
+		 * @return true if everything queued was written.
+		 */
+		private boolean write() throws IOException {
+			OutChannel added;
+			while ((added = this.newOutChannels.poll()) != null) {
+				this.writeOrder.add(added);
+			}
+			while (true) {
+				fill();
+				this.writeBuffer.flip();
+				if (!this.writeBuffer.hasRemaining()) {
+					this.writeBuffer.clear();
+					setWriteInterest(false);
+					return true;
+				}
+				this.socket.write(this.writeBuffer);
+				boolean partial = this.writeBuffer.hasRemaining();
+				this.writeBuffer.compact();
+				if (partial) {
+					setWriteInterest(true);
+					return false;
+				}
+			}
+		}
+
+		/**
+		 * Announces new channels, and then lets the channels with queued
+		 * messages take turns putting one chunk in the write buffer, until the
+		 * buffer is full or nothing more is queued.
+		 */
+		private void fill() {
+			while (this.announced < this.writeOrder.size()) {
+				OutChannel out = this.writeOrder.get(this.announced);
+				if (this.writeBuffer.remaining() < HEADER_SIZE + out.name.length) {
+					return;
+				}
+				putHeader(OPEN, out.id, out.name.length);
+				this.writeBuffer.put(out.name);
+				this.announced++;
+			}
+			int idle = 0;
+			while (idle < this.writeOrder.size()) {
+				OutChannel out = this.writeOrder.get(this.turn);
+				if (out.current == null) {
+					out.current = out.queue.poll();
+					if (out.current != null) {
+						out.currentSize = out.current.remaining();
+					}
+				}
+				if (out.current == null) {
+					idle++;
+					this.turn = (this.turn + 1) % this.writeOrder.size();
+					continue;
+				}
+				ByteBuffer message = out.current;
+				int n = Math.min(message.remaining(), CHUNK_SIZE);
+				if (this.writeBuffer.remaining() < HEADER_SIZE + n) {
+					return;
+				}
+				if (out.started) {
+					putHeader(MORE, out.id, n);
+				} else {
+					putHeader(START, out.id, message.remaining());
+					out.started = true;
+				}
+				int limit = message.limit();
+				message.limit(message.position() + n);
+				this.writeBuffer.put(message);
+				message.limit(limit);
+				if (!message.hasRemaining()) {
+					out.current = null;
+					out.started = false;
+					this.budget.release(out.currentSize);
+				}
+				idle = 0;
+				this.turn = (this.turn + 1) % this.writeOrder.size();
+			}
+		}
+
+		private void putHeader(byte type, int channel, int length) {
+			this.writeBuffer.put(type);
+			this.writeBuffer.putInt(channel);
+			this.writeBuffer.putInt(length);
+		}
+
+		private void setWriteInterest(boolean write) {
+			int ops = this.key.interestOps();
+			int wanted = write ? (ops | SelectionKey.OP_WRITE) : (ops & ~SelectionKey.OP_WRITE);
+			if (ops != wanted) {
+				this.key.interestOps(wanted);
+			}
+		}
+
+		void close() throws IOException {
+			this.closing = true;
+			this.selector.wakeup();
+			try {
+				this.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.selector.close();
+			this.socket.close();
+		}
+	}
+}
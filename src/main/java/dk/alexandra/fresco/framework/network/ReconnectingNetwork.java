@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+
+/**
+ * Network that connects in the background, and that can replace a failed
+ * connection with a new one without its users noticing.
+ * 
+ * {@link #connectAsync(int)} starts connecting and returns at once, so other
+ * setup can run meanwhile. Sending and receiving wait until the connection is
+ * established.
+ * 
+ * Messages in transit when a connection fails are lost, so the computation
+ * running at the time fails. After that, {@link #reconnect(int)} makes the
+ * network usable for the next computation. All parties must reconnect.
+ */
+public class ReconnectingNetwork implements Network {
+
+	private final NetworkStrategy strategy;
+	private final NetworkConfiguration conf;
+	private final int channelAmount;
+	private final SecureChannelStrategy secureChannel;
+	private final int maxMessageSize;
+
+	// The connection being established or established, if any.
+	private volatile FutureTask<Network> connection;
+	private volatile boolean failed;
+
+	/**
+	 * @param strategy
+	 *            the kind of network to connect with.
+	 * @param conf
+	 *            the parties to connect to.
+	 * @param channelAmount
+	 *            the amount of channels each party needs to each other.
+	 * @param secureChannel
+	 *            how to secure the channels to parties with a shared secret
+	 *            key.
+	 */
+	public ReconnectingNetwork(NetworkStrategy strategy, NetworkConfiguration conf, int channelAmount,
+			SecureChannelStrategy secureChannel) {
+		this(strategy, conf, channelAmount, secureChannel, NioNetworkImpl.DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
+	/**
+	 * @param strategy
+	 *            the kind of network to connect with.
+	 * @param conf
+	 *            the parties to connect to.
+	 * @param channelAmount
+	 *            the amount of channels each party needs to each other.
+	 * @param secureChannel
+	 *            how to secure the channels to parties with a shared secret
+	 *            key.
+	 * @param maxMessageSize
+	 *            the maximum length in bytes of a message received, for the
+	 *            networks that limit it.
+	 */
+	public ReconnectingNetwork(NetworkStrategy strategy, NetworkConfiguration conf, int channelAmount,
+			SecureChannelStrategy secureChannel, int maxMessageSize) {
+		this.strategy = strategy;
+		this.conf = conf;
+		this.channelAmount = channelAmount;
+		this.secureChannel = secureChannel;
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * Starts connecting on a thread of its own, unless already connecting or
+	 * connected.
+	 */
+	public synchronized void connectAsync(final int timeoutMillis) {
+		if (this.connection != null) {
+			return;
+		}
+		this.failed = false;
+		FutureTask<Network> connection = new FutureTask<Network>(new Callable<Network>() {
+			@Override
+			public Network call() throws IOException {
+				long start = System.nanoTime();
+				Network network = NetworkStrategy.fromEnum(strategy, conf, channelAmount, secureChannel,
+						maxMessageSize);
+				network.connect(timeoutMillis);
+				MetricsRegistry.getInstance(conf.getMyId()).startupPhaseDone("network", System.nanoTime() - start);
+				return network;
+			}
+		});
+		Thread connector = new Thread(connection, "fresco-connect-" + this.conf.getMyId());
+		connector.setDaemon(true);
+		connector.start();
+		this.connection = connection;
+	}
+
+	/**
+	 * Connects, or waits for the connection started by connectAsync().
+	 */
+	@Override
+	public void connect(int timeoutMillis) throws IOException {
+		connectAsync(timeoutMillis);
+		network();
+	}
+
+	/**
+	 * Closes the current connection, if any, and connects anew.
+	 */
+	public synchronized void reconnect(int timeoutMillis) throws IOException {
+		Reporter.info("Party " + this.conf.getMyId() + " reconnects to the other parties");
+		try {
+			close();
+		} catch (IOException e) {
+			Reporter.fine("Closing the failed connection failed: " + e.getMessage());
+		}
+		connect(timeoutMillis);
+	}
+
+	/**
+	 * @return true if sending or receiving failed since the network was last
+	 *         connected.
+	 */
+	public boolean isFailed() {
+		return this.failed;
+	}
+
+	@Override
+	public void send(String channel, int partyId, Serializable data) throws IOException {
+		try {
+			network().send(channel, partyId, data);
+		} catch (IOException e) {
+			this.failed = true;
+			throw e;
+		}
+	}
+
+	@Override
+	public void broadcast(String channel, Serializable data) throws IOException {
+		try {
+			network().broadcast(channel, data);
+		} catch (IOException e) {
+			this.failed = true;
+			throw e;
+		}
+	}
+
+	@Override
+	public <T extends Serializable> T receive(String channel, int partyId) throws IOException {
+		try {
+			return network().receive(channel, partyId);
+		} catch (IOException e) {
+			this.failed = true;
+			throw e;
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		FutureTask<Network> connection = this.connection;
+		if (connection == null) {
+			return;
+		}
+		this.connection = null;
+		Network network;
+		try {
+			network = await(connection);
+		} catch (IOException e) {
+			// Nothing to close.
+			return;
+		}
+		network.close();
+	}
+
+	/**
+	 * Returns the connected network, waiting for it if it is being connected.
+	 */
+	private Network network() throws IOException {
+		FutureTask<Network> connection = this.connection;
+		if (connection == null) {
+			throw new IOException("The network of party " + this.conf.getMyId() + " is not connected");
+		}
+		return await(connection);
+	}
+
+	private Network await(FutureTask<Network> connection) throws IOException {
+		try {
+			return connection.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while connecting");
+		} catch (ExecutionException e) {
+			this.failed = true;
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw new IOException("Could not connect: " + cause.getMessage(), cause);
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ReconnectingNetwork [" + this.strategy + ", myId=" + this.conf.getMyId() + "]";
+	}
+}
@@ -27,30 +27,57 @@
 package dk.alexandra.fresco.framework.network;
 
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
-import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
 
+/**
+ * Keeps the inputs and outputs of a protocol in queues indexed by party id.
+ * The queues are allocated once and reused in every round, so evaluating a
+ * round does not create garbage apart from the messages themselves.
+ * 
+ * Messages to this party never leave the SCENetwork: when the round ends the
+ * queue of output to this party becomes its input queue for the next round,
+ * so they are neither copied, serialized nor limited by any network buffer.
+ */
 public class SCENetworkImpl implements SCENetwork, SCENetworkSupplier {
 
+	private final Queue<Serializable> noOutput = new ArrayDeque<Serializable>(0);
+
 	private int noOfParties;
+	private int myId;
 	//TODO: Remove when possible - also from interface.
 	private int threadId;
 	
-	private Map<Integer, Queue<Serializable>> input;
-	private Map<Integer, Queue<Serializable>> output;
-	private Set<Integer> expectedInputForNextRound;		
+	private MessageQueue[] input;
+	private MessageQueue[] output;
+	private boolean[] inputAddedThisRound;
+	private boolean[] expectedInputForNextRound;		
+	private boolean outputIsBroadcast = true;
 	
-	public SCENetworkImpl(int noOfParties, int threadId) {
+	/**
+	 * A queue of messages. Lets the queues of all parties be kept in an array
+	 * without an unchecked generic array.
+	 */
+	private static class MessageQueue extends ArrayDeque<Serializable> {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	public SCENetworkImpl(int noOfParties, int myId, int threadId) {
 		this.noOfParties = noOfParties;
+		this.myId = myId;
 		this.threadId = threadId;
-		this.output = new HashMap<Integer, Queue<Serializable>>();
-		this.expectedInputForNextRound = new HashSet<Integer>();
+		// Index 0 is unused since party ids start from 1.
+		this.input = new MessageQueue[noOfParties + 1];
+		this.output = new MessageQueue[noOfParties + 1];
+		for (int i = 1; i <= noOfParties; i++) {
+			this.input[i] = new MessageQueue();
+			this.output[i] = new MessageQueue();
+		}
+		this.inputAddedThisRound = new boolean[noOfParties + 1];
+		this.expectedInputForNextRound = new boolean[noOfParties + 1];
 	}
 	
 	//ProtocolNetwork
@@ -58,15 +85,15 @@ public class SCENetworkImpl implements SCENetwork, SCENetworkSupplier {
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends Serializable> T receive(int id) {
-		return (T) this.input.get(id).poll();
+		return (T) this.input[id].poll();
 	}
 	
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T extends Serializable> List<T> receiveFromAll() {
-		List<T> res = new ArrayList<T>();
+		List<T> res = new ArrayList<T>(noOfParties);
 		for(int i = 1; i <= noOfParties; i++) {
-			res.add((T) this.input.get(i).poll()); 
+			res.add((T) this.input[i].poll()); 
 		}
 		return res;
 	}
@@ -76,26 +103,23 @@ public class SCENetworkImpl implements SCENetwork, SCENetworkSupplier {
 		if(id < 1) {
 			throw new IllegalArgumentException("Cannot send to an Id smaller than 1");
 		}
-		Queue<Serializable> q = this.output.get(id);
-		if(q == null) {
-			q = new LinkedBlockingQueue<Serializable>();
-			this.output.put(id, q);
-		}
-		q.offer(o);
+		this.output[id].offer(o);
+		this.outputIsBroadcast = false;
 	}
 	
 	@Override
 	public void sendToAll(Serializable o) {
 		for(int i = 1; i <= noOfParties; i++) {
-			send(i, o);
+			this.output[i].offer(o);
 		}
 	}
 	
 	@Override
 	public void sendSharesToAll(Serializable[] o) {
 		for(int i = 1; i <= noOfParties; i++) {
-			send(i, o[i-1]);
+			this.output[i].offer(o[i-1]);
 		}
+		this.outputIsBroadcast = false;
 	}
 	
 	@Override
@@ -103,12 +127,12 @@ public class SCENetworkImpl implements SCENetwork, SCENetworkSupplier {
 		if(id < 1) {
 			throw new IllegalArgumentException("Cannot send to an Id smaller than 1");
 		}
-		this.expectedInputForNextRound.add(id);
+		this.expectedInputForNextRound[id] = true;
 	}
 	@Override
 	public void expectInputFromAll() {
 		for(int i = 1; i <= noOfParties; i++) {
-			this.expectedInputForNextRound.add(i);
+			this.expectedInputForNextRound[i] = true;
 		}
 	}
 
@@ -120,23 +144,86 @@ public class SCENetworkImpl implements SCENetwork, SCENetworkSupplier {
 	//ProtocolNetworkSupplier
 	
 	@Override
-	public void setInput(Map<Integer, Queue<Serializable>> inputForThisRound) {
-		this.input = inputForThisRound;
+	public void addInput(int id, Serializable message) {
+		prepareInput(id).offer(message);
+	}
+
+	@Override
+	public void addInputs(int id, Serializable[] messages) {
+		MessageQueue q = prepareInput(id);
+		for (Serializable message : messages) {
+			q.offer(message);
+		}
+	}
+
+	/**
+	 * Drops what is left of the previous input from the given party the first
+	 * time input from it is added in this round.
+	 */
+	private MessageQueue prepareInput(int id) {
+		MessageQueue q = this.input[id];
+		if (!this.inputAddedThisRound[id]) {
+			q.clear();
+			this.inputAddedThisRound[id] = true;
+		}
+		return q;
+	}
+
+	@Override
+	public Queue<Serializable> getOutputFromThisRound(int id) {
+		if (id == this.myId) {
+			return this.noOutput;
+		}
+		return this.output[id];
 	}
 
 	@Override
-	public Map<Integer, Queue<Serializable>> getOutputFromThisRound() {
-		return this.output;
+	public Queue<Serializable> getBroadcastOutput() {
+		if (this.noOfParties == 1) {
+			return this.noOutput;
+		}
+		return this.output[this.myId == 1 ? 2 : 1];
 	}
 
 	@Override
-	public Set<Integer> getExpectedInputForNextRound() {
-		return this.expectedInputForNextRound;
+	public boolean isOutputBroadcast() {
+		return this.outputIsBroadcast;
+	}
+
+	@Override
+	public boolean isInputExpectedForNextRound(int id) {
+		return id != this.myId && this.expectedInputForNextRound[id];
 	}
 
 	@Override
 	public void nextRound() {
-		this.output.clear();
-		this.expectedInputForNextRound.clear();
+		deliverToSelf();
+		for (int i = 1; i <= noOfParties; i++) {
+			if (!this.inputAddedThisRound[i]) {
+				this.input[i].clear();
+			}
+			this.inputAddedThisRound[i] = false;
+			this.output[i].clear();
+			this.expectedInputForNextRound[i] = false;
+		}
+		this.outputIsBroadcast = true;
+	}
+
+	/**
+	 * Makes the output to this party its input of the next round by swapping
+	 * the two queues.
+	 */
+	private void deliverToSelf() {
+		MessageQueue own = this.output[this.myId];
+		if (own.isEmpty()) {
+			return;
+		}
+		if (this.inputAddedThisRound[this.myId]) {
+			this.input[this.myId].addAll(own);
+		} else {
+			this.output[this.myId] = this.input[this.myId];
+			this.input[this.myId] = own;
+			this.inputAddedThisRound[this.myId] = true;
+		}
 	}
 }
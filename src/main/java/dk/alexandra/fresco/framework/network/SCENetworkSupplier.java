@@ -27,9 +27,7 @@
 package dk.alexandra.fresco.framework.network;
 
 import java.io.Serializable;
-import java.util.Map;
 import java.util.Queue;
-import java.util.Set;
 
 /**
  * Supplies the higher level layer with the outputs that the protocol queued up
@@ -37,20 +35,76 @@ import java.util.Set;
  * only need to know about the methods contained within that interface.
  * Typically, a class implementing that interface, also implements this.
  * 
+ * The queues are indexed by party id and reused from round to round, so the
+ * higher layer must not keep references to them across calls to nextRound().
+ * 
+ * Messages to this party are delivered within the SCENetwork by nextRound(),
+ * so the higher layer sees neither output to nor expected input from this
+ * party, and must not send them through the {@link Network}.
+ * 
  * @author Kasper Damgaard
  *
  */
 public interface SCENetworkSupplier {
 
-	public void setInput(Map<Integer, Queue<Serializable>> inputForThisRound);
-	
-	public Map<Integer, Queue<Serializable>> getOutputFromThisRound();
+	/**
+	 * Adds a message received from the given party to the input of the next
+	 * round.
+	 * 
+	 * @param id
+	 *            The id of the sender. Id's start from 1.
+	 * @param message
+	 *            The message.
+	 */
+	public void addInput(int id, Serializable message);
+
+	/**
+	 * Adds messages received from the given party to the input of the next
+	 * round.
+	 * 
+	 * @param id
+	 *            The id of the sender. Id's start from 1.
+	 * @param messages
+	 *            The messages, in the order they were sent.
+	 */
+	public void addInputs(int id, Serializable[] messages);
+
+	/**
+	 * Returns the messages queued up for the given party in this round.
+	 * 
+	 * @param id
+	 *            The id of the receiver. Id's start from 1.
+	 * @return the queued messages, empty if nothing should be sent or the id
+	 *         is that of this party.
+	 */
+	public Queue<Serializable> getOutputFromThisRound(int id);
+
+	/**
+	 * Returns the messages of this round when the output is a broadcast, see
+	 * {@link #isOutputBroadcast()}.
+	 * 
+	 * @return the messages queued up for every other party, empty if there
+	 *         are none.
+	 */
+	public Queue<Serializable> getBroadcastOutput();
 
-	public Set<Integer> getExpectedInputForNextRound();
+	/**
+	 * @return true if all output of this round was added by sendToAll, so the
+	 *         output to every party is the same.
+	 */
+	public boolean isOutputBroadcast();
+
+	/**
+	 * @param id
+	 *            The id of a party. Id's start from 1.
+	 * @return true if input from the given party is expected before the next
+	 *         round. Always false for this party.
+	 */
+	public boolean isInputExpectedForNextRound(int id);
 
 	/**
-	 * Clears the internal maps to ensure that the returned values next round is
-	 * correct.
+	 * Clears the outputs and expected inputs of this round, and makes the
+	 * inputs added since the last call the inputs of the next round.
 	 */
 	public void nextRound();
 }
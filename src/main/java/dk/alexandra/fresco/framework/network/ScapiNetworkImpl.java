@@ -27,17 +27,25 @@
 package dk.alexandra.fresco.framework.network;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
+import java.math.BigInteger;
 import java.net.InetAddress;
 import java.security.InvalidKeyException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeoutException;
 
 import javax.crypto.SecretKey;
@@ -47,6 +55,8 @@ import dk.alexandra.fresco.framework.MPCException;
 import dk.alexandra.fresco.framework.Party;
 import dk.alexandra.fresco.framework.Reporter;
 import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+import dk.alexandra.fresco.framework.sce.metrics.Tracer;
 import dk.alexandra.fresco.framework.util.Base64;
 import edu.biu.scapi.comm.AuthenticatedChannel;
 import edu.biu.scapi.comm.Channel;
@@ -67,7 +77,11 @@ import edu.biu.scapi.primitives.prf.bc.BcAES;
 /**
  * Network based on SCAPI network layer.
  *
- * For now it only uses non-encrypted socket-based communication.
+ * Sending is asynchronous: each other party has a writer thread sending the
+ * messages queued for it, in order, so send() only waits when more than
+ * {@link SendBudget#DEFAULT_CAPACITY} bytes are queued for the party. Parties
+ * sending large amounts to each other at once thus do not deadlock on the TCP
+ * buffers unless both exceed that budget.
  *
  */
 public class ScapiNetworkImpl implements Network {
@@ -84,39 +98,81 @@ public class ScapiNetworkImpl implements Network {
 	private Map<PartyData, Map<String, Channel>> connections;
 	private Map<Integer, PartyData> idToPartyData;
 	private int channelAmount;
+	private SecureChannelStrategy secureChannelStrategy;
 
 	//Queue for self-sending
 	private Map<String, BlockingQueue<Serializable>> queues;
 
+	// Indexed by party id, null for this party.
+	private PeerWriter[] writers;
+
+	private Tracer tracer;
+
 	/**
 	 * 
 	 * @param conf - The configuration with info about whom to connect to.
 	 * @param channelAmount The amount of channels each player needs to each other.
 	 */
 	public ScapiNetworkImpl(NetworkConfiguration conf, int channelAmount) {
+		this(conf, channelAmount, SecureChannelStrategy.ENC_THEN_MAC);
+	}
+
+	/**
+	 * 
+	 * @param conf - The configuration with info about whom to connect to.
+	 * @param channelAmount The amount of channels each player needs to each other.
+	 * @param secureChannelStrategy How to secure the channels to parties with a shared secret key.
+	 */
+	public ScapiNetworkImpl(NetworkConfiguration conf, int channelAmount,
+			SecureChannelStrategy secureChannelStrategy) {
 		this.channelAmount = channelAmount;
 		this.conf = conf;
+		this.secureChannelStrategy = secureChannelStrategy;
 	}
 
 	//TODO: Include player to integer map to indicate 
 	//how many channels are wanted to each player.
 	//Implement this also for send to self queues.
 	public void connect(int timeoutMillis) throws IOException {
+		// Host names are resolved and channels secured in parallel, since
+		// each may take a while.
+		ExecutorService executor = Executors.newFixedThreadPool(conf.noOfParties());
+		try {
+			connect(timeoutMillis, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private void connect(int timeoutMillis, ExecutorService executor) throws IOException {
 		// Convert FRESCO configuration to SCAPI configuration.
 		parties = new LinkedList<PartyData>();
 		idToPartyData = new HashMap<Integer, PartyData>();
 		List<String> sharedSecretKeys = new LinkedList<String>();
+		this.tracer = Tracer.getInstance(conf.getMyId());
+		MetricsRegistry metrics = MetricsRegistry.getInstance(conf.getMyId());
 		System.out.println(conf);
+		long start = System.nanoTime();
+		List<Future<InetAddress>> addresses = new ArrayList<Future<InetAddress>>(conf.noOfParties());
+		for (int id = 1; id <= conf.noOfParties(); id++) {
+			final String hostname = conf.getParty(id).getHostname();
+			addresses.add(executor.submit(new Callable<InetAddress>() {
+				@Override
+				public InetAddress call() throws IOException {
+					return InetAddress.getByName(hostname);
+				}
+			}));
+		}
 		for (int id = 1; id <= conf.noOfParties(); id++) {
 			Party frescoParty = conf.getParty(id);
-			String iadrStr = frescoParty.getHostname();
-			InetAddress iadr = InetAddress.getByName(iadrStr);
+			InetAddress iadr = get(addresses.get(id - 1));
 			int port = frescoParty.getPort();
 			SocketPartyData scapyParty = new SocketPartyData(iadr, port);
 			parties.add(scapyParty);
 			sharedSecretKeys.add(frescoParty.getSecretSharedKey());
 			idToPartyData.put(id, scapyParty);
 		}
+		metrics.startupPhaseDone("network.resolve", System.nanoTime() - start);
 		// SCAPI requires party itself to be first in list.
 		Collections.swap(parties, 0, conf.getMyId() - 1);
 		Collections.swap(sharedSecretKeys, 0, conf.getMyId() - 1);
@@ -135,41 +191,93 @@ public class ScapiNetworkImpl implements Network {
 		}
 
 		for(int i = 0; i < this.channelAmount; i++) {
-			//TODO: figure out correct number for capacity.
-			this.queues.put(""+i, new ArrayBlockingQueue<Serializable>(10000));
+			// Unbounded, since a batch may send any number of messages to self.
+			this.queues.put(""+i, new LinkedBlockingQueue<Serializable>());
 		}
 
+		start = System.nanoTime();
 		try {
 			connections = commSetup.prepareForCommunication(connectionsPerParty, timeoutMillis);
 		} catch (TimeoutException e) {
 			throw new IOException(e);
 		}
+		metrics.startupPhaseDone("network.connect", System.nanoTime() - start);
 		
 		// Enable secure (auth + encrypted) channels if a key is specified.
+		start = System.nanoTime();
+		List<Future<?>> secured = new ArrayList<Future<?>>();
 		for (int id = 0; id < sharedSecretKeys.size(); id++) {
-			int partyId = id + 1;
-			if(this.conf.getMyId() != partyId && sharedSecretKeys.get(id) != null) {
-				Reporter.config("Using authentication and encryption for channel(s) to party " + partyId);
-				for(int i = 0; i < this.channelAmount; i++) {
-					PartyData pd = idToPartyData.get(partyId);
-					Map<String, Channel> channels = connections.get(pd);
-					String cStr = "" + i;
-					PlainChannel c = (PlainChannel)channels.get(cStr);
-					Channel secureChannel;
-					String sharedSecretKey = sharedSecretKeys.get(id); 
-					try {
-						secureChannel = getSecureChannel(c, sharedSecretKey);
-					} catch (InvalidKeyException e) {
-						throw new MPCException("Invalid AES key (shared secret key): " + sharedSecretKey, e);
-					} catch (SecurityLevelException e) {
-						throw new MPCException("SCAPI security level exception when creating channel " + cStr + " towards " + partyId, e);
+			final int partyId = id + 1;
+			final String sharedSecretKey = sharedSecretKeys.get(id);
+			if(this.conf.getMyId() != partyId && sharedSecretKey != null) {
+				secured.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						secureChannels(partyId, sharedSecretKey);
+						return null;
 					}
-				
-					channels.put(cStr, secureChannel);
+				}));
+			}
+		}
+		for (Future<?> f : secured) {
+			get(f);
+		}
+		metrics.startupPhaseDone("network.secure", System.nanoTime() - start);
+
+		this.writers = new PeerWriter[conf.noOfParties() + 1];
+		for (int id = 1; id <= conf.noOfParties(); id++) {
+			if (id != conf.getMyId()) {
+				this.writers[id] = new PeerWriter(id);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the plain channels to the given party with secure channels.
+	 */
+	private void secureChannels(int partyId, String sharedSecretKey) {
+		Reporter.config("Using authentication and encryption (" + this.secureChannelStrategy
+				+ ") for channel(s) to party " + partyId);
+		Map<String, Channel> channels = connections.get(idToPartyData.get(partyId));
+		for(int i = 0; i < this.channelAmount; i++) {
+			String cStr = "" + i;
+			PlainChannel c = (PlainChannel)channels.get(cStr);
+			Channel secureChannel;
+			try {
+				if (this.secureChannelStrategy == SecureChannelStrategy.AES_GCM) {
+					secureChannel = new GcmChannel(c, Base64.decodeFromString(sharedSecretKey),
+							this.conf.getMyId(), partyId, cStr);
+				} else {
+					secureChannel = getDuplexSecureChannel(c, sharedSecretKey);
 				}
+			} catch (InvalidKeyException e) {
+				throw new MPCException("Invalid AES key (shared secret key): " + sharedSecretKey, e);
+			} catch (SecurityLevelException e) {
+				throw new MPCException("SCAPI security level exception when creating channel " + cStr + " towards " + partyId, e);
+			} catch (IOException e) {
+				throw new MPCException("Could not secure channel " + cStr + " towards " + partyId, e);
 			}
+			channels.put(cStr, secureChannel);
+		}
+	}
+
+	/**
+	 * Waits for a task of connect(), and throws what it threw.
+	 */
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while connecting");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
 		}
-		
 	}
 
 	// We currently either use plain channels or auth+enc channels. Future
@@ -185,7 +293,7 @@ public class ScapiNetworkImpl implements Network {
 		return authedChannel;
 	}
 
-	private EncryptedChannel getSecureChannel(PlainChannel ch, String base64EncodedSSKey) throws InvalidKeyException, SecurityLevelException {
+	static EncryptedChannel getSecureChannel(PlainChannel ch, String base64EncodedSSKey) throws InvalidKeyException, SecurityLevelException {
 		byte[] aesFixedKey = Base64.decodeFromString(base64EncodedSSKey);
 		SecretKey aesKey = new SecretKeySpec(aesFixedKey, "AES");
 		AES encryptAes = new BcAES();
@@ -198,13 +306,35 @@ public class ScapiNetworkImpl implements Network {
 		EncryptedChannel secureChannel = new EncryptedChannel(ch, encThenMac);
 		return secureChannel;
 	}
+
+	/**
+	 * Returns an enc-then-MAC channel that can send and receive at the same
+	 * time. An EncryptedChannel uses the same AES instances for sending and
+	 * receiving, which is not thread safe, so each direction gets its own.
+	 */
+	private static Channel getDuplexSecureChannel(PlainChannel ch, String base64EncodedSSKey)
+			throws InvalidKeyException, SecurityLevelException {
+		return new DuplexChannel(getSecureChannel(ch, base64EncodedSSKey), getSecureChannel(ch, base64EncodedSSKey));
+	}
 	
 
 	/**
-	 * Close all channels to other parties.
+	 * Sends what is queued and closes all channels to other parties.
 	 * 
 	 */
 	public void close() throws IOException {
+		IOException failure = null;
+		if (writers != null) {
+			for (PeerWriter writer : writers) {
+				if (writer != null) {
+					try {
+						writer.close();
+					} catch (IOException e) {
+						failure = e;
+					}
+				}
+			}
+		}
 		if(connections != null) {
 			for (Map<String, Channel> m : connections.values()) {
 				for (Channel c : m.values()) {
@@ -212,17 +342,14 @@ public class ScapiNetworkImpl implements Network {
 				}
 			}
 		}
+		if (failure != null) {
+			throw failure;
+		}
 	}
 
 	/**
 	 * Send using default channel (0).
 	 * 
-	 * TODO: When writing to TCP socket, does message always (1) get send eventually, or (2) does it
-	 * risk getting buffered indefinitely (until explicitly calling flush/close)?
-	 * 
-	 * TODO: There is also potential deadlock with TCP if both parties send large buffers to
-	 * each other simultaneously.
-	 * 
 	 * @param receiverId Non-negative id of player to receive data.
 	 * @param data
 	 * @throws IOException 
@@ -282,7 +409,34 @@ public class ScapiNetworkImpl implements Network {
 		PartyData receiver = idToPartyData.get(partyId);
 		Map<String,Channel> channels = connections.get(receiver);
 		Channel c = channels.get(channel);
-		c.send(data);		
+		if (c == null) {
+			throw new MPCException(
+					"Trying to send via channel " + channel + ", but this network was initiated with only " + this.channelAmount + " channels.");
+		}
+		this.writers[partyId].send(channel, c, data, null);
+	}
+
+	/**
+	 * Plain SCAPI channels serialize what they send themselves, so only AES-GCM
+	 * channels share one serialization of the data.
+	 */
+	@Override
+	public void broadcast(String channel, Serializable data) throws IOException {
+		byte[] serialized = null;
+		for (int partyId = 1; partyId <= this.conf.noOfParties(); partyId++) {
+			if (partyId == this.conf.getMyId()) {
+				continue;
+			}
+			Channel c = connections.get(idToPartyData.get(partyId)).get(channel);
+			if (c instanceof GcmChannel) {
+				if (serialized == null) {
+					serialized = GcmChannel.serialize(data);
+				}
+				this.writers[partyId].send(channel, c, null, serialized);
+			} else {
+				this.writers[partyId].send(channel, c, data, null);
+			}
+		}
 	}
 
 	@SuppressWarnings("unchecked")
@@ -302,14 +456,178 @@ public class ScapiNetworkImpl implements Network {
 				throw new MPCException(
 						"Trying to send via channel " + channel + ", but this network was initiated with only " + this.channelAmount + " channels.");
 			}
+			// Waiting for an answer to what could not be sent would hang.
+			this.writers[partyId].checkFailure();
 			Serializable res = null;
+			long start = tracer.begin();
 			try {
 				res = c.receive();
 			} catch (ClassNotFoundException e) {
 				throw new RuntimeException("Weird class not found exception, sry. ", e);
 			}			
+			tracer.end(Tracer.RECEIVE, start, partyId, channel);
 			return (T) res;
 		}
 	}
 
+
+	/**
+	 * Estimates the serialized size of the data, for accounting only. Data
+	 * encoded by a WireCodec is a byte array, whose size is exact.
+	 */
+	static int sizeOf(Serializable data) {
+		if (data instanceof byte[]) {
+			return ((byte[]) data).length;
+		}
+		if (data instanceof Serializable[]) {
+			int size = 16;
+			for (Serializable s : (Serializable[]) data) {
+				size += sizeOf(s);
+			}
+			return size;
+		}
+		if (data instanceof BigInteger) {
+			return ((BigInteger) data).bitLength() / 8 + 16;
+		}
+		return 64;
+	}
+
+	/**
+	 * A message queued for a writer. Either the data or, for an AES-GCM
+	 * channel, its serialization is given.
+	 */
+	private static class QueuedMessage {
+
+		final String name;
+		final Channel channel;
+		final Serializable data;
+		final byte[] serialized;
+		final int size;
+
+		QueuedMessage(String name, Channel channel, Serializable data, byte[] serialized, int size) {
+			this.name = name;
+			this.channel = channel;
+			this.data = data;
+			this.serialized = serialized;
+			this.size = size;
+		}
+	}
+
+	// Queued to make a writer stop after sending what is queued before it.
+	private static final QueuedMessage CLOSE = new QueuedMessage(null, null, null, null, 0);
+
+	/**
+	 * Sends the messages queued for one other party on a thread of its own,
+	 * in the order they were queued.
+	 */
+	private class PeerWriter implements Runnable {
+
+		final int partyId;
+		final BlockingQueue<QueuedMessage> queue = new LinkedBlockingQueue<QueuedMessage>();
+		final SendBudget budget = new SendBudget(SendBudget.DEFAULT_CAPACITY);
+		final Thread thread;
+		volatile IOException failure;
+
+		PeerWriter(int partyId) {
+			this.partyId = partyId;
+			this.thread = new Thread(this, "fresco-writer-" + conf.getMyId() + "-" + partyId);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+
+		/**
+		 * Queues a message, waiting while the budget of the party is used up.
+		 * The data must not be modified afterwards, since it may be sent
+		 * later.
+		 */
+		void send(String name, Channel channel, Serializable data, byte[] serialized) throws IOException {
+			int size = serialized != null ? serialized.length : sizeOf(data);
+			this.budget.acquire(size);
+			this.queue.add(new QueuedMessage(name, channel, data, serialized, size));
+		}
+
+		void checkFailure() throws IOException {
+			if (this.failure != null) {
+				throw new IOException("Sending to party " + this.partyId + " failed", this.failure);
+			}
+		}
+
+		/**
+		 * Waits until what is queued has been sent, and stops the thread.
+		 */
+		void close() throws IOException {
+			this.queue.add(CLOSE);
+			try {
+				this.thread.join();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while sending to party " + this.partyId);
+			}
+			checkFailure();
+		}
+
+		@Override
+		public void run() {
+			try {
+				QueuedMessage message;
+				while ((message = this.queue.take()) != CLOSE) {
+					long start = tracer.begin();
+					if (message.serialized != null) {
+						((GcmChannel) message.channel).sendSerialized(message.serialized);
+					} else {
+						message.channel.send(message.data);
+					}
+					tracer.end(Tracer.SEND, start, this.partyId, message.name);
+					this.budget.release(message.size);
+				}
+			} catch (IOException e) {
+				fail(e);
+			} catch (RuntimeException e) {
+				fail(new IOException(e));
+			} catch (InterruptedException e) {
+				fail(new InterruptedIOException("Interrupted while sending to party " + this.partyId));
+			}
+		}
+
+		private void fail(IOException e) {
+			this.failure = e;
+			this.budget.fail(e);
+			this.queue.clear();
+			Reporter.warn("Sending to party " + this.partyId + " failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * A channel sending on one channel and receiving on another.
+	 */
+	private static class DuplexChannel implements Channel {
+
+		private final Channel sendChannel;
+		private final Channel receiveChannel;
+
+		DuplexChannel(Channel sendChannel, Channel receiveChannel) {
+			this.sendChannel = sendChannel;
+			this.receiveChannel = receiveChannel;
+		}
+
+		@Override
+		public void send(Serializable data) throws IOException {
+			this.sendChannel.send(data);
+		}
+
+		@Override
+		public Serializable receive() throws ClassNotFoundException, IOException {
+			return this.receiveChannel.receive();
+		}
+
+		@Override
+		public void close() {
+			this.sendChannel.close();
+			this.receiveChannel.close();
+		}
+
+		@Override
+		public boolean isClosed() {
+			return this.sendChannel.isClosed();
+		}
+	}
 }
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import dk.alexandra.fresco.framework.configuration.ConfigurationException;
+
+/**
+ * How channels to parties with a shared secret key are encrypted and
+ * authenticated.
+ * 
+ * ENC_THEN_MAC is AES-CTR followed by an AES CBC-MAC, both computed in Java by
+ * BouncyCastle, on each message. AES_GCM uses the JCE AES-GCM implementation,
+ * which is hardware accelerated on most platforms, see {@link AesGcmCipher}.
+ * The NIO network always uses AES_GCM.
+ */
+public enum SecureChannelStrategy {
+	ENC_THEN_MAC, AES_GCM;
+
+	public static SecureChannelStrategy fromString(String secureChannelStr) throws ConfigurationException {
+		try {
+			return SecureChannelStrategy.valueOf(secureChannelStr.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new ConfigurationException("Unrecognized secure channel strategy:" + secureChannelStr);
+		}
+	}
+}
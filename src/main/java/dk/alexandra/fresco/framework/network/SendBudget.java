@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Accounts for the bytes queued for sending to one party, and makes senders
+ * wait while the queue holds more than a given number of bytes. A message is
+ * let through when nothing is queued, however large it is, so a single large
+ * message cannot block forever.
+ */
+class SendBudget {
+
+	/**
+	 * The default number of bytes that may be queued for a party.
+	 */
+	static final long DEFAULT_CAPACITY = 64L << 20;
+
+	private final long capacity;
+	private long queued;
+	private IOException failure;
+
+	/**
+	 * @param capacity
+	 *            the number of bytes that may be queued before senders wait.
+	 */
+	SendBudget(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Waits until the given number of bytes can be queued, and counts them as
+	 * queued.
+	 * 
+	 * @throws IOException
+	 *             if the connection fails while waiting, or has failed.
+	 */
+	synchronized void acquire(long bytes) throws IOException {
+		while (this.failure == null && this.queued > 0 && this.queued + bytes > this.capacity) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Interrupted while waiting to queue " + bytes + " bytes");
+			}
+		}
+		if (this.failure != null) {
+			throw new IOException(this.failure.getMessage(), this.failure);
+		}
+		this.queued += bytes;
+	}
+
+	/**
+	 * Counts the given number of bytes as sent.
+	 */
+	synchronized void release(long bytes) {
+		this.queued -= bytes;
+		notifyAll();
+	}
+
+	/**
+	 * Makes waiting and later calls to acquire fail with the given cause,
+	 * since what is queued will never be sent.
+	 */
+	synchronized void fail(IOException cause) {
+		if (this.failure == null) {
+			this.failure = cause;
+		}
+		notifyAll();
+	}
+
+	synchronized long getQueued() {
+		return this.queued;
+	}
+}
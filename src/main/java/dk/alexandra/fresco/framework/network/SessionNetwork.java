@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * The network of a session running concurrently with other sessions over the
+ * same connected network. Each session sees the channels "0", "1", ... as
+ * usual, but they are mapped to a range of channels of the underlying network
+ * that no other session uses.
+ * 
+ * Connecting and closing is left to the owner of the underlying network.
+ */
+public class SessionNetwork implements Network {
+
+	private final Network network;
+	private final int channelOffset;
+	private final String[] channels;
+
+	/**
+	 * @param network
+	 *            the underlying, connected network.
+	 * @param channelOffset
+	 *            the channel of the underlying network used as channel "0"
+	 *            of the session.
+	 * @param channelAmount
+	 *            the number of channels of the session.
+	 */
+	public SessionNetwork(Network network, int channelOffset, int channelAmount) {
+		this.network = network;
+		this.channelOffset = channelOffset;
+		this.channels = new String[channelAmount];
+		for (int i = 0; i < channelAmount; i++) {
+			this.channels[i] = "" + (channelOffset + i);
+		}
+	}
+
+	/**
+	 * Creates a session network with an extra channel for the protocol suite
+	 * of the session, seen by the session as channel "channelAmount".
+	 * 
+	 * @param network
+	 *            the underlying, connected network.
+	 * @param channelOffset
+	 *            the channel of the underlying network used as channel "0"
+	 *            of the session.
+	 * @param channelAmount
+	 *            the number of channels of the session used for evaluation.
+	 * @param suiteChannel
+	 *            the channel of the underlying network used for the suite
+	 *            channel of the session.
+	 */
+	public SessionNetwork(Network network, int channelOffset, int channelAmount, int suiteChannel) {
+		this.network = network;
+		this.channelOffset = channelOffset;
+		this.channels = new String[channelAmount + 1];
+		for (int i = 0; i < channelAmount; i++) {
+			this.channels[i] = "" + (channelOffset + i);
+		}
+		this.channels[channelAmount] = "" + suiteChannel;
+	}
+
+	private String toChannel(String channel) {
+		int c = Integer.parseInt(channel);
+		if (c < 0 || c >= channels.length) {
+			throw new IllegalArgumentException("Session has no channel " + channel + ", only " + channels.length
+					+ " channel(s) starting at " + channelOffset);
+		}
+		return channels[c];
+	}
+
+	@Override
+	public void connect(int timeoutMillis) throws IOException {
+		// The underlying network is connected by its owner.
+	}
+
+	@Override
+	public void send(String channel, int partyId, Serializable data) throws IOException {
+		this.network.send(toChannel(channel), partyId, data);
+	}
+
+	@Override
+	public void broadcast(String channel, Serializable data) throws IOException {
+		this.network.broadcast(toChannel(channel), data);
+	}
+
+	@Override
+	public <T extends Serializable> T receive(String channel, int partyId) throws IOException {
+		return this.network.receive(toChannel(channel), partyId);
+	}
+
+	@Override
+	public void close() throws IOException {
+		// The underlying network is closed by its owner.
+	}
+}
@@ -0,0 +1,395 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.Party;
+import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
+import dk.alexandra.fresco.framework.sce.metrics.Tracer;
+
+/**
+ * Network connecting parties running in the same JVM through in-memory
+ * queues, to benchmark under controlled network conditions without sockets or
+ * traffic shaping.
+ * 
+ * Each message is serialized, as on a real network, and handed to the
+ * receiver when it would have arrived on a link with the {@link LinkProfile}
+ * of the link: the link transmits one message at a time at its bandwidth, and
+ * a message arrives the latency plus a random jitter after it has been
+ * transmitted. Messages arrive in the order they were sent on the link.
+ * send() never waits, as if the operating system buffered the messages.
+ * 
+ * The parties meet at a {@link Hub}. The parties whose configurations give
+ * party 1 the same address share a hub, so {@link NetworkStrategy#SIMULATED}
+ * can be used in place of a real network. The conditions of the links are
+ * set on the hub, see {@link #getHub(NetworkConfiguration)}, before the
+ * parties connect.
+ */
+public class SimulatedNetwork implements Network {
+
+	// How often a receiver checks whether the sender has closed.
+	private static final long CLOSED_CHECK_MILLIS = 100;
+
+	private static final Map<String, Hub> HUBS = new HashMap<String, Hub>();
+
+	private final NetworkConfiguration conf;
+	private final Hub hub;
+	private final int myId;
+
+	// Queues for self-sending, by channel.
+	private final ConcurrentHashMap<String, BlockingQueue<Serializable>> selfQueues;
+
+	private Tracer tracer;
+
+	/**
+	 * Creates a network connecting through the hub shared by the parties of
+	 * the given configuration.
+	 */
+	public SimulatedNetwork(NetworkConfiguration conf) {
+		this(conf, getHub(conf));
+	}
+
+	public SimulatedNetwork(NetworkConfiguration conf, Hub hub) {
+		if (hub.noOfParties != conf.noOfParties()) {
+			throw new MPCException("The hub connects " + hub.noOfParties + " parties, not " + conf.noOfParties());
+		}
+		this.conf = conf;
+		this.hub = hub;
+		this.myId = conf.getMyId();
+		this.selfQueues = new ConcurrentHashMap<String, BlockingQueue<Serializable>>();
+	}
+
+	/**
+	 * Returns the hub shared by the parties of the given configuration,
+	 * creating it without delays if it does not exist. A hub where all parties
+	 * have connected belongs to an earlier run, and is replaced.
+	 */
+	public static Hub getHub(NetworkConfiguration conf) {
+		Party first = conf.getParty(1);
+		String address = first.getHostname() + ":" + first.getPort();
+		synchronized (HUBS) {
+			Hub hub = HUBS.get(address);
+			if (hub == null || hub.connected.getCount() == 0) {
+				hub = new Hub(conf.noOfParties(), LinkProfile.NONE);
+				hub.address = address;
+				HUBS.put(address, hub);
+			}
+			return hub;
+		}
+	}
+
+	@Override
+	public void connect(int timeoutMillis) throws IOException {
+		this.tracer = Tracer.getInstance(this.myId);
+		this.hub.connected.countDown();
+		try {
+			if (!this.hub.connected.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new IOException("Only " + (this.hub.noOfParties - this.hub.connected.getCount())
+						+ " parties connected within " + timeoutMillis + " ms");
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for the other parties");
+		}
+	}
+
+	@Override
+	public void send(String channel, int partyId, Serializable data) throws IOException {
+		if (partyId == this.myId) {
+			selfQueue(channel).add(data);
+			return;
+		}
+		transmit(channel, link(this.myId, partyId), partyId, serialize(data));
+	}
+
+	/**
+	 * Serializes the data once for all other parties.
+	 */
+	@Override
+	public void broadcast(String channel, Serializable data) throws IOException {
+		byte[] bytes = serialize(data);
+		for (int partyId = 1; partyId <= this.hub.noOfParties; partyId++) {
+			if (partyId != this.myId) {
+				transmit(channel, link(this.myId, partyId), partyId, bytes);
+			}
+		}
+	}
+
+	private void transmit(String channel, SimulatedLink link, int partyId, byte[] bytes) {
+		long start = this.tracer.begin();
+		long arrival = link.schedule(bytes.length, System.nanoTime());
+		link.inbox(channel).add(new Delivery(arrival, bytes));
+		this.tracer.end(Tracer.SEND, start, partyId, channel);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends Serializable> T receive(String channel, int partyId) throws IOException {
+		try {
+			if (partyId == this.myId) {
+				return (T) selfQueue(channel).take();
+			}
+			BlockingQueue<Delivery> inbox = link(partyId, this.myId).inbox(channel);
+			long start = this.tracer.begin();
+			Delivery delivery;
+			while ((delivery = inbox.poll(CLOSED_CHECK_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+				if (this.hub.isClosed(partyId) && inbox.isEmpty()) {
+					throw new EOFException("Party " + partyId + " has closed its network");
+				}
+			}
+			long wait;
+			while ((wait = delivery.arrival - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+			Serializable data = deserialize(delivery.bytes);
+			this.tracer.end(Tracer.RECEIVE, start, partyId, channel);
+			return (T) data;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while receiving from party " + partyId);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.hub.close(this.myId);
+	}
+
+	private SimulatedLink link(int from, int to) {
+		if (from < 1 || from > this.hub.noOfParties || to < 1 || to > this.hub.noOfParties) {
+			throw new MPCException("No party with id " + (from == this.myId ? to : from));
+		}
+		return this.hub.links[from][to];
+	}
+
+	private BlockingQueue<Serializable> selfQueue(String channel) {
+		BlockingQueue<Serializable> queue = this.selfQueues.get(channel);
+		if (queue == null) {
+			queue = new LinkedBlockingQueue<Serializable>();
+			BlockingQueue<Serializable> existing = this.selfQueues.putIfAbsent(channel, queue);
+			if (existing != null) {
+				queue = existing;
+			}
+		}
+		return queue;
+	}
+
+	private static byte[] serialize(Serializable data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(data);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static Serializable deserialize(byte[] bytes) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return (Serializable) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Received an object of an unknown class", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SimulatedNetwork [myId=" + this.myId + ", parties=" + this.conf.noOfParties() + "]";
+	}
+
+	/**
+	 * Where the parties of a simulated network meet. Holds the links between
+	 * the parties and their conditions.
+	 */
+	public static class Hub {
+
+		private final int noOfParties;
+		// Indexed by the ids of the sender and the receiver.
+		private final SimulatedLink[][] links;
+		private final CountDownLatch connected;
+		private final boolean[] closed;
+		private int noOfClosed;
+		// The address the hub is registered under, if any.
+		private String address;
+
+		/**
+		 * Creates a hub where all links have the given conditions.
+		 * 
+		 * @param noOfParties
+		 *            the number of parties.
+		 * @param profile
+		 *            the conditions of the links.
+		 */
+		public Hub(int noOfParties, LinkProfile profile) {
+			this(noOfParties, profile, 0);
+		}
+
+		/**
+		 * @param seed
+		 *            the seed of the jitter, so a run can be repeated.
+		 */
+		public Hub(int noOfParties, LinkProfile profile, long seed) {
+			this.noOfParties = noOfParties;
+			this.links = new SimulatedLink[noOfParties + 1][noOfParties + 1];
+			for (int from = 1; from <= noOfParties; from++) {
+				for (int to = 1; to <= noOfParties; to++) {
+					this.links[from][to] = new SimulatedLink(profile, new Random(seed + from * 1000 + to));
+				}
+			}
+			this.connected = new CountDownLatch(noOfParties);
+			this.closed = new boolean[noOfParties + 1];
+		}
+
+		/**
+		 * Sets the conditions of all links.
+		 */
+		public void setLinkProfile(LinkProfile profile) {
+			for (int from = 1; from <= this.noOfParties; from++) {
+				for (int to = 1; to <= this.noOfParties; to++) {
+					setLinkProfile(from, to, profile);
+				}
+			}
+		}
+
+		/**
+		 * Sets the conditions of the link from one party to another.
+		 */
+		public void setLinkProfile(int from, int to, LinkProfile profile) {
+			this.links[from][to].setProfile(profile);
+		}
+
+		public LinkProfile getLinkProfile(int from, int to) {
+			return this.links[from][to].getProfile();
+		}
+
+		private synchronized boolean isClosed(int partyId) {
+			return this.closed[partyId];
+		}
+
+		private synchronized void close(int partyId) {
+			if (!this.closed[partyId]) {
+				this.closed[partyId] = true;
+				this.noOfClosed++;
+			}
+			if (this.noOfClosed == this.noOfParties && this.address != null) {
+				synchronized (HUBS) {
+					if (HUBS.get(this.address) == this) {
+						HUBS.remove(this.address);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The link from one party to another.
+	 */
+	private static class SimulatedLink {
+
+		// The received messages by channel.
+		private final ConcurrentHashMap<String, BlockingQueue<Delivery>> inboxes = new ConcurrentHashMap<String, BlockingQueue<Delivery>>();
+		private final Random random;
+		private LinkProfile profile;
+		// When the link is done transmitting what has been sent, and when the
+		// last message sent arrives.
+		private long freeAt;
+		private long lastArrival;
+
+		SimulatedLink(LinkProfile profile, Random random) {
+			this.profile = profile;
+			this.random = random;
+		}
+
+		synchronized void setProfile(LinkProfile profile) {
+			this.profile = profile;
+		}
+
+		synchronized LinkProfile getProfile() {
+			return this.profile;
+		}
+
+		/**
+		 * Returns when a message of the given size sent now arrives.
+		 */
+		synchronized long schedule(int size, long now) {
+			long start = Math.max(now, this.freeAt);
+			this.freeAt = start + this.profile.transmissionNanos(size);
+			long arrival = this.freeAt + this.profile.getLatencyNanos();
+			if (this.profile.getJitterNanos() > 0) {
+				arrival += (long) (this.random.nextDouble() * this.profile.getJitterNanos());
+			}
+			// Jitter must not reorder the messages.
+			arrival = Math.max(arrival, this.lastArrival);
+			this.lastArrival = arrival;
+			return arrival;
+		}
+
+		BlockingQueue<Delivery> inbox(String channel) {
+			BlockingQueue<Delivery> inbox = this.inboxes.get(channel);
+			if (inbox == null) {
+				inbox = new LinkedBlockingQueue<Delivery>();
+				BlockingQueue<Delivery> existing = this.inboxes.putIfAbsent(channel, inbox);
+				if (existing != null) {
+					inbox = existing;
+				}
+			}
+			return inbox;
+		}
+	}
+
+	/**
+	 * A message in transit, and when it arrives.
+	 */
+	private static class Delivery {
+
+		final long arrival;
+		final byte[] bytes;
+
+		Delivery(long arrival, byte[] bytes) {
+			this.arrival = arrival;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Encodes the messages a party sends to another party in one round into the
+ * bytes put on the wire, and decodes them again on the receiving side.
+ * 
+ * Protocols keep handing typed values (field elements, bits, etc.) to their
+ * {@link SCENetwork}. The evaluators collect these into an array per receiver
+ * and round, and use the codec of the protocol suite (see
+ * {@link dk.alexandra.fresco.suite.ProtocolSuite#getWireCodec()}) to turn
+ * that array into bytes. This lets a suite use a compact representation of
+ * its values instead of Java object serialization.
+ * 
+ * Implementations must be thread safe, as the parallel evaluators use the same
+ * codec from several threads.
+ */
+public interface WireCodec {
+
+	/**
+	 * Encodes the given messages.
+	 * 
+	 * @param messages
+	 *            the messages to encode.
+	 * @return the encoding of the messages.
+	 */
+	byte[] encode(Serializable[] messages);
+
+	/**
+	 * Decodes messages encoded by {@link #encode(Serializable[])}.
+	 * 
+	 * @param data
+	 *            the encoded messages.
+	 * @return the messages, in the order they were given to encode.
+	 */
+	Serializable[] decode(byte[] data);
+
+	/**
+	 * Sends the messages to the given party, encoded using the given codec. If
+	 * the codec is null the array itself is sent.
+	 */
+	public static void send(Network network, String channel, int partyId, Serializable[] messages,
+			WireCodec codec) throws IOException {
+		if (codec == null) {
+			network.send(channel, partyId, messages);
+		} else {
+			network.send(channel, partyId, codec.encode(messages));
+		}
+	}
+
+	/**
+	 * Sends the messages to all other parties, encoding them only once. The messages are received by
+	 * {@link #receive(Network, String, int, WireCodec)} as if sent to each
+	 * party by {@link #send(Network, String, int, Serializable[], WireCodec)}.
+	 */
+	public static void broadcast(Network network, String channel, Serializable[] messages, WireCodec codec)
+			throws IOException {
+		if (codec == null) {
+			network.broadcast(channel, messages);
+		} else {
+			network.broadcast(channel, codec.encode(messages));
+		}
+	}
+
+	/**
+	 * Receives messages sent by {@link #send(Network, String, int, Serializable[], WireCodec)}
+	 * using the same codec.
+	 */
+	public static Serializable[] receive(Network network, String channel, int partyId, WireCodec codec)
+			throws IOException {
+		if (codec == null) {
+			return network.receive(channel, partyId);
+		} else {
+			byte[] data = network.receive(channel, partyId);
+			return codec.decode(data);
+		}
+	}
+}
@@ -52,6 +52,15 @@ public interface SCE {
 	 */
 	public abstract void runApplication(Application application);
 
+	/**
+	 * Runs the given applications concurrently, each in its own session. All
+	 * parties must give the same applications in the same order.
+	 * 
+	 * @param applications
+	 *            the applications to run.
+	 */
+	public abstract void runApplicationsConcurrently(Application... applications);
+
 	/**
 	 * Initializes the SCE by setting up the resource pool including network.
 	 * This also calls \code{init} on the configured protocol suite. Calling
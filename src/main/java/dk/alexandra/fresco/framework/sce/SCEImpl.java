@@ -26,11 +26,19 @@
  *******************************************************************************/
 package dk.alexandra.fresco.framework.sce;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 
 import dk.alexandra.fresco.framework.Application;
@@ -40,13 +48,26 @@ import dk.alexandra.fresco.framework.ProtocolEvaluator;
 import dk.alexandra.fresco.framework.ProtocolFactory;
 import dk.alexandra.fresco.framework.ProtocolProducer;
 import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.configuration.ConfigurationException;
 import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
 import dk.alexandra.fresco.framework.configuration.NetworkConfigurationImpl;
-import dk.alexandra.fresco.framework.network.ScapiNetworkImpl;
+import dk.alexandra.fresco.framework.network.MeteredNetwork;
+import dk.alexandra.fresco.framework.network.Network;
+import dk.alexandra.fresco.framework.network.NetworkStrategy;
+import dk.alexandra.fresco.framework.network.NioNetworkImpl;
+import dk.alexandra.fresco.framework.network.ReconnectingNetwork;
+import dk.alexandra.fresco.framework.network.SecureChannelStrategy;
+import dk.alexandra.fresco.framework.network.SessionNetwork;
 import dk.alexandra.fresco.framework.sce.configuration.ProtocolSuiteConfiguration;
 import dk.alexandra.fresco.framework.sce.configuration.SCEConfiguration;
+import dk.alexandra.fresco.framework.sce.evaluator.AdaptiveBatchEvaluator;
+import dk.alexandra.fresco.framework.sce.evaluator.AdaptiveBatchSize;
 import dk.alexandra.fresco.framework.sce.evaluator.BatchedParallelEvaluator;
+import dk.alexandra.fresco.framework.sce.evaluator.EvaluationStrategy;
 import dk.alexandra.fresco.framework.sce.evaluator.ParallelEvaluator;
+import dk.alexandra.fresco.framework.sce.evaluator.RoundBarrierEvaluator;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+import dk.alexandra.fresco.framework.sce.metrics.Tracer;
 import dk.alexandra.fresco.framework.sce.resources.ResourcePoolImpl;
 import dk.alexandra.fresco.framework.sce.resources.SCEResourcePool;
 import dk.alexandra.fresco.framework.sce.resources.storage.Storage;
@@ -79,6 +100,8 @@ import dk.alexandra.fresco.suite.tinytables.prepro.TinyTablesPreproProtocolSuite
  */
 public class SCEImpl implements SCE {
 
+	private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+
 	private ProtocolEvaluator evaluator;
 	private ThreadPoolImpl threadPool;
 	private SCEResourcePool resourcePool;
@@ -86,6 +109,12 @@ public class SCEImpl implements SCE {
 	private SCEConfiguration sceConf;
 	private ProtocolSuite protocolSuite;
 	private ProtocolSuiteConfiguration psConf;
+	private ReconnectingNetwork network;
+
+	// Needed to give concurrent sessions their own channels and threads.
+	private int channelAmount;
+	private int noOfVMThreads;
+	private int noOfProtocolThreads;
 
 	private boolean setup = false;
 
@@ -106,6 +135,7 @@ public class SCEImpl implements SCE {
 			throw new IllegalArgumentException(
 					"Properties file should contain at least one party of the form 'party1=192.168.0.1,8000'");
 		}
+		checkConcurrentSessionsSupported();
 		int noOfThreads = sceConf.getNoOfThreads();
 		int noOfvmThreads = sceConf.getNoOfVMThreads();
 		NetworkConfiguration conf = new NetworkConfigurationImpl(myId, parties, logLevel);
@@ -118,15 +148,33 @@ public class SCEImpl implements SCE {
 		SecureRandom secRand = new SecureRandom();
 
 		this.evaluator = this.sceConf.getEvaluator();
-		this.evaluator.setMaxBatchSize(sceConf.getMaxBatchSize());
+		setBatchSize(this.evaluator);
 		int channelAmount = 1;
 		// If the evaluator is of a parallel sort,
 		// we need the same amount of channels as the number of VM threads we
 		// use.
-		if (this.evaluator instanceof ParallelEvaluator || this.evaluator instanceof BatchedParallelEvaluator) {
+		if (this.evaluator instanceof ParallelEvaluator || this.evaluator instanceof BatchedParallelEvaluator
+				|| this.evaluator instanceof RoundBarrierEvaluator) {
 			channelAmount = noOfvmThreads;
 		}
-		ScapiNetworkImpl network = new ScapiNetworkImpl(conf, channelAmount);
+		// Each concurrent session gets its own range of channels.
+		int maxConcurrentSessions = Math.max(1, sceConf.getMaxConcurrentSessions());
+		NetworkStrategy networkStrategy = (sceConf.getNetworkStrategy() != null) ? sceConf.getNetworkStrategy()
+				: NetworkStrategy.SCAPI;
+		SecureChannelStrategy secureChannel = (sceConf.getSecureChannelStrategy() != null)
+				? sceConf.getSecureChannelStrategy() : SecureChannelStrategy.ENC_THEN_MAC;
+		// A protocol suite doing work alongside the evaluation gets a channel
+		// of its own per session after those used for evaluation.
+		int suiteChannels = usesSuiteChannel() ? maxConcurrentSessions : 0;
+		int maxMessageSize = (sceConf.getMaxMessageSize() > 0) ? sceConf.getMaxMessageSize()
+				: NioNetworkImpl.DEFAULT_MAX_MESSAGE_SIZE;
+		this.network = new ReconnectingNetwork(networkStrategy, conf,
+				channelAmount * maxConcurrentSessions + suiteChannels, secureChannel, maxMessageSize);
+		Network network = new MeteredNetwork(this.network, myId, conf.noOfParties(),
+				MetricsRegistry.getInstance(myId));
+		if (sceConf.getTraceFile() != null) {
+			Tracer.getInstance(myId).start(Tracer.DEFAULT_CAPACITY);
+		}
 
 		if (noOfvmThreads == -1) {
 			// default to 1 allowed VM thread only - otherwise certain
@@ -138,9 +186,57 @@ public class SCEImpl implements SCE {
 		} else {
 			threadPool = new ThreadPoolImpl(noOfvmThreads, 0);
 		}
+		this.channelAmount = channelAmount;
+		this.noOfVMThreads = noOfvmThreads;
+		this.noOfProtocolThreads = (noOfThreads != -1) ? noOfThreads : 0;
 
 		this.resourcePool = new ResourcePoolImpl(sceConf.getMyId(), parties.size(), network, storage, streamedStorage,
 				rand, secRand, threadPool, threadPool);
+		if (suiteChannels > 0) {
+			this.resourcePool.setSuiteChannel("" + channelAmount * maxConcurrentSessions);
+		}
+	}
+
+	/**
+	 * Fails if the configuration allows concurrent sessions for a protocol
+	 * suite that cannot run in them, rather than failing when the sessions
+	 * are created. See {@link #runApplicationsConcurrently(Application...)}.
+	 */
+	private void checkConcurrentSessionsSupported() {
+		if (this.sceConf.getMaxConcurrentSessions() <= 1) {
+			return;
+		}
+		String runtime = this.sceConf.getProtocolSuiteName().toLowerCase();
+		if ("dummy".equals(runtime)) {
+			return;
+		}
+		if ("spdz".equals(runtime)) {
+			if (psConf == null) {
+				psConf = new SpdzConfigurationFromProperties();
+			}
+			if (((SpdzConfiguration) psConf).useDummyData()) {
+				return;
+			}
+			throw new ConfigurationException("Concurrent SPDZ sessions cannot share preprocessed data, so "
+					+ "maxConcurrentSessions > 1 requires SPDZ to use dummy data.");
+		}
+		throw new ConfigurationException("The protocol suite " + runtime
+				+ " cannot run in concurrent sessions, so maxConcurrentSessions must be 1.");
+	}
+
+	/**
+	 * @return true if the protocol suite needs a channel for work running
+	 *         alongside the evaluation, i.e., the asynchronous MAC check of
+	 *         SPDZ.
+	 */
+	private boolean usesSuiteChannel() {
+		if (!"spdz".equalsIgnoreCase(sceConf.getProtocolSuiteName())) {
+			return false;
+		}
+		if (psConf == null) {
+			psConf = new SpdzConfigurationFromProperties();
+		}
+		return ((SpdzConfiguration) psConf).useAsyncMacCheck();
 	}
 
 	@Override
@@ -148,17 +244,43 @@ public class SCEImpl implements SCE {
 		return this.sceConf;
 	}
 
+	/**
+	 * Sets up the resources and the protocol suite. Connecting waits for the
+	 * other parties, so it runs in the background while the protocol suite
+	 * loads its preprocessed data. If the network has failed since the last
+	 * setup, it is reconnected instead, and the protocol suite drops the state
+	 * of the computation that failed.
+	 */
 	@Override
 	public synchronized void setup() throws IOException {		
 		if (this.setup) {
+			if (this.network.isFailed()) {
+				this.network.reconnect(CONNECT_TIMEOUT_MILLIS);
+				this.protocolSuite.reset();
+			}
 			return;
 		}
+		long start = System.nanoTime();
+		this.network.connectAsync(CONNECT_TIMEOUT_MILLIS);
 
 		this.resourcePool.initializeRandom();
 		this.resourcePool.initializeThreadPool();
 		this.resourcePool.initilizeStorage();
-		this.resourcePool.initializeNetwork();		
 
+		long suiteStart = System.nanoTime();
+		initProtocolSuite();
+		MetricsRegistry metrics = MetricsRegistry.getInstance(this.resourcePool.getMyId());
+		metrics.startupPhaseDone("suite", System.nanoTime() - suiteStart);
+
+		// Waits for the connection.
+		this.resourcePool.initializeNetwork();
+		metrics.startupPhaseDone("setup", System.nanoTime() - start);
+		Reporter.info("Setup of party " + this.resourcePool.getMyId() + " done, phases (ms): "
+				+ metrics.getStartupMillis());
+		this.setup = true;
+	}
+
+	private void initProtocolSuite() {
 		String runtime = sceConf.getProtocolSuiteName();
 		switch (runtime.toLowerCase()) {
 		case "spdz":
@@ -214,8 +336,7 @@ public class SCEImpl implements SCE {
 			throw new IllegalArgumentException(
 					"Could not understand the specified runtime. This framework currently supports:\n\t-spdz\n\t-bgw\n\t-dummy");
 		}
-
-		this.setup = true;
+		this.resourcePool.setProtocolSuite(this.protocolSuite);
 	}
 
 	/*
@@ -243,6 +364,192 @@ public class SCEImpl implements SCE {
 		long now = System.currentTimeMillis();
 		long timeSpend = now-then;
 		Reporter.info("Running the application " + application.getClass().getSimpleName()+" took "+ timeSpend+" ms.");
+		dumpMetrics();
+		writeTrace();
+	}
+
+	/**
+	 * Logs the metrics collected while running the last application(s) and
+	 * starts collecting anew. The report is logged at FINE, as it is long and
+	 * written after every application. While running, the metrics are
+	 * available through JMX.
+	 */
+	private void dumpMetrics() {
+		MetricsRegistry metrics = MetricsRegistry.getInstance(this.sceConf.getMyId());
+		Reporter.fine("Metrics of party " + this.sceConf.getMyId() + ":\n" + metrics.dump());
+		metrics.reset();
+	}
+
+	/**
+	 * Writes the timeline of the last application(s) to the trace file, if
+	 * one is configured, and starts tracing anew.
+	 */
+	private void writeTrace() {
+		String traceFile = this.sceConf.getTraceFile();
+		if (traceFile == null) {
+			return;
+		}
+		int myId = this.sceConf.getMyId();
+		File file = new File(traceFile.replace("%d", "" + myId));
+		Tracer tracer = Tracer.getInstance(myId);
+		try {
+			tracer.exportChromeTrace(file);
+			Reporter.info("Wrote " + tracer.getEventCount() + " trace events to " + file);
+		} catch (IOException e) {
+			Reporter.warn("Could not write the trace of party " + myId + " to " + file + ": " + e.getMessage());
+		}
+		tracer.clear();
+	}
+
+	/**
+	 * Runs the given applications concurrently over the network of this SCE.
+	 * Each application runs in its own session with its own channels,
+	 * threads, evaluator and protocol suite state. All parties must give the
+	 * same applications in the same order, since the n'th application at one
+	 * party is run against the n'th application at the other parties.
+	 * 
+	 * This must not be called while another application is running on this
+	 * SCE.
+	 * 
+	 * Only protocol suites whose protocols find their state through the
+	 * resource pool of the session can run in concurrent sessions. Currently
+	 * that is the dummy protocol suite and SPDZ using dummy data. BGW,
+	 * TinyTables and SPDZ with preprocessed data keep their state in a
+	 * single instance per party, so an SCE configured with more than one
+	 * concurrent session for them is rejected when it is created.
+	 * 
+	 * @param applications
+	 *            at most getMaxConcurrentSessions() applications.
+	 */
+	@Override
+	public void runApplicationsConcurrently(Application... applications) {
+		int maxConcurrentSessions = Math.max(1, this.sceConf.getMaxConcurrentSessions());
+		if (applications.length > maxConcurrentSessions) {
+			throw new IllegalArgumentException("Cannot run " + applications.length
+					+ " applications concurrently, the SCE is configured for at most " + maxConcurrentSessions
+					+ " sessions.");
+		}
+		try {
+			Reporter.init(this.getSCEConfiguration().getLogLevel());
+			setup();
+		} catch (IOException e) {
+			throw new MPCException("Could not run applications due to errors during setup: " + e.getMessage(), e);
+		}
+		Reporter.info("Running " + applications.length + " applications concurrently using protocol suite: "
+				+ this.getSCEConfiguration().getProtocolSuiteName());
+		long then = System.currentTimeMillis();
+		List<SCESession> sessions = new ArrayList<SCESession>(applications.length);
+		ExecutorService sessionThreads = Executors.newFixedThreadPool(Math.max(1, applications.length));
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>(applications.length);
+			for (int i = 0; i < applications.length; i++) {
+				final SCESession session = createSession(i);
+				sessions.add(session);
+				final Application application = applications[i];
+				futures.add(sessionThreads.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						session.run(application);
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> f : futures) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			throw new MPCException("Interrupted while running concurrent sessions.", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new MPCException("A concurrent session failed: " + cause, e);
+		} finally {
+			sessionThreads.shutdown();
+			for (SCESession session : sessions) {
+				session.close();
+			}
+		}
+		long timeSpend = System.currentTimeMillis() - then;
+		Reporter.info("Running " + applications.length + " applications concurrently took " + timeSpend + " ms.");
+		dumpMetrics();
+		writeTrace();
+	}
+
+	/**
+	 * Sets the maximum batch size of the evaluator, and lets it adapt the
+	 * batch size if a minimum batch size is configured.
+	 */
+	private void setBatchSize(ProtocolEvaluator evaluator) {
+		evaluator.setMaxBatchSize(this.sceConf.getMaxBatchSize());
+		int minBatchSize = this.sceConf.getMinBatchSize();
+		if (minBatchSize == -1) {
+			return;
+		}
+		if (!(evaluator instanceof AdaptiveBatchEvaluator)) {
+			throw new ConfigurationException("The evaluator " + EvaluationStrategy.evaluatorToString(evaluator)
+					+ " does not support an adaptive batch size.");
+		}
+		((AdaptiveBatchEvaluator) evaluator).setAdaptiveBatchSize(new AdaptiveBatchSize(minBatchSize,
+				this.sceConf.getMaxBatchSize(), minBatchSize, this.sceConf.getBatchSizeWindow()));
+	}
+
+	private SCESession createSession(int sessionId) {
+		Network network;
+		if (this.resourcePool.getSuiteChannel() != null) {
+			// The suite channel of session 0 is the one of the SCE.
+			int suiteChannel = Integer.parseInt(this.resourcePool.getSuiteChannel()) + sessionId;
+			network = new SessionNetwork(this.resourcePool.getNetwork(), sessionId * this.channelAmount,
+					this.channelAmount, suiteChannel);
+		} else {
+			network = new SessionNetwork(this.resourcePool.getNetwork(), sessionId * this.channelAmount,
+					this.channelAmount);
+		}
+		ThreadPoolImpl sessionThreadPool = new ThreadPoolImpl(this.noOfVMThreads, this.noOfProtocolThreads);
+		SCEResourcePool sessionPool = new ResourcePoolImpl(this.resourcePool.getMyId(),
+				this.resourcePool.getNoOfParties(), network, this.resourcePool.getStorage(),
+				this.resourcePool.getStreamedStorage(), new Random(0), new SecureRandom(), sessionThreadPool,
+				sessionThreadPool);
+		if (this.resourcePool.getSuiteChannel() != null) {
+			sessionPool.setSuiteChannel("" + this.channelAmount);
+		}
+		ProtocolEvaluator sessionEvaluator = EvaluationStrategy
+				.fromString(EvaluationStrategy.evaluatorToString(this.evaluator));
+		setBatchSize(sessionEvaluator);
+
+		String runtime = sceConf.getProtocolSuiteName();
+		ProtocolSuite sessionSuite;
+		ProtocolFactory sessionFactory;
+		switch (runtime.toLowerCase()) {
+		case "spdz":
+			SpdzConfiguration spdzConf = (SpdzConfiguration) psConf;
+			if (!spdzConf.useDummyData()) {
+				// Each session would read the same preprocessed data.
+				sessionThreadPool.shutdown();
+				throw new MPCException(
+						"Concurrent SPDZ sessions cannot share preprocessed data, only dummy data is supported.");
+			}
+			SpdzProtocolSuite spdzSuite = new SpdzProtocolSuite();
+			sessionPool.setProtocolSuite(spdzSuite);
+			spdzSuite.init(sessionPool, spdzConf);
+			sessionSuite = spdzSuite;
+			sessionFactory = new SpdzFactory(spdzSuite.getStore(0), sessionPool.getMyId(),
+					spdzConf.getMaxBitLength());
+			break;
+		case "dummy":
+			sessionSuite = new DummyProtocolSuite();
+			sessionPool.setProtocolSuite(sessionSuite);
+			sessionSuite.init(sessionPool, (psConf != null) ? psConf : new DummyConfiguration());
+			sessionFactory = new DummyFactory();
+			break;
+		default:
+			sessionThreadPool.shutdown();
+			throw new MPCException("The protocol suite " + runtime
+					+ " keeps its state in a static singleton and cannot run in concurrent sessions.");
+		}
+		return new SCESession(sessionId, sessionPool, sessionThreadPool, sessionEvaluator, sessionSuite,
+				sessionFactory);
 	}
 
 	private void evalApplication(Application app) {
@@ -282,6 +589,9 @@ public class SCEImpl implements SCE {
 			this.protocolSuite.destroy();
 			this.protocolSuite = null;
 		}
+		if (this.sceConf.getTraceFile() != null) {
+			Tracer.getInstance(this.sceConf.getMyId()).stop();
+		}
 		this.resourcePool = null;
 		this.protocolFactory = null;
 	}
@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce;
+
+import java.io.IOException;
+
+import dk.alexandra.fresco.framework.Application;
+import dk.alexandra.fresco.framework.ProtocolEvaluator;
+import dk.alexandra.fresco.framework.ProtocolFactory;
+import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.sce.resources.SCEResourcePool;
+import dk.alexandra.fresco.framework.sce.resources.threads.ThreadPoolImpl;
+import dk.alexandra.fresco.suite.ProtocolSuite;
+
+/**
+ * One of several applications running concurrently on an SCE. A session has
+ * its own channels of the network, its own threads, evaluator and protocol
+ * suite state, so sessions do not share anything but the connections.
+ * 
+ * The n'th session at one party talks to the n'th session at the other
+ * parties.
+ */
+class SCESession {
+
+	private final int sessionId;
+	private final SCEResourcePool resourcePool;
+	private final ThreadPoolImpl threadPool;
+	private final ProtocolEvaluator evaluator;
+	private final ProtocolSuite protocolSuite;
+	private final ProtocolFactory protocolFactory;
+
+	SCESession(int sessionId, SCEResourcePool resourcePool, ThreadPoolImpl threadPool, ProtocolEvaluator evaluator,
+			ProtocolSuite protocolSuite, ProtocolFactory protocolFactory) {
+		this.sessionId = sessionId;
+		this.resourcePool = resourcePool;
+		this.threadPool = threadPool;
+		this.evaluator = evaluator;
+		this.protocolSuite = protocolSuite;
+		this.protocolFactory = protocolFactory;
+	}
+
+	int getSessionId() {
+		return sessionId;
+	}
+
+	void run(Application application) throws IOException {
+		this.evaluator.setResourcePool(this.resourcePool);
+		this.evaluator.setProtocolInvocation(this.protocolSuite);
+		ProtocolProducer prod = application.prepareApplication(this.protocolFactory);
+		if (prod != null) {
+			this.evaluator.eval(prod);
+		}
+	}
+
+	void close() {
+		this.threadPool.shutdown();
+		this.protocolSuite.destroy();
+	}
+}
@@ -38,6 +38,8 @@ import dk.alexandra.fresco.framework.MPCException;
 import dk.alexandra.fresco.framework.Party;
 import dk.alexandra.fresco.framework.ProtocolEvaluator;
 import dk.alexandra.fresco.framework.configuration.ConfigurationException;
+import dk.alexandra.fresco.framework.network.NetworkStrategy;
+import dk.alexandra.fresco.framework.network.SecureChannelStrategy;
 import dk.alexandra.fresco.framework.sce.evaluator.EvaluationStrategy;
 import dk.alexandra.fresco.framework.sce.resources.storage.Storage;
 import dk.alexandra.fresco.framework.sce.resources.storage.StorageStrategy;
@@ -57,6 +59,13 @@ public class FileBasedSCEConfiguration implements SCEConfiguration {
 	private int noOfThreads;
 	private int noOfVmThreads;
 	private int maxBatchSize;
+	private int minBatchSize;
+	private int batchSizeWindow;
+	private int maxConcurrentSessions;
+	private String traceFile;
+	private NetworkStrategy network;
+	private SecureChannelStrategy secureChannel;
+	private int maxMessageSize;
 	private ProtocolEvaluator evaluator;
 	private Storage storage;
 	private StreamedStorage streamedStorage;
@@ -174,6 +183,14 @@ public class FileBasedSCEConfiguration implements SCEConfiguration {
 			}
 			
 			this.maxBatchSize = Integer.parseInt(prop.getProperty("maxBatchSize", "4096"));
+			this.minBatchSize = Integer.parseInt(prop.getProperty("minBatchSize", "-1"));
+			this.batchSizeWindow = Integer.parseInt(prop.getProperty("batchSizeWindow", "16"));
+			this.maxConcurrentSessions = Integer.parseInt(prop.getProperty("maxConcurrentSessions", "1"));
+			this.traceFile = prop.getProperty("traceFile");
+			this.network = NetworkStrategy.fromString(prop.getProperty("network", NetworkStrategy.SCAPI.name()));
+			this.secureChannel = SecureChannelStrategy.fromString(prop.getProperty("secureChannel",
+					SecureChannelStrategy.ENC_THEN_MAC.name()));
+			this.maxMessageSize = Integer.parseInt(prop.getProperty("maxMessageSize", "-1"));
 			
 			loaded = true;
 		} catch (IOException e) {
@@ -269,6 +286,62 @@ public class FileBasedSCEConfiguration implements SCEConfiguration {
 		return this.maxBatchSize;
 	}
 
+	@Override
+	public int getMinBatchSize() {
+		if(!loaded) {
+			loadProperties();
+		}
+		return this.minBatchSize;
+	}
+
+	@Override
+	public int getBatchSizeWindow() {
+		if(!loaded) {
+			loadProperties();
+		}
+		return this.batchSizeWindow;
+	}
+
+	@Override
+	public int getMaxConcurrentSessions() {
+		if(!loaded) {
+			loadProperties();
+		}
+		return this.maxConcurrentSessions;
+	}
+
+	@Override
+	public String getTraceFile() {
+		if(!loaded) {
+			loadProperties();
+		}
+		return this.traceFile;
+	}
+
+	@Override
+	public NetworkStrategy getNetworkStrategy() {
+		if(!loaded) {
+			loadProperties();
+		}
+		return this.network;
+	}
+
+	@Override
+	public SecureChannelStrategy getSecureChannelStrategy() {
+		if(!loaded) {
+			loadProperties();
+		}
+		return this.secureChannel;
+	}
+
+	@Override
+	public int getMaxMessageSize() {
+		if(!loaded) {
+			loadProperties();
+		}
+		return this.maxMessageSize;
+	}
+
 	@Override
 	public StreamedStorage getStreamedStorage() {
 		if(!loaded) {
@@ -282,6 +355,6 @@ public class FileBasedSCEConfiguration implements SCEConfiguration {
 		return "FileBasedSCEConfiguration [propertiesLocation=" + propertiesLocation + ", loaded=" + loaded
 				+ ", protocolSuite=" + protocolSuite + ", parties=" + parties + ", myId=" + myId + ", level=" + level
 				+ ", noOfThreads=" + noOfThreads + ", noOfVmThreads=" + noOfVmThreads + ", maxBatchSize=" + maxBatchSize
-				+ ", evaluator=" + evaluator + ", storage=" + storage + ", streamedStorage=" + streamedStorage + "]";
+				+ ", minBatchSize=" + minBatchSize + ", batchSizeWindow=" + batchSizeWindow + ", maxConcurrentSessions=" + maxConcurrentSessions + ", traceFile=" + traceFile + ", network=" + network + ", secureChannel=" + secureChannel + ", maxMessageSize=" + maxMessageSize + ", evaluator=" + evaluator + ", storage=" + storage + ", streamedStorage=" + streamedStorage + "]";
 	}	
 }
@@ -31,6 +31,8 @@ import java.util.logging.Level;
 
 import dk.alexandra.fresco.framework.Party;
 import dk.alexandra.fresco.framework.ProtocolEvaluator;
+import dk.alexandra.fresco.framework.network.NetworkStrategy;
+import dk.alexandra.fresco.framework.network.SecureChannelStrategy;
 import dk.alexandra.fresco.framework.sce.resources.storage.Storage;
 import dk.alexandra.fresco.framework.sce.resources.storage.StreamedStorage;
 
@@ -97,4 +99,68 @@ public interface SCEConfiguration {
 	 * @return
 	 */
 	public int getMaxBatchSize();
+
+	/**
+	 * Returns the smallest batch size the evaluators may use, or -1 if the
+	 * evaluators should always use the maximum batch size. If set, the batch
+	 * size adapts to the measured throughput between this and the maximum
+	 * batch size.
+	 * 
+	 * @return
+	 */
+	public int getMinBatchSize();
+
+	/**
+	 * Returns the number of batches measured before an adaptive batch size is
+	 * adjusted.
+	 * 
+	 * @return
+	 */
+	public int getBatchSizeWindow();
+
+	/**
+	 * Returns the maximum number of applications that may run concurrently,
+	 * each in its own session. The network gets a separate set of channels
+	 * for each session.
+	 * 
+	 * Only the dummy protocol suite and SPDZ using dummy data support more
+	 * than one session. Creating an SCE with a larger value for other suites
+	 * fails with a ConfigurationException.
+	 * 
+	 * @return
+	 */
+	public int getMaxConcurrentSessions();
+
+	/**
+	 * Returns the file to write a timeline of each application to, in the
+	 * Chrome trace event format, or null if the evaluation should not be
+	 * traced. Any %d in the name is replaced by the id of the party.
+	 * 
+	 * @return
+	 */
+	public String getTraceFile();
+
+	/**
+	 * Returns the kind of network to connect to the other parties with.
+	 * 
+	 * @return
+	 */
+	public NetworkStrategy getNetworkStrategy();
+
+	/**
+	 * Returns how channels to parties with a shared secret key are encrypted
+	 * and authenticated.
+	 * 
+	 * @return
+	 */
+	public SecureChannelStrategy getSecureChannelStrategy();
+
+	/**
+	 * Returns the maximum length in bytes of a message received from another
+	 * party, or -1 to use the default of the network. A longer message fails
+	 * the connection. Only the NIO network limits the length.
+	 * 
+	 * @return
+	 */
+	public int getMaxMessageSize();
 }
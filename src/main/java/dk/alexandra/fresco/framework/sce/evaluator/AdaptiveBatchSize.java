@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.evaluator;
+
+import java.io.IOException;
+
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.network.Network;
+
+/**
+ * Controls the batch size of an evaluator based on the measured throughput.
+ * 
+ * The evaluator reports every evaluated batch through
+ * {@link #batchDone(int, int, long, long)}, including the bytes it sent. After
+ * a window of batches the controller compares the throughput of the window
+ * with that of the previous window, and proposes to keep growing (or
+ * shrinking) the batch size as long as throughput improves, and to turn
+ * around when it drops. The batch size always stays within the configured
+ * bounds.
+ * 
+ * Throughput is measured both in gates per second and in bytes sent per
+ * second. Gates per second alone counts local gates, e.g. additions, the same
+ * as gates that communicate, so a window that reaches a part of the
+ * application with fewer multiplications looks like an improvement and the
+ * next window like a drop. A change therefore only counts when the bytes sent
+ * per second move the same way. Windows that send nothing, e.g. with the dummy
+ * suite, are judged on gates per second alone.
+ * 
+ * Since all parties must cut the same batches, a change only takes effect
+ * when all parties agree. In {@link #adjust(Network, String, int, int)} the
+ * parties exchange their proposals and all use the smallest one. The
+ * evaluators call this at the same batch number at all parties, when no other
+ * communication is going on.
+ * 
+ * The current batch size, the measured latency per round, the bytes sent per
+ * second and the reason for the last change are available as metrics through the getters.
+ * 
+ */
+public class AdaptiveBatchSize {
+
+	/**
+	 * Relative change in throughput that is considered significant.
+	 */
+	private static final double SIGNIFICANT_CHANGE = 0.05;
+
+	private final int minBatchSize;
+	private final int maxBatchSize;
+	private final int batchesPerWindow;
+
+	private int batchSize;
+	private boolean growing = true;
+	private double lastThroughput = -1;
+	private double lastBytesPerSecond = -1;
+
+	private int batchesInWindow = 0;
+	private long gatesInWindow = 0;
+	private long roundsInWindow = 0;
+	private long nanosInWindow = 0;
+	private long bytesInWindow = 0;
+
+	private double latencyPerRound = 0;
+	private double throughput = 0;
+	private double bytesPerSecond = 0;
+	private int noOfChanges = 0;
+	private String lastChangeReason = "initial batch size";
+
+	/**
+	 * @param minBatchSize
+	 *            the smallest batch size to use.
+	 * @param maxBatchSize
+	 *            the largest batch size to use. This bounds the memory used by
+	 *            a batch.
+	 * @param initialBatchSize
+	 *            the batch size to start with.
+	 * @param batchesPerWindow
+	 *            the number of batches to measure before adjusting.
+	 */
+	public AdaptiveBatchSize(int minBatchSize, int maxBatchSize, int initialBatchSize, int batchesPerWindow) {
+		if (minBatchSize < 2 || minBatchSize > maxBatchSize) {
+			throw new IllegalArgumentException("Batch size bounds must satisfy 2 <= min <= max, but was min="
+					+ minBatchSize + ", max=" + maxBatchSize);
+		}
+		if (batchesPerWindow < 1) {
+			throw new IllegalArgumentException("Must measure at least one batch per window, but was "
+					+ batchesPerWindow);
+		}
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+		this.batchSize = clamp(initialBatchSize);
+		this.batchesPerWindow = batchesPerWindow;
+	}
+
+	/**
+	 * @return the batch size to use for the next batch.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return the largest batch size this controller will ever use.
+	 */
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * @return the average time per network round in the last window, in
+	 *         nanoseconds.
+	 */
+	public double getLatencyPerRound() {
+		return latencyPerRound;
+	}
+
+	/**
+	 * @return the throughput of the last window, in gates per second.
+	 */
+	public double getThroughput() {
+		return throughput;
+	}
+
+	/**
+	 * @return the bytes sent per second in the last window.
+	 */
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * @return the number of times the batch size has changed.
+	 */
+	public int getNoOfChanges() {
+		return noOfChanges;
+	}
+
+	/**
+	 * @return the reason for the last change of batch size.
+	 */
+	public String getLastChangeReason() {
+		return lastChangeReason;
+	}
+
+	/**
+	 * Records an evaluated batch.
+	 * 
+	 * @param gates
+	 *            the number of native protocols in the batch.
+	 * @param rounds
+	 *            the number of network rounds used for the batch.
+	 * @param nanos
+	 *            the time spent evaluating the batch.
+	 * @param bytesSent
+	 *            the estimated payload bytes sent while evaluating the batch.
+	 */
+	public void batchDone(int gates, int rounds, long nanos, long bytesSent) {
+		batchesInWindow++;
+		gatesInWindow += gates;
+		roundsInWindow += rounds;
+		nanosInWindow += nanos;
+		bytesInWindow += bytesSent;
+	}
+
+	/**
+	 * @return true if a window has been measured and
+	 *         {@link #adjust(Network, String, int, int)} should be called.
+	 */
+	public boolean shouldAdjust() {
+		return batchesInWindow >= batchesPerWindow;
+	}
+
+	/**
+	 * Computes a new batch size from the last window and agrees on it with
+	 * the other parties.
+	 * 
+	 * @param network
+	 *            the network to agree over.
+	 * @param channel
+	 *            the channel to use. No other communication may take place on
+	 *            this channel while adjusting.
+	 * @param myId
+	 *            the id of this party.
+	 * @param noOfParties
+	 *            the number of parties.
+	 * @throws IOException
+	 */
+	public void adjust(Network network, String channel, int myId, int noOfParties) throws IOException {
+		String reason = propose();
+		int proposal = this.batchSize;
+		if (this.growing) {
+			proposal = clamp(2 * proposal);
+		} else {
+			proposal = clamp(proposal / 2);
+		}
+		if (reason == null) {
+			proposal = this.batchSize;
+		}
+		int agreed = proposal;
+		for (int pId = 1; pId <= noOfParties; pId++) {
+			if (pId != myId) {
+				network.send(channel, pId, proposal);
+			}
+		}
+		for (int pId = 1; pId <= noOfParties; pId++) {
+			if (pId != myId) {
+				int other = network.<Integer> receive(channel, pId);
+				if (other < agreed) {
+					agreed = other;
+					reason = "party " + pId + " proposed " + other;
+				}
+			}
+		}
+		if (agreed != this.batchSize) {
+			Reporter.fine("Changing batch size from " + this.batchSize + " to " + agreed + ": " + reason);
+			this.batchSize = agreed;
+			this.lastChangeReason = reason;
+			this.noOfChanges++;
+		}
+	}
+
+	/**
+	 * Updates the direction from the measurements of the last window and
+	 * starts a new window.
+	 * 
+	 * @return the reason for changing the batch size, or null if it should be
+	 *         kept.
+	 */
+	private String propose() {
+		this.throughput = gatesInWindow * 1e9 / Math.max(1, nanosInWindow);
+		this.bytesPerSecond = bytesInWindow * 1e9 / Math.max(1, nanosInWindow);
+		this.latencyPerRound = (double) nanosInWindow / Math.max(1, roundsInWindow);
+		double gatesPerBatch = (double) gatesInWindow / batchesInWindow;
+		double last = this.lastThroughput;
+		double lastBytes = this.lastBytesPerSecond;
+		this.lastThroughput = this.throughput;
+		this.lastBytesPerSecond = this.bytesPerSecond;
+		batchesInWindow = 0;
+		gatesInWindow = 0;
+		roundsInWindow = 0;
+		nanosInWindow = 0;
+		bytesInWindow = 0;
+
+		if (last < 0) {
+			return "probing larger batches";
+		}
+		// Without traffic in both windows the bytes tell nothing, so they
+		// agree with any change in gates per second.
+		boolean noTraffic = this.bytesPerSecond == 0 || lastBytes == 0;
+		if (this.throughput > last * (1 + SIGNIFICANT_CHANGE)) {
+			if (this.growing && gatesPerBatch < this.batchSize / 2) {
+				// The producer cannot fill the batches we already have.
+				return null;
+			}
+			if (!noTraffic && this.bytesPerSecond < lastBytes * (1 - SIGNIFICANT_CHANGE)) {
+				// Only the local gates got faster.
+				return null;
+			}
+			return "throughput improved from " + (long) last + " to " + (long) this.throughput + " gates/s"
+					+ (noTraffic ? "" : ", " + (long) lastBytes + " to " + (long) this.bytesPerSecond + " bytes/s");
+		}
+		if (this.throughput < last * (1 - SIGNIFICANT_CHANGE)) {
+			if (!noTraffic && this.bytesPerSecond > lastBytes * (1 - SIGNIFICANT_CHANGE)) {
+				// The gates communicate more, but the network does not do less.
+				return null;
+			}
+			this.growing = !this.growing;
+			return "throughput dropped from " + (long) last + " to " + (long) this.throughput + " gates/s"
+					+ (noTraffic ? "" : ", " + (long) lastBytes + " to " + (long) this.bytesPerSecond + " bytes/s");
+		}
+		return null;
+	}
+
+	private int clamp(int size) {
+		return Math.max(minBatchSize, Math.min(maxBatchSize, size));
+	}
+}
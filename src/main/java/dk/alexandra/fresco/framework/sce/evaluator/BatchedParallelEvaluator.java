@@ -26,38 +26,74 @@
  *******************************************************************************/
 package dk.alexandra.fresco.framework.sce.evaluator;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 import dk.alexandra.fresco.framework.NativeProtocol;
-import dk.alexandra.fresco.framework.ProtocolEvaluator;
 import dk.alexandra.fresco.framework.ProtocolProducer;
 import dk.alexandra.fresco.framework.Reporter;
 import dk.alexandra.fresco.framework.network.SCENetworkImpl;
+import dk.alexandra.fresco.framework.network.WireCodec;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+import dk.alexandra.fresco.framework.sce.metrics.Tracer;
 import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
 import dk.alexandra.fresco.framework.sce.resources.SCEResourcePool;
 import dk.alexandra.fresco.framework.sce.resources.threads.VMThreadPool;
 import dk.alexandra.fresco.suite.ProtocolSuite;
 
-public class BatchedParallelEvaluator implements ProtocolEvaluator {
+public class BatchedParallelEvaluator implements AdaptiveBatchEvaluator {
 
 	private int maxBatchSize, threads;
 	private SCEResourcePool rp;
 	private ProtocolSuite pii;
+	private AdaptiveBatchSize adaptiveBatchSize;
+	private MetricsRegistry metrics;
+	private Tracer tracer;
+	// The networks of each thread, reused from batch to batch.
+	private SCENetworkImpl[][] sceNetworks;
+	// The protocols of each thread in the current batch, reused as well.
+	private NativeProtocol[][] slices;
+	private long batchCount;
+	private BatchTask[] tasks;
+	private List<BatchTask> taskList;
+	private NativeProtocol[] nextGates = new NativeProtocol[0];
 
 	public BatchedParallelEvaluator() {
 		this.maxBatchSize = 4096; //default value
 	}
 	
 	@Override
-	public void eval(ProtocolProducer c) {
+	public void eval(ProtocolProducer c) throws IOException {
 		do {
-			NativeProtocol[] nextGates = new NativeProtocol[maxBatchSize];
+			int batchSize = (adaptiveBatchSize == null) ? maxBatchSize : adaptiveBatchSize.getBatchSize();
+			if (nextGates.length != batchSize) {
+				nextGates = new NativeProtocol[batchSize];
+			}
+			this.metrics.batchSizeUsed(batchSize);
+			long start = tracer.begin();
 			int numOfGatesInBatch = c.getNextProtocols(nextGates, 0);
-			processBatch(nextGates, numOfGatesInBatch);
+			tracer.end(Tracer.PRODUCE_BATCH, start, numOfGatesInBatch, 0);
+			long then = System.nanoTime();
+			long sentBefore = this.metrics.getTotalBytesSent();
+			start = tracer.begin();
+			int rounds = processBatch(nextGates, numOfGatesInBatch);
+			tracer.end(Tracer.EVALUATE_BATCH, start, numOfGatesInBatch, rounds);
+			this.metrics.protocolsEvaluated(nextGates, numOfGatesInBatch);
+			this.metrics.batchEvaluated(rounds);
+			Arrays.fill(nextGates, 0, numOfGatesInBatch, null);
+			if (adaptiveBatchSize != null) {
+				adaptiveBatchSize.batchDone(numOfGatesInBatch, rounds, System.nanoTime() - then,
+						this.metrics.getTotalBytesSent() - sentBefore);
+				if (adaptiveBatchSize.shouldAdjust()) {
+					// All threads are done, so channel 0 is free.
+					adaptiveBatchSize.adjust(rp.getNetwork(), "0", rp.getMyId(), rp.getNoOfParties());
+				}
+			}
 		} while (c.hasNextProtocols());
 		this.pii.finishedEval();
 	}
@@ -67,43 +103,92 @@ public class BatchedParallelEvaluator implements ProtocolEvaluator {
 		this.maxBatchSize = maxBatchSize;
 	}
 
+	@Override
+	public void setAdaptiveBatchSize(AdaptiveBatchSize adaptiveBatchSize) {
+		this.adaptiveBatchSize = adaptiveBatchSize;
+	}
+
 	/*
 	 * As soon as this method finishes, it may be called again with a new batch
 	 * -- ie to process more than one batch at a time, simply return before the
 	 * first one is finished
+	 * 
+	 * Returns the number of rounds used by the slowest thread.
 	 */
-	public void processBatch(NativeProtocol[] protocols, int numOfProtocols) {
-		ArrayList<BatchTask> tasks = new ArrayList<BatchTask>(threads);
+	public int processBatch(NativeProtocol[] protocols, int numOfProtocols) {
 		int jobs = 1;
 		if (numOfProtocols > 7) {
 			jobs = (numOfProtocols > threads) ? threads : numOfProtocols;
 		}
+		// The protocols of a job are evaluated over the channel and with the
+		// preprocessed data belonging to the thread id of the job. This must
+		// match at all parties, so the split is a deterministic function of
+		// the batch and cannot use costs measured locally (e.g. a party that
+		// receives an output uses more rounds than one that does not).
+		//
+		// Batches mix protocols of different cost in runs, e.g. the
+		// multiplications of an inner product followed by its additions, so
+		// protocol k goes to job k mod jobs to give every job the same mix.
+		// Small batches are run by a single job, which rotates over the thread
+		// ids so thread 0 does not evaluate all of them.
+		int firstThread = 0;
+		if (jobs == 1) {
+			firstThread = (int) (this.batchCount % threads);
+		}
+		this.batchCount++;
+		// The tasks and the list of them are reused from batch to batch.
+		this.taskList.clear();
 		for (int i = 0; i < jobs; i++) {
-			int protocolsInBatch = numOfProtocols/jobs;
-			int index = protocolsInBatch; 
-			if(i == jobs-1 && numOfProtocols % jobs > 0) {
-				protocolsInBatch+=numOfProtocols % jobs;
+			int threadId = firstThread + i;
+			int protocolsInJob = (numOfProtocols - i + jobs - 1) / jobs;
+			NativeProtocol[] slice = getSlice(threadId, protocolsInJob);
+			for (int j = 0, k = i; j < protocolsInJob; j++, k += jobs) {
+				slice[j] = protocols[k];
 			}
-			NativeProtocol[] protocolBatch = new NativeProtocol[protocolsInBatch];
-			System.arraycopy(protocols, i*index, protocolBatch, 0, protocolBatch.length);
-			//TODO: Currently thread 0 gets by far most of the requests - should loadbalance this. (because of e.g. SPDZ issues)
-			//TODO: Also, loadbalance the last thread since this one actually gets too many. 
-			//(i.e. if numOfProtocols=8, and threads=3, thread 0 and 1 gets 2 each, and thread 2 gets 4. 
-			tasks.add(new BatchTask(protocolBatch, i, protocolsInBatch, rp));
+			this.tasks[threadId].set(slice, 0, protocolsInJob, getSCENetworks(threadId, protocolsInJob));
+			this.taskList.add(this.tasks[threadId]);
 		}
 		VMThreadPool es = rp.getVMThreadPool();
+		int rounds = 0;
 		try {
-			List<Future<Object>> futures = es.submitVMTasks(tasks);
-			for (Future<Object> f: futures) {
-				@SuppressWarnings("unused")
-				Object o = f.get();
+			List<Future<Integer>> futures = es.submitVMTasks(this.taskList);
+			long start = tracer.begin();
+			for (Future<Integer> f: futures) {
+				rounds = Math.max(rounds, f.get());
 			}
+			tracer.end(Tracer.WAIT_FOR_TASKS, start, futures.size(), 0);
 		} catch (InterruptedException e) {
 			Reporter.severe("Evaluation was interrupted.", e);
 		} catch (ExecutionException e) {
 			Reporter.severe("Exception during evaluation.", e);
 		}
+		for (int i = 0; i < jobs; i++) {
+			Arrays.fill(this.slices[firstThread + i], null);
+		}
+		long start = tracer.begin();
 		pii.synchronize(numOfProtocols);
+		tracer.end(Tracer.SYNCHRONIZE, start, numOfProtocols, 0);
+		return rounds;
+	}
+
+	private NativeProtocol[] getSlice(int threadId, int numOfProtocols) {
+		if (slices[threadId].length < numOfProtocols) {
+			slices[threadId] = new NativeProtocol[numOfProtocols];
+		}
+		return slices[threadId];
+	}
+
+	private SCENetworkImpl[] getSCENetworks(int threadId, int numOfProtocols) {
+		SCENetworkImpl[] networks = sceNetworks[threadId];
+		if (networks == null || networks.length < numOfProtocols) {
+			int oldLength = (networks == null) ? 0 : networks.length;
+			networks = (networks == null) ? new SCENetworkImpl[numOfProtocols] : Arrays.copyOf(networks, numOfProtocols);
+			for (int i = oldLength; i < numOfProtocols; i++) {
+				networks[i] = new SCENetworkImpl(rp.getNoOfParties(), rp.getMyId(), threadId);
+			}
+			sceNetworks[threadId] = networks;
+		}
+		return networks;
 	}
 
 	@Override
@@ -114,33 +199,60 @@ public class BatchedParallelEvaluator implements ProtocolEvaluator {
 	@Override
 	public void setResourcePool(SCEResourcePool resourcePool) {
 		this.rp = resourcePool;
+		this.metrics = MetricsRegistry.getInstance(resourcePool.getMyId());
+		this.tracer = Tracer.getInstance(resourcePool.getMyId());
 		this.threads = resourcePool.getVMThreadPool().getVMThreadCount();
+		this.sceNetworks = new SCENetworkImpl[this.threads][];
+		this.slices = new NativeProtocol[this.threads][0];
+		this.tasks = new BatchTask[this.threads];
+		for (int i = 0; i < this.threads; i++) {
+			this.tasks[i] = new BatchTask(i, resourcePool);
+		}
+		this.taskList = new ArrayList<BatchTask>(this.threads);
 	}
 	
-	private class BatchTask implements Callable<Object> {
+	/**
+	 * Evaluates the slice of a batch belonging to one thread id. Created once
+	 * per thread id and reused for every batch.
+	 */
+	private class BatchTask implements Callable<Integer> {
 
+		private final int threadId;
+		private final String channel;
+		private final ResourcePool rp;
 		private NativeProtocol[] protocols;
+		private int offset;
 		private int numOfProtocols;
-		private String channel;
-		private ResourcePool rp;
 		private SCENetworkImpl[] sceNetworks;
+		private long created;
 
-		public BatchTask(NativeProtocol[] protocols, int threadId, int numOfProtocols, ResourcePool rp) {
-			this.channel = ""+threadId;
-			this.protocols = protocols;
+		BatchTask(int threadId, ResourcePool rp) {
+			this.threadId = threadId;
+			this.channel = "" + threadId;
 			this.rp = rp;
+		}
+
+		/**
+		 * Points the task at the next slice to evaluate.
+		 */
+		void set(NativeProtocol[] protocols, int offset, int numOfProtocols, SCENetworkImpl[] sceNetworks) {
+			this.protocols = protocols;
+			this.offset = offset;
 			this.numOfProtocols = numOfProtocols;
-			this.sceNetworks = new SCENetworkImpl[numOfProtocols];
-			for (int i = 0; i < numOfProtocols; i++) {
-				this.sceNetworks[i] = new SCENetworkImpl(
-						this.rp.getNoOfParties(), threadId);
-			}
+			this.sceNetworks = sceNetworks;
+			this.created = tracer.begin();
 		}
 
 		@Override
-		public Object call() throws Exception {		
-			BatchedStrategy.processBatch(protocols, numOfProtocols, sceNetworks, channel, rp);
-			return null;
+		public Integer call() throws Exception {		
+			tracer.end(Tracer.TASK_QUEUED, created, threadId, 0);
+			long start = tracer.begin();
+			long then = System.nanoTime();
+			int rounds = BatchedStrategy.processBatch(protocols, offset, numOfProtocols, sceNetworks, channel, rp,
+					pii.getWireCodec());
+			metrics.taskEvaluated(threadId, numOfProtocols, System.nanoTime() - then);
+			tracer.end(Tracer.EVALUATE_TASK, start, threadId, rounds);
+			return rounds;
 		}
 	}
 
@@ -27,15 +27,17 @@
 package dk.alexandra.fresco.framework.sce.evaluator;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import dk.alexandra.fresco.framework.NativeProtocol;
-import dk.alexandra.fresco.framework.ProtocolEvaluator;
 import dk.alexandra.fresco.framework.ProtocolProducer;
 import dk.alexandra.fresco.framework.network.SCENetworkImpl;
+import dk.alexandra.fresco.framework.network.WireCodec;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
 import dk.alexandra.fresco.framework.sce.resources.SCEResourcePool;
 import dk.alexandra.fresco.suite.ProtocolSuite;
 
-public class BatchedSequentialEvaluator implements ProtocolEvaluator {
+public class BatchedSequentialEvaluator implements AdaptiveBatchEvaluator {
 
 	private static final int DEFAULT_THREAD_ID = 0;
 
@@ -46,19 +48,22 @@ public class BatchedSequentialEvaluator implements ProtocolEvaluator {
 	private SCEResourcePool resourcePool;
 	private ProtocolSuite protocolSuite;
 
-	private SCENetworkImpl[] sceNetworks;
+	// Created on demand, since the batch size may grow.
+	private SCENetworkImpl[] sceNetworks = new SCENetworkImpl[0];
+	private NativeProtocol[] nextProtocols = new NativeProtocol[0];
+
+	private AdaptiveBatchSize adaptiveBatchSize;
+	private MetricsRegistry metrics;
 
 	public BatchedSequentialEvaluator() {
 		this.maxBatchSize = 4096;
-		this.sceNetworks = new SCENetworkImpl[this.maxBatchSize];
 	}
 
 	@Override
 	public void setResourcePool(SCEResourcePool resourcePool) {
 		this.resourcePool = resourcePool;
-		for (int i = 0; i < this.maxBatchSize; i++) {
-			this.sceNetworks[i] = new SCENetworkImpl(this.resourcePool.getNoOfParties(), DEFAULT_THREAD_ID);
-		}
+		this.metrics = MetricsRegistry.getInstance(resourcePool.getMyId());
+		this.sceNetworks = new SCENetworkImpl[0];
 	}
 
 	public ProtocolSuite getProtocolInvocation() {
@@ -82,19 +87,52 @@ public class BatchedSequentialEvaluator implements ProtocolEvaluator {
 	 */
 	@Override
 	public void setMaxBatchSize(int maxBatchSize) {
-		this.sceNetworks = new SCENetworkImpl[maxBatchSize];
 		this.maxBatchSize = maxBatchSize;
 	}
 
+	@Override
+	public void setAdaptiveBatchSize(AdaptiveBatchSize adaptiveBatchSize) {
+		this.adaptiveBatchSize = adaptiveBatchSize;
+	}
+
 	public void eval(ProtocolProducer c) throws IOException {
 		do {
-			NativeProtocol[] nextProtocols = new NativeProtocol[maxBatchSize];
+			int batchSize = (adaptiveBatchSize == null) ? maxBatchSize : adaptiveBatchSize.getBatchSize();
+			if (nextProtocols.length != batchSize) {
+				nextProtocols = new NativeProtocol[batchSize];
+			}
+			if (sceNetworks.length < batchSize) {
+				sceNetworks = createNetworks(batchSize);
+			}
+			this.metrics.batchSizeUsed(batchSize);
 			int numOfProtocolsInBatch = c.getNextProtocols(nextProtocols, 0);
-			BatchedStrategy.processBatch(nextProtocols, numOfProtocolsInBatch, sceNetworks, DEFAULT_CHANNEL,
-					resourcePool);
+			long then = System.nanoTime();
+			long sentBefore = this.metrics.getTotalBytesSent();
+			int rounds = BatchedStrategy.processBatch(nextProtocols, numOfProtocolsInBatch, sceNetworks,
+					DEFAULT_CHANNEL, resourcePool, protocolSuite.getWireCodec());
+			this.metrics.protocolsEvaluated(nextProtocols, numOfProtocolsInBatch);
+			this.metrics.batchEvaluated(rounds);
+			Arrays.fill(nextProtocols, 0, numOfProtocolsInBatch, null);
 			this.protocolSuite.synchronize(numOfProtocolsInBatch);
+			if (adaptiveBatchSize != null) {
+				adaptiveBatchSize.batchDone(numOfProtocolsInBatch, rounds, System.nanoTime() - then,
+						this.metrics.getTotalBytesSent() - sentBefore);
+				if (adaptiveBatchSize.shouldAdjust()) {
+					adaptiveBatchSize.adjust(resourcePool.getNetwork(), DEFAULT_CHANNEL, resourcePool.getMyId(),
+							resourcePool.getNoOfParties());
+				}
+			}
 		} while (c.hasNextProtocols());
 
 		this.protocolSuite.finishedEval();
 	}
-}
\ No newline at end of file
+
+	private SCENetworkImpl[] createNetworks(int size) {
+		SCENetworkImpl[] networks = new SCENetworkImpl[size];
+		for (int i = 0; i < size; i++) {
+			networks[i] = new SCENetworkImpl(this.resourcePool.getNoOfParties(), this.resourcePool.getMyId(),
+					DEFAULT_THREAD_ID);
+		}
+		return networks;
+	}
+}
@@ -28,18 +28,15 @@ package dk.alexandra.fresco.framework.sce.evaluator;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.Arrays;
 import java.util.Queue;
-import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
 
+import dk.alexandra.fresco.framework.MPCException;
 import dk.alexandra.fresco.framework.NativeProtocol;
 import dk.alexandra.fresco.framework.NativeProtocol.EvaluationStatus;
 import dk.alexandra.fresco.framework.network.Network;
 import dk.alexandra.fresco.framework.network.SCENetworkImpl;
+import dk.alexandra.fresco.framework.network.WireCodec;
 import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
 
 /**
@@ -52,9 +49,12 @@ import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
  * 1. Evaluate the next round of all Protocols and collect messages to be sent
  * in this round.
  * 
- * 2. Send all messages collected in step 1.
+ * 2. Send all messages collected in step 1. The messages of all Protocols to
+ * the same party are coalesced into one message. If all Protocols only sent
+ * to all parties, the message is the same for everyone and is broadcast.
  * 
- * 3. Recieve all messages expected before the next round.
+ * 3. Recieve all messages expected before the next round, and split them out
+ * to the Protocols expecting them.
  * 
  * 4. If there are Protocols that are not done start over at step 1.
  * 
@@ -63,6 +63,39 @@ import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
  */
 public class BatchedStrategy {
 
+	/**
+	 * Receiver id passed to coalesce() for the output of a broadcast round.
+	 */
+	private static final int BROADCAST = 0;
+
+	/**
+	 * The done flags of the protocols of a batch, reused by each thread from
+	 * batch to batch.
+	 */
+	private static final ThreadLocal<boolean[]> doneFlags = new ThreadLocal<boolean[]>();
+
+	/**
+	 * The coalesced messages of the last round, reused by each thread from
+	 * round to round. Only used when the messages are encoded by a codec,
+	 * since the network may hold on to a message sent as is after send
+	 * returns.
+	 */
+	private static final ThreadLocal<MessageBuffers> messageBuffers = new ThreadLocal<MessageBuffers>();
+
+	/**
+	 * The message and message counts last coalesced for each receiver, where
+	 * index {@link #BROADCAST} holds the ones of a broadcast round.
+	 */
+	private static class MessageBuffers {
+		final Serializable[][] messages;
+		final int[][] sizes;
+
+		MessageBuffers(int noOfParties) {
+			this.messages = new Serializable[noOfParties + 1][];
+			this.sizes = new int[noOfParties + 1][];
+		}
+	}
+
 	/**
 	 * @param protocols
 	 *            array holding the protocols to be evaluated
@@ -84,17 +117,39 @@ public class BatchedStrategy {
 	 * @param rp
 	 *            the resource pool.
 	 * 
+	 * @return the number of rounds used to evaluate the batch.
+	 * 
 	 * @throws IOException
 	 */
-	public static void processBatch(NativeProtocol[] protocols, int numOfProtocols, SCENetworkImpl[] sceNetworks,
+	public static int processBatch(NativeProtocol[] protocols, int numOfProtocols, SCENetworkImpl[] sceNetworks,
 			String channel, ResourcePool rp) throws IOException {
-		Network network = rp.getNetwork();
+		return processBatch(protocols, numOfProtocols, sceNetworks, channel, rp, null);
+	}
+
+	/**
+	 * As {@link #processBatch(NativeProtocol[], int, SCENetworkImpl[], String, ResourcePool)},
+	 * but encodes the messages of each round using the given codec.
+	 * 
+	 * @param codec
+	 *            the codec of the protocol suite, or null to send the messages
+	 *            using Java object serialization.
+	 */
+	public static int processBatch(NativeProtocol[] protocols, int numOfProtocols, SCENetworkImpl[] sceNetworks,
+			String channel, ResourcePool rp, WireCodec codec) throws IOException {
+		return processBatch(protocols, 0, numOfProtocols, sceNetworks, channel, rp, codec);
+	}
+
+	/**
+	 * As {@link #processBatch(NativeProtocol[], int, SCENetworkImpl[], String, ResourcePool, WireCodec)},
+	 * but evaluates the protocols starting at the given offset, i.e.,
+	 * protocols[offset]...protocols[offset+numOfProtocols-1] using
+	 * sceNetworks[0]...sceNetworks[numOfProtocols-1]. This lets evaluators
+	 * split a batch between threads without copying it.
+	 */
+	public static int processBatch(NativeProtocol[] protocols, int offset, int numOfProtocols,
+			SCENetworkImpl[] sceNetworks, String channel, ResourcePool rp, WireCodec codec) throws IOException {
 		int round = 0;
-		Set<Integer> partyIds = new HashSet<Integer>();
-		for (int i = 1; i <= rp.getNoOfParties(); i++) {
-			partyIds.add(i);
-		}		
-		boolean[] dones = new boolean[numOfProtocols];
+		boolean[] dones = doneFlags(numOfProtocols);
 		boolean done;
 		// Do all rounds
 		do {
@@ -103,7 +158,7 @@ public class BatchedStrategy {
 			for (int i = 0; i < numOfProtocols; i++) {
 				SCENetworkImpl sceNetwork = sceNetworks[i];
 				if (!dones[i]) {
-					EvaluationStatus status = protocols[i].evaluate(round, rp, sceNetwork);
+					EvaluationStatus status = protocols[offset + i].evaluate(round, rp, sceNetwork);
 					if (status.equals(EvaluationStatus.IS_DONE)) {
 						dones[i] = true;
 					} else {
@@ -111,45 +166,206 @@ public class BatchedStrategy {
 					}
 				}
 			}
-			// Send/Receive data for this round
-			ArrayList<Map<Integer, Queue<Serializable>>> inputs = new ArrayList<Map<Integer, Queue<Serializable>>>(numOfProtocols);
-			for (int i = 0; i < numOfProtocols; i++) {
-				inputs.add(new HashMap<Integer, Queue<Serializable>>());
-			}
-			for (int pId = 1; pId <= rp.getNoOfParties(); pId++) {
-				// If the current player id is you send your messages
-				if (pId == rp.getMyId()) { 
-					for (int i = 0; i < numOfProtocols; i++) {
-						SCENetworkImpl sceNet = sceNetworks[i];
-						Map<Integer, Queue<Serializable>> output = sceNet.getOutputFromThisRound();
-						for (Map.Entry<Integer, Queue<Serializable>> e: output.entrySet()) {
-							network.send(channel, e.getKey(), e.getValue().size());
-							for (Serializable s: e.getValue()) {
-								network.send(channel, e.getKey(), s);
-							}
-						}
-					}
+			communicate(sceNetworks, numOfProtocols, channel, rp, codec);
+			round++;
+		} while (!done);
+		return round;
+	}
+
+	/**
+	 * Sends the messages of the protocols from the round just evaluated,
+	 * receives the messages they expect before the next round and moves their
+	 * networks on to the next round. This is steps 2 and 3 above, for
+	 * evaluators that run step 1 themselves.
+	 */
+	static void communicate(SCENetworkImpl[] sceNetworks, int numOfProtocols, String channel, ResourcePool rp,
+			WireCodec codec) throws IOException {
+		Network network = rp.getNetwork();
+		int noOfParties = rp.getNoOfParties();
+		int myId = rp.getMyId();
+		MessageBuffers buffers = (codec == null) ? null : messageBuffers(noOfParties);
+		for (int pId = 1; pId <= noOfParties; pId++) {
+			// If the current player id is you send your messages
+			if (pId == myId && isOutputBroadcast(sceNetworks, numOfProtocols)) {
+				Serializable[] message = coalesce(sceNetworks, numOfProtocols, BROADCAST, buffers);
+				if (message != null) {
+					WireCodec.broadcast(network, channel, message, codec);
+					release(message, buffers);
 				}
-				// Receive messages from the current player id
-				for (int i = 0; i < numOfProtocols; i++) {
-					SCENetworkImpl sceNet = sceNetworks[i];
-					Set<Integer> expectedInput = sceNet.getExpectedInputForNextRound();
-					if (expectedInput.contains(pId)) {
-						int numMessages = network.receive(channel, pId);
-						Queue<Serializable> messages = new LinkedBlockingQueue<Serializable>();
-						for (int j = 0; j < numMessages; j++) {
-							Serializable s = network.receive(channel, pId);
-							messages.offer(s);
-						}
-						inputs.get(i).put(pId, messages);
+			} else if (pId == myId) {
+				for (int receiver = 1; receiver <= noOfParties; receiver++) {
+					Serializable[] message = coalesce(sceNetworks, numOfProtocols, receiver, buffers);
+					if (message != null) {
+						WireCodec.send(network, channel, receiver, message, codec);
+						release(message, buffers);
 					}
 				}
 			}
-			for (int i = 0; i < numOfProtocols; i++) {
-				sceNetworks[i].setInput(inputs.get(i));
-				sceNetworks[i].nextRound();
+			// Receive messages from the current player id
+			if (isInputExpected(sceNetworks, numOfProtocols, pId)) {
+				Serializable[] message = WireCodec.receive(network, channel, pId, codec);
+				split(message, sceNetworks, numOfProtocols, pId);
 			}
-			round++;
-		} while (!done);
+		}
+		for (int i = 0; i < numOfProtocols; i++) {
+			sceNetworks[i].nextRound();
+		}
+	}
+
+	/**
+	 * @return the done flags of this thread, cleared for the given number of
+	 *         protocols.
+	 */
+	private static boolean[] doneFlags(int numOfProtocols) {
+		boolean[] dones = doneFlags.get();
+		if (dones == null || dones.length < numOfProtocols) {
+			dones = new boolean[numOfProtocols];
+			doneFlags.set(dones);
+		} else {
+			Arrays.fill(dones, 0, numOfProtocols, false);
+		}
+		return dones;
+	}
+
+	/**
+	 * @return the message buffers of this thread, for at least the given
+	 *         number of parties.
+	 */
+	private static MessageBuffers messageBuffers(int noOfParties) {
+		MessageBuffers buffers = messageBuffers.get();
+		if (buffers == null || buffers.messages.length < noOfParties + 1) {
+			buffers = new MessageBuffers(noOfParties);
+			messageBuffers.set(buffers);
+		}
+		return buffers;
+	}
+
+	/**
+	 * Drops the references a reused message holds to the messages of the
+	 * protocols once it has been encoded and sent.
+	 */
+	private static void release(Serializable[] message, MessageBuffers buffers) {
+		if (buffers != null) {
+			Arrays.fill(message, 1, message.length, null);
+		}
+	}
+
+	/**
+	 * Collects the output of all protocols to the given party in this round
+	 * into one message. The first element is an int[] holding the number of
+	 * messages of each protocol that has any, in protocol order, followed by
+	 * the messages themselves.
+	 * 
+	 * @param receiver
+	 *            the id of the receiver, or {@link #BROADCAST} for the output
+	 *            of a round where all output is broadcast.
+	 * @param buffers
+	 *            the buffers to reuse the message from, or null to allocate a
+	 *            new one. The message is encoded as a whole, so a buffer is
+	 *            only reused if it has exactly the right length, which it has
+	 *            when consecutive rounds and batches have the same shape.
+	 * @return the message, or null if no protocol has output to the party.
+	 */
+	private static Serializable[] coalesce(SCENetworkImpl[] sceNetworks, int numOfProtocols, int receiver,
+			MessageBuffers buffers) {
+		int protocolsWithOutput = 0;
+		int messages = 0;
+		for (int i = 0; i < numOfProtocols; i++) {
+			int size = outputTo(sceNetworks[i], receiver).size();
+			if (size > 0) {
+				protocolsWithOutput++;
+				messages += size;
+			}
+		}
+		if (messages == 0) {
+			return null;
+		}
+		int[] sizes;
+		Serializable[] message;
+		if (buffers == null) {
+			sizes = new int[protocolsWithOutput];
+			message = new Serializable[1 + messages];
+		} else {
+			sizes = buffers.sizes[receiver];
+			if (sizes == null || sizes.length != protocolsWithOutput) {
+				sizes = new int[protocolsWithOutput];
+				buffers.sizes[receiver] = sizes;
+			}
+			message = buffers.messages[receiver];
+			if (message == null || message.length != 1 + messages) {
+				message = new Serializable[1 + messages];
+				buffers.messages[receiver] = message;
+			}
+		}
+		message[0] = sizes;
+		int protocol = 0;
+		int pos = 1;
+		for (int i = 0; i < numOfProtocols; i++) {
+			Queue<Serializable> output = outputTo(sceNetworks[i], receiver);
+			if (!output.isEmpty()) {
+				sizes[protocol++] = output.size();
+				// Drain rather than iterate to avoid an iterator per protocol.
+				// The output queues are cleared at the end of the round anyway.
+				Serializable s;
+				while ((s = output.poll()) != null) {
+					message[pos++] = s;
+				}
+			}
+		}
+		return message;
+	}
+
+	private static Queue<Serializable> outputTo(SCENetworkImpl sceNetwork, int receiver) {
+		if (receiver == BROADCAST) {
+			return sceNetwork.getBroadcastOutput();
+		}
+		return sceNetwork.getOutputFromThisRound(receiver);
+	}
+
+	private static boolean isOutputBroadcast(SCENetworkImpl[] sceNetworks, int numOfProtocols) {
+		for (int i = 0; i < numOfProtocols; i++) {
+			if (!sceNetworks[i].isOutputBroadcast()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isInputExpected(SCENetworkImpl[] sceNetworks, int numOfProtocols, int sender) {
+		for (int i = 0; i < numOfProtocols; i++) {
+			if (sceNetworks[i].isInputExpectedForNextRound(sender)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Hands the messages of a message made by coalesce() to the protocols
+	 * expecting input from the sender. A protocol expects input from a party
+	 * exactly when that party has output for it, so the sizes are consumed in
+	 * the order of the protocols expecting input.
+	 */
+	private static void split(Serializable[] message, SCENetworkImpl[] sceNetworks, int numOfProtocols, int sender) {
+		int[] sizes = (int[]) message[0];
+		int protocol = 0;
+		int pos = 1;
+		for (int i = 0; i < numOfProtocols; i++) {
+			SCENetworkImpl sceNet = sceNetworks[i];
+			if (sceNet.isInputExpectedForNextRound(sender)) {
+				if (protocol == sizes.length) {
+					throw new MPCException("More protocols expect input from party " + sender
+							+ " than it sent output for.");
+				}
+				int size = sizes[protocol++];
+				for (int j = 0; j < size; j++) {
+					sceNet.addInput(sender, message[pos++]);
+				}
+			}
+		}
+		if (protocol != sizes.length) {
+			throw new MPCException("Party " + sender + " sent output for " + sizes.length + " protocols, but only "
+					+ protocol + " expect input from it.");
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.evaluator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.NativeProtocol;
+import dk.alexandra.fresco.framework.ProtocolEvaluator;
+import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.ValueIndependentProducer;
+import dk.alexandra.fresco.framework.network.SCENetworkImpl;
+import dk.alexandra.fresco.framework.network.WireCodec;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+import dk.alexandra.fresco.framework.sce.resources.SCEResourcePool;
+import dk.alexandra.fresco.framework.value.Value;
+import dk.alexandra.fresco.suite.ProtocolSuite;
+
+/**
+ * Evaluator that schedules native protocols by their data dependencies rather
+ * than by the slices returned by the protocol producer.
+ * 
+ * The evaluator keeps a window of up to maxBatchSize produced, but not yet
+ * evaluated, native protocols. Each step it walks the window in production
+ * order and picks every protocol whose input values are not written by an
+ * earlier protocol in the window, and whose output values are neither read nor
+ * written by an earlier protocol in the window. The dependencies are found
+ * from {@link NativeProtocol#getInputValues()} and
+ * {@link NativeProtocol#getOutputValues()}. All picked protocols are evaluated
+ * together using the {@link BatchedStrategy}, so independent protocols from
+ * different sub-producers share the same network rounds.
+ * 
+ * The protocols of the oldest slice in the window are always picked, since the
+ * producer guarantees that they only depend on protocols already evaluated.
+ * This ensures progress.
+ * 
+ * There are two cases where the values, and thus the edges, are unknown, and
+ * the evaluator falls back to evaluating in production order:
+ * <ul>
+ * <li>A protocol returning null, or an array containing null, from
+ * getInputValues or getOutputValues. It is only picked once it is in the
+ * oldest slice, and no later protocol is picked before it.</li>
+ * <li>A producer whose next call is not value independent, see
+ * {@link ValueIndependentProducer}. It may read the values of any waiting
+ * protocol, so the whole window is evaluated before the producer is
+ * called.</li>
+ * </ul>
+ * 
+ * Readiness is decided from the dependency graph only, and not from
+ * {@link Value#isReady()}, since e.g. an output to a single party makes a
+ * value ready at that party only. The schedule therefore only depends on the
+ * protocol producer and is the same at all parties.
+ * 
+ */
+public class DependencyGraphEvaluator implements ProtocolEvaluator {
+
+	private static final int DEFAULT_THREAD_ID = 0;
+
+	private static final String DEFAULT_CHANNEL = "0";
+
+	/**
+	 * Quit if more than this amount of empty batches are returned in a row from
+	 * the protocol producer while no protocols are waiting.
+	 */
+	private static final int MAX_EMPTY_BATCHES_IN_A_ROW = 10;
+
+	private int maxBatchSize;
+
+	private SCEResourcePool resourcePool;
+	private ProtocolSuite protocolSuite;
+
+	private SCENetworkImpl[] sceNetworks;
+	private MetricsRegistry metrics;
+
+	private int totalProtocols;
+	private int totalBatches;
+
+	public DependencyGraphEvaluator() {
+		this.maxBatchSize = 4096;
+	}
+
+	@Override
+	public void setResourcePool(SCEResourcePool resourcePool) {
+		this.resourcePool = resourcePool;
+		this.metrics = MetricsRegistry.getInstance(resourcePool.getMyId());
+		this.sceNetworks = new SCENetworkImpl[0];
+	}
+
+	/**
+	 * Makes sure there is a network for each protocol of a batch of the given
+	 * size. The batch size may change after the resource pool is set.
+	 */
+	private void ensureNetworks(int batchSize) {
+		if (this.sceNetworks.length >= batchSize) {
+			return;
+		}
+		SCENetworkImpl[] networks = Arrays.copyOf(this.sceNetworks, batchSize);
+		for (int i = this.sceNetworks.length; i < batchSize; i++) {
+			networks[i] = new SCENetworkImpl(this.resourcePool.getNoOfParties(), this.resourcePool.getMyId(),
+					DEFAULT_THREAD_ID);
+		}
+		this.sceNetworks = networks;
+	}
+
+	@Override
+	public void setProtocolInvocation(ProtocolSuite pii) {
+		this.protocolSuite = pii;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Sets the maximum amount of produced protocols waiting for evaluation.
+	 * This is also the maximum amount of gates evaluated in each batch.
+	 * 
+	 * @param maxBatchSize
+	 *            the maximum batch size.
+	 */
+	@Override
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	@Override
+	public void eval(ProtocolProducer c) throws IOException {
+		List<Node> window = new ArrayList<Node>(this.maxBatchSize);
+		NativeProtocol[] batch = new NativeProtocol[this.maxBatchSize];
+		int slice = 0;
+		int zeroBatches = 0;
+		this.totalProtocols = 0;
+		this.totalBatches = 0;
+		while (c.hasNextProtocols() || !window.isEmpty()) {
+			// Fill up the window.
+			while (window.size() < this.maxBatchSize && c.hasNextProtocols()) {
+				if (!window.isEmpty() && !ValueIndependentProducer.isValueIndependent(c)) {
+					// The producer may read values of the waiting protocols.
+					break;
+				}
+				NativeProtocol[] produced = new NativeProtocol[this.maxBatchSize - window.size()];
+				int numOfProtocols = c.getNextProtocols(produced, 0);
+				if (numOfProtocols == 0) {
+					break;
+				}
+				for (int i = 0; i < numOfProtocols; i++) {
+					window.add(new Node(produced[i], slice));
+				}
+				slice++;
+			}
+			if (window.isEmpty()) {
+				zeroBatches++;
+				if (zeroBatches > MAX_EMPTY_BATCHES_IN_A_ROW) {
+					throw new MPCException("Number of empty batches in a row reached " + MAX_EMPTY_BATCHES_IN_A_ROW
+							+ "; probably there is a bug in your protocol producer.");
+				}
+				continue;
+			}
+			zeroBatches = 0;
+			evaluateStep(window, batch);
+		}
+		this.protocolSuite.finishedEval();
+		Reporter.fine("Dependency graph evaluator done. Evaluated a total of " + totalProtocols
+				+ " native protocols in " + totalBatches + " batches.");
+	}
+
+	/**
+	 * Evaluates all protocols of the window that can be evaluated now.
+	 * 
+	 * @param window
+	 *            the produced protocols in production order. Evaluated
+	 *            protocols are removed.
+	 * @param batch
+	 *            array to put the scheduled protocols in.
+	 */
+	private void evaluateStep(List<Node> window, NativeProtocol[] batch) throws IOException {
+		int numOfProtocolsInBatch = schedule(window, batch);
+		ensureNetworks(numOfProtocolsInBatch);
+		int rounds = BatchedStrategy.processBatch(batch, numOfProtocolsInBatch, this.sceNetworks,
+				DEFAULT_CHANNEL, this.resourcePool, this.protocolSuite.getWireCodec());
+		this.metrics.protocolsEvaluated(batch, numOfProtocolsInBatch);
+		this.metrics.batchEvaluated(rounds);
+		this.protocolSuite.synchronize(numOfProtocolsInBatch);
+		totalProtocols += numOfProtocolsInBatch;
+		totalBatches++;
+		Reporter.finest("Done evaluating batch " + totalBatches + " with " + numOfProtocolsInBatch
+				+ " native protocols; " + window.size() + " protocols are waiting");
+	}
+
+	/**
+	 * Moves all protocols of the window that can be evaluated now into the
+	 * batch.
+	 * 
+	 * @param window
+	 *            the produced protocols in production order. Scheduled
+	 *            protocols are removed.
+	 * @param batch
+	 *            array to put the scheduled protocols in.
+	 * @return the number of scheduled protocols.
+	 */
+	private int schedule(List<Node> window, NativeProtocol[] batch) {
+		Set<Value> written = Collections.newSetFromMap(new IdentityHashMap<Value, Boolean>());
+		Set<Value> read = Collections.newSetFromMap(new IdentityHashMap<Value, Boolean>());
+		boolean barrier = false;
+		int oldestSlice = window.get(0).slice;
+		int scheduled = 0;
+		List<Node> waiting = new ArrayList<Node>(window.size());
+		for (Node node : window) {
+			Value[] inputs = node.protocol.getInputValues();
+			Value[] outputs = node.protocol.getOutputValues();
+			boolean known = isKnown(inputs) && isKnown(outputs);
+			boolean ready = node.slice == oldestSlice || (!barrier && known && noneIn(inputs, written)
+					&& noneIn(outputs, written) && noneIn(outputs, read));
+			if (ready) {
+				batch[scheduled++] = node.protocol;
+			} else {
+				waiting.add(node);
+			}
+			if (!known) {
+				barrier = true;
+			} else {
+				addAll(inputs, read);
+				addAll(outputs, written);
+			}
+		}
+		window.clear();
+		window.addAll(waiting);
+		return scheduled;
+	}
+
+	/**
+	 * Returns true if all values are identified, i.e. neither the array nor
+	 * any of its elements is null.
+	 */
+	private static boolean isKnown(Value[] values) {
+		if (values == null) {
+			return false;
+		}
+		for (Value v : values) {
+			if (v == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean noneIn(Value[] values, Set<Value> set) {
+		for (Value v : values) {
+			if (set.contains(v)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void addAll(Value[] values, Set<Value> set) {
+		for (Value v : values) {
+			set.add(v);
+		}
+	}
+
+	/**
+	 * A produced protocol together with the slice it was produced in.
+	 */
+	private static class Node {
+
+		final NativeProtocol protocol;
+		final int slice;
+
+		Node(NativeProtocol protocol, int slice) {
+			this.protocol = protocol;
+			this.slice = slice;
+		}
+	}
+}
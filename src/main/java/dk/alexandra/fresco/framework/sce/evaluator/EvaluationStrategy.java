@@ -30,7 +30,7 @@ import dk.alexandra.fresco.framework.ProtocolEvaluator;
 import dk.alexandra.fresco.framework.configuration.ConfigurationException;
 
 public enum EvaluationStrategy {
-    SEQUENTIAL, PARALLEL, PARALLEL_BATCHED, SEQUENTIAL_BATCHED;
+    SEQUENTIAL, PARALLEL, PARALLEL_BATCHED, SEQUENTIAL_BATCHED, PIPELINED, DEPENDENCY_GRAPH, ROUND_BARRIER;
 
 	public static ProtocolEvaluator fromString(String evalStr) throws ConfigurationException {
 		EvaluationStrategy evalStrategy = EvaluationStrategy.valueOf(evalStr.toUpperCase());
@@ -43,6 +43,12 @@ public enum EvaluationStrategy {
 			return new BatchedSequentialEvaluator();
 		case PARALLEL_BATCHED:
 			return new BatchedParallelEvaluator();
+		case PIPELINED:
+			return new PipelinedEvaluator();
+		case DEPENDENCY_GRAPH:
+			return new DependencyGraphEvaluator();
+		case ROUND_BARRIER:
+			return new RoundBarrierEvaluator();
 		default:
 			throw new ConfigurationException("Unrecognized evaluation strategy:" + evalStr);
 		}
@@ -58,6 +64,12 @@ public enum EvaluationStrategy {
 			return new BatchedSequentialEvaluator();
 		case PARALLEL_BATCHED:
 			return new BatchedParallelEvaluator();
+		case PIPELINED:
+			return new PipelinedEvaluator();
+		case DEPENDENCY_GRAPH:
+			return new DependencyGraphEvaluator();
+		case ROUND_BARRIER:
+			return new RoundBarrierEvaluator();
 		default:
 			throw new ConfigurationException("Unrecognized evaluation strategy:" + strat);
 		}
@@ -74,6 +86,15 @@ public enum EvaluationStrategy {
 		}
 		else if(evaluator instanceof BatchedParallelEvaluator) {
 			return PARALLEL_BATCHED.name();
+		}
+		else if(evaluator instanceof PipelinedEvaluator) {
+			return PIPELINED.name();
+		}
+		else if(evaluator instanceof DependencyGraphEvaluator) {
+			return DEPENDENCY_GRAPH.name();
+		}
+		else if(evaluator instanceof RoundBarrierEvaluator) {
+			return ROUND_BARRIER.name();
 		} else {
 			throw new ConfigurationException("Unrecognized evaluation strategy:" + evaluator.toString());
 		}
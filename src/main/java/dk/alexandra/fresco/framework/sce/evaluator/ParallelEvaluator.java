@@ -28,14 +28,12 @@ package dk.alexandra.fresco.framework.sce.evaluator;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import dk.alexandra.fresco.framework.NativeProtocol;
 import dk.alexandra.fresco.framework.NativeProtocol.EvaluationStatus;
@@ -44,6 +42,8 @@ import dk.alexandra.fresco.framework.ProtocolProducer;
 import dk.alexandra.fresco.framework.Reporter;
 import dk.alexandra.fresco.framework.network.Network;
 import dk.alexandra.fresco.framework.network.SCENetworkImpl;
+import dk.alexandra.fresco.framework.network.WireCodec;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
 import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
 import dk.alexandra.fresco.framework.sce.resources.SCEResourcePool;
 import dk.alexandra.fresco.framework.sce.resources.threads.VMThreadPool;
@@ -54,6 +54,8 @@ public class ParallelEvaluator implements ProtocolEvaluator {
 	private int maxBatchSize, threads;
 	private SCEResourcePool rp;
 	private ProtocolSuite pii;
+	private NativeProtocol[] nextGates = new NativeProtocol[0];
+	private MetricsRegistry metrics;
 
 	public ParallelEvaluator() {
 		this.maxBatchSize = 4096;	
@@ -62,9 +64,14 @@ public class ParallelEvaluator implements ProtocolEvaluator {
 	@Override
 	public void eval(ProtocolProducer c) {
 		do {
-			NativeProtocol[] nextGates = new NativeProtocol[maxBatchSize];
+			if (nextGates.length != maxBatchSize) {
+				nextGates = new NativeProtocol[maxBatchSize];
+			}
 			int numOfGatesInBatch = c.getNextProtocols(nextGates, 0);
-			processBatch(nextGates, numOfGatesInBatch);
+			int rounds = processBatch(nextGates, numOfGatesInBatch);
+			this.metrics.protocolsEvaluated(nextGates, numOfGatesInBatch);
+			this.metrics.batchEvaluated(rounds);
+			Arrays.fill(nextGates, 0, numOfGatesInBatch, null);
 		} while (c.hasNextProtocols());
 		this.pii.finishedEval();
 	}
@@ -73,8 +80,10 @@ public class ParallelEvaluator implements ProtocolEvaluator {
 	 * As soon as this method finishes, it may be called again with a new batch
 	 * -- ie to process more than one batch at a time, simply return before the
 	 * first one is finished
+	 * 
+	 * Returns the number of rounds used by the slowest thread.
 	 */
-	public void processBatch(NativeProtocol[] gates, int numOfGates) {
+	public int processBatch(NativeProtocol[] gates, int numOfGates) {
 		int jobs = 1;
 		if (numOfGates > 15) {
 			jobs = (numOfGates > threads) ? threads : numOfGates;
@@ -84,11 +93,11 @@ public class ParallelEvaluator implements ProtocolEvaluator {
 			tasks.add(new BatchTask(gates, i, jobs, numOfGates, rp));
 		}
 		VMThreadPool es = rp.getVMThreadPool();
+		int rounds = 0;
 		try {
-			List<Future<Object>> futures = es.submitVMTasks(tasks);
-			for (Future<Object> f: futures) {
-				@SuppressWarnings("unused")
-				Object o = f.get();
+			List<Future<Integer>> futures = es.submitVMTasks(tasks);
+			for (Future<Integer> f: futures) {
+				rounds = Math.max(rounds, f.get());
 			}
 		} catch (InterruptedException e) {
 			Reporter.severe("Evaluation was interrupted.", e);
@@ -96,6 +105,7 @@ public class ParallelEvaluator implements ProtocolEvaluator {
 			Reporter.severe("Exception during evaluation.", e);
 		}
 		pii.synchronize(numOfGates);
+		return rounds;
 	}
 
 	@Override
@@ -111,10 +121,11 @@ public class ParallelEvaluator implements ProtocolEvaluator {
 	@Override
 	public void setResourcePool(SCEResourcePool resourcePool) {
 		this.rp = resourcePool;
+		this.metrics = MetricsRegistry.getInstance(resourcePool.getMyId());
 		this.threads = resourcePool.getVMThreadPool().getVMThreadCount();
 	}
 	
-	private class BatchTask implements Callable<Object> {
+	private class BatchTask implements Callable<Integer> {
 
 		NativeProtocol[] gates;
 		int offset, interval, totalGates;
@@ -131,38 +142,45 @@ public class ParallelEvaluator implements ProtocolEvaluator {
 		}
 
 		@Override
-		public Object call() throws Exception {
-			SCENetworkImpl protocolNetwork = new SCENetworkImpl(this.rp.getNoOfParties(), offset);			
+		public Integer call() throws Exception {
+			int totalRounds = 0;
+			SCENetworkImpl protocolNetwork = new SCENetworkImpl(this.rp.getNoOfParties(), this.rp.getMyId(), offset);			
 			Network network = rp.getNetwork();
+			WireCodec codec = pii.getWireCodec();
 			for (int i=offset; i< totalGates; i+=interval) {
 				int round = 0;
 				EvaluationStatus status;
 				do {					
 					status = gates[i].evaluate(round, this.rp, protocolNetwork);
-					//send phase
-					Map<Integer, Queue<Serializable>> output = protocolNetwork.getOutputFromThisRound();				
-					for(int pId : output.keySet()) {
-						//send array since queue is not serializable
-						network.send(channel, pId, output.get(pId).toArray(new Serializable[0]));					
+					// send phase
+					if (protocolNetwork.isOutputBroadcast()) {
+						Queue<Serializable> output = protocolNetwork.getBroadcastOutput();
+						if (!output.isEmpty()) {
+							WireCodec.broadcast(network, channel, output.toArray(new Serializable[output.size()]), codec);
+						}
+					} else {
+						for (int pId = 1; pId <= this.rp.getNoOfParties(); pId++) {
+							Queue<Serializable> output = protocolNetwork.getOutputFromThisRound(pId);
+							if (!output.isEmpty()) {
+								// send array since queue is not serializable
+								WireCodec.send(network, channel, pId, output.toArray(new Serializable[output.size()]), codec);
+							}
+						}
 					}
-					
-					//receive phase
-					Map<Integer, Queue<Serializable>> inputForThisRound = new HashMap<Integer, Queue<Serializable>>();
-					for(int pId : protocolNetwork.getExpectedInputForNextRound()) {					
-						Serializable[] messages = network.receive(channel, pId);
-						Queue<Serializable> q = new LinkedBlockingQueue<Serializable>();
-						//convert back from array to queue.
-						for(Serializable message : messages) {
-							q.offer(message);
+
+					// receive phase
+					for (int pId = 1; pId <= this.rp.getNoOfParties(); pId++) {
+						if (protocolNetwork.isInputExpectedForNextRound(pId)) {
+							Serializable[] messages = WireCodec.receive(network, channel, pId, codec);
+							protocolNetwork.addInputs(pId, messages);
 						}
-						inputForThisRound.put(pId, q);
 					}
-					protocolNetwork.setInput(inputForThisRound);
 					protocolNetwork.nextRound();
 					round++;
 				} while (status.equals(EvaluationStatus.HAS_MORE_ROUNDS));
+				totalRounds += round;
 			}			
-			return null;
+			return totalRounds;
 		}
 	}
 }
@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.evaluator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.NativeProtocol;
+import dk.alexandra.fresco.framework.ProtocolEvaluator;
+import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.ValueIndependentProducer;
+import dk.alexandra.fresco.framework.network.SCENetworkImpl;
+import dk.alexandra.fresco.framework.network.WireCodec;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+import dk.alexandra.fresco.framework.sce.resources.SCEResourcePool;
+import dk.alexandra.fresco.suite.ProtocolSuite;
+
+/**
+ * Evaluator that overlaps the production of batches with their evaluation. A
+ * separate producer thread walks the protocol producer tree and hands finished
+ * batches to the evaluating thread through a bounded queue. While batch N is
+ * in its network rounds, batch N+1 is being produced.
+ * 
+ * Batches are evaluated one at a time, in the order they were produced, using
+ * the {@link BatchedStrategy} on channel "0". The protocol suite is only ever
+ * called from the evaluating thread, and {@link ProtocolSuite#synchronize(int)}
+ * is called after each batch exactly as in the {@link BatchedSequentialEvaluator}.
+ * 
+ * If the producer returns an empty batch while batches are in flight, the
+ * producer thread waits for these to be evaluated before asking again. This
+ * covers producers that hold back protocols until their input values are
+ * ready, e.g., the Bristol circuit parser.
+ * 
+ * A batch is only produced before the previous batches have been evaluated
+ * if the next call of the producer is value independent, see
+ * {@link ValueIndependentProducer}. Otherwise, e.g. when the LP solver or the
+ * comparison protocols read opened values, the producer thread waits for the
+ * queued batches to be evaluated first. Production thus only overlaps
+ * evaluation for the parts of the application declared not to access values.
+ * 
+ * The evaluating thread hands each evaluated batch back to the producer
+ * thread, which fills it again, so the batch arrays are only allocated while
+ * the pipeline fills up.
+ */
+public class PipelinedEvaluator implements ProtocolEvaluator {
+
+	private static final int DEFAULT_THREAD_ID = 0;
+
+	private static final String DEFAULT_CHANNEL = "0";
+
+	/**
+	 * The default number of produced batches that may wait for evaluation.
+	 */
+	private static final int DEFAULT_QUEUE_SIZE = 2;
+
+	/**
+	 * Quit if more than this amount of empty batches are returned in a row from
+	 * the protocol producer.
+	 */
+	private static final int MAX_EMPTY_BATCHES_IN_A_ROW = 10;
+
+	private int maxBatchSize;
+	private int queueSize;
+
+	private SCEResourcePool resourcePool;
+	private ProtocolSuite protocolSuite;
+
+	private SCENetworkImpl[] sceNetworks;
+	private MetricsRegistry metrics;
+
+	public PipelinedEvaluator() {
+		this(DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * @param queueSize
+	 *            the number of produced batches allowed to wait for
+	 *            evaluation. This bounds the memory used by the producer
+	 *            thread.
+	 */
+	public PipelinedEvaluator(int queueSize) {
+		if (queueSize < 1) {
+			throw new IllegalArgumentException("Queue size must be at least 1, but was " + queueSize);
+		}
+		this.maxBatchSize = 4096;
+		this.queueSize = queueSize;
+	}
+
+	@Override
+	public void setResourcePool(SCEResourcePool resourcePool) {
+		this.resourcePool = resourcePool;
+		this.metrics = MetricsRegistry.getInstance(resourcePool.getMyId());
+		this.sceNetworks = new SCENetworkImpl[0];
+	}
+
+	/**
+	 * Makes sure there is a network for each protocol of a batch of the given
+	 * size. The batch size may change after the resource pool is set.
+	 */
+	private void ensureNetworks(int batchSize) {
+		if (this.sceNetworks.length >= batchSize) {
+			return;
+		}
+		SCENetworkImpl[] networks = Arrays.copyOf(this.sceNetworks, batchSize);
+		for (int i = this.sceNetworks.length; i < batchSize; i++) {
+			networks[i] = new SCENetworkImpl(this.resourcePool.getNoOfParties(), this.resourcePool.getMyId(),
+					DEFAULT_THREAD_ID);
+		}
+		this.sceNetworks = networks;
+	}
+
+	@Override
+	public void setProtocolInvocation(ProtocolSuite pii) {
+		this.protocolSuite = pii;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * Sets the maximum amount of gates evaluated in each batch.
+	 * 
+	 * @param maxBatchSize
+	 *            the maximum batch size.
+	 */
+	@Override
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	@Override
+	public void eval(ProtocolProducer c) throws IOException {
+		BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(this.queueSize);
+		// The queued batches, the one being evaluated and the one being
+		// produced.
+		BlockingQueue<Batch> free = new ArrayBlockingQueue<Batch>(this.queueSize + 2);
+		BatchProducer producer = new BatchProducer(c, queue, free);
+		Thread producerThread = new Thread(producer, "PipelinedEvaluator-producer");
+		producerThread.setDaemon(true);
+		producerThread.start();
+		int totalProtocols = 0;
+		int totalBatches = 0;
+		long waitedForProducer = 0;
+		try {
+			long then = System.nanoTime();
+			Batch batch = queue.take();
+			waitedForProducer += System.nanoTime() - then;
+			while (batch != Batch.END) {
+				ensureNetworks(batch.size);
+				int rounds = BatchedStrategy.processBatch(batch.protocols, batch.size, this.sceNetworks,
+						DEFAULT_CHANNEL, this.resourcePool, this.protocolSuite.getWireCodec());
+				this.metrics.protocolsEvaluated(batch.protocols, batch.size);
+				this.metrics.batchEvaluated(rounds);
+				this.protocolSuite.synchronize(batch.size);
+				totalProtocols += batch.size;
+				Arrays.fill(batch.protocols, 0, batch.size, null);
+				free.offer(batch);
+				producer.batchEvaluated();
+				totalBatches++;
+				then = System.nanoTime();
+				batch = queue.take();
+				waitedForProducer += System.nanoTime() - then;
+			}
+		} catch (InterruptedException e) {
+			throw new MPCException("Evaluation was interrupted.", e);
+		} finally {
+			// Make sure the producer does not stay blocked on a full queue
+			// if evaluation failed.
+			producerThread.interrupt();
+		}
+		if (producer.failure != null) {
+			throw new MPCException("Protocol producer failed.", producer.failure);
+		}
+		this.protocolSuite.finishedEval();
+		Reporter.fine("Pipelined evaluator done. Evaluated a total of " + totalProtocols + " native protocols in "
+				+ totalBatches + " batches, of which " + producer.producedAhead
+				+ " were produced while earlier batches were evaluated. Waited "
+				+ (waitedForProducer / 1000000) + " ms for the producer.");
+	}
+
+	/**
+	 * A produced batch of native protocols. Batches are reused once evaluated.
+	 */
+	private static class Batch {
+
+		/**
+		 * Marks that the producer has no more batches.
+		 */
+		static final Batch END = new Batch(0);
+
+		final NativeProtocol[] protocols;
+		int size;
+
+		Batch(int capacity) {
+			this.protocols = new NativeProtocol[capacity];
+		}
+	}
+
+	/**
+	 * Walks the protocol producer and queues up the batches. Always ends by
+	 * queueing {@link Batch#END}, also if the protocol producer throws.
+	 */
+	private class BatchProducer implements Runnable {
+
+		private final ProtocolProducer producer;
+		private final BlockingQueue<Batch> queue;
+		private final BlockingQueue<Batch> free;
+		private volatile RuntimeException failure;
+		private int inFlight = 0;
+		private volatile int producedAhead = 0;
+
+		BatchProducer(ProtocolProducer producer, BlockingQueue<Batch> queue, BlockingQueue<Batch> free) {
+			this.producer = producer;
+			this.queue = queue;
+			this.free = free;
+		}
+
+		@Override
+		public void run() {
+			boolean interrupted = false;
+			try {
+				int zeroBatches = 0;
+				Batch batch = null;
+				do {
+					// Only produce ahead of evaluation if the producer does
+					// not read values of the queued protocols.
+					if (!ValueIndependentProducer.isValueIndependent(producer)) {
+						awaitEvaluated();
+					}
+					if (batch == null) {
+						batch = nextBatch();
+					}
+					batch.size = producer.getNextProtocols(batch.protocols, 0);
+					if (batch.size == 0) {
+						// The producer may be waiting for values of protocols
+						// that are not yet evaluated. Only count the empty
+						// batch if nothing is in flight.
+						if (awaitEvaluated()) {
+							continue;
+						}
+						zeroBatches++;
+						if (zeroBatches > MAX_EMPTY_BATCHES_IN_A_ROW) {
+							throw new MPCException("Number of empty batches in a row reached "
+									+ MAX_EMPTY_BATCHES_IN_A_ROW + "; probably there is a bug in your protocol producer.");
+						}
+						continue;
+					}
+					zeroBatches = 0;
+					if (batchQueued() > 1) {
+						producedAhead++;
+					}
+					queue.put(batch);
+					batch = null;
+				} while (producer.hasNextProtocols());
+			} catch (InterruptedException e) {
+				// The evaluator has stopped; nobody is waiting for more batches.
+				interrupted = true;
+			} catch (RuntimeException e) {
+				this.failure = e;
+			} finally {
+				if (!interrupted) {
+					try {
+						queue.put(Batch.END);
+					} catch (InterruptedException e) {
+						// The evaluator has stopped; nobody is waiting for the end marker.
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return an evaluated batch to fill, or a new one if none has been
+		 *         handed back yet.
+		 */
+		private Batch nextBatch() {
+			Batch batch = free.poll();
+			if (batch == null || batch.protocols.length != maxBatchSize) {
+				batch = new Batch(maxBatchSize);
+			}
+			return batch;
+		}
+
+		/**
+		 * @return the number of batches in flight, including the queued one.
+		 */
+		private synchronized int batchQueued() {
+			return ++inFlight;
+		}
+
+		synchronized void batchEvaluated() {
+			inFlight--;
+			notifyAll();
+		}
+
+		/**
+		 * Blocks until all queued batches have been evaluated.
+		 * 
+		 * @return true if there were batches in flight when called.
+		 */
+		private synchronized boolean awaitEvaluated() throws InterruptedException {
+			if (inFlight == 0) {
+				return false;
+			}
+			while (inFlight > 0) {
+				wait();
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,445 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.evaluator;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.NativeProtocol;
+import dk.alexandra.fresco.framework.NativeProtocol.EvaluationStatus;
+import dk.alexandra.fresco.framework.ProtocolEvaluator;
+import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.network.SCENetworkImpl;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+import dk.alexandra.fresco.framework.sce.resources.SCEResourcePool;
+import dk.alexandra.fresco.suite.ProtocolSuite;
+
+/**
+ * Experimental evaluator that runs each group of native protocols of a batch
+ * on its own thread, rather than each slice of a batch as a task of the fixed
+ * size {@link dk.alexandra.fresco.framework.sce.resources.threads.VMThreadPool}.
+ * After evaluating a round, the thread of a group parks on a round barrier.
+ * The last group to arrive sends the messages of the round, receives the
+ * messages expected before the next round and then releases the barrier, so
+ * the groups wake up with all their input for the next round. A group leaves
+ * the barrier once all its protocols are done.
+ * 
+ * On Java 21 or later the groups run on virtual threads, so a batch may hold
+ * many thousands of groups in flight. On earlier runtimes they run on platform
+ * threads of a cached pool, and the group size should be chosen so a batch
+ * does not need more threads than the machine can handle.
+ * 
+ * As in the {@link BatchedParallelEvaluator}, protocol k of a batch belongs to
+ * the lane k mod lanes, where there is one lane per VM thread id. A lane
+ * communicates over the channel of its thread id and its protocols use the
+ * preprocessed data of that thread id, which is taken in the order the
+ * protocols are evaluated. That order must be the same at all parties, so the
+ * groups of a lane evaluate each round in turn, in protocol order. The groups
+ * of different lanes evaluate in parallel.
+ */
+public class RoundBarrierEvaluator implements ProtocolEvaluator {
+
+	/**
+	 * The default number of protocols evaluated by each thread.
+	 */
+	private static final int DEFAULT_GROUP_SIZE = 64;
+
+	/**
+	 * The most parties a {@link Phaser} can have.
+	 */
+	private static final int MAX_GROUPS_PER_LANE = 65535;
+
+	private static ExecutorService groupThreads;
+
+	private final int groupSize;
+	private int maxBatchSize;
+	private int threads;
+	private SCEResourcePool rp;
+	private ProtocolSuite pii;
+	private MetricsRegistry metrics;
+	// The networks of each lane, reused from batch to batch.
+	private SCENetworkImpl[][] sceNetworks;
+	private NativeProtocol[] nextGates = new NativeProtocol[0];
+	// The lanes of the current batch.
+	private volatile Lane[] lanes;
+	private volatile Exception failure;
+
+	public RoundBarrierEvaluator() {
+		this(DEFAULT_GROUP_SIZE);
+	}
+
+	/**
+	 * @param groupSize
+	 *            the number of protocols evaluated by each thread.
+	 */
+	public RoundBarrierEvaluator(int groupSize) {
+		if (groupSize < 1) {
+			throw new IllegalArgumentException("Group size must be at least 1, but was " + groupSize);
+		}
+		this.groupSize = groupSize;
+		this.maxBatchSize = 4096;
+	}
+
+	/**
+	 * @return the executor running the groups, which creates a virtual thread
+	 *         per group on runtimes that have them.
+	 */
+	private static synchronized ExecutorService getGroupThreads() {
+		if (groupThreads == null) {
+			try {
+				groupThreads = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+						.invoke(null);
+				Reporter.config("Evaluating protocol groups on virtual threads");
+			} catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+				Reporter.config("Virtual threads are not available, evaluating protocol groups on platform threads");
+				groupThreads = Executors.newCachedThreadPool(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "RoundBarrierEvaluator-group");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			}
+		}
+		return groupThreads;
+	}
+
+	@Override
+	public void eval(ProtocolProducer c) throws IOException {
+		do {
+			if (nextGates.length != maxBatchSize) {
+				nextGates = new NativeProtocol[maxBatchSize];
+			}
+			int numOfGatesInBatch = c.getNextProtocols(nextGates, 0);
+			int rounds = processBatch(nextGates, numOfGatesInBatch);
+			this.metrics.protocolsEvaluated(nextGates, numOfGatesInBatch);
+			this.metrics.batchEvaluated(rounds);
+			Arrays.fill(nextGates, 0, numOfGatesInBatch, null);
+		} while (c.hasNextProtocols());
+		this.pii.finishedEval();
+	}
+
+	/**
+	 * @return the number of rounds used by the slowest lane.
+	 */
+	private int processBatch(NativeProtocol[] protocols, int numOfProtocols) throws IOException {
+		int lanes = 1;
+		if (numOfProtocols > 7) {
+			lanes = (numOfProtocols > threads) ? threads : numOfProtocols;
+		}
+		this.failure = null;
+		Lane[] laneArray = new Lane[lanes];
+		List<Group> groups = new ArrayList<Group>();
+		for (int l = 0; l < lanes; l++) {
+			int protocolsInLane = (numOfProtocols - l + lanes - 1) / lanes;
+			NativeProtocol[] laneProtocols = new NativeProtocol[protocolsInLane];
+			for (int j = 0, k = l; j < protocolsInLane; j++, k += lanes) {
+				laneProtocols[j] = protocols[k];
+			}
+			int size = Math.max(groupSize, (protocolsInLane + MAX_GROUPS_PER_LANE - 1) / MAX_GROUPS_PER_LANE);
+			int groupsInLane = Math.max(1, (protocolsInLane + size - 1) / size);
+			Lane lane = new Lane(l, laneProtocols, getSCENetworks(l, protocolsInLane), groupsInLane);
+			for (int g = 0; g < groupsInLane; g++) {
+				int start = g * size;
+				Group group = new Group(lane, start, Math.min(size, protocolsInLane - start));
+				lane.groups[g] = group;
+				lane.active[g] = group;
+				groups.add(group);
+			}
+			lane.passTurn();
+			laneArray[l] = lane;
+		}
+		this.lanes = laneArray;
+		ExecutorService executor = getGroupThreads();
+		List<Future<?>> futures = new ArrayList<Future<?>>(groups.size());
+		for (Group group : groups) {
+			futures.add(executor.submit(group));
+		}
+		try {
+			for (Future<?> f : futures) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			abort(e);
+			throw new MPCException("Evaluation was interrupted.", e);
+		} catch (ExecutionException e) {
+			abort((e.getCause() instanceof Exception) ? (Exception) e.getCause() : e);
+		}
+		if (this.failure != null) {
+			if (this.failure instanceof IOException) {
+				throw (IOException) this.failure;
+			}
+			throw new MPCException("Exception during evaluation.", this.failure);
+		}
+		int rounds = 0;
+		for (Lane lane : laneArray) {
+			rounds = Math.max(rounds, lane.rounds);
+		}
+		pii.synchronize(numOfProtocols);
+		return rounds;
+	}
+
+	/**
+	 * Records the first failure and releases every group waiting for its turn
+	 * or on a barrier, so that all groups of the batch stop.
+	 */
+	private void abort(Exception cause) {
+		synchronized (this) {
+			if (this.failure == null) {
+				this.failure = cause;
+			}
+		}
+		for (Lane lane : this.lanes) {
+			lane.stop();
+		}
+	}
+
+	private SCENetworkImpl[] getSCENetworks(int threadId, int numOfProtocols) {
+		SCENetworkImpl[] networks = sceNetworks[threadId];
+		if (networks == null || networks.length < numOfProtocols) {
+			int oldLength = (networks == null) ? 0 : networks.length;
+			networks = (networks == null) ? new SCENetworkImpl[numOfProtocols] : Arrays.copyOf(networks, numOfProtocols);
+			for (int i = oldLength; i < numOfProtocols; i++) {
+				networks[i] = new SCENetworkImpl(rp.getNoOfParties(), rp.getMyId(), threadId);
+			}
+			sceNetworks[threadId] = networks;
+		}
+		return networks;
+	}
+
+	@Override
+	public void setProtocolInvocation(ProtocolSuite pii) {
+		this.pii = pii;
+	}
+
+	@Override
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	@Override
+	public void setResourcePool(SCEResourcePool resourcePool) {
+		this.rp = resourcePool;
+		this.metrics = MetricsRegistry.getInstance(resourcePool.getMyId());
+		this.threads = resourcePool.getVMThreadPool().getVMThreadCount();
+		this.sceNetworks = new SCENetworkImpl[this.threads][];
+	}
+
+	/**
+	 * The protocols of a batch belonging to one thread id, and the barrier
+	 * their groups park on between rounds.
+	 */
+	private class Lane {
+
+		private final String channel;
+		private final NativeProtocol[] protocols;
+		private final SCENetworkImpl[] sceNetworks;
+		private final Group[] groups;
+		private final Phaser barrier;
+		// The groups evaluating the current round, in turn, and the ones that
+		// have more rounds after it. Guarded by this lane.
+		private Group[] active;
+		private Group[] next;
+		private int activeCount;
+		private int nextCount;
+		private int turn;
+		private volatile boolean aborted;
+		private int rounds;
+
+		Lane(int threadId, NativeProtocol[] protocols, SCENetworkImpl[] sceNetworks, int groups) {
+			this.channel = "" + threadId;
+			this.protocols = protocols;
+			this.sceNetworks = sceNetworks;
+			this.groups = new Group[groups];
+			this.active = new Group[groups];
+			this.next = new Group[groups];
+			this.activeCount = groups;
+			this.barrier = new Phaser(groups) {
+				@Override
+				protected boolean onAdvance(int phase, int registeredParties) {
+					return roundDone(phase, registeredParties);
+				}
+			};
+		}
+
+		/**
+		 * Blocks until it is the turn of the given group to evaluate.
+		 * 
+		 * @return false if the batch was aborted.
+		 */
+		boolean awaitTurn(Group group) throws InterruptedException {
+			while (!group.hasTurn && !aborted) {
+				LockSupport.park(this);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+			group.hasTurn = false;
+			return !aborted;
+		}
+
+		/**
+		 * Ends the turn of the given group and passes the turn on to the next
+		 * group of the round.
+		 */
+		synchronized void turnDone(Group group, boolean done) {
+			if (!done) {
+				next[nextCount++] = group;
+			}
+			turn++;
+			passTurn();
+		}
+
+		/**
+		 * Wakes up the group whose turn it is, if any.
+		 */
+		synchronized void passTurn() {
+			if (turn < activeCount) {
+				Group group = active[turn];
+				group.hasTurn = true;
+				Thread thread = group.thread;
+				if (thread != null) {
+					LockSupport.unpark(thread);
+				}
+			}
+		}
+
+		/**
+		 * Called by the last group to arrive at the barrier, before it is
+		 * released.
+		 * 
+		 * @return true if the lane is done, which terminates the barrier.
+		 */
+		private boolean roundDone(int phase, int registeredParties) {
+			try {
+				BatchedStrategy.communicate(sceNetworks, protocols.length, channel, rp, pii.getWireCodec());
+			} catch (IOException | RuntimeException e) {
+				abort(e);
+				return true;
+			}
+			synchronized (this) {
+				Group[] done = active;
+				active = next;
+				activeCount = nextCount;
+				next = done;
+				nextCount = 0;
+				turn = 0;
+				rounds = phase + 1;
+				passTurn();
+			}
+			return registeredParties == 0;
+		}
+
+		/**
+		 * Releases the groups of the lane, which then return.
+		 */
+		void stop() {
+			aborted = true;
+			for (Group group : groups) {
+				Thread thread = group.thread;
+				if (thread != null) {
+					LockSupport.unpark(thread);
+				}
+			}
+			barrier.forceTermination();
+		}
+	}
+
+	/**
+	 * A group of consecutive protocols of a lane, evaluated round by round on
+	 * one thread.
+	 */
+	private class Group implements Runnable {
+
+		private final Lane lane;
+		private final int offset;
+		private final int numOfProtocols;
+		private final boolean[] dones;
+		// Set by the thread evaluating the group before it first waits for
+		// its turn, and read by the group passing the turn to it.
+		private volatile Thread thread;
+		private volatile boolean hasTurn;
+
+		Group(Lane lane, int offset, int numOfProtocols) {
+			this.lane = lane;
+			this.offset = offset;
+			this.numOfProtocols = numOfProtocols;
+			this.dones = new boolean[numOfProtocols];
+		}
+
+		@Override
+		public void run() {
+			this.thread = Thread.currentThread();
+			try {
+				int round = 0;
+				while (lane.awaitTurn(this)) {
+					boolean done = true;
+					for (int i = 0; i < numOfProtocols; i++) {
+						if (!dones[i]) {
+							EvaluationStatus status = lane.protocols[offset + i].evaluate(round, rp,
+									lane.sceNetworks[offset + i]);
+							if (status.equals(EvaluationStatus.IS_DONE)) {
+								dones[i] = true;
+							} else {
+								done = false;
+							}
+						}
+					}
+					lane.turnDone(this, done);
+					if (done) {
+						lane.barrier.arriveAndDeregister();
+						return;
+					}
+					if (lane.barrier.arriveAndAwaitAdvance() < 0) {
+						// The batch was aborted.
+						return;
+					}
+					round++;
+				}
+			} catch (InterruptedException e) {
+				abort(e);
+			} catch (RuntimeException e) {
+				abort(e);
+			} finally {
+				this.thread = null;
+			}
+		}
+	}
+}
@@ -29,19 +29,18 @@ package dk.alexandra.fresco.framework.sce.evaluator;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import dk.alexandra.fresco.framework.MPCException;
 import dk.alexandra.fresco.framework.NativeProtocol;
 import dk.alexandra.fresco.framework.NativeProtocol.EvaluationStatus;
-import dk.alexandra.fresco.framework.ProtocolEvaluator;
 import dk.alexandra.fresco.framework.ProtocolProducer;
 import dk.alexandra.fresco.framework.Reporter;
 import dk.alexandra.fresco.framework.network.Network;
 import dk.alexandra.fresco.framework.network.SCENetworkImpl;
+import dk.alexandra.fresco.framework.network.WireCodec;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+import dk.alexandra.fresco.framework.sce.metrics.Tracer;
 import dk.alexandra.fresco.framework.sce.resources.SCEResourcePool;
 import dk.alexandra.fresco.suite.ProtocolSuite;
 
@@ -53,7 +52,7 @@ import dk.alexandra.fresco.suite.ProtocolSuite;
  * @author Kasper Damgaard
  *
  */
-public class SequentialEvaluator implements ProtocolEvaluator {
+public class SequentialEvaluator implements AdaptiveBatchEvaluator {
 
 	private static final int DEFAULT_THREAD_ID = 0;
 
@@ -74,6 +73,13 @@ public class SequentialEvaluator implements ProtocolEvaluator {
 	private SCEResourcePool resourcePool;
 	private ProtocolSuite protocolSuite;
 	private Network network;
+	private AdaptiveBatchSize adaptiveBatchSize;
+	private MetricsRegistry metrics;
+	private Tracer tracer;
+	private SCENetworkImpl sceNetwork;
+	private NativeProtocol[] nextProtocols = new NativeProtocol[0];
+	// The messages of the last send, reused when they are encoded by a codec.
+	private Serializable[] messages = new Serializable[0];
 	
 	public SequentialEvaluator() {
 		maxBatchSize = 4096;
@@ -82,7 +88,10 @@ public class SequentialEvaluator implements ProtocolEvaluator {
 	@Override
 	public void setResourcePool(SCEResourcePool resourcePool) {
 		this.resourcePool = resourcePool;
+		this.metrics = MetricsRegistry.getInstance(resourcePool.getMyId());
+		this.tracer = Tracer.getInstance(resourcePool.getMyId());
 		this.network = resourcePool.getNetwork();
+		this.sceNetwork = new SCENetworkImpl(resourcePool.getNoOfParties(), resourcePool.getMyId(), DEFAULT_THREAD_ID);
 	}
 
 	public ProtocolSuite getProtocolInvocation() {
@@ -108,13 +117,41 @@ public class SequentialEvaluator implements ProtocolEvaluator {
 	public void setMaxBatchSize(int maxBatchSize) {
 		this.maxBatchSize = maxBatchSize;
 	}
-	
+
+	@Override
+	public void setAdaptiveBatchSize(AdaptiveBatchSize adaptiveBatchSize) {
+		this.adaptiveBatchSize = adaptiveBatchSize;
+	}
 	
 	private int doOneRound(ProtocolProducer c) throws IOException {
-		NativeProtocol[] nextProtocols = new NativeProtocol[maxBatchSize];
+		int batchSize = (adaptiveBatchSize == null) ? maxBatchSize : adaptiveBatchSize.getBatchSize();
+		if (nextProtocols.length != batchSize) {
+			nextProtocols = new NativeProtocol[batchSize];
+		}
+		this.metrics.batchSizeUsed(batchSize);
+		long start = tracer.begin();
 		int numOfProtocolsInBatch = c.getNextProtocols(nextProtocols, 0);
-		processBatch(nextProtocols, numOfProtocolsInBatch);
+		tracer.end(Tracer.PRODUCE_BATCH, start, numOfProtocolsInBatch, 0);
+		long then = System.nanoTime();
+		long sentBefore = this.metrics.getTotalBytesSent();
+		start = tracer.begin();
+		int rounds = processBatch(nextProtocols, numOfProtocolsInBatch);
+		tracer.end(Tracer.EVALUATE_BATCH, start, numOfProtocolsInBatch, rounds);
+		this.metrics.protocolsEvaluated(nextProtocols, numOfProtocolsInBatch);
+		this.metrics.batchEvaluated(rounds);
+		// The buffer is reused for the next batch; drop the evaluated protocols.
+		Arrays.fill(nextProtocols, 0, numOfProtocolsInBatch, null);
+		start = tracer.begin();
 		this.protocolSuite.synchronize(numOfProtocolsInBatch);
+		tracer.end(Tracer.SYNCHRONIZE, start, numOfProtocolsInBatch, 0);
+		if (adaptiveBatchSize != null) {
+			adaptiveBatchSize.batchDone(numOfProtocolsInBatch, rounds, System.nanoTime() - then,
+					this.metrics.getTotalBytesSent() - sentBefore);
+			if (adaptiveBatchSize.shouldAdjust()) {
+				adaptiveBatchSize.adjust(network, DEFAULT_CHANNEL, resourcePool.getMyId(),
+						resourcePool.getNoOfParties());
+			}
+		}
 		return numOfProtocolsInBatch;
 	}
 	
@@ -149,33 +186,48 @@ public class SequentialEvaluator implements ProtocolEvaluator {
 	 * As soon as this method finishes, it may be called again with a new batch
 	 * -- ie to process more than one batch at a time, simply return before the
 	 * first one is finished
+	 * 
+	 * Returns the total number of rounds used.
 	 */
-	public void processBatch(NativeProtocol[] protocols, int numOfProtocols) throws IOException {	
-		SCENetworkImpl sceNetwork = new SCENetworkImpl(this.resourcePool.getNoOfParties(), DEFAULT_THREAD_ID);
+	public int processBatch(NativeProtocol[] protocols, int numOfProtocols) throws IOException {	
+		int totalRounds = 0;
+		WireCodec codec = this.protocolSuite.getWireCodec();
 		for (int i=0; i<numOfProtocols; i++) {
 			int round = 0;
 			EvaluationStatus status;
 			do {
 				status = protocols[i].evaluate(round, this.resourcePool, sceNetwork);				
-				//send phase
-				Map<Integer, Queue<Serializable>> output = sceNetwork.getOutputFromThisRound();				
-				for(int pId : output.keySet()) {
-					//send array since queue is not serializable
-					this.network.send(DEFAULT_CHANNEL, pId, output.get(pId).toArray(new Serializable[0]));					
+				// send phase
+				if (sceNetwork.isOutputBroadcast()) {
+					Queue<Serializable> output = sceNetwork.getBroadcastOutput();
+					if (!output.isEmpty()) {
+						Serializable[] messages = toArray(output, codec);
+						WireCodec.broadcast(this.network, DEFAULT_CHANNEL, messages, codec);
+						release(messages, codec);
+					}
+				} else {
+					for (int pId = 1; pId <= this.resourcePool.getNoOfParties(); pId++) {
+						Queue<Serializable> output = sceNetwork.getOutputFromThisRound(pId);
+						if (!output.isEmpty()) {
+							// send array since queue is not serializable
+							Serializable[] messages = toArray(output, codec);
+							WireCodec.send(this.network, DEFAULT_CHANNEL, pId, messages, codec);
+							release(messages, codec);
+						}
+					}
 				}
-				
-				//receive phase
-				Map<Integer, Queue<Serializable>> inputForThisRound = new HashMap<Integer, Queue<Serializable>>();
-				for(int pId : sceNetwork.getExpectedInputForNextRound()) {
-					Serializable[] messages = this.network.receive(DEFAULT_CHANNEL, pId);
-					//convert back from array to queue.
-					Queue<Serializable> q = new LinkedBlockingQueue<Serializable>(Arrays.asList(messages));					
-					inputForThisRound.put(pId, q);
+
+				// receive phase
+				for (int pId = 1; pId <= this.resourcePool.getNoOfParties(); pId++) {
+					if (sceNetwork.isInputExpectedForNextRound(pId)) {
+						Serializable[] messages = WireCodec.receive(this.network, DEFAULT_CHANNEL, pId, codec);
+						sceNetwork.addInputs(pId, messages);
+					}
 				}
-				sceNetwork.setInput(inputForThisRound);				
 				sceNetwork.nextRound();
 				round++;
 			} while (status.equals(EvaluationStatus.HAS_MORE_ROUNDS));
+			totalRounds += round;
 			
 			// Just a sanity check:
 			// System.out.println("Sequential evaluator completely done with protocol: " + protocols[i]);
@@ -186,6 +238,29 @@ public class SequentialEvaluator implements ProtocolEvaluator {
 			//				"For some reason the protocol: " + protocols[i] + " says its not ready, though it returned EvaluationStatus.IS_DONE");
 			//}
 			
-		}		
+		}
+		return totalRounds;
+	}
+
+	/**
+	 * Copies the output of a round into an array to send. Encoded messages are
+	 * copied into the array of the last send if it has the right length. The
+	 * network may hold on to messages sent as is after send returns, so these
+	 * always get a new array.
+	 */
+	private Serializable[] toArray(Queue<Serializable> output, WireCodec codec) {
+		if (codec == null) {
+			return output.toArray(new Serializable[output.size()]);
+		}
+		if (this.messages.length != output.size()) {
+			this.messages = new Serializable[output.size()];
+		}
+		return output.toArray(this.messages);
+	}
+
+	private static void release(Serializable[] messages, WireCodec codec) {
+		if (codec != null) {
+			Arrays.fill(messages, null);
+		}
 	}
 }
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative values with power of two buckets. Bucket i
+ * counts the values v with 2^(i-1) <= v < 2^i, and bucket 0 counts zeros.
+ * Recording a value is lock free and does not allocate.
+ */
+public class Histogram {
+
+	private static final int BUCKETS = 64;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+	public Histogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+		count.increment();
+		sum.add(value);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public double getMean() {
+		long c = getCount();
+		return (c == 0) ? 0 : (double) getSum() / c;
+	}
+
+	/**
+	 * @return the non-empty buckets, keyed by their upper bound (exclusive)
+	 *         as "<2^i", in increasing order.
+	 */
+	public Map<String, Long> getBuckets() {
+		Map<String, Long> res = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = buckets[i].sum();
+			if (c > 0) {
+				res.put((i == 0) ? "0" : "<" + (i == BUCKETS - 1 ? "inf" : Long.toString(1L << i)), c);
+			}
+		}
+		return res;
+	}
+
+	public void reset() {
+		for (LongAdder b : buckets) {
+			b.reset();
+		}
+		count.reset();
+		sum.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount() + ", mean=" + String.format("%.1f", getMean()) + ", buckets=" + getBuckets();
+	}
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the evaluation metrics of a party. Registered as
+ * "dk.alexandra.fresco:type=Metrics,party=&lt;id&gt;".
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * @return the number of evaluated native protocols per protocol class.
+	 */
+	public Map<String, Long> getProtocolCounts();
+
+	public long getBatches();
+
+	public long getRounds();
+
+	/**
+	 * @return the number of batches per number of rounds used, bucketed in
+	 *         powers of two.
+	 */
+	public Map<String, Long> getRoundsPerBatch();
+
+	/**
+	 * @return the batch size currently used by the evaluator. Changes while
+	 *         evaluating if the batch size is adaptive.
+	 */
+	public int getBatchSize();
+
+	/**
+	 * @return the messages sent per "party/channel".
+	 */
+	public Map<String, Long> getMessagesSent();
+
+	/**
+	 * @return the estimated payload bytes sent per "party/channel".
+	 */
+	public Map<String, Long> getBytesSent();
+
+	/**
+	 * @return the estimated payload bytes sent to all parties over all
+	 *         channels.
+	 */
+	public long getTotalBytesSent();
+
+	/**
+	 * @return the messages received per "party/channel".
+	 */
+	public Map<String, Long> getMessagesReceived();
+
+	/**
+	 * @return the estimated payload bytes received per "party/channel".
+	 */
+	public Map<String, Long> getBytesReceived();
+
+	/**
+	 * @return the total time spent blocked in receive, in milliseconds.
+	 */
+	public long getReceiveBlockedMillis();
+
+	/**
+	 * @return the number of receive calls per blocked time in microseconds,
+	 *         bucketed in powers of two.
+	 */
+	public Map<String, Long> getReceiveBlockedMicros();
+
+	public long getMacChecks();
+
+	/**
+	 * @return the number of MAC checks per duration in microseconds, bucketed
+	 *         in powers of two.
+	 */
+	public Map<String, Long> getMacCheckMicros();
+
+	/**
+	 * @return the duration of each phase of startup in milliseconds, e.g.
+	 *         "network.connect".
+	 */
+	public Map<String, Long> getStartupMillis();
+
+	/**
+	 * @return the native protocols evaluated per VM thread id.
+	 */
+	public Map<String, Long> getProtocolsPerThread();
+
+	/**
+	 * @return the time spent evaluating per VM thread id, in milliseconds.
+	 */
+	public Map<String, Long> getBusyMillisPerThread();
+
+	/**
+	 * @return a human readable dump of all metrics.
+	 */
+	public String dump();
+
+	public void reset();
+}
@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.metrics;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import dk.alexandra.fresco.framework.NativeProtocol;
+import dk.alexandra.fresco.framework.Reporter;
+
+/**
+ * Collects evaluation metrics of a party: evaluated native protocols per
+ * class, rounds per batch, the batch size, messages and bytes per party and channel, time
+ * blocked in receive, the duration of MAC checks and of the phases of
+ * startup, and the protocols and busy time per VM thread.
+ * 
+ * The evaluators, the network and the protocol suites feed the registry on
+ * the hot path, so recording only updates striped counters and never takes a
+ * lock. The registry of each party is registered as an MXBean.
+ */
+public class MetricsRegistry implements MetricsMXBean {
+
+	private static Map<Integer, MetricsRegistry> instances = new HashMap<Integer, MetricsRegistry>();
+
+	private final ConcurrentHashMap<Class<?>, LongAdder> protocolCounts = new ConcurrentHashMap<Class<?>, LongAdder>();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder rounds = new LongAdder();
+	private final Histogram roundsPerBatch = new Histogram();
+	private volatile int batchSize;
+	private final ConcurrentHashMap<String, Link[]> links = new ConcurrentHashMap<String, Link[]>();
+	private final LongAdder totalBytesSent = new LongAdder();
+	private final LongAdder receiveBlockedNanos = new LongAdder();
+	private final Histogram receiveBlockedMicros = new Histogram();
+	private final Histogram macCheckMicros = new Histogram();
+	private final ConcurrentHashMap<String, Long> startupMillis = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentHashMap<Integer, LongAdder> threadProtocols = new ConcurrentHashMap<Integer, LongAdder>();
+	private final ConcurrentHashMap<Integer, LongAdder> threadBusyNanos = new ConcurrentHashMap<Integer, LongAdder>();
+
+	/**
+	 * Counters of the traffic with one party over one channel.
+	 */
+	private static class Link {
+		final LongAdder messagesSent = new LongAdder();
+		final LongAdder bytesSent = new LongAdder();
+		final LongAdder messagesReceived = new LongAdder();
+		final LongAdder bytesReceived = new LongAdder();
+	}
+
+	MetricsRegistry() {
+	}
+
+	/**
+	 * Returns the registry of the given party, creating and registering it
+	 * with JMX the first time.
+	 */
+	public synchronized static MetricsRegistry getInstance(int myId) {
+		MetricsRegistry registry = instances.get(myId);
+		if (registry == null) {
+			registry = new MetricsRegistry();
+			instances.put(myId, registry);
+			try {
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName("dk.alexandra.fresco:type=Metrics,party=" + myId);
+				if (!server.isRegistered(name)) {
+					server.registerMBean(registry, name);
+				}
+			} catch (JMException e) {
+				Reporter.warn("Could not register the metrics of party " + myId + " with JMX: " + e.getMessage());
+			}
+		}
+		return registry;
+	}
+
+	/**
+	 * Counts the given protocols per class.
+	 */
+	public void protocolsEvaluated(NativeProtocol[] protocols, int numOfProtocols) {
+		// Batches tend to hold long runs of the same class, so only look up
+		// the counter when the class changes.
+		Class<?> current = null;
+		long run = 0;
+		for (int i = 0; i < numOfProtocols; i++) {
+			Class<?> c = protocols[i].getClass();
+			if (c != current) {
+				if (run > 0) {
+					counter(current).add(run);
+				}
+				current = c;
+				run = 0;
+			}
+			run++;
+		}
+		if (run > 0) {
+			counter(current).add(run);
+		}
+	}
+
+	private LongAdder counter(Class<?> c) {
+		LongAdder counter = protocolCounts.get(c);
+		if (counter == null) {
+			LongAdder fresh = new LongAdder();
+			counter = protocolCounts.putIfAbsent(c, fresh);
+			if (counter == null) {
+				counter = fresh;
+			}
+		}
+		return counter;
+	}
+
+	public void batchEvaluated(int rounds) {
+		this.batches.increment();
+		this.rounds.add(rounds);
+		this.roundsPerBatch.record(rounds);
+	}
+
+	/**
+	 * Records the batch size used for the next batch. With an adaptive batch
+	 * size this changes while evaluating.
+	 */
+	public void batchSizeUsed(int batchSize) {
+		if (this.batchSize != batchSize) {
+			this.batchSize = batchSize;
+		}
+	}
+
+	public void messageSent(int partyId, String channel, Serializable data) {
+		Link link = link(partyId, channel);
+		long size = estimateSize(data);
+		link.messagesSent.increment();
+		link.bytesSent.add(size);
+		this.totalBytesSent.add(size);
+	}
+
+	public void messageReceived(int partyId, String channel, Serializable data, long blockedNanos) {
+		Link link = link(partyId, channel);
+		link.messagesReceived.increment();
+		link.bytesReceived.add(estimateSize(data));
+		this.receiveBlockedNanos.add(blockedNanos);
+		this.receiveBlockedMicros.record(TimeUnit.NANOSECONDS.toMicros(blockedNanos));
+	}
+
+	public void macCheckDone(long nanos) {
+		this.macCheckMicros.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	/**
+	 * Records how long a phase of startup, e.g. connecting the network, took.
+	 * Phases run again, e.g. when reconnecting, replace the earlier time.
+	 */
+	public void startupPhaseDone(String phase, long nanos) {
+		this.startupMillis.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos));
+	}
+
+	/**
+	 * Records that the VM thread with the given id evaluated its share of a
+	 * batch. Comparing the threads shows how evenly batches are split.
+	 */
+	public void taskEvaluated(int threadId, int numOfProtocols, long nanos) {
+		perThread(threadProtocols, threadId).add(numOfProtocols);
+		perThread(threadBusyNanos, threadId).add(nanos);
+	}
+
+	private static LongAdder perThread(ConcurrentHashMap<Integer, LongAdder> counters, int threadId) {
+		LongAdder counter = counters.get(threadId);
+		if (counter == null) {
+			LongAdder fresh = new LongAdder();
+			counter = counters.putIfAbsent(threadId, fresh);
+			if (counter == null) {
+				counter = fresh;
+			}
+		}
+		return counter;
+	}
+
+	private Link link(int partyId, String channel) {
+		Link[] perParty = links.get(channel);
+		if (perParty == null || perParty.length <= partyId || perParty[partyId] == null) {
+			perParty = addLink(partyId, channel);
+		}
+		return perParty[partyId];
+	}
+
+	private synchronized Link[] addLink(int partyId, String channel) {
+		Link[] perParty = links.get(channel);
+		if (perParty == null) {
+			perParty = new Link[partyId + 1];
+		} else if (perParty.length <= partyId) {
+			Link[] grown = new Link[partyId + 1];
+			System.arraycopy(perParty, 0, grown, 0, perParty.length);
+			perParty = grown;
+		} else if (perParty[partyId] != null) {
+			return perParty;
+		} else {
+			perParty = perParty.clone();
+		}
+		perParty[partyId] = new Link();
+		links.put(channel, perParty);
+		return perParty;
+	}
+
+	/**
+	 * Estimates the payload size of a message in bytes, not counting the
+	 * overhead of Java serialization. Messages of other types than the ones
+	 * the protocol suites send count as zero bytes.
+	 */
+	static long estimateSize(Serializable data) {
+		if (data instanceof byte[]) {
+			return ((byte[]) data).length;
+		} else if (data instanceof BigInteger) {
+			return ((BigInteger) data).bitLength() / 8 + 1;
+		} else if (data instanceof Serializable[]) {
+			long size = 0;
+			for (Serializable s : (Serializable[]) data) {
+				size += estimateSize(s);
+			}
+			return size;
+		} else if (data instanceof boolean[]) {
+			return ((boolean[]) data).length;
+		} else if (data instanceof int[]) {
+			return 4L * ((int[]) data).length;
+		} else if (data instanceof Boolean || data instanceof Byte) {
+			return 1;
+		} else if (data instanceof Integer) {
+			return 4;
+		} else if (data instanceof Long) {
+			return 8;
+		}
+		return 0;
+	}
+
+	@Override
+	public Map<String, Long> getProtocolCounts() {
+		Map<String, Long> res = new TreeMap<String, Long>();
+		for (Map.Entry<Class<?>, LongAdder> e : protocolCounts.entrySet()) {
+			res.put(e.getKey().getName(), e.getValue().sum());
+		}
+		return res;
+	}
+
+	@Override
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	@Override
+	public long getRounds() {
+		return rounds.sum();
+	}
+
+	@Override
+	public Map<String, Long> getRoundsPerBatch() {
+		return roundsPerBatch.getBuckets();
+	}
+
+	@Override
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	private interface LinkCounter {
+		long get(Link link);
+	}
+
+	private Map<String, Long> perLink(LinkCounter counter) {
+		Map<String, Long> res = new TreeMap<String, Long>();
+		for (Map.Entry<String, Link[]> e : links.entrySet()) {
+			Link[] perParty = e.getValue();
+			for (int partyId = 0; partyId < perParty.length; partyId++) {
+				if (perParty[partyId] != null) {
+					res.put(partyId + "/" + e.getKey(), counter.get(perParty[partyId]));
+				}
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public Map<String, Long> getMessagesSent() {
+		return perLink(new LinkCounter() {
+			@Override
+			public long get(Link link) {
+				return link.messagesSent.sum();
+			}
+		});
+	}
+
+	@Override
+	public Map<String, Long> getBytesSent() {
+		return perLink(new LinkCounter() {
+			@Override
+			public long get(Link link) {
+				return link.bytesSent.sum();
+			}
+		});
+	}
+
+	@Override
+	public long getTotalBytesSent() {
+		return totalBytesSent.sum();
+	}
+
+	@Override
+	public Map<String, Long> getMessagesReceived() {
+		return perLink(new LinkCounter() {
+			@Override
+			public long get(Link link) {
+				return link.messagesReceived.sum();
+			}
+		});
+	}
+
+	@Override
+	public Map<String, Long> getBytesReceived() {
+		return perLink(new LinkCounter() {
+			@Override
+			public long get(Link link) {
+				return link.bytesReceived.sum();
+			}
+		});
+	}
+
+	@Override
+	public long getReceiveBlockedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(receiveBlockedNanos.sum());
+	}
+
+	@Override
+	public Map<String, Long> getReceiveBlockedMicros() {
+		return receiveBlockedMicros.getBuckets();
+	}
+
+	@Override
+	public long getMacChecks() {
+		return macCheckMicros.getCount();
+	}
+
+	@Override
+	public Map<String, Long> getMacCheckMicros() {
+		return macCheckMicros.getBuckets();
+	}
+
+	@Override
+	public Map<String, Long> getStartupMillis() {
+		return new TreeMap<String, Long>(startupMillis);
+	}
+
+	@Override
+	public Map<String, Long> getProtocolsPerThread() {
+		Map<String, Long> res = new TreeMap<String, Long>();
+		for (Map.Entry<Integer, LongAdder> e : threadProtocols.entrySet()) {
+			res.put("" + e.getKey(), e.getValue().sum());
+		}
+		return res;
+	}
+
+	@Override
+	public Map<String, Long> getBusyMillisPerThread() {
+		Map<String, Long> res = new TreeMap<String, Long>();
+		for (Map.Entry<Integer, LongAdder> e : threadBusyNanos.entrySet()) {
+			res.put("" + e.getKey(), TimeUnit.NANOSECONDS.toMillis(e.getValue().sum()));
+		}
+		return res;
+	}
+
+	@Override
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Protocols evaluated: ").append(getProtocolCounts()).append("\n");
+		sb.append("Batches: ").append(getBatches()).append(", rounds: ").append(getRounds())
+				.append(", rounds per batch: ").append(roundsPerBatch).append(", batch size: ").append(getBatchSize())
+				.append("\n");
+		sb.append("Messages sent (party/channel): ").append(getMessagesSent()).append("\n");
+		sb.append("Bytes sent (party/channel): ").append(getBytesSent()).append("\n");
+		sb.append("Messages received (party/channel): ").append(getMessagesReceived()).append("\n");
+		sb.append("Bytes received (party/channel): ").append(getBytesReceived()).append("\n");
+		sb.append("Blocked in receive: ").append(getReceiveBlockedMillis()).append(" ms, micros per receive: ")
+				.append(receiveBlockedMicros).append("\n");
+		sb.append("MAC checks: micros per check: ").append(macCheckMicros).append("\n");
+		sb.append("Protocols per VM thread: ").append(getProtocolsPerThread()).append(", busy ms per VM thread: ")
+				.append(getBusyMillisPerThread()).append("\n");
+		sb.append("Startup phases (ms): ").append(getStartupMillis());
+		return sb.toString();
+	}
+
+	@Override
+	public void reset() {
+		protocolCounts.clear();
+		batches.reset();
+		rounds.reset();
+		roundsPerBatch.reset();
+		links.clear();
+		totalBytesSent.reset();
+		receiveBlockedNanos.reset();
+		receiveBlockedMicros.reset();
+		macCheckMicros.reset();
+		startupMillis.clear();
+		threadProtocols.clear();
+		threadBusyNanos.clear();
+	}
+}
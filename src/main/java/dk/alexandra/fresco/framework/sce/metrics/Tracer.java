@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records a timeline of the evaluation of a party: when batches were produced
+ * and evaluated, when messages were sent and received on each channel, when
+ * the protocol suite synchronized or checked MACs, and when threads waited
+ * for each other.
+ * 
+ * Tracing is off until started. While on, each event is written as four longs
+ * into a ring buffer, so recording neither allocates nor takes a lock, and
+ * only the newest events are kept once the buffer is full. The events can be
+ * exported in the Chrome trace event format, which chrome://tracing and
+ * Perfetto load, with one track per thread of the party.
+ * 
+ * Typical use:
+ * 
+ * <pre>
+ * long start = tracer.begin();
+ * ...
+ * tracer.end(Tracer.SEND, start, partyId, channel);
+ * </pre>
+ */
+public class Tracer {
+
+	public static final byte PRODUCE_BATCH = 0;
+	public static final byte EVALUATE_BATCH = 1;
+	public static final byte SEND = 2;
+	public static final byte RECEIVE = 3;
+	public static final byte SYNCHRONIZE = 4;
+	public static final byte MAC_CHECK = 5;
+	public static final byte EVALUATE_TASK = 6;
+	public static final byte TASK_QUEUED = 7;
+	public static final byte WAIT_FOR_TASKS = 8;
+
+	private static final String[] NAMES = { "produce batch", "evaluate batch", "send", "receive", "synchronize",
+			"MAC check", "evaluate task", "task queued", "wait for tasks" };
+
+	/**
+	 * Returned by begin() when tracing is off.
+	 */
+	public static final long NOT_TRACING = Long.MIN_VALUE;
+
+	/**
+	 * The default number of events kept, taking 32 MB.
+	 */
+	public static final int DEFAULT_CAPACITY = 1 << 20;
+
+	private static final int LONGS_PER_EVENT = 4;
+
+	// Shared by all parties, so that parties running in the same VM get
+	// aligned timelines.
+	private static final long ORIGIN = System.nanoTime();
+
+	private static Map<Integer, Tracer> instances = new HashMap<Integer, Tracer>();
+
+	private final int myId;
+	private volatile boolean enabled;
+	private long[] events;
+	private int capacity;
+	private final AtomicLong next = new AtomicLong();
+	private final ConcurrentHashMap<Long, String> threadNames = new ConcurrentHashMap<Long, String>();
+	private final ConcurrentHashMap<String, Integer> channelIndices = new ConcurrentHashMap<String, Integer>();
+	private final ConcurrentHashMap<Integer, String> channelNames = new ConcurrentHashMap<Integer, String>();
+
+	Tracer(int myId) {
+		this.myId = myId;
+	}
+
+	/**
+	 * Returns the tracer of the given party, creating it the first time.
+	 */
+	public synchronized static Tracer getInstance(int myId) {
+		Tracer tracer = instances.get(myId);
+		if (tracer == null) {
+			tracer = new Tracer(myId);
+			instances.put(myId, tracer);
+		}
+		return tracer;
+	}
+
+	/**
+	 * Starts recording, discarding any events recorded before.
+	 * 
+	 * @param capacity
+	 *            the number of events kept.
+	 */
+	public synchronized void start(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("The capacity of the trace must be positive, not " + capacity);
+		}
+		if (this.events == null || this.capacity != capacity) {
+			this.events = new long[capacity * LONGS_PER_EVENT];
+			this.capacity = capacity;
+		}
+		this.next.set(0);
+		this.enabled = true;
+	}
+
+	/**
+	 * Stops recording. The recorded events are kept until the next start().
+	 */
+	public void stop() {
+		this.enabled = false;
+	}
+
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Discards the recorded events.
+	 */
+	public synchronized void clear() {
+		this.next.set(0);
+	}
+
+	/**
+	 * Returns the number of events kept, which is at most the capacity.
+	 */
+	public long getEventCount() {
+		return Math.min(this.next.get(), this.capacity);
+	}
+
+	/**
+	 * Returns the start time of an event to be passed to end(), or NOT_TRACING
+	 * if tracing is off.
+	 */
+	public long begin() {
+		return this.enabled ? System.nanoTime() : NOT_TRACING;
+	}
+
+	/**
+	 * Records an event that started at the given time and ends now.
+	 * 
+	 * @param kind
+	 *            the kind of event, e.g. SEND.
+	 * @param start
+	 *            the value returned by begin().
+	 * @param a
+	 *            the first argument of the event, e.g. the number of
+	 *            protocols or the id of the other party. At most 24 bits.
+	 * @param b
+	 *            the second argument of the event, e.g. the number of rounds.
+	 */
+	public void end(byte kind, long start, int a, int b) {
+		if (start == NOT_TRACING || !this.enabled) {
+			return;
+		}
+		long now = System.nanoTime();
+		long[] events = this.events;
+		int base = (int) (this.next.getAndIncrement() % (events.length / LONGS_PER_EVENT)) * LONGS_PER_EVENT;
+		Thread thread = Thread.currentThread();
+		long tid = thread.getId();
+		if (!this.threadNames.containsKey(tid)) {
+			this.threadNames.put(tid, thread.getName());
+		}
+		events[base] = start - ORIGIN;
+		events[base + 1] = now - start;
+		events[base + 2] = ((long) kind << 56) | ((long) (a & 0xffffff) << 32) | (b & 0xffffffffL);
+		events[base + 3] = tid;
+	}
+
+	/**
+	 * Records an event on a channel that started at the given time and ends
+	 * now.
+	 */
+	public void end(byte kind, long start, int partyId, String channel) {
+		if (start == NOT_TRACING || !this.enabled) {
+			return;
+		}
+		end(kind, start, partyId, channelIndex(channel));
+	}
+
+	private int channelIndex(String channel) {
+		Integer index = this.channelIndices.get(channel);
+		if (index == null) {
+			synchronized (this.channelIndices) {
+				index = this.channelIndices.get(channel);
+				if (index == null) {
+					index = this.channelIndices.size();
+					this.channelNames.put(index, channel);
+					this.channelIndices.put(channel, index);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the recorded events, oldest first, as a Chrome trace event JSON
+	 * document. Should not be called while events are being recorded.
+	 */
+	public synchronized void exportChromeTrace(Writer out) throws IOException {
+		out.write("{\"traceEvents\":[\n");
+		out.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":" + this.myId + ",\"args\":{\"name\":\"Party "
+				+ this.myId + "\"}}");
+		for (Map.Entry<Long, String> e : this.threadNames.entrySet()) {
+			out.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":" + this.myId + ",\"tid\":" + e.getKey()
+					+ ",\"args\":{\"name\":\"" + escape(e.getValue()) + "\"}}");
+		}
+		long count = this.next.get();
+		long first = Math.max(0, count - this.capacity);
+		StringBuilder sb = new StringBuilder();
+		for (long i = first; i < count; i++) {
+			int base = (int) (i % this.capacity) * LONGS_PER_EVENT;
+			long meta = this.events[base + 2];
+			int kind = (int) (meta >>> 56);
+			int a = (int) ((meta >>> 32) & 0xffffff);
+			int b = (int) meta;
+			sb.setLength(0);
+			sb.append(",\n{\"name\":\"").append(NAMES[kind]).append("\",\"ph\":\"X\",\"pid\":").append(this.myId)
+					.append(",\"tid\":").append(this.events[base + 3]).append(",\"ts\":");
+			appendMicros(sb, this.events[base]);
+			sb.append(",\"dur\":");
+			appendMicros(sb, this.events[base + 1]);
+			sb.append(",\"args\":{");
+			appendArgs(sb, kind, a, b);
+			sb.append("}}");
+			out.write(sb.toString());
+		}
+		out.write("\n]}\n");
+		out.flush();
+	}
+
+	/**
+	 * Writes the recorded events to the given file.
+	 * 
+	 * @see #exportChromeTrace(Writer)
+	 */
+	public void exportChromeTrace(File file) throws IOException {
+		Writer out = new FileWriter(file);
+		try {
+			exportChromeTrace(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void appendArgs(StringBuilder sb, int kind, int a, int b) {
+		switch (kind) {
+		case PRODUCE_BATCH:
+		case SYNCHRONIZE:
+			sb.append("\"protocols\":").append(a);
+			break;
+		case EVALUATE_BATCH:
+			sb.append("\"protocols\":").append(a).append(",\"rounds\":").append(b);
+			break;
+		case SEND:
+		case RECEIVE:
+			sb.append("\"party\":").append(a).append(",\"channel\":\"").append(escape(this.channelNames.get(b)))
+					.append("\"");
+			break;
+		case EVALUATE_TASK:
+			sb.append("\"thread\":").append(a).append(",\"rounds\":").append(b);
+			break;
+		case TASK_QUEUED:
+			sb.append("\"thread\":").append(a);
+			break;
+		case WAIT_FOR_TASKS:
+			sb.append("\"tasks\":").append(a);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Appends nanoseconds as microseconds with three decimals.
+	 */
+	private static void appendMicros(StringBuilder sb, long nanos) {
+		if (nanos < 0) {
+			sb.append('-');
+			nanos = -nanos;
+		}
+		sb.append(nanos / 1000).append('.');
+		long fraction = nanos % 1000;
+		if (fraction < 100) {
+			sb.append('0');
+		}
+		if (fraction < 10) {
+			sb.append('0');
+		}
+		sb.append(fraction);
+	}
+
+	private static String escape(String s) {
+		if (s == null) {
+			return "";
+		}
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -33,6 +33,7 @@ import dk.alexandra.fresco.framework.network.Network;
 import dk.alexandra.fresco.framework.sce.resources.storage.Storage;
 import dk.alexandra.fresco.framework.sce.resources.storage.StreamedStorage;
 import dk.alexandra.fresco.framework.sce.resources.threads.ProtocolThreadPool;
+import dk.alexandra.fresco.suite.ProtocolSuite;
 
 public interface ResourcePool {
 
@@ -109,4 +110,21 @@ public interface ResourcePool {
 	 */
 	public abstract SecureRandom getSecureRandom();
 
+	/**
+	 * Returns a channel of the network that is not used when evaluating. A
+	 * protocol suite can use it for work running alongside the evaluation.
+	 * 
+	 * @return the channel, or null if there is no such channel.
+	 */
+	public abstract String getSuiteChannel();
+
+	/**
+	 * Returns the protocol suite evaluating with this resource pool. Native
+	 * protocols use it to reach the state of their suite, e.g. preprocessed
+	 * data, so that suites running in concurrent sessions do not share state.
+	 * 
+	 * @return the protocol suite, or null if none has been set.
+	 */
+	public abstract ProtocolSuite getProtocolSuite();
+
 }
\ No newline at end of file
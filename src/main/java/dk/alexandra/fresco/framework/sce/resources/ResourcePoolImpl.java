@@ -35,6 +35,7 @@ import dk.alexandra.fresco.framework.sce.resources.storage.Storage;
 import dk.alexandra.fresco.framework.sce.resources.storage.StreamedStorage;
 import dk.alexandra.fresco.framework.sce.resources.threads.ProtocolThreadPool;
 import dk.alexandra.fresco.framework.sce.resources.threads.VMThreadPool;
+import dk.alexandra.fresco.suite.ProtocolSuite;
 
 /**
  * Container for resources needed by runtimes (protocol suites).
@@ -54,6 +55,8 @@ public class ResourcePoolImpl implements SCEResourcePool {
 	protected final ProtocolThreadPool protocolThreadPool;
 	protected final VMThreadPool vmThreadPool;
 	private boolean connected = false;
+	private String suiteChannel;
+	private ProtocolSuite protocolSuite;
 
 	public ResourcePoolImpl(int myId, int noOfPlayers, Network network,
 			Storage storage, StreamedStorage streamedStorage, Random random, SecureRandom secRand,
@@ -95,6 +98,16 @@ public class ResourcePoolImpl implements SCEResourcePool {
 		this.random = random;
 	}
 
+	@Override
+	public void setSuiteChannel(String channel) {
+		this.suiteChannel = channel;
+	}
+
+	@Override
+	public void setProtocolSuite(ProtocolSuite protocolSuite) {
+		this.protocolSuite = protocolSuite;
+	}
+
 	/**
 	 * After calling this method, a runtime can expect the network channels are
 	 * all connected and ready to send/receive.
@@ -179,4 +192,13 @@ public class ResourcePoolImpl implements SCEResourcePool {
 		return this.vmThreadPool.getVMThreadCount();
 	}
 
+	@Override
+	public String getSuiteChannel() {
+		return this.suiteChannel;
+	}
+
+	@Override
+	public ProtocolSuite getProtocolSuite() {
+		return this.protocolSuite;
+	}
 }
@@ -32,6 +32,7 @@ import java.util.Random;
 import dk.alexandra.fresco.framework.network.Network;
 import dk.alexandra.fresco.framework.sce.resources.storage.Storage;
 import dk.alexandra.fresco.framework.sce.resources.threads.VMThreadPool;
+import dk.alexandra.fresco.suite.ProtocolSuite;
 
 public interface SCEResourcePool extends ResourcePool{
 	
@@ -46,6 +47,10 @@ public interface SCEResourcePool extends ResourcePool{
 
 	public abstract void setRandom(Random random);
 
+	public abstract void setSuiteChannel(String channel);
+
+	public abstract void setProtocolSuite(ProtocolSuite protocolSuite);
+
 	/**
 	 * After calling this method, a runtime can expect the network channels are
 	 * all connected and ready to send/receive.
@@ -29,6 +29,7 @@ package dk.alexandra.fresco.lib.helper;
 import dk.alexandra.fresco.framework.NativeProtocol;
 import dk.alexandra.fresco.framework.Protocol;
 import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.ValueIndependentProducer;
 import dk.alexandra.fresco.framework.value.Value;
 
 /**
@@ -41,7 +42,7 @@ import dk.alexandra.fresco.framework.value.Value;
  * @author psn
  * 
  */
-public abstract class AbstractRoundBasedProtocol implements Protocol {
+public abstract class AbstractRoundBasedProtocol implements Protocol, ValueIndependentProducer {
 
 	private boolean done = false;
 	private ProtocolProducer pp = null;
@@ -71,6 +72,42 @@ public abstract class AbstractRoundBasedProtocol implements Protocol {
 	 */
 	public abstract ProtocolProducer nextProtocolProducer();
 
+	/**
+	 * Tells whether {@link #nextProtocolProducer()} reads or writes the content
+	 * of any value, e.g. builds the next round from the opened values of the
+	 * previous one. Override this to return false in protocols that only
+	 * create new protocols, so that evaluators may produce the next round
+	 * ahead of evaluation.
+	 * 
+	 * @return true, unless overridden.
+	 */
+	protected boolean nextRoundAccessesValues() {
+		return true;
+	}
+
+	/**
+	 * If the current round is done, the next round is built here when
+	 * {@link #nextRoundAccessesValues()} says this can be done without
+	 * accessing values.
+	 */
+	@Override
+	public boolean isValueIndependent() {
+		if (done) {
+			return true;
+		}
+		while (pp == null || !pp.hasNextProtocols()) {
+			if (nextRoundAccessesValues()) {
+				return false;
+			}
+			pp = nextProtocolProducer();
+			if (pp == null) {
+				done = true;
+				return true;
+			}
+		}
+		return ValueIndependentProducer.isValueIndependent(pp);
+	}
+
 	@Override
 	public boolean hasNextProtocols() {
 		return !done;
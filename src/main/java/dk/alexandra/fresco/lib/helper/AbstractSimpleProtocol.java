@@ -29,6 +29,7 @@ package dk.alexandra.fresco.lib.helper;
 import dk.alexandra.fresco.framework.NativeProtocol;
 import dk.alexandra.fresco.framework.Protocol;
 import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.ValueIndependentProducer;
 import dk.alexandra.fresco.framework.value.Value;
 
 /**
@@ -40,7 +41,7 @@ import dk.alexandra.fresco.framework.value.Value;
  * @author psn
  * 
  */
-public abstract class AbstractSimpleProtocol implements Protocol {
+public abstract class AbstractSimpleProtocol implements Protocol, ValueIndependentProducer {
 
 	private boolean done = false;
 	private ProtocolProducer pp = null;
@@ -70,6 +71,29 @@ public abstract class AbstractSimpleProtocol implements Protocol {
 		return !done;
 	}
 
+	/**
+	 * If the protocolProducer is not yet initialized, it is initialized here
+	 * when {@link #initializationAccessesValues()} says this can be done
+	 * without accessing values.
+	 */
+	@Override
+	public boolean isValueIndependent() {
+		if (done) {
+			return true;
+		}
+		if (pp == null) {
+			if (initializationAccessesValues()) {
+				return false;
+			}
+			pp = initializeProtocolProducer();
+			if (pp == null) {
+				done = true;
+				return true;
+			}
+		}
+		return ValueIndependentProducer.isValueIndependent(pp);
+	}
+
 	@Override
 	public Value[] getInputValues() {
 		return inputs;
@@ -107,4 +131,17 @@ public abstract class AbstractSimpleProtocol implements Protocol {
 	 * @return the protocolProducer for this protocols.
 	 */
 	protected abstract ProtocolProducer initializeProtocolProducer();
+
+	/**
+	 * Tells whether {@link #initializeProtocolProducer()} reads or writes the
+	 * content of any value, e.g. builds the protocolProducer from an opened
+	 * value. Override this to return false in protocols that only create new
+	 * protocols from the given values, so that evaluators may produce them
+	 * ahead of evaluation.
+	 * 
+	 * @return true, unless overridden.
+	 */
+	protected boolean initializationAccessesValues() {
+		return true;
+	}
 }
@@ -33,13 +33,14 @@ import java.util.ListIterator;
 import dk.alexandra.fresco.framework.MPCException;
 import dk.alexandra.fresco.framework.NativeProtocol;
 import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.ValueIndependentProducer;
 
 /**
  * If a Parallelprotocol has n subprotocols and is asked to deliver m protocols, it
  * requests m/n protocols from each of the subprotocols.
  * 
  */
-public class ParallelProtocolProducer implements ProtocolProducer,
+public class ParallelProtocolProducer implements ValueIndependentProducer,
 		AppendableProtocolProducer {
 
 	private LinkedList<ProtocolProducer> cs;
@@ -84,6 +85,19 @@ public class ParallelProtocolProducer implements ProtocolProducer,
 		}
 	}
 
+	/**
+	 * The next call may go to any of the sub-producers.
+	 */
+	@Override
+	public boolean isValueIndependent() {
+		for (ProtocolProducer c : cs) {
+			if (!ValueIndependentProducer.isValueIndependent(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	@Override
 	public int getNextProtocols(NativeProtocol[] nativeProtocols, int pos) {
 		if (pos < 0 || pos >= nativeProtocols.length) {
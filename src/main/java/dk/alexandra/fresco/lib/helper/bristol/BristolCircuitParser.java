@@ -26,13 +26,8 @@
  *******************************************************************************/
 package dk.alexandra.fresco.lib.helper.bristol;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.stream.Stream;
 
@@ -57,10 +52,15 @@ public class BristolCircuitParser {
 	private Iterator<String> linesIter;
 	private BasicLogicFactory boolFactory;
 
-	// TODO: It is not memory efficient to keep all wires in a map like this.
-	// Given that this circuit is fixed, it should, somehow, be possible to
-	// garbage collect intermediate results early, if they are not used further.
-	private Map<Integer, SBool> wires;
+	// Set when gates are replayed from a compiled circuit instead of read
+	// from lines.
+	private BristolCircuitPlan plan;
+	private int nextGate = 0;
+
+	// TODO: Given that this circuit is fixed, it should, somehow, be possible
+	// to garbage collect intermediate results early, if they are not used
+	// further.
+	private SBool[] wires;
 
 	private SBool[] in1;
 	private SBool[] in2;
@@ -95,33 +95,55 @@ public class BristolCircuitParser {
 		this.no_output = Integer.parseInt(meta[2]);
 		linesIter.next(); // 3rd line is always empty line.
 
-		this.wires = new HashMap<Integer, SBool>(no_wires);
+		this.wires = new SBool[no_wires];
+		initWires();
+	}
+
+	/**
+	 * Creates a parser that replays a compiled circuit. This avoids reading
+	 * and parsing the textual description again.
+	 */
+	public BristolCircuitParser(BristolCircuitPlan plan, BasicLogicFactory boolFactory, SBool[] in1, SBool[] in2, SBool[] out) {
+		this.in1 = in1;
+		this.in2 = in2;
+		this.out = out;
+		this.boolFactory = boolFactory;
+		this.plan = plan;
+
+		this.no_gates = plan.getNoOfGates();
+		this.no_wires = plan.getNoOfWires();
+		this.no_input1 = plan.getNoOfInput1();
+		this.no_input2 = plan.getNoOfInput2();
+		this.no_output = plan.getNoOfOutput();
+
+		this.wires = new SBool[no_wires];
 		initWires();
 	}
 
 	private void initWires() {
 		for (int i = 0; i < this.no_input1; i++) {
-			this.wires.put(i, this.in1[i]);
+			this.wires[i] = this.in1[i];
 		}
 		for (int i = 0; i < this.no_input2; i++) {
-			this.wires.put(i + this.no_input1, this.in2[i]);
+			this.wires[i + this.no_input1] = this.in2[i];
 		}
 		for (int i = 0; i < this.no_output; i++) {
-			this.wires.put(this.no_wires - this.no_output + i, this.out[i]);
+			this.wires[this.no_wires - this.no_output + i] = this.out[i];
 		}
 		
 	}
 
 	public void close() {
-		this.lines.close();
+		if (this.lines != null) {
+			this.lines.close();
+		}
 	}
 
 	
 	/**
 	 * Convert one line of text file to the corresponding basic boolean gate.
 	 * 
-	 * Returns null if any input of circuit is not currently present in wires
-	 * map.
+	 * Returns null if any input of circuit is not ready yet.
 	 * 
 	 */
 	private Protocol parseLine(String line) throws IOException {
@@ -157,101 +179,91 @@ public class BristolCircuitParser {
 		case "XOR":
 			if (in.length != 2 || out.length != 1)
 				throw new IOException("Wrong circuit format for XOR");
-			SBool leftInWireXor = wires.get(in[0]);
-			SBool rightInWireXor = wires.get(in[1]);
-			SBool outWireXor = wires.get(out[0]);
+			return createGate(BristolCircuitPlan.XOR, in[0], in[1], out[0]);
+		case "AND":
+			if (in.length != 2 || out.length != 1)
+				throw new IOException("Wrong circuit format for AND");
+			return createGate(BristolCircuitPlan.AND, in[0], in[1], out[0]);
+		case "INV":
+			if (in.length != 1 || out.length != 1)
+				throw new IOException("Wrong circuit format for INV");
+			return createGate(BristolCircuitPlan.INV, in[0], -1, out[0]);
+		default:
+			throw new MPCException("Unknown gate type: " + type);
+		}
+	}
+
+	/**
+	 * Creates the basic boolean gate of the given type.
+	 * 
+	 * Returns null if any input of the gate is not ready yet.
+	 */
+	private Protocol createGate(byte type, int left, int right, int out) {
+		switch (type) {
+		case BristolCircuitPlan.XOR:
+			SBool leftInWireXor = wires[left];
+			SBool rightInWireXor = wires[right];
 
 			// If some input wire is not ready we have reached a gate that depends on
 			// output that is not yet ready, aka first gate of next batch.
 			if (leftInWireXor == null ) {
-				throw new MPCException("xor: LEFT input wire " + in[0] + " was null");
+				throw new MPCException("xor: LEFT input wire " + left + " was null");
 			}
 			if (rightInWireXor == null ) {
-				throw new MPCException("xor: RIGHT input wire " + in[1] + " was null");
+				throw new MPCException("xor: RIGHT input wire " + right + " was null");
 			}
-			
-			if (!leftInWireXor.isReady()) {
-				//System.out.println("XOR: LEFT in wire " + in[0] + " is not ready");
+			if (!leftInWireXor.isReady() || !rightInWireXor.isReady()) {
 				return null;
 			}
-			if (!rightInWireXor.isReady()) {
-				//System.out.println("XOR: RIGHT in wire " + in[0] + " is not ready");
-				return null;
-			}
-
-			if (outWireXor == null) {
-				// A new intermediate wire.
-				outWireXor = this.boolFactory.getSBool();
-				this.wires.put(out[0], outWireXor);
-			}
+			return this.boolFactory.getXorProtocol(leftInWireXor, rightInWireXor, getOutputWire(out));
+		case BristolCircuitPlan.AND:
+			SBool leftInWireAnd = wires[left];
+			SBool rightInWireAnd = wires[right];
 
-			
-			return this.boolFactory.getXorProtocol(leftInWireXor, rightInWireXor, outWireXor);
-		case "AND":
-			if (in.length != 2 || out.length != 1)
-				throw new IOException("Wrong circuit format for AND");
-			SBool leftInWireAnd = wires.get(in[0]);
-			SBool rightInWireAnd = wires.get(in[1]);
-			SBool outWireAnd = wires.get(out[0]);
-			
 			if (leftInWireAnd == null ) {
-				throw new MPCException("and LEFT input " + in[0] + " was not set");
+				throw new MPCException("and LEFT input " + left + " was not set");
 			}
 			if (rightInWireAnd == null ) {
-				throw new MPCException("and RIGHT input " + in[1] + " was not set");
+				throw new MPCException("and RIGHT input " + right + " was not set");
 			}
-			
-			if (!leftInWireAnd.isReady()) {
-				//System.out.println("and LEFT input " + in[0] + " was not ready");
+			if (!leftInWireAnd.isReady() || !rightInWireAnd.isReady()) {
 				return null;
 			}
-			if (!rightInWireAnd.isReady()) {
-				//System.out.println("and RIGHT input " + in[1] + " was not ready");
-				return null;
-			}
-			
-			
-			if (outWireAnd == null) {
-				// A new intermediate wire.
-				outWireAnd = this.boolFactory.getSBool();
-				this.wires.put(out[0], outWireAnd);
-			}
-			
-			
-			return this.boolFactory.getAndProtocol(leftInWireAnd, rightInWireAnd, outWireAnd);
-		case "INV":
-			if (in.length != 1 || out.length != 1)
-				throw new IOException("Wrong circuit format for INV");
-			SBool inWireNot = wires.get(in[0]);
-			SBool outWireNot = wires.get(out[0]);
+			return this.boolFactory.getAndProtocol(leftInWireAnd, rightInWireAnd, getOutputWire(out));
+		case BristolCircuitPlan.INV:
+			SBool inWireNot = wires[left];
 
 			if (inWireNot == null) {
-				throw new MPCException("NOT input " + in[0] + " was not set");
+				throw new MPCException("NOT input " + left + " was not set");
 			}
-			
 			if (!inWireNot.isReady()) {
-				//System.out.println("NOT input " + in[0] + " was not ready");
 				return null;
 			}
-
-			if (outWireNot == null) {
-				// A new intermediate wire.
-				outWireNot = this.boolFactory.getSBool();
-				this.wires.put(out[0], outWireNot);
-			}
-			
-			return this.boolFactory.getNotProtocol(inWireNot, outWireNot);
+			return this.boolFactory.getNotProtocol(inWireNot, getOutputWire(out));
 		default:
 			throw new MPCException("Unknown gate type: " + type);
 		}
 	}
 
+	private SBool getOutputWire(int out) {
+		SBool outWire = wires[out];
+		if (outWire == null) {
+			// A new intermediate wire.
+			outWire = this.boolFactory.getSBool();
+			this.wires[out] = outWire;
+		}
+		return outWire;
+	}
+
 	/**
 	 * Fills res with next protocols, starting from pos. Returns next empty pos
 	 * of array.
 	 * 
 	 */
 	public int getNext(Protocol[] res, int pos) {
+		if (this.plan != null) {
+			return replayNext(res, pos);
+		}
 		
 		// Start with the dangling line from previous call, if its there.
 		if (this.dangling != null && pos < res.length) {
@@ -301,6 +313,22 @@ public class BristolCircuitParser {
 		return pos;
 	}
 
+	private int replayNext(Protocol[] res, int pos) {
+		while (pos < res.length && this.nextGate < this.plan.getNoOfGates()) {
+			int gate = this.nextGate;
+			Protocol c = createGate(this.plan.getType(gate), this.plan.getLeftInput(gate),
+					this.plan.getRightInput(gate), this.plan.getOutput(gate));
+			if (c == null) {
+				// We have reached a gate of next layer.
+				break;
+			}
+			res[pos] = c;
+			pos++;
+			this.nextGate++;
+		}
+		return pos;
+	}
+
 	/**
 	 * @return Total no of gates in circuit.
 	 * 
@@ -313,13 +341,13 @@ public class BristolCircuitParser {
 		return this.no_wires;
 	}
 	
+	/**
+	 * Returns a parser for the circuit description at the given class path
+	 * resource. The description is compiled the first time it is read, and
+	 * later parsers for the same path replay the compiled circuit.
+	 */
 	public static BristolCircuitParser readCircuitDescription(BasicLogicFactory blf, String path, SBool[] in1, SBool[] in2, SBool[] out) {
-		ClassLoader classLoader = BristolCircuitParser.class.getClassLoader();
-		InputStream is = classLoader.getResourceAsStream(path);
-		if (is == null)
-			throw new MPCException("Couldn't find bristol circuit descritpion at " + path);
-		Stream<String> stream = new BufferedReader(new InputStreamReader(is)).lines();
-		return new BristolCircuitParser(stream, blf, in1, in2, out);
+		return new BristolCircuitParser(BristolCircuitPlan.getPlan(path), blf, in1, in2, out);
 	}
 	
 
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.lib.helper.bristol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import dk.alexandra.fresco.framework.MPCException;
+
+/**
+ * A compiled Bristol circuit. The gates of the textual description are kept in
+ * flat arrays, so a circuit only has to be read and parsed once. Running the
+ * same circuit again, with new input and output wires, replays the compiled
+ * gates instead of parsing the text again.
+ * 
+ * Plans do not refer to any values and may be shared between threads.
+ */
+public class BristolCircuitPlan {
+
+	public static final byte XOR = 0;
+	public static final byte AND = 1;
+	public static final byte INV = 2;
+
+	private static final Map<String, BristolCircuitPlan> plans = new ConcurrentHashMap<String, BristolCircuitPlan>();
+
+	private final int noOfWires;
+	private final int noOfInput1;
+	private final int noOfInput2;
+	private final int noOfOutput;
+
+	private final byte[] types;
+	// The left and right input wire of each gate. The right input of INV gates is unused.
+	private final int[] leftInputs;
+	private final int[] rightInputs;
+	private final int[] outputs;
+
+	private BristolCircuitPlan(int noOfWires, int noOfInput1, int noOfInput2, int noOfOutput, byte[] types,
+			int[] leftInputs, int[] rightInputs, int[] outputs) {
+		this.noOfWires = noOfWires;
+		this.noOfInput1 = noOfInput1;
+		this.noOfInput2 = noOfInput2;
+		this.noOfOutput = noOfOutput;
+		this.types = types;
+		this.leftInputs = leftInputs;
+		this.rightInputs = rightInputs;
+		this.outputs = outputs;
+	}
+
+	/**
+	 * Compiles a textual circuit description in Bristol format.
+	 * 
+	 * @param lines
+	 *            the lines of the description.
+	 * @return the compiled circuit.
+	 */
+	public static BristolCircuitPlan compile(Stream<String> lines) {
+		try {
+			Iterator<String> linesIter = lines.iterator();
+			String[] meta = linesIter.next().split(" \\s*");
+			int noOfGates = Integer.parseInt(meta[0]);
+			int noOfWires = Integer.parseInt(meta[1]);
+			meta = linesIter.next().split(" \\s*");
+			int noOfInput1 = Integer.parseInt(meta[0]);
+			int noOfInput2 = Integer.parseInt(meta[1]);
+			int noOfOutput = Integer.parseInt(meta[2]);
+
+			byte[] types = new byte[noOfGates];
+			int[] leftInputs = new int[noOfGates];
+			int[] rightInputs = new int[noOfGates];
+			int[] outputs = new int[noOfGates];
+			int gate = 0;
+			while (linesIter.hasNext()) {
+				String line = linesIter.next();
+				if (line.startsWith("*") || line.matches("\\s*")) {
+					// Layer markers and empty lines carry no gates.
+					continue;
+				}
+				if (gate == noOfGates) {
+					throw new IOException("Circuit has more gates than the " + noOfGates + " stated");
+				}
+				String[] tokens = line.split(" \\s*");
+				int noOfIn = Integer.parseInt(tokens[0]);
+				int noOfOut = Integer.parseInt(tokens[1]);
+				String type = tokens[2 + noOfIn + noOfOut];
+				switch (type) {
+				case "XOR":
+				case "AND":
+					if (noOfIn != 2 || noOfOut != 1)
+						throw new IOException("Wrong circuit format for " + type);
+					types[gate] = type.equals("XOR") ? XOR : AND;
+					leftInputs[gate] = Integer.parseInt(tokens[2]);
+					rightInputs[gate] = Integer.parseInt(tokens[3]);
+					outputs[gate] = Integer.parseInt(tokens[4]);
+					break;
+				case "INV":
+					if (noOfIn != 1 || noOfOut != 1)
+						throw new IOException("Wrong circuit format for INV");
+					types[gate] = INV;
+					leftInputs[gate] = Integer.parseInt(tokens[2]);
+					rightInputs[gate] = -1;
+					outputs[gate] = Integer.parseInt(tokens[3]);
+					break;
+				default:
+					throw new MPCException("Unknown gate type: " + type);
+				}
+				gate++;
+			}
+			if (gate != noOfGates) {
+				// Keep the plan consistent with the gates actually present.
+				types = Arrays.copyOf(types, gate);
+				leftInputs = Arrays.copyOf(leftInputs, gate);
+				rightInputs = Arrays.copyOf(rightInputs, gate);
+				outputs = Arrays.copyOf(outputs, gate);
+			}
+			return new BristolCircuitPlan(noOfWires, noOfInput1, noOfInput2, noOfOutput, types, leftInputs,
+					rightInputs, outputs);
+		} catch (IOException e) {
+			throw new MPCException("Error while reading circuit", e);
+		} finally {
+			lines.close();
+		}
+	}
+
+	/**
+	 * Returns the compiled circuit of the description at the given class path
+	 * resource. The description is only read the first time a path is
+	 * requested.
+	 * 
+	 * @param path
+	 *            the class path resource of the description.
+	 * @return the compiled circuit.
+	 */
+	public static BristolCircuitPlan getPlan(String path) {
+		BristolCircuitPlan plan = plans.get(path);
+		if (plan == null) {
+			ClassLoader classLoader = BristolCircuitPlan.class.getClassLoader();
+			InputStream is = classLoader.getResourceAsStream(path);
+			if (is == null)
+				throw new MPCException("Couldn't find bristol circuit descritpion at " + path);
+			plan = compile(new BufferedReader(new InputStreamReader(is)).lines());
+			BristolCircuitPlan existing = plans.putIfAbsent(path, plan);
+			if (existing != null) {
+				plan = existing;
+			}
+		}
+		return plan;
+	}
+
+	public int getNoOfGates() {
+		return this.types.length;
+	}
+
+	public int getNoOfWires() {
+		return this.noOfWires;
+	}
+
+	public int getNoOfInput1() {
+		return this.noOfInput1;
+	}
+
+	public int getNoOfInput2() {
+		return this.noOfInput2;
+	}
+
+	public int getNoOfOutput() {
+		return this.noOfOutput;
+	}
+
+	public byte getType(int gate) {
+		return this.types[gate];
+	}
+
+	public int getLeftInput(int gate) {
+		return this.leftInputs[gate];
+	}
+
+	public int getRightInput(int gate) {
+		return this.rightInputs[gate];
+	}
+
+	public int getOutput(int gate) {
+		return this.outputs[gate];
+	}
+}
@@ -70,6 +70,14 @@ public class TreeProtocol extends AbstractRoundBasedProtocol {
 		this.tcn = tcn;
 	}
 
+	/**
+	 * The nodes only create new protocols.
+	 */
+	@Override
+	protected boolean nextRoundAccessesValues() {
+		return false;
+	}
+
 	@Override
 	public ProtocolProducer nextProtocolProducer() {
 		if (step < length) {
@@ -28,13 +28,14 @@ package dk.alexandra.fresco.lib.helper.sequential;
 
 import dk.alexandra.fresco.framework.NativeProtocol;
 import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.ValueIndependentProducer;
 
 /**
  * This implementation is lazy in the sense that it only invokes hasMoreprotocols()
  * and getNextprotocols() on a protocol when needed.
  * 
  **/
-class SequentialHelper implements ProtocolProducer {
+class SequentialHelper implements ValueIndependentProducer {
 
 	private ProtocolProducerList producerList;
 	private ProtocolProducer currentProducer = null;
@@ -76,6 +77,17 @@ class SequentialHelper implements ProtocolProducer {
 		return prune();
 	}
 	
+	/**
+	 * The next call only goes to the current producer.
+	 */
+	@Override
+	public boolean isValueIndependent() {
+		if (prune()) {
+			return ValueIndependentProducer.isValueIndependent(currentProducer);
+		}
+		return true;
+	}
+
 	@Override
 	public int getNextProtocols(NativeProtocol[] nativeProtocols, int pos) {
 		if (prune()) 
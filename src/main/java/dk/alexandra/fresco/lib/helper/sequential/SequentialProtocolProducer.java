@@ -32,9 +32,10 @@ import java.util.ListIterator;
 
 import dk.alexandra.fresco.framework.NativeProtocol;
 import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.ValueIndependentProducer;
 import dk.alexandra.fresco.lib.helper.AppendableProtocolProducer;
 
-public class SequentialProtocolProducer implements ProtocolProducer, ProtocolProducerList, AppendableProtocolProducer {
+public class SequentialProtocolProducer implements ValueIndependentProducer, ProtocolProducerList, AppendableProtocolProducer {
 
 	private SequentialHelper seqh;
 	
@@ -61,6 +62,11 @@ public class SequentialProtocolProducer implements ProtocolProducer, ProtocolPro
 		return seqh.hasNextProtocols();
 	}
 
+	@Override
+	public boolean isValueIndependent() {
+		return seqh.isValueIndependent();
+	}
+
 	@Override
 	public ProtocolProducer getNextInLine() {
 		return cs.pop();
@@ -55,7 +55,8 @@ import dk.alexandra.fresco.lib.math.integer.inv.InversionProtocolImpl;
 import dk.alexandra.fresco.lib.math.integer.inv.InversionProtocol;
 import dk.alexandra.fresco.lib.math.integer.inv.LocalInversionFactory;
 import dk.alexandra.fresco.lib.math.integer.linalg.EntrywiseProductProtocol;
-import dk.alexandra.fresco.lib.math.integer.linalg.EntrywiseProductProtocolImpl;
+import dk.alexandra.fresco.lib.math.integer.linalg.EntrywiseProductFactory;
+import dk.alexandra.fresco.lib.math.integer.linalg.EntrywiseProductFactoryImpl;
 import dk.alexandra.fresco.lib.math.integer.linalg.InnerProductFactory;
 import dk.alexandra.fresco.lib.math.integer.linalg.InnerProductFactoryImpl;
 import dk.alexandra.fresco.lib.math.integer.linalg.InnerProductProtocol;
@@ -73,6 +74,7 @@ public class LPFactoryImpl implements LPFactory {
 	private final NumericNegateBitFactory numericNegateBitFactory;
 	private final RandomAdditiveMaskFactory randomAdditiveMaskFactory;
 	private final InnerProductFactory innerProductFactory;
+	private final EntrywiseProductFactory entrywiseProductFactory;
 	private final ZeroTestProtocolFactory zeroTestProtocolFactory;
 	private final MiscOIntGenerators misc;
 	private ComparisonProtocolFactory compFactory;
@@ -87,6 +89,7 @@ public class LPFactoryImpl implements LPFactory {
 		this.localInvFactory = localInvFactory;
 		this.numericNegateBitFactory = new NumericNegateBitFactoryImpl(bnf);
 		this.innerProductFactory = new InnerProductFactoryImpl(bnf);
+		this.entrywiseProductFactory = new EntrywiseProductFactoryImpl(bnf);
 		randomAdditiveMaskFactory = new RandomAdditiveMaskFactoryImpl(bnf,
 				numericBitFactory);
 		misc = new MiscOIntGenerators(bnf);
@@ -113,13 +116,13 @@ public class LPFactoryImpl implements LPFactory {
 	@Override
 	public EntrywiseProductProtocol getEntrywiseProductProtocol(SInt[] as, SInt[] bs,
 			SInt[] results) {
-		return new EntrywiseProductProtocolImpl(as, bs, results, bnf);
+		return this.entrywiseProductFactory.getEntrywiseProductProtocol(as, bs, results);
 	}
 
 	@Override
 	public EntrywiseProductProtocol getEntrywiseProductProtocol(SInt[] as, OInt[] bs,
 			SInt[] results) {
-		return new EntrywiseProductProtocolImpl(as, bs, results, bnf);
+		return this.entrywiseProductFactory.getEntrywiseProductProtocol(as, bs, results);
 	}
 
 	@Override
@@ -26,6 +26,8 @@
  *******************************************************************************/
 package dk.alexandra.fresco.lib.lp;
 
+import java.util.Arrays;
+
 import dk.alexandra.fresco.framework.NativeProtocol;
 import dk.alexandra.fresco.framework.Protocol;
 import dk.alexandra.fresco.framework.ProtocolProducer;
@@ -79,16 +81,18 @@ public class UpdateMatrixProtocol implements Protocol{
 			// These 3 for the generation of lambda_i's
 			SInt[][] lambdas_i_jOuts = new SInt[h][w];
 			SInt[] lambdas_iOuts = new SInt[h]; // same as [v'_i,L]
-			MultProtocol[][] mults_l_v = new MultProtocol[h - 1][w];
+			// The multiplications of each kind are done as one entrywise
+			// product of the operands in order of (i, j).
+			EntrywiseOperands mults_l_v = new EntrywiseOperands(h * (w - 1));
 			AddProtocol[][] addsLambda_i = new AddProtocol[h][w];
 			
 			// next 4 for the update equation
 			SInt[][] subOuts = new SInt[h][w];			
 			SubtractProtocol[][] subs = new SubtractProtocol[h][w];			
 			SInt[][] mults_cAndLambda_iOuts = new SInt[h][w];
-			MultProtocol[][] mults_cAndLambda_i = new MultProtocol[h][w];
+			EntrywiseOperands mults_cAndLambda_i = new EntrywiseOperands(h * w);
 			SInt[][] mults_sub_and_ppOuts = new SInt[h][w];
-			MultProtocol[][] mults_sub_and_pp = new MultProtocol[h][w];
+			EntrywiseOperands mults_sub_and_pp = new EntrywiseOperands(h * w);
 			AddProtocol[][] adds = new AddProtocol[h][w];
 			
 			// This one divides C by the previous pivot
@@ -109,7 +113,7 @@ public class UpdateMatrixProtocol implements Protocol{
 					//first 3 - lambda_i's generation
 					lambdas_i_jOuts[j][i] = numericFactory.getSInt();
 					if (j < oldUpdateMatrix.getWidth() - 1) {
-						mults_l_v[j][i] = numericFactory.getMultProtocol(L[j], oldUpdateMatrix.getElement(j, i), lambdas_i_jOuts[j][i]);
+						mults_l_v.add(L[j], oldUpdateMatrix.getElement(j, i), lambdas_i_jOuts[j][i]);
 					} else {
 						lambdas_i_jOuts[j][i] = numericFactory.getSInt(0);
 					}
@@ -120,9 +124,9 @@ public class UpdateMatrixProtocol implements Protocol{
 					subOuts[j][i] = numericFactory.getSInt();
 					subs[j][i] = numericFactory.getSubtractProtocol(oldUpdateMatrix.getElement(j, i), lambdas_i_jOuts[j][i], subOuts[j][i]);
 					mults_cAndLambda_iOuts[j][i] = numericFactory.getSInt();
-					mults_cAndLambda_i[j][i] = numericFactory.getMultProtocol(C[j], lambdas_iOuts[i], mults_cAndLambda_iOuts[j][i]);
+					mults_cAndLambda_i.add(C[j], lambdas_iOuts[i], mults_cAndLambda_iOuts[j][i]);
 					mults_sub_and_ppOuts[j][i] = numericFactory.getSInt();
-					mults_sub_and_pp[j][i] = numericFactory.getMultProtocol(subOuts[j][i], pp, mults_sub_and_ppOuts[j][i]);
+					mults_sub_and_pp.add(subOuts[j][i], pp, mults_sub_and_ppOuts[j][i]);
 					adds[j][i] = numericFactory.getAddProtocol(mults_cAndLambda_iOuts[j][i], mults_sub_and_ppOuts[j][i], newUpdateMatrix.getIthRow(j)[i]);
 				}
 			}
@@ -130,7 +134,7 @@ public class UpdateMatrixProtocol implements Protocol{
 			SequentialProtocolProducer seq_pp = new SequentialProtocolProducer(inv, mult1, gpDivideC);			
 			
 			
-			ProtocolProducer gpMultLambda = getParallelGP(mults_l_v);			
+			ProtocolProducer gpMultLambda = mults_l_v.getProtocol();			
 			ParallelProtocolProducer par1 = new ParallelProtocolProducer(seq_pp, gpMultLambda);
 			// This stuff may not be safe
 			//GateProducer gpAddsLambda = getParallelGP(addsLambda_i);
@@ -147,8 +151,8 @@ public class UpdateMatrixProtocol implements Protocol{
 			ProtocolProducer gpSub = getParallelGP(subs);
 			ParallelProtocolProducer gpAddAndSub = new ParallelProtocolProducer(gpAddsLambda, gpSub);
 			SequentialProtocolProducer seq2 = new SequentialProtocolProducer(par1, gpAddAndSub);
-			ProtocolProducer gpMultCAndLambda = getParallelGP(mults_cAndLambda_i);
-			ProtocolProducer gpMultSubAndPP = getParallelGP(mults_sub_and_pp);
+			ProtocolProducer gpMultCAndLambda = mults_cAndLambda_i.getProtocol();
+			ProtocolProducer gpMultSubAndPP = mults_sub_and_pp.getProtocol();
 			ProtocolProducer gpAdds = getParallelGP(adds);
 			
 			ParallelProtocolProducer gpMults = new ParallelProtocolProducer(gpMultCAndLambda, gpMultSubAndPP);
@@ -164,6 +168,36 @@ public class UpdateMatrixProtocol implements Protocol{
 		return pos;
 	}
 
+	/**
+	 * Collects the operands and results of a number of multiplications.
+	 */
+	private class EntrywiseOperands {
+
+		private final SInt[] as, bs, results;
+		private int size = 0;
+
+		EntrywiseOperands(int capacity) {
+			this.as = new SInt[capacity];
+			this.bs = new SInt[capacity];
+			this.results = new SInt[capacity];
+		}
+
+		void add(SInt a, SInt b, SInt result) {
+			this.as[this.size] = a;
+			this.bs[this.size] = b;
+			this.results[this.size] = result;
+			this.size++;
+		}
+
+		ProtocolProducer getProtocol() {
+			if (this.size < this.as.length) {
+				return lpFactory.getEntrywiseProductProtocol(Arrays.copyOf(this.as, this.size),
+						Arrays.copyOf(this.bs, this.size), Arrays.copyOf(this.results, this.size));
+			}
+			return lpFactory.getEntrywiseProductProtocol(this.as, this.bs, this.results);
+		}
+	}
+
 	private ParallelProtocolProducer getParallelGP(Protocol[][] c){
 		ParallelProtocolProducer[] gps = new ParallelProtocolProducer[c.length]; 
 		for(int i = 0; i < c.length; i++){
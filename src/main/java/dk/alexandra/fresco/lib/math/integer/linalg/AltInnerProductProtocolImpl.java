@@ -56,6 +56,11 @@ public class AltInnerProductProtocolImpl extends AbstractSimpleProtocol implemen
 		this.copyFactory = copyFactory;
 	}
 	
+	@Override
+	protected boolean initializationAccessesValues() {
+		return false;
+	}
+
 	@Override
 	protected ProtocolProducer initializeProtocolProducer() {
 		NumericProtocolBuilder ncb = new NumericProtocolBuilder(bnFactory);
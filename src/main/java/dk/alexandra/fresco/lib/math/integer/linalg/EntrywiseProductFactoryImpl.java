@@ -30,6 +30,11 @@ import dk.alexandra.fresco.framework.value.OInt;
 import dk.alexandra.fresco.framework.value.SInt;
 import dk.alexandra.fresco.lib.field.integer.MultProtocolFactory;
 
+/**
+ * Makes entrywise products of single multiplications of the given factory,
+ * unless the factory is an EntrywiseProductFactory itself, such as that of a
+ * protocol suite with a native vector multiplication, which is then used.
+ */
 public class EntrywiseProductFactoryImpl implements EntrywiseProductFactory{
 
 	private final MultProtocolFactory mcf;
@@ -41,12 +46,18 @@ public class EntrywiseProductFactoryImpl implements EntrywiseProductFactory{
 	@Override
 	public EntrywiseProductProtocol getEntrywiseProductProtocol(SInt[] as, SInt[] bs,
 			SInt[] results) {
+		if (mcf instanceof EntrywiseProductFactory) {
+			return ((EntrywiseProductFactory) mcf).getEntrywiseProductProtocol(as, bs, results);
+		}
 		return new EntrywiseProductProtocolImpl(as, bs, results, mcf);
 	}
 
 	@Override
 	public EntrywiseProductProtocol getEntrywiseProductProtocol(SInt[] as, OInt[] bs,
 			SInt[] results) {
+		if (mcf instanceof EntrywiseProductFactory) {
+			return ((EntrywiseProductFactory) mcf).getEntrywiseProductProtocol(as, bs, results);
+		}
 		return new EntrywiseProductProtocolImpl(as, bs, results, mcf);
 	}
 
@@ -104,6 +104,11 @@ public class CovarianceMatrixProtocolImpl extends AbstractSimpleProtocol impleme
 				covarianceFactory);
 	}
 
+	@Override
+	protected boolean initializationAccessesValues() {
+		return false;
+	}
+
 	@Override
 	protected ProtocolProducer initializeProtocolProducer() {
 
@@ -68,6 +68,11 @@ public class CovarianceProtocolImpl extends AbstractSimpleProtocol implements Co
 		this(data1, data2, maxInputLength, null, null, covariance, basicNumericFactory, meanFactory);
 	}
 
+	@Override
+	protected boolean initializationAccessesValues() {
+		return false;
+	}
+
 	@Override
 	protected ProtocolProducer initializeProtocolProducer() {
 
@@ -68,6 +68,11 @@ public class MeanProtocolImpl extends AbstractSimpleProtocol implements
 		this.degreesOfFreedom = degreesOfFreedom;
 	}
 
+	@Override
+	protected boolean initializationAccessesValues() {
+		return false;
+	}
+
 	@Override
 	protected ProtocolProducer initializeProtocolProducer() {
 		
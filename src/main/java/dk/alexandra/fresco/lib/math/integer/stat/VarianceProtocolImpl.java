@@ -60,6 +60,11 @@ public class VarianceProtocolImpl extends AbstractSimpleProtocol implements Vari
 		this(data, maxInputLength, null, variance, basicNumericFactory, meanFactory);
 	}
 
+	@Override
+	protected boolean initializationAccessesValues() {
+		return false;
+	}
+
 	@Override
 	protected ProtocolProducer initializeProtocolProducer() {
 
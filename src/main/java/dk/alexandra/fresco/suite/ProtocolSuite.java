@@ -30,6 +30,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.network.WireCodec;
 import dk.alexandra.fresco.framework.sce.configuration.ProtocolSuiteConfiguration;
 import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
 import dk.alexandra.fresco.suite.bgw.BgwProtocolSuite;
@@ -76,8 +77,27 @@ public interface ProtocolSuite {
 	 * close open streams and similar.
 	 */
 	public void destroy();
-	
-	
+
+	/**
+	 * Lets the protocol suite know that the network was reconnected after a
+	 * failure. The suite must drop any state left by the evaluation that was
+	 * aborted, such as values waiting to be checked, since the other parties
+	 * may have got further or not as far in that evaluation.
+	 */
+	public default void reset() {
+	}
+
+	/**
+	 * The codec used to encode the messages of the protocols of this suite
+	 * before they are put on the network. Called after
+	 * {@link #init(ResourcePool, ProtocolSuiteConfiguration)}.
+	 * 
+	 * @return the codec, or null to send messages using Java object
+	 *         serialization.
+	 */
+	public default WireCodec getWireCodec() {
+		return null;
+	}
 	
 
 	
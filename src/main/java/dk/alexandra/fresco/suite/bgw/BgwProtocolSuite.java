@@ -29,6 +29,7 @@ package dk.alexandra.fresco.suite.bgw;
 import java.math.BigInteger;
 
 import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.network.WireCodec;
 import dk.alexandra.fresco.framework.sce.configuration.ProtocolSuiteConfiguration;
 import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
 import dk.alexandra.fresco.suite.ProtocolSuite;
@@ -44,6 +45,7 @@ public class BgwProtocolSuite implements ProtocolSuite {
 	private BigInteger modulus;
 
 	private BgwRandomBitSupplierImpl bitSupplier;
+	private BgwWireCodec codec;
 	
 	public BgwProtocolSuite() {
 		
@@ -64,6 +66,7 @@ public class BgwProtocolSuite implements ProtocolSuite {
 		ShamirShare.setPrimeNumber(modulus);
 		
 		this.bitSupplier = new BgwRandomBitSupplierImpl();
+		this.codec = new BgwWireCodec(modulus);
 	}
 
 	@Override
@@ -97,4 +100,9 @@ public class BgwProtocolSuite implements ProtocolSuite {
 		return this.bitSupplier;
 	}
 
+	@Override
+	public WireCodec getWireCodec() {
+		return this.codec;
+	}
+
 }
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.suite.bgw;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+
+import dk.alexandra.fresco.framework.network.CompactWireCodec;
+
+/**
+ * Wire codec of the BGW suite. Shamir shares whose field value fits in
+ * {@link ShamirShare#size} bytes are written as their fixed size byte
+ * representation, i.e., {@link ShamirShare#getSize()} bytes.
+ */
+public class BgwWireCodec extends CompactWireCodec {
+
+	private static final byte SHAMIR_SHARE = FIRST_CUSTOM_TAG;
+
+	/**
+	 * @param modulus
+	 *            the modulus of the field, used for public field elements.
+	 */
+	public BgwWireCodec(BigInteger modulus) {
+		super((modulus.bitLength() + 7) / 8);
+	}
+
+	@Override
+	protected boolean writeCustom(Serializable value, DataOutputStream out) throws IOException {
+		if (value instanceof ShamirShare) {
+			BigInteger field = ((ShamirShare) value).getField();
+			if (field.signum() >= 0 && field.bitLength() <= ShamirShare.size * 8) {
+				out.writeByte(SHAMIR_SHARE);
+				out.write(((ShamirShare) value).toByteArray());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	protected Serializable readCustom(byte tag, DataInputStream in) throws IOException {
+		if (tag == SHAMIR_SHARE) {
+			byte[] bytes = new byte[ShamirShare.getSize()];
+			in.readFully(bytes);
+			return new ShamirShare(bytes);
+		}
+		return super.readCustom(tag, in);
+	}
+}
@@ -68,7 +68,7 @@ public final class ShamirShare implements Serializable {
         int fieldSize = receivedData.length - 1;
         byte[] bytes = new byte[fieldSize];
         System.arraycopy(receivedData, 1, bytes, 0, fieldSize);
-        this.fieldValue = new BigInteger(bytes);
+        this.fieldValue = new BigInteger(1, bytes);
     }
 
     public void setBytes(byte[] receivedData) {
@@ -76,7 +76,7 @@ public final class ShamirShare implements Serializable {
         int fieldSize = receivedData.length - 1;
         byte[] bytes = new byte[fieldSize];
         System.arraycopy(receivedData, 1, bytes, 0, fieldSize);
-        this.fieldValue = new BigInteger(bytes);
+        this.fieldValue = new BigInteger(1, bytes);
     }
 
     public ShamirShare(BigInteger f) {
@@ -104,7 +104,9 @@ public final class ShamirShare implements Serializable {
     }
 
     private void copyAndInvertArray(byte[] bytes, byte[] byteArray) {
-        for (int inx = 0; inx < byteArray.length; inx++) {
+        // Skip the zero byte toByteArray() adds when the top bit is set.
+        int start = byteArray.length > 1 && byteArray[0] == 0 ? 1 : 0;
+        for (int inx = start; inx < byteArray.length; inx++) {
             bytes[bytes.length - byteArray.length + inx] = byteArray[inx];
         }
     }
@@ -27,6 +27,8 @@
 package dk.alexandra.fresco.suite.dummy;
 
 import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.network.CompactWireCodec;
+import dk.alexandra.fresco.framework.network.WireCodec;
 import dk.alexandra.fresco.framework.sce.configuration.ProtocolSuiteConfiguration;
 import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
 import dk.alexandra.fresco.suite.ProtocolSuite;
@@ -42,6 +44,8 @@ import dk.alexandra.fresco.suite.ProtocolSuite;
  */
 public class DummyProtocolSuite implements ProtocolSuite {
 
+	private static final WireCodec CODEC = new CompactWireCodec();
+
 	@Override
 	public void init(ResourcePool resourcePool, ProtocolSuiteConfiguration conf) {
 		// No init needed.
@@ -62,5 +66,11 @@ public class DummyProtocolSuite implements ProtocolSuite {
 		// No destroy needed.
 	}
 
+	@Override
+	public WireCodec getWireCodec() {
+		// The dummy protocols send booleans, which the codec packs into bits.
+		return CODEC;
+	}
+
 
 }
@@ -60,6 +60,35 @@ public interface SpdzConfiguration extends ProtocolSuiteConfiguration {
 	 * @return
 	 */
 	public boolean useDummyData();
+
+	/**
+	 * True: the MAC check folds the opened values into running sums as they
+	 * are opened, using constant memory.
+	 * False: the opened and closed values are kept until the MAC check.
+	 * @return
+	 */
+	public default boolean useStreamingMacCheck() {
+		return false;
+	}
+
+	/**
+	 * True: the MAC check runs in a thread and on a channel of its own while
+	 * the evaluation continues. The evaluation only finishes once all checks
+	 * have succeeded.
+	 * False: the evaluation stops while the MAC check runs.
+	 * @return
+	 */
+	public default boolean useAsyncMacCheck() {
+		return false;
+	}
+
+	/**
+	 * The number of gates to evaluate between MAC checks.
+	 * @return
+	 */
+	public default int getMacCheckThreshold() {
+		return 100000;
+	}
 	
 	static SpdzConfiguration fromCmdLine(SCEConfiguration sceConf,
 			CommandLine cmd) throws ParseException {
@@ -71,6 +100,12 @@ public interface SpdzConfiguration extends ProtocolSuiteConfiguration {
 		}
 		final String triplePath = p.getProperty("spdz.triplePath", "/triples");
 		final boolean useDummyData = Boolean.parseBoolean(p.getProperty("spdz.useDummyData", "False"));
+		final boolean useStreamingMacCheck = Boolean.parseBoolean(p.getProperty("spdz.streamingMacCheck", "False"));
+		final boolean useAsyncMacCheck = Boolean.parseBoolean(p.getProperty("spdz.asyncMacCheck", "False"));
+		final int macCheckThreshold = Integer.parseInt(p.getProperty("spdz.macCheckThreshold", "100000"));
+		if (macCheckThreshold < 1) {
+			throw new ParseException("spdz.macCheckThreshold must be > 0");
+		}
 
 		return new SpdzConfiguration() {
 
@@ -88,6 +123,21 @@ public interface SpdzConfiguration extends ProtocolSuiteConfiguration {
 			public boolean useDummyData() {
 				return useDummyData;
 			}
+
+			@Override
+			public boolean useStreamingMacCheck() {
+				return useStreamingMacCheck;
+			}
+
+			@Override
+			public boolean useAsyncMacCheck() {
+				return useAsyncMacCheck;
+			}
+
+			@Override
+			public int getMacCheckThreshold() {
+				return macCheckThreshold;
+			}
 		};
 	}
 
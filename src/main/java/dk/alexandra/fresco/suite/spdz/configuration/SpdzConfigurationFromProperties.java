@@ -65,5 +65,20 @@ public class SpdzConfigurationFromProperties implements SpdzConfiguration {
 	public boolean useDummyData() {
 		return Boolean.parseBoolean(prop.getProperty("useDummyData", "False"));
 	}
+
+	@Override
+	public boolean useStreamingMacCheck() {
+		return Boolean.parseBoolean(prop.getProperty("streamingMacCheck", "False"));
+	}
+
+	@Override
+	public boolean useAsyncMacCheck() {
+		return Boolean.parseBoolean(prop.getProperty("asyncMacCheck", "False"));
+	}
+
+	@Override
+	public int getMacCheckThreshold() {
+		return Integer.parseInt(prop.getProperty("macCheckThreshold", "100000"));
+	}
 	
 }
@@ -26,16 +26,32 @@
  *******************************************************************************/
 package dk.alexandra.fresco.suite.spdz.datatypes;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.math.BigInteger;
 
+import dk.alexandra.fresco.suite.spdz.utils.MontgomeryField;
 import dk.alexandra.fresco.suite.spdz.utils.Util;
 
+/**
+ * A share of a value and of its MAC. The arithmetic is done on fixed width
+ * Montgomery limbs of the field of {@link Util#getField()}, which are made
+ * from the BigIntegers the first time the element takes part in arithmetic,
+ * and the BigIntegers are made back from the limbs only when asked for or
+ * when the element is serialized, so the serialized form is unchanged.
+ * 
+ * The in-place operations change the element, so they must only be used on
+ * elements no one else holds, such as the result of {@link #copy()}.
+ */
 public class SpdzElement implements Serializable{
 	
 	private static final long serialVersionUID = 6794633112697012286L;
 	private BigInteger share;
 	private BigInteger mac;
+	// The share followed by the mac in Montgomery form of the field.
+	private transient volatile long[] limbs;
+	private transient MontgomeryField field;
 	
 	public SpdzElement(){
 		this.share = null;
@@ -46,6 +62,11 @@ public class SpdzElement implements Serializable{
 		this.share = share;
 		this.mac = mac;		
 	}
+
+	private SpdzElement(MontgomeryField field, long[] limbs) {
+		this.field = field;
+		this.limbs = limbs;
+	}
 	
 	//Communication methods	
 	public SpdzElement(byte[] data){
@@ -67,8 +88,8 @@ public class SpdzElement implements Serializable{
 	public byte[] toByteArray(){		
 		byte[] share_invert = new byte[getSize()];
 		byte[] mac_invert = new byte[getSize()];
-		copyAndInvertArray(share_invert, this.share.toByteArray());
-		copyAndInvertArray(mac_invert, this.mac.toByteArray());
+		copyAndInvertArray(share_invert, getShare().toByteArray());
+		copyAndInvertArray(mac_invert, getMac().toByteArray());
 		byte[] res = new byte[getSize()*2];
 		System.arraycopy(share_invert, 0, res, 0, getSize());
 		System.arraycopy(mac_invert, 0, res, getSize(), getSize());
@@ -80,21 +101,70 @@ public class SpdzElement implements Serializable{
             bytes[bytes.length - byteArray.length + inx] = byteArray[inx];            
         }
     }
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		getShare();
+		getMac();
+		out.defaultWriteObject();
+	}
 	
 	//get operations
 	public BigInteger getShare(){
-		return share;
+		BigInteger s = this.share;
+		if (s == null && this.limbs != null) {
+			s = this.field.fromMontgomery(this.limbs, 0);
+			this.share = s;
+		}
+		return s;
 	}	
 	
 	public BigInteger getMac(){
-		return mac;
+		BigInteger m = this.mac;
+		if (m == null && this.limbs != null) {
+			m = this.field.fromMontgomery(this.limbs, this.field.getLimbs());
+			this.mac = m;
+		}
+		return m;
+	}
+
+	/**
+	 * Returns the share followed by the mac in Montgomery form of the given
+	 * field, making them from the BigIntegers if needed.
+	 */
+	private long[] limbs(MontgomeryField field) {
+		long[] l = this.limbs;
+		if (l == null || this.field != field) {
+			l = new long[2 * field.getLimbs()];
+			field.toMontgomery(getShare(), l, 0);
+			field.toMontgomery(getMac(), l, field.getLimbs());
+			this.field = field;
+			this.limbs = l;
+		}
+		return l;
+	}
+
+	/**
+	 * Called after the limbs were changed in place.
+	 */
+	private void limbsChanged() {
+		this.share = null;
+		this.mac = null;
+	}
+
+	/**
+	 * @return a new element with the same share and mac, which may be changed
+	 *         in place.
+	 */
+	public SpdzElement copy() {
+		MontgomeryField f = Util.getField();
+		return new SpdzElement(f, limbs(f).clone());
 	}
 	
 	//Arithmetic operations:
 	public SpdzElement add(SpdzElement e){
-		BigInteger rShare = this.share.add(e.getShare()).mod(Util.getModulus());
-		BigInteger rMac = this.mac.add(e.getMac()).mod(Util.getModulus());		
-		return new SpdzElement(rShare, rMac);
+		SpdzElement res = copy();
+		res.addInPlace(e);
+		return res;
 	}
 	
 	/**
@@ -104,21 +174,22 @@ public class SpdzElement implements Serializable{
 	 * @return
 	 */
 	public SpdzElement add(SpdzElement e, int pID){
-		BigInteger rShare = this.share;
-		BigInteger rMac = this.mac;
-		rMac = rMac.add(e.getMac()).mod(Util.getModulus());
+		MontgomeryField f = Util.getField();
+		SpdzElement res = copy();
+		long[] r = res.limbs;
+		long[] l = e.limbs(f);
+		int n = f.getLimbs();
+		f.add(r, n, l, n);
 		if(pID == 1){
-			rShare = rShare.add(e.getShare()).mod(Util.getModulus());			
+			f.add(r, 0, l, 0);
 		}
-		return new SpdzElement(rShare, rMac);
+		return res;
 	}
 	
 	public SpdzElement subtract(SpdzElement e){
-		BigInteger eShare = e.getShare();
-		BigInteger rShare = this.share.subtract(eShare).mod(Util.getModulus());
-		BigInteger eMac = e.getMac();
-		BigInteger rMac = this.mac.subtract(eMac).mod(Util.getModulus());				
-		return new SpdzElement(rShare, rMac);
+		SpdzElement res = copy();
+		res.subtractInPlace(e);
+		return res;
 	}
 	
 	/**
@@ -128,33 +199,99 @@ public class SpdzElement implements Serializable{
 	 * @return
 	 */
 	public SpdzElement subtract(SpdzElement e, int pID) {
-		BigInteger rShare = this.share;
+		MontgomeryField f = Util.getField();
+		SpdzElement res = copy();
+		long[] r = res.limbs;
+		long[] l = e.limbs(f);
+		int n = f.getLimbs();
+		f.subtract(r, n, l, n);
 		if(pID == 1){
-			rShare = this.share.subtract(e.getShare()).mod(Util.getModulus());
+			f.subtract(r, 0, l, 0);
 		}
-		BigInteger eMac = e.getMac();
-		BigInteger rMac = this.mac.subtract(eMac).mod(Util.getModulus());				
-		return new SpdzElement(rShare, rMac);
+		return res;
 	}
 	
 	public SpdzElement multiply(BigInteger c){
-		BigInteger rShare = this.share.multiply(c).mod(Util.getModulus());
-		BigInteger rMac = this.mac.multiply(c).mod(Util.getModulus());				
-		return new SpdzElement(rShare, rMac);		
+		return multiply(Util.getField().toMontgomery(c));
+	}
+
+	/**
+	 * @param c
+	 *            a constant in Montgomery form of the field.
+	 */
+	public SpdzElement multiply(long[] c){
+		SpdzElement res = copy();
+		res.multiplyInPlace(c);
+		return res;
+	}
+
+	//In-place arithmetic operations:
+
+	public void addInPlace(SpdzElement e) {
+		MontgomeryField f = Util.getField();
+		long[] r = limbs(f);
+		long[] l = e.limbs(f);
+		f.add(r, 0, l, 0);
+		f.add(r, f.getLimbs(), l, f.getLimbs());
+		limbsChanged();
+	}
+
+	public void subtractInPlace(SpdzElement e) {
+		MontgomeryField f = Util.getField();
+		long[] r = limbs(f);
+		long[] l = e.limbs(f);
+		f.subtract(r, 0, l, 0);
+		f.subtract(r, f.getLimbs(), l, f.getLimbs());
+		limbsChanged();
+	}
+
+	/**
+	 * @param c
+	 *            a constant in Montgomery form of the field.
+	 */
+	public void multiplyInPlace(long[] c) {
+		MontgomeryField f = Util.getField();
+		long[] r = limbs(f);
+		f.multiply(r, 0, c, 0);
+		f.multiply(r, f.getLimbs(), c, 0);
+		limbsChanged();
+	}
+
+	/**
+	 * Adds a public value. Its share is held by party 1, and its mac share by
+	 * every party is the public value times the party's share of the key.
+	 * 
+	 * @param value
+	 *            the public value in Montgomery form of the field.
+	 * @param keyShare
+	 *            the share of the MAC key in Montgomery form of the field.
+	 * @param pID
+	 *            the id of this party.
+	 */
+	public void addPublicInPlace(long[] value, long[] keyShare, int pID) {
+		MontgomeryField f = Util.getField();
+		long[] r = limbs(f);
+		long[] valueMac = value.clone();
+		f.multiply(valueMac, 0, keyShare, 0);
+		f.add(r, f.getLimbs(), valueMac, 0);
+		if (pID == 1) {
+			f.add(r, 0, value, 0);
+		}
+		limbsChanged();
 	}
 	
 	
 	//Utility methods
 	@Override
 	public String toString(){
-		return "spdz("+share+", "+mac+")";
+		return "spdz("+getShare()+", "+getMac()+")";
 	}
 	
 	@Override
 	public boolean equals(Object o){
 		if(o instanceof SpdzElement){
 			SpdzElement e = (SpdzElement)o;		
-			return (e.getShare().equals(share) && e.getMac().equals(mac));
+			return (e.getShare().equals(getShare()) && e.getMac().equals(getMac()));
 		}else{
 			return false;
 		}
@@ -31,19 +31,30 @@ import java.io.Serializable;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Random;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.NativeProtocol;
 import dk.alexandra.fresco.framework.NativeProtocol.EvaluationStatus;
 import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.network.CompactWireCodec;
 import dk.alexandra.fresco.framework.network.Network;
 import dk.alexandra.fresco.framework.network.SCENetworkImpl;
+import dk.alexandra.fresco.framework.network.WireCodec;
 import dk.alexandra.fresco.framework.sce.configuration.ProtocolSuiteConfiguration;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
+import dk.alexandra.fresco.framework.sce.metrics.Tracer;
 import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
 import dk.alexandra.fresco.suite.ProtocolSuite;
 import dk.alexandra.fresco.suite.spdz.configuration.SpdzConfiguration;
@@ -54,6 +65,8 @@ import dk.alexandra.fresco.suite.spdz.gates.SpdzOpenCommitProtocol;
 import dk.alexandra.fresco.suite.spdz.storage.SpdzStorage;
 import dk.alexandra.fresco.suite.spdz.storage.SpdzStorageDummyImpl;
 import dk.alexandra.fresco.suite.spdz.storage.SpdzStorageImpl;
+import dk.alexandra.fresco.suite.spdz.storage.SpdzStreamingStorage;
+import dk.alexandra.fresco.suite.spdz.utils.MacCheckCombiner;
 import dk.alexandra.fresco.suite.spdz.utils.Util;
 
 public class SpdzProtocolSuite implements ProtocolSuite {
@@ -65,10 +78,18 @@ public class SpdzProtocolSuite implements ProtocolSuite {
 	private SpdzStorage[] store;
 	private ResourcePool rp;
 	private int gatesEvaluated = 0;
-	private int macCheckThreshold = 100000;
+	private int macCheckThreshold;
 	private BigInteger keyShare, p;
+	private long[] keyShareLimbs;
 	private MessageDigest[] digs;
 	private SpdzConfiguration spdzConf;
+	private WireCodec codec;
+	// The MAC check uses its own message digest and, when asynchronous, a
+	// thread and channel of its own.
+	private int macCheckThreadId;
+	private String macCheckChannel;
+	private ExecutorService macChecker;
+	private Future<Void> pendingMacCheck;
 
 	public SpdzProtocolSuite() {
 	}
@@ -83,6 +104,20 @@ public class SpdzProtocolSuite implements ProtocolSuite {
 		return instances.get(id);
 	}
 
+	/**
+	 * Returns the SPDZ suite evaluating with the given resource pool. When
+	 * running concurrent sessions each session has a suite of its own, set in
+	 * the resource pool of the session. Otherwise this is the instance of the
+	 * party.
+	 */
+	public static SpdzProtocolSuite getInstance(ResourcePool resourcePool) {
+		ProtocolSuite suite = resourcePool.getProtocolSuite();
+		if (suite instanceof SpdzProtocolSuite) {
+			return (SpdzProtocolSuite) suite;
+		}
+		return getInstance(resourcePool.getMyId());
+	}
+
 	public SpdzStorage getStore(int i) {
 		return store[i];
 	}
@@ -91,6 +126,14 @@ public class SpdzProtocolSuite implements ProtocolSuite {
 		return keyShare;
 	}
 
+	/**
+	 * @return the share of the MAC key in Montgomery form of
+	 *         {@link Util#getField()}.
+	 */
+	public long[] getKeyShareLimbs() {
+		return keyShareLimbs;
+	}
+
 	public BigInteger getModulus() {
 		return p;
 	}
@@ -106,6 +149,8 @@ public class SpdzProtocolSuite implements ProtocolSuite {
 	@Override
 	public void init(ResourcePool resourcePool, ProtocolSuiteConfiguration conf) {
 		spdzConf = (SpdzConfiguration) conf;
+		this.macCheckThreshold = spdzConf.getMacCheckThreshold();
+		this.gatesEvaluated = 0;
 		this.network = resourcePool.getNetwork();
 		int noOfThreads = resourcePool.getVMThreadCount();
 		this.store = new SpdzStorage[noOfThreads];
@@ -119,8 +164,9 @@ public class SpdzProtocolSuite implements ProtocolSuite {
 		this.rand = resourcePool.getSecureRandom();
 		this.rp = resourcePool;
 
+		this.macCheckThreadId = noOfThreads;
 		try {
-			this.digs = new MessageDigest[noOfThreads];
+			this.digs = new MessageDigest[noOfThreads + 1];
 			for (int i = 0; i < this.digs.length; i++) {
 				this.digs[i] = MessageDigest.getInstance("SHA-256");
 			}
@@ -139,105 +185,212 @@ public class SpdzProtocolSuite implements ProtocolSuite {
 		this.keyShare = store[0].getSSK();
 		this.p = store[0].getSupplier().getModulus();
 		Util.setModulus(this.p);
+		this.keyShareLimbs = Util.getField().toMontgomery(this.keyShare);
+		if (spdzConf.useStreamingMacCheck()) {
+			// The first check uses coefficients seeded by the empty seed,
+			// each following check those seeded by the previous one. When
+			// checking asynchronously the coefficients are not reseeded.
+			for (int i = 0; i < noOfThreads; i++) {
+				store[i] = new SpdzStreamingStorage(store[i], i, this.p);
+			}
+		}
 		byte[] bytes = p.toByteArray();
 		if (bytes[0] == 0) {
 			Util.size = p.toByteArray().length - 1;
 		} else {
 			Util.size = p.toByteArray().length;
 		}
+		// Shares and opened values are written with exactly Util.size bytes.
+		this.codec = new CompactWireCodec(Util.size);
+
+		if (this.macChecker != null) {
+			// Left over from an earlier evaluation by this party.
+			this.macChecker.shutdownNow();
+			this.macChecker = null;
+			this.pendingMacCheck = null;
+		}
+		if (spdzConf.useAsyncMacCheck()) {
+			this.macCheckChannel = resourcePool.getSuiteChannel();
+			if (this.macCheckChannel == null) {
+				throw new MPCException("The asynchronous MAC check needs a channel of its own.");
+			}
+			this.macChecker = newMacChecker(resourcePool.getMyId());
+		} else {
+			this.macCheckChannel = "0";
+		}
+	}
+
+	private static ExecutorService newMacChecker(final int myId) {
+		return Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SpdzMacCheck-" + myId);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Drops the values opened by the aborted evaluation and cancels the MAC
+	 * check running for it, if any. The coefficients of the streaming MAC
+	 * check start over from the empty seed, as after init, since the parties
+	 * may not have agreed on the last seed before the connection failed.
+	 */
+	@Override
+	public void reset() {
+		if (this.pendingMacCheck != null) {
+			this.pendingMacCheck.cancel(true);
+			this.pendingMacCheck = null;
+		}
+		if (this.macChecker != null) {
+			// The check may still be waiting on the failed connection.
+			this.macChecker.shutdownNow();
+			this.macChecker = newMacChecker(this.rp.getMyId());
+		}
+		for (SpdzStorage st : this.store) {
+			if (spdzConf.useStreamingMacCheck()) {
+				((SpdzStreamingStorage) st).reseed(new byte[0]);
+			} else {
+				st.reset();
+			}
+		}
+		for (MessageDigest dig : this.digs) {
+			if (dig != null) {
+				dig.reset();
+			}
+		}
+		this.gatesEvaluated = 0;
 	}
 
 	@Override
 	public void synchronize(int gatesEvaluated) throws MPCException {
 		this.gatesEvaluated += gatesEvaluated;
 		if (this.gatesEvaluated > macCheckThreshold) {
+			macCheck();
+			this.gatesEvaluated = 0;
+		} else if (pendingMacCheck != null && pendingMacCheck.isDone()) {
+			// Report a failed check as soon as possible.
+			awaitMacCheck();
+		}
+	}
+
+	@Override
+	public void finishedEval() {
+		macCheck();
+		// The outputs are not handed to the application before all
+		// values opened have been checked.
+		awaitMacCheck();
+		this.gatesEvaluated = 0;
+	}
+
+	/**
+	 * Checks the MACs of the values opened since the last check. Called while
+	 * no thread is evaluating. When checking asynchronously the values are
+	 * taken from the storages and checked while the evaluation continues.
+	 */
+	private void macCheck() {
+		final Openings openings = takeOpenings();
+		if (macChecker == null) {
 			try {
-				for (int i = 1; i < store.length; i++) {
-					store[0].getOpenedValues().addAll(store[i].getOpenedValues());
-					store[0].getClosedValues().addAll(store[i].getClosedValues());
-					store[i].reset();
+				BigInteger s = MACCheck(openings);
+				if (spdzConf.useStreamingMacCheck()) {
+					// Seed the coefficients of the next check with s.
+					byte[] seed = s.toByteArray();
+					for (SpdzStorage st : this.store) {
+						((SpdzStreamingStorage) st).reseed(seed);
+					}
 				}
-				MACCheck();
 			} catch (IOException e) {
 				throw new MPCException("Could not complete MACCheck.", e);
 			}
-			this.gatesEvaluated = 0;
+		} else {
+			// Only one check runs at a time, so a slow check holds back the
+			// evaluation instead of piling up values to check.
+			awaitMacCheck();
+			this.pendingMacCheck = macChecker.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					MACCheck(openings);
+					return null;
+				}
+			});
 		}
 	}
 
-	@Override
-	public void finishedEval() {
+	/**
+	 * Waits for the running asynchronous MAC check, if any.
+	 * 
+	 * @throws MPCException
+	 *             if the check failed.
+	 */
+	private void awaitMacCheck() {
+		if (pendingMacCheck == null) {
+			return;
+		}
 		try {
-			MACCheck();
-			this.gatesEvaluated = 0;
-		} catch (IOException e) {
+			pendingMacCheck.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MPCException("Interrupted while waiting for the MAC check.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof MPCException) {
+				throw (MPCException) e.getCause();
+			}
 			throw new MPCException("Could not complete MACCheck.", e);
+		} finally {
+			pendingMacCheck = null;
+		}
+	}
+
+	/**
+	 * Takes the values opened since the last check out of the storages of all
+	 * threads.
+	 */
+	private Openings takeOpenings() {
+		Openings openings = new Openings();
+		for (SpdzStorage st : this.store) {
+			if (spdzConf.useStreamingMacCheck()) {
+				SpdzStreamingStorage streaming = (SpdzStreamingStorage) st;
+				if (!streaming.isBalanced()) {
+					throw new MPCException(
+							"Amount of closed values does not equal the amount of partially opened values. Aborting!");
+				}
+				openings.a = openings.a.add(streaming.getCombinedOpenedValue());
+				openings.gamma = openings.gamma.add(streaming.getCombinedMac());
+				openings.count += streaming.getCount();
+			} else {
+				openings.openedValues.addAll(st.getOpenedValues());
+				openings.closedValues.addAll(st.getClosedValues());
+				openings.count += st.getOpenedValues().size();
+			}
+			st.reset();
 		}
+		return openings;
 	}
 
-	private void MACCheck() throws IOException {
+	/**
+	 * Runs the MAC check on the given values.
+	 * 
+	 * @return the common random value agreed on by the parties.
+	 */
+	private BigInteger MACCheck(Openings openings) throws IOException {
+		long then = System.nanoTime();
+		Tracer tracer = Tracer.getInstance(this.rp.getMyId());
+		long start = tracer.begin();
+		MessageDigest dig = this.digs[macCheckThreadId];
 		// TODO: This is not truly random
 		BigInteger s = new BigInteger(Util.getModulus().bitLength(), rand).mod(Util.getModulus());
-		SpdzCommitment commitment = new SpdzCommitment(this.digs[0], s, rand);
+		SpdzCommitment commitment = new SpdzCommitment(dig, s, rand);
 		Map<Integer, BigInteger> comms = new HashMap<Integer, BigInteger>();
 		SpdzCommitProtocol comm = new SpdzCommitProtocol(commitment, comms);
 		Map<Integer, BigInteger> ss = new HashMap<Integer, BigInteger>();
 		SpdzOpenCommitProtocol open = new SpdzOpenCommitProtocol(commitment, comms, ss);
 
-		SCENetworkImpl protocolNetwork = new SCENetworkImpl(this.rp.getNoOfParties(), 0);
-
-		EvaluationStatus status;
-		int i = 0;
-		do {
-			status = comm.evaluate(i, this.rp, protocolNetwork);
-			i++;
-			// send phase
-			Map<Integer, Queue<Serializable>> output = protocolNetwork.getOutputFromThisRound();
-			for (int pId : output.keySet()) {
-				// send array since queue is not serializable
-				network.send("0", pId, output.get(pId).toArray(new Serializable[0]));
-			}
-
-			// receive phase
-			Map<Integer, Queue<Serializable>> inputForThisRound = new HashMap<Integer, Queue<Serializable>>();
-			for (int pId : protocolNetwork.getExpectedInputForNextRound()) {
-				Serializable[] messages = network.receive("0", pId);
-				Queue<Serializable> q = new LinkedBlockingQueue<Serializable>();
-				// convert back from array to queue.
-				for (Serializable message : messages) {
-					q.offer(message);
-				}
-				inputForThisRound.put(pId, q);
-			}
-			protocolNetwork.setInput(inputForThisRound);
-			protocolNetwork.nextRound();
-		} while (status != EvaluationStatus.IS_DONE);
-
-		i = 0;
-		do {
-			status = open.evaluate(i, this.rp, protocolNetwork);
-			i++;
-			// send phase
-			Map<Integer, Queue<Serializable>> output = protocolNetwork.getOutputFromThisRound();
-			for (int pId : output.keySet()) {
-				// send array since queue is not serializable
-				network.send("0", pId, output.get(pId).toArray(new Serializable[0]));
-			}
-
-			// receive phase
-			Map<Integer, Queue<Serializable>> inputForThisRound = new HashMap<Integer, Queue<Serializable>>();
-			for (int pId : protocolNetwork.getExpectedInputForNextRound()) {
-				Serializable[] messages = network.receive("0", pId);
-				Queue<Serializable> q = new LinkedBlockingQueue<Serializable>();
-				// convert back from array to queue.
-				for (Serializable message : messages) {
-					q.offer(message);
-				}
-				inputForThisRound.put(pId, q);
-			}
-			protocolNetwork.setInput(inputForThisRound);
-			protocolNetwork.nextRound();
-		} while (status != EvaluationStatus.IS_DONE);
+		SCENetworkImpl protocolNetwork = new SCENetworkImpl(this.rp.getNoOfParties(), this.rp.getMyId(),
+				macCheckThreadId);
+		evaluate(comm, protocolNetwork);
+		evaluate(open, protocolNetwork);
 
 		// Add all s's to get the common random value:
 		s = BigInteger.ZERO;
@@ -245,116 +398,104 @@ public class SpdzProtocolSuite implements ProtocolSuite {
 			s = s.add(otherS);
 		}
 
-		// TODO: Need to gather all values from all stores in a smart manner
-		// that makes the check good.
-		List<BigInteger> as = this.store[0].getOpenedValues();
-		int t = as.size();
-
-		BigInteger[] rs = new BigInteger[t];
-		MessageDigest H = new Util().getHashFunction();
-		BigInteger r_temp = s;
-		for (i = 0; i < t; i++) {
-			r_temp = new BigInteger(H.digest(r_temp.toByteArray())).mod(Util.getModulus());
-			rs[i] = r_temp;
-		}
-		BigInteger a = BigInteger.ZERO;
-		int index = 0;
-		for (BigInteger aa : as) {
-			a = a.add(aa.multiply(rs[index++])).mod(Util.getModulus());
-		}
-		// compute gamma_i as the sum of all MAC's on the opened values times
-		// r_j.
-		List<SpdzElement> closedValues = store[0].getClosedValues();
-		if (closedValues.size() != t) {
-			throw new MPCException(
-					"Amount of closed values does not equal the amount of partially opened values. Aborting!");
-		}
-		BigInteger gamma = BigInteger.ZERO;
-		index = 0;
-		for (SpdzElement c : closedValues) {
-			gamma = gamma.add(rs[index++].multiply(c.getMac())).mod(Util.getModulus());
+		BigInteger a;
+		BigInteger gamma;
+		long t = openings.count;
+		if (spdzConf.useStreamingMacCheck()) {
+			// The values were combined as they were opened.
+			a = openings.a.mod(Util.getModulus());
+			gamma = openings.gamma.mod(Util.getModulus());
+		} else {
+			// compute a as the sum of the opened values times r_j, and
+			// gamma_i as the sum of all MAC's on the opened values times r_j.
+			BigInteger[] combined = new MacCheckCombiner(Util.getModulus(), s).combine(openings.openedValues,
+					openings.closedValues);
+			a = combined[0];
+			gamma = combined[1];
 		}
 
 		// compute delta_i as: gamma_i - alpha_i*a
 		BigInteger delta = gamma.subtract(store[0].getSSK().multiply(a)).mod(Util.getModulus());
 		// Commit to delta and open it afterwards
-		commitment = new SpdzCommitment(this.digs[0], delta, rand);
+		commitment = new SpdzCommitment(dig, delta, rand);
 		comms = new HashMap<Integer, BigInteger>();
 		comm = new SpdzCommitProtocol(commitment, comms);
 		ss = new HashMap<Integer, BigInteger>();
 		open = new SpdzOpenCommitProtocol(commitment, comms, ss);
+		evaluate(comm, protocolNetwork);
+		evaluate(open, protocolNetwork);
 
-		status = null;
-		i = 0;
-		do {
-			status = comm.evaluate(i, this.rp, protocolNetwork);
-			i++;
-			// send phase
-			Map<Integer, Queue<Serializable>> output = protocolNetwork.getOutputFromThisRound();
-			for (int pId : output.keySet()) {
-				// send array since queue is not serializable
-				network.send("0", pId, output.get(pId).toArray(new Serializable[0]));
-			}
-
-			// receive phase
-			Map<Integer, Queue<Serializable>> inputForThisRound = new HashMap<Integer, Queue<Serializable>>();
-			for (int pId : protocolNetwork.getExpectedInputForNextRound()) {
-				Serializable[] messages = network.receive("0", pId);
-				Queue<Serializable> q = new LinkedBlockingQueue<Serializable>();
-				// convert back from array to queue.
-				for (Serializable message : messages) {
-					q.offer(message);
-				}
-				inputForThisRound.put(pId, q);
-			}
-			protocolNetwork.setInput(inputForThisRound);
-			protocolNetwork.nextRound();
-		} while (status != EvaluationStatus.IS_DONE);
+		BigInteger deltaSum = BigInteger.ZERO;
+		for (BigInteger d : ss.values()) {
+			deltaSum = deltaSum.add(d);
+		}
+		deltaSum = deltaSum.mod(Util.getModulus());
+		if (!deltaSum.equals(BigInteger.ZERO)) {			
+			throw new MPCException("The sum of delta's was not 0. Someone was corrupting something amongst " + t
+					+ " macs. Sum was " + deltaSum.toString() + " Aborting!");
+		}
+		MetricsRegistry.getInstance(this.rp.getMyId()).macCheckDone(System.nanoTime() - then);
+		tracer.end(Tracer.MAC_CHECK, start, 0, 0);
+		return s;
+	}
 
-		i = 0;
+	/**
+	 * Evaluates a protocol of the MAC check to the end, sending and
+	 * receiving on the channel of the MAC check.
+	 */
+	private void evaluate(NativeProtocol protocol, SCENetworkImpl protocolNetwork) throws IOException {
+		EvaluationStatus status;
+		int i = 0;
 		do {
-			status = open.evaluate(i, this.rp, protocolNetwork);
+			status = protocol.evaluate(i, this.rp, protocolNetwork);
 			i++;
 			// send phase
-			Map<Integer, Queue<Serializable>> output = protocolNetwork.getOutputFromThisRound();
-			for (int pId : output.keySet()) {
-				// send array since queue is not serializable
-				network.send("0", pId, output.get(pId).toArray(new Serializable[0]));
+			for (int pId = 1; pId <= this.rp.getNoOfParties(); pId++) {
+				Queue<Serializable> output = protocolNetwork.getOutputFromThisRound(pId);
+				if (!output.isEmpty()) {
+					// send array since queue is not serializable
+					network.send(macCheckChannel, pId, output.toArray(new Serializable[output.size()]));
+				}
 			}
 
 			// receive phase
-			Map<Integer, Queue<Serializable>> inputForThisRound = new HashMap<Integer, Queue<Serializable>>();
-			for (int pId : protocolNetwork.getExpectedInputForNextRound()) {
-				Serializable[] messages = network.receive("0", pId);
-				Queue<Serializable> q = new LinkedBlockingQueue<Serializable>();
-				// convert back from array to queue.
-				for (Serializable message : messages) {
-					q.offer(message);
+			for (int pId = 1; pId <= this.rp.getNoOfParties(); pId++) {
+				if (protocolNetwork.isInputExpectedForNextRound(pId)) {
+					Serializable[] messages = network.receive(macCheckChannel, pId);
+					protocolNetwork.addInputs(pId, messages);
 				}
-				inputForThisRound.put(pId, q);
 			}
-			protocolNetwork.setInput(inputForThisRound);
 			protocolNetwork.nextRound();
 		} while (status != EvaluationStatus.IS_DONE);
-
-		BigInteger deltaSum = BigInteger.ZERO;
-		for (BigInteger d : ss.values()) {
-			deltaSum = deltaSum.add(d);
-		}
-		deltaSum = deltaSum.mod(Util.getModulus());
-		if (!deltaSum.equals(BigInteger.ZERO)) {			
-			throw new MPCException("The sum of delta's was not 0. Someone was corrupting something amongst " + t
-					+ " macs. Sum was " + deltaSum.toString() + " Aborting!");
-		}
-		// clean up store before returning to evaluating such that we only
-		// evaluate the next macs, not those we already checked.
-		this.store[0].reset();
 	}
 
 	@Override
 	public void destroy() {
+		if (macChecker != null) {
+			macChecker.shutdownNow();
+			macChecker = null;
+			pendingMacCheck = null;
+		}
 		for (SpdzStorage store : this.store) {
 			store.shutdown();
 		}
 	}
+
+	@Override
+	public WireCodec getWireCodec() {
+		return this.codec;
+	}
+
+	/**
+	 * The values covered by a MAC check, taken out of the storages when the
+	 * check starts. Either the opened and closed values, or their
+	 * combinations when using the streaming MAC check.
+	 */
+	private static class Openings {
+		private final List<BigInteger> openedValues = new ArrayList<BigInteger>();
+		private final List<SpdzElement> closedValues = new ArrayList<SpdzElement>();
+		private BigInteger a = BigInteger.ZERO;
+		private BigInteger gamma = BigInteger.ZERO;
+		private long count;
+	}
 }
@@ -117,7 +117,7 @@ public class DummyComparisonProtocol implements ComparisonProtocol {
 		public EvaluationStatus evaluate(int round, ResourcePool resourcePool,
 				SCENetwork network) {
 			SpdzProtocolSuite spdzPii = SpdzProtocolSuite
-					.getInstance(resourcePool.getMyId());
+					.getInstance(resourcePool);
 			SpdzOInt min = null;
 			if (compareModP(a.getValue(), b.getValue()) <= 0) {
 				min = new SpdzOInt(BigInteger.ONE);
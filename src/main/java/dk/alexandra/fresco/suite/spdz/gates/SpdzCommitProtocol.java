@@ -79,7 +79,7 @@ public class SpdzCommitProtocol extends SpdzNativeProtocol {
 			} else {
 				broadcastDigest = sendBroadcastValidation(
 						SpdzProtocolSuite.getInstance(
-								resourcePool.getMyId()).getMessageDigest(
+								resourcePool).getMessageDigest(
 								network.getThreadId()), network, commitments,
 						players);
 				network.expectInputFromAll();
@@ -80,7 +80,7 @@ public class SpdzInputProtocol extends SpdzNativeProtocol implements CloseIntPro
 		int players = resourcePool.getNoOfParties();
 		BigInteger modulus = Util.getModulus();
 		SpdzProtocolSuite spdzPii = SpdzProtocolSuite
-				.getInstance(myId);
+				.getInstance(resourcePool);
 		SpdzStorage storage = spdzPii.getStore(network.getThreadId());
 		switch (round) {
 		case 0:
@@ -104,11 +104,10 @@ public class SpdzInputProtocol extends SpdzNativeProtocol implements CloseIntPro
 			if (!validated) {
 				throw new MPCException("Broadcast digests did not match");
 			}
-			SpdzElement value_masked_elm = new SpdzElement(value_masked,
-					storage.getSSK().multiply(value_masked)
-							.mod(Util.getModulus()));
-			this.out.value = this.inputMask.getMask().add(value_masked_elm,
-					myId);
+			SpdzElement res = this.inputMask.getMask().copy();
+			res.addPublicInPlace(Util.getField().toMontgomery(value_masked),
+					spdzPii.getKeyShareLimbs(), myId);
+			this.out.value = res;
 			return EvaluationStatus.IS_DONE;
 		}
 		throw new MPCException("Cannot evaluate rounds larger than 2");
@@ -121,8 +120,8 @@ public class SpdzInputProtocol extends SpdzNativeProtocol implements CloseIntPro
 
 	@Override
 	public Value[] getInputValues() {
-		// No point in getting input from an input gate...
-		return null;
+		// An input gate reads no values, only the input of a party.
+		return new Value[0];
 	}
 
 	@Override
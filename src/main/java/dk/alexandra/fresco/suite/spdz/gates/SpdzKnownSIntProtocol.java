@@ -84,17 +84,11 @@ public class SpdzKnownSIntProtocol extends SpdzNativeProtocol implements KnownSI
 	public EvaluationStatus evaluate(int round, ResourcePool resourcePool,
 			SCENetwork network) {
 		SpdzProtocolSuite spdzPii = SpdzProtocolSuite
-				.getInstance(resourcePool.getMyId());
+				.getInstance(resourcePool);
 		value = value.mod(Util.getModulus());
-		SpdzElement elm;
-		BigInteger globalKeyShare = spdzPii.getStore(network.getThreadId())
-				.getSSK();
-		if (resourcePool.getMyId() == 1) {
-			elm = new SpdzElement(value, value.multiply(globalKeyShare));
-		} else {
-			elm = new SpdzElement(BigInteger.ZERO,
-					value.multiply(globalKeyShare));
-		}
+		SpdzElement elm = new SpdzElement(BigInteger.ZERO, BigInteger.ZERO);
+		elm.addPublicInPlace(Util.getField().toMontgomery(value),
+				spdzPii.getKeyShareLimbs(), resourcePool.getMyId());
 		sValue.value = elm;
 		return EvaluationStatus.IS_DONE;
 	}
@@ -41,6 +41,7 @@ import dk.alexandra.fresco.suite.spdz.datatypes.SpdzSInt;
 import dk.alexandra.fresco.suite.spdz.datatypes.SpdzTriple;
 import dk.alexandra.fresco.suite.spdz.evaluation.strategy.SpdzProtocolSuite;
 import dk.alexandra.fresco.suite.spdz.storage.SpdzStorage;
+import dk.alexandra.fresco.suite.spdz.utils.MontgomeryField;
 import dk.alexandra.fresco.suite.spdz.utils.Util;
 
 public class SpdzMultProtocol extends SpdzNativeProtocol implements MultProtocol {
@@ -83,7 +84,7 @@ public class SpdzMultProtocol extends SpdzNativeProtocol implements MultProtocol
 	public EvaluationStatus evaluate(int round, ResourcePool resourcePool,
 			SCENetwork network) {
 		SpdzProtocolSuite spdzPii = SpdzProtocolSuite
-				.getInstance(resourcePool.getMyId());
+				.getInstance(resourcePool);
 		SpdzStorage store = spdzPii.getStore(network.getThreadId());
 		int noOfPlayers = resourcePool.getNoOfParties();
 		switch (round) {
@@ -134,7 +135,6 @@ public class SpdzMultProtocol extends SpdzNativeProtocol implements MultProtocol
 				epsilonShares[i] = shares[0];
 				deltaShares[i] = shares[1];
 			}
-			SpdzElement res = triple.getC();
 			BigInteger e = epsilonShares[0];
 			BigInteger d = deltaShares[0];
 			for (int i = 1; i < epsilonShares.length; i++) {
@@ -144,12 +144,17 @@ public class SpdzMultProtocol extends SpdzNativeProtocol implements MultProtocol
 			e = e.mod(Util.getModulus());
 			d = d.mod(Util.getModulus());
 
-			BigInteger eTimesd = e.multiply(d).mod(Util.getModulus());
-			SpdzElement ed = new SpdzElement(eTimesd, store.getSSK()
-					.multiply(eTimesd).mod(Util.getModulus()));
-			res = res.add(triple.getB().multiply(e))
-					.add(triple.getA().multiply(d))
-					.add(ed, resourcePool.getMyId());
+			// c + e*[b] + d*[a] + e*d on the limbs of the field.
+			MontgomeryField field = Util.getField();
+			long[] eLimbs = field.toMontgomery(e);
+			long[] dLimbs = field.toMontgomery(d);
+			long[] edLimbs = eLimbs.clone();
+			field.multiply(edLimbs, 0, dLimbs, 0);
+			SpdzElement res = triple.getB().multiply(eLimbs);
+			res.addInPlace(triple.getA().multiply(dLimbs));
+			res.addInPlace(triple.getC());
+			res.addPublicInPlace(edLimbs, spdzPii.getKeyShareLimbs(),
+					resourcePool.getMyId());
 			out.value = res;
 			// Set the opened and closed value.
 			store.addOpenedValue(e);
@@ -169,6 +174,9 @@ public class SpdzMultProtocol extends SpdzNativeProtocol implements MultProtocol
 
 	@Override
 	public Value[] getInputValues() {
+		if (oIn1 != null) {
+			return new Value[] { oIn1, in2 };
+		}
 		return new Value[] { in1, in2 };
 	}
 
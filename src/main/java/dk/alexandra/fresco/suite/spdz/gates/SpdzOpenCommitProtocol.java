@@ -69,7 +69,7 @@ public class SpdzOpenCommitProtocol extends SpdzNativeProtocol {
 	public EvaluationStatus evaluate(int round, ResourcePool resourcePool,
 			SCENetwork network) {
 		SpdzProtocolSuite spdzPii = SpdzProtocolSuite
-				.getInstance(resourcePool.getMyId());
+				.getInstance(resourcePool);
 		int players = resourcePool.getNoOfParties();
 		switch (round) {
 		case 0: // Send your opening to all players
@@ -50,6 +50,7 @@ public class SpdzOutputProtocol extends SpdzNativeProtocol implements OpenIntPro
 	private SpdzOInt out;
 	private int target_player;
 	private SpdzInputMask mask;
+	private SpdzElement inMinusMask;
 
 	public SpdzOutputProtocol(SInt in, OInt out, int target_player) {
 		this.in = (SpdzSInt) in;
@@ -75,15 +76,14 @@ public class SpdzOutputProtocol extends SpdzNativeProtocol implements OpenIntPro
 	public EvaluationStatus evaluate(int round, ResourcePool resourcePool,
 			SCENetwork network) {
 		SpdzProtocolSuite spdzpii = SpdzProtocolSuite
-				.getInstance(resourcePool.getMyId());
+				.getInstance(resourcePool);
 		int myId = resourcePool.getMyId();		
 		SpdzStorage storage = spdzpii.getStore(network.getThreadId());		
 		
 		switch (round) {
 		case 0: 
 			this.mask = storage.getSupplier().getNextInputMask(target_player);
-			SpdzElement inMinusMask = this.in.value.subtract(this.mask.getMask());
-			storage.addClosedValue(inMinusMask);
+			this.inMinusMask = this.in.value.subtract(this.mask.getMask());
 			network.sendToAll(inMinusMask.getShare());
 			network.expectInputFromAll();
 			return EvaluationStatus.HAS_MORE_ROUNDS;
@@ -94,7 +94,11 @@ public class SpdzOutputProtocol extends SpdzNativeProtocol implements OpenIntPro
 				openedVal = openedVal.add(share);
 			}
 			openedVal = openedVal.mod(Util.getModulus());
+			// Added in the same round as the closed value, so that other
+			// protocols on this thread cannot come in between them.
 			storage.addOpenedValue(openedVal);
+			storage.addClosedValue(inMinusMask);
+			inMinusMask = null;
 			if(target_player == myId) {
 				openedVal = openedVal.add(this.mask.getRealValue());
 				BigInteger tmpOut = openedVal;
@@ -57,7 +57,7 @@ public class SpdzOutputToAllProtocol extends SpdzNativeProtocol implements
 	public EvaluationStatus evaluate(int round, ResourcePool resourcePool,
 			SCENetwork network) {
 		SpdzProtocolSuite spdzpii = SpdzProtocolSuite
-				.getInstance(resourcePool.getMyId());
+				.getInstance(resourcePool);
 		SpdzStorage storage = spdzpii.getStore(network.getThreadId());
 		switch (round) {
 		case 0:
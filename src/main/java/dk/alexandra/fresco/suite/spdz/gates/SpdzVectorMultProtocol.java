@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.suite.spdz.gates;
+
+import java.math.BigInteger;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.network.SCENetwork;
+import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
+import dk.alexandra.fresco.framework.value.OInt;
+import dk.alexandra.fresco.framework.value.SInt;
+import dk.alexandra.fresco.framework.value.Value;
+import dk.alexandra.fresco.lib.math.integer.linalg.EntrywiseProductProtocol;
+import dk.alexandra.fresco.suite.spdz.datatypes.SpdzElement;
+import dk.alexandra.fresco.suite.spdz.datatypes.SpdzSInt;
+import dk.alexandra.fresco.suite.spdz.datatypes.SpdzTriple;
+import dk.alexandra.fresco.suite.spdz.evaluation.strategy.SpdzProtocolSuite;
+import dk.alexandra.fresco.suite.spdz.storage.SpdzStorage;
+import dk.alexandra.fresco.suite.spdz.utils.MontgomeryField;
+import dk.alexandra.fresco.suite.spdz.utils.Util;
+
+/**
+ * Multiplies two arrays entry by entry in one native protocol. It does what
+ * a {@link SpdzMultProtocol} per entry would do, but takes all the triples at
+ * once, opens all the differences in one message to each party holding the
+ * epsilons followed by the deltas, and adds the opened and closed values to
+ * the storage in bulk.
+ * 
+ * When the second array is public no triples are needed, and the product is
+ * done locally in a single round.
+ */
+public class SpdzVectorMultProtocol extends SpdzNativeProtocol implements EntrywiseProductProtocol {
+
+	private SInt[] as, bs, results;
+	private OInt[] publicBs;
+	private SpdzTriple[] triples;
+	private SpdzElement[] epsilons, deltas;
+
+	public SpdzVectorMultProtocol(SInt[] as, SInt[] bs, SInt[] results) {
+		if (as.length != bs.length || as.length != results.length) {
+			throw new MPCException("Can only multiply arrays of equal length");
+		}
+		this.as = as;
+		this.bs = bs;
+		this.results = results;
+	}
+
+	public SpdzVectorMultProtocol(SInt[] as, OInt[] publicBs, SInt[] results) {
+		if (as.length != publicBs.length || as.length != results.length) {
+			throw new MPCException("Can only multiply arrays of equal length");
+		}
+		this.as = as;
+		this.publicBs = publicBs;
+		this.results = results;
+	}
+
+	@Override
+	public EvaluationStatus evaluate(int round, ResourcePool resourcePool, SCENetwork network) {
+		SpdzProtocolSuite spdzPii = SpdzProtocolSuite.getInstance(resourcePool);
+		SpdzStorage store = spdzPii.getStore(network.getThreadId());
+		int n = this.as.length;
+		switch (round) {
+		case 0:
+			if (n == 0) {
+				return EvaluationStatus.IS_DONE;
+			}
+			if (this.publicBs != null) {
+				for (int i = 0; i < n; i++) {
+					((SpdzSInt) this.results[i]).value = value(this.as[i]).multiply(this.publicBs[i].getValue());
+				}
+				return EvaluationStatus.IS_DONE;
+			}
+			this.triples = store.getSupplier().getNextTriples(n);
+			this.epsilons = new SpdzElement[n];
+			this.deltas = new SpdzElement[n];
+			BigInteger[] shares = new BigInteger[2 * n];
+			for (int i = 0; i < n; i++) {
+				this.epsilons[i] = value(this.as[i]).subtract(this.triples[i].getA());
+				this.deltas[i] = value(this.bs[i]).subtract(this.triples[i].getB());
+				shares[i] = this.epsilons[i].getShare();
+				shares[n + i] = this.deltas[i].getShare();
+			}
+			network.sendToAll(shares);
+			network.expectInputFromAll();
+			return EvaluationStatus.HAS_MORE_ROUNDS;
+		case 1:
+			int noOfPlayers = resourcePool.getNoOfParties();
+			// The received arrays may be the ones sent, so they are not
+			// changed.
+			BigInteger[] opened = new BigInteger[2 * n];
+			for (int p = 1; p <= noOfPlayers; p++) {
+				BigInteger[] received = network.receive(p);
+				if (received.length != 2 * n) {
+					throw new MPCException("Expected " + 2 * n + " shares from party " + p + ", got "
+							+ received.length);
+				}
+				for (int j = 0; j < 2 * n; j++) {
+					opened[j] = (p == 1) ? received[j] : opened[j].add(received[j]);
+				}
+			}
+			MontgomeryField field = Util.getField();
+			BigInteger modulus = Util.getModulus();
+			long[] keyShare = spdzPii.getKeyShareLimbs();
+			int myId = resourcePool.getMyId();
+			SpdzElement[] closed = new SpdzElement[2 * n];
+			for (int i = 0; i < n; i++) {
+				BigInteger e = opened[i].mod(modulus);
+				BigInteger d = opened[n + i].mod(modulus);
+				opened[i] = e;
+				opened[n + i] = d;
+				// c + e*[b] + d*[a] + e*d, as in SpdzMultProtocol.
+				long[] eLimbs = field.toMontgomery(e);
+				long[] dLimbs = field.toMontgomery(d);
+				long[] edLimbs = eLimbs.clone();
+				field.multiply(edLimbs, 0, dLimbs, 0);
+				SpdzTriple triple = this.triples[i];
+				SpdzElement res = triple.getB().multiply(eLimbs);
+				res.addInPlace(triple.getA().multiply(dLimbs));
+				res.addInPlace(triple.getC());
+				res.addPublicInPlace(edLimbs, keyShare, myId);
+				((SpdzSInt) this.results[i]).value = res;
+				closed[i] = this.epsilons[i];
+				closed[n + i] = this.deltas[i];
+			}
+			store.addOpenedValues(opened);
+			store.addClosedValues(closed);
+			// help the garbage collector.
+			this.triples = null;
+			this.epsilons = null;
+			this.deltas = null;
+			return EvaluationStatus.IS_DONE;
+		}
+		throw new MPCException("Cannot evaluate rounds larger than 1");
+	}
+
+	private static SpdzElement value(SInt s) {
+		SpdzElement value = ((SpdzSInt) s).value;
+		if (value == null) {
+			throw new MPCException("Vector multiplication of an input without a value");
+		}
+		return value;
+	}
+
+	@Override
+	public Value[] getInputValues() {
+		Value[] others = (this.publicBs != null) ? this.publicBs : this.bs;
+		Value[] inputs = new Value[2 * this.as.length];
+		System.arraycopy(this.as, 0, inputs, 0, this.as.length);
+		System.arraycopy(others, 0, inputs, this.as.length, others.length);
+		return inputs;
+	}
+
+	@Override
+	public Value[] getOutputValues() {
+		return this.results;
+	}
+}
@@ -40,6 +40,13 @@ public interface DataSupplier {
 	 */
 	public abstract SpdzTriple getNextTriple();
 
+	/**
+	 * Supplies the next triples, in the order getNextTriple() would
+	 * @param amount the number of triples
+	 * @return the next new triples
+	 */
+	public abstract SpdzTriple[] getNextTriples(int amount);
+
 	/**
 	 * Supplies the next exp pipe
 	 * @return the next new exp pipe 
@@ -85,6 +85,15 @@ public class DataSupplierImpl implements DataSupplier {
 		return trip;
 	}
 
+	@Override
+	public SpdzTriple[] getNextTriples(int amount) {
+		SpdzTriple[] trips = new SpdzTriple[amount];
+		for (int i = 0; i < amount; i++) {
+			trips[i] = getNextTriple();
+		}
+		return trips;
+	}
+
 	@Override
 	public SpdzSInt[] getNextExpPipe() {
 		SpdzSInt[] expPipe = this.storage.getNext(storageName+SpdzStorageConstants.EXP_PIPE_STORAGE);
@@ -1,6 +1,7 @@
 package dk.alexandra.fresco.suite.spdz.storage;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -52,6 +53,13 @@ public class DummyDataSupplierImpl implements DataSupplier{
 		throw new RuntimeException("Not implemented yet");
 	}
 
+	@Override
+	public SpdzTriple[] getNextTriples(int amount) {
+		SpdzTriple[] trips = new SpdzTriple[amount];
+		Arrays.fill(trips, getNextTriple());
+		return trips;
+	}
+
 	@Override
 	public SpdzSInt[] getNextExpPipe() {
 		if(numberOfPlayers == 2) {
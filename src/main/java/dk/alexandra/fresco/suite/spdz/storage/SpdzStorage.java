@@ -67,6 +67,18 @@ public interface SpdzStorage{
 	 */
 	public abstract void addClosedValue(SpdzElement elem);
 
+	/**
+	 * Adds opened values in the given order
+	 * @param vals the values to be added
+	 */
+	public abstract void addOpenedValues(BigInteger[] vals);
+
+	/**
+	 * Adds closed values in the given order
+	 * @param elems the elements to add
+	 */
+	public abstract void addClosedValues(SpdzElement[] elems);
+
 	/**
 	 * Get the current opened values
 	 * @return a list of opened values
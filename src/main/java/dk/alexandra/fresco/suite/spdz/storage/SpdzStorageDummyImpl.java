@@ -1,7 +1,8 @@
 package dk.alexandra.fresco.suite.spdz.storage;
 
 import java.math.BigInteger;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import dk.alexandra.fresco.suite.spdz.datatypes.SpdzElement;
@@ -14,8 +15,8 @@ public class SpdzStorageDummyImpl implements SpdzStorage{
 	private DataSupplier supplier;
 	
 	public SpdzStorageDummyImpl(int myId, int numberOfParties) {		
-		opened_values = new LinkedList<BigInteger>();
-		closed_values = new LinkedList<SpdzElement>();
+		opened_values = new ArrayList<BigInteger>();
+		closed_values = new ArrayList<SpdzElement>();
 		
 		supplier = new DummyDataSupplierImpl(myId, numberOfParties);
 	}
@@ -46,6 +47,16 @@ public class SpdzStorageDummyImpl implements SpdzStorage{
 		closed_values.add(elem);
 	}
 
+	@Override
+	public void addOpenedValues(BigInteger[] vals) {
+		Collections.addAll(opened_values, vals);
+	}
+
+	@Override
+	public void addClosedValues(SpdzElement[] elems) {
+		Collections.addAll(closed_values, elems);
+	}
+
 	@Override
 	public List<BigInteger> getOpenedValues() {
 		return opened_values;
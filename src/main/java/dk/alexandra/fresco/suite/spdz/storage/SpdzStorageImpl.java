@@ -27,7 +27,8 @@
 package dk.alexandra.fresco.suite.spdz.storage;
 
 import java.math.BigInteger;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
@@ -65,8 +66,8 @@ public class SpdzStorageImpl implements SpdzStorage {
 
 		String storageName = SpdzStorageConstants.STORAGE_NAME_PREFIX + noOfThreadsUsed + "_" + myId + "_" + storageId+"_";
 
-		opened_values = new LinkedList<BigInteger>();
-		closed_values = new LinkedList<SpdzElement>();
+		opened_values = new ArrayList<BigInteger>();
+		closed_values = new ArrayList<SpdzElement>();
 
 		this.supplier = new DataSupplierImpl(storage, storageName, noOfParties);
 	}
@@ -97,6 +98,16 @@ public class SpdzStorageImpl implements SpdzStorage {
 		closed_values.add(elem);
 	}
 
+	@Override
+	public void addOpenedValues(BigInteger[] vals) {
+		Collections.addAll(opened_values, vals);
+	}
+
+	@Override
+	public void addClosedValues(SpdzElement[] elems) {
+		Collections.addAll(closed_values, elems);
+	}
+
 	@Override
 	public List<BigInteger> getOpenedValues() {
 		return opened_values;
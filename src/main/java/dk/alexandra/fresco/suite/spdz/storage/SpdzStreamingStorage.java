@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.suite.spdz.storage;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.suite.spdz.datatypes.SpdzElement;
+
+/**
+ * Storage for the streaming MAC check. Instead of keeping every partially
+ * opened value and its closed value until the MAC check, the opened values
+ * a_j and the MACs m_j are folded into the running sums a = sum r_j*a_j and
+ * gamma = sum r_j*m_j, so the memory used does not grow with the number of
+ * openings.
+ * 
+ * The coefficient r_j is read from a hash chain h_j = H(h_(j-1) || a_j),
+ * started from a seed agreed on by all parties. It is extended with
+ * H(h_j || 1), H(h_j || 2), ... to 64 bits more than the modulus, such that
+ * r_j is close to uniform also for wide moduli. As the chain covers the
+ * opened value itself, a party changing a_j also changes r_j and all later
+ * coefficients, so errors cannot be chosen to cancel out even though the
+ * seed is known while the values are opened.
+ * 
+ * Preprocessed data and the key share come from the wrapped storage.
+ */
+public class SpdzStreamingStorage implements SpdzStorage {
+
+	private static final int HASH_SIZE = 32;
+
+	private final SpdzStorage storage;
+	private final int storageId;
+	private final BigInteger modulus;
+	private final MessageDigest digest;
+
+	private byte[] chain;
+	// The hash output the current coefficient is read from.
+	private final byte[] coefficientBytes;
+	private BigInteger a, gamma;
+	private long count;
+	// Coefficients of opened values whose closed values are not yet added,
+	// and the other way around. At most one of them is non-empty.
+	private final ArrayDeque<BigInteger> pendingCoefficients = new ArrayDeque<BigInteger>();
+	private final ArrayDeque<BigInteger> pendingMacs = new ArrayDeque<BigInteger>();
+
+	/**
+	 * @param storage
+	 *            the storage supplying the preprocessed data.
+	 * @param storageId
+	 *            the unique id of the storage, i.e. the thread using it. Each
+	 *            storage gets its own chain of coefficients.
+	 * @param modulus
+	 *            the modulus of the field.
+	 */
+	public SpdzStreamingStorage(SpdzStorage storage, int storageId, BigInteger modulus) {
+		this.storage = storage;
+		this.storageId = storageId;
+		this.modulus = modulus;
+		try {
+			this.digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new MPCException("SHA-256 is needed for the streaming MAC check.", e);
+		}
+		int blocks = (modulus.bitLength() + 64 + 8 * HASH_SIZE - 1) / (8 * HASH_SIZE);
+		this.coefficientBytes = new byte[blocks * HASH_SIZE];
+		reseed(new byte[0]);
+	}
+
+	/**
+	 * Starts a new chain of coefficients from the given seed and clears the
+	 * running sums. All parties must use the same seed.
+	 * 
+	 * @param seed
+	 *            the common seed, e.g. the random value agreed on in the
+	 *            previous MAC check.
+	 */
+	public void reseed(byte[] seed) {
+		digest.update(seed);
+		digest.update(toBytes(storageId));
+		this.chain = digest.digest();
+		reset();
+	}
+
+	/**
+	 * @return the sum of r_j*a_j over the opened values added since the last
+	 *         reset.
+	 */
+	public BigInteger getCombinedOpenedValue() {
+		return a;
+	}
+
+	/**
+	 * @return the sum of r_j*m_j over the MACs of the closed values added
+	 *         since the last reset.
+	 */
+	public BigInteger getCombinedMac() {
+		return gamma;
+	}
+
+	/**
+	 * @return the number of opened values added since the last reset.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return true if all opened values have been matched by a closed value.
+	 */
+	public boolean isBalanced() {
+		return pendingCoefficients.isEmpty() && pendingMacs.isEmpty();
+	}
+
+	@Override
+	public void shutdown() {
+		storage.shutdown();
+	}
+
+	/**
+	 * Clears the running sums, but keeps the chain of coefficients going.
+	 */
+	@Override
+	public void reset() {
+		a = BigInteger.ZERO;
+		gamma = BigInteger.ZERO;
+		count = 0;
+		pendingCoefficients.clear();
+		pendingMacs.clear();
+	}
+
+	@Override
+	public DataSupplier getSupplier() {
+		return storage.getSupplier();
+	}
+
+	@Override
+	public void addOpenedValue(BigInteger val) {
+		digest.update(chain);
+		digest.update(val.toByteArray());
+		chain = digest.digest();
+		BigInteger r = coefficient();
+		a = a.add(r.multiply(val)).mod(modulus);
+		count++;
+		if (pendingMacs.isEmpty()) {
+			pendingCoefficients.add(r);
+		} else {
+			addToGamma(r, pendingMacs.poll());
+		}
+	}
+
+	@Override
+	public void addClosedValue(SpdzElement elem) {
+		if (pendingCoefficients.isEmpty()) {
+			pendingMacs.add(elem.getMac());
+		} else {
+			addToGamma(pendingCoefficients.poll(), elem.getMac());
+		}
+	}
+
+	/**
+	 * Reads the coefficient from the current link of the chain, extended to
+	 * 64 bits more than the modulus.
+	 */
+	private BigInteger coefficient() {
+		System.arraycopy(chain, 0, coefficientBytes, 0, HASH_SIZE);
+		for (int i = 1; i * HASH_SIZE < coefficientBytes.length; i++) {
+			digest.update(chain);
+			digest.update(toBytes(i));
+			System.arraycopy(digest.digest(), 0, coefficientBytes, i * HASH_SIZE, HASH_SIZE);
+		}
+		return new BigInteger(1, coefficientBytes).mod(modulus);
+	}
+
+	private static byte[] toBytes(int i) {
+		return new byte[] { (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i };
+	}
+
+	private void addToGamma(BigInteger r, BigInteger mac) {
+		gamma = gamma.add(r.multiply(mac)).mod(modulus);
+	}
+
+	@Override
+	public void addOpenedValues(BigInteger[] vals) {
+		for (BigInteger val : vals) {
+			addOpenedValue(val);
+		}
+	}
+
+	@Override
+	public void addClosedValues(SpdzElement[] elems) {
+		for (SpdzElement elem : elems) {
+			addClosedValue(elem);
+		}
+	}
+
+	/**
+	 * The opened values are not kept by this storage.
+	 * 
+	 * @return an empty list.
+	 */
+	@Override
+	public List<BigInteger> getOpenedValues() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * The closed values are not kept by this storage.
+	 * 
+	 * @return an empty list.
+	 */
+	@Override
+	public List<SpdzElement> getClosedValues() {
+		return Collections.emptyList();
+	}
+
+	@Override
+	public BigInteger getSSK() {
+		return storage.getSSK();
+	}
+
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.suite.spdz.utils;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.suite.spdz.datatypes.SpdzElement;
+
+/**
+ * Computes the random linear combinations of the MAC check, a = sum r_j*a_j
+ * over the opened values and gamma = sum r_j*m_j over the MACs of the closed
+ * values.
+ * 
+ * The coefficients r_j are read from AES in counter mode, keyed by a hash of
+ * the random value agreed on by the parties. As any coefficient can be
+ * computed without the ones before it, the sums are split into parts that
+ * are computed in parallel on the common fork/join pool.
+ */
+public class MacCheckCombiner {
+
+	private static final int BLOCK_SIZE = 16;
+	// Values per part of the sums computed by one task.
+	private static final int PART_SIZE = 4096;
+
+	private final BigInteger modulus;
+	private final SecretKeySpec key;
+	private final int coefficientSize;
+
+	/**
+	 * @param modulus
+	 *            the modulus of the field.
+	 * @param seed
+	 *            the random value agreed on by the parties.
+	 */
+	public MacCheckCombiner(BigInteger modulus, BigInteger seed) {
+		this.modulus = modulus;
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(seed.toByteArray());
+			this.key = new SecretKeySpec(digest, 0, 16, "AES");
+		} catch (GeneralSecurityException e) {
+			throw new MPCException("SHA-256 is needed for the MAC check.", e);
+		}
+		// 64 bits more than the modulus, so the coefficients are close to
+		// uniform after reduction.
+		int blocks = (modulus.bitLength() + 64 + 8 * BLOCK_SIZE - 1) / (8 * BLOCK_SIZE);
+		this.coefficientSize = blocks * BLOCK_SIZE;
+	}
+
+	/**
+	 * Computes the coefficients r_from, ..., r_(from+amount-1).
+	 */
+	public BigInteger[] getCoefficients(int from, int amount) {
+		byte[] stream = new byte[amount * coefficientSize];
+		long firstBlock = (long) from * (coefficientSize / BLOCK_SIZE);
+		try {
+			Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+			byte[] counter = new byte[BLOCK_SIZE];
+			for (int i = 0; i < 8; i++) {
+				counter[BLOCK_SIZE - 1 - i] = (byte) (firstBlock >>> (8 * i));
+			}
+			cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(counter));
+			// Encrypting zeros gives the key stream.
+			cipher.doFinal(stream, 0, stream.length, stream, 0);
+		} catch (GeneralSecurityException e) {
+			throw new MPCException("AES-CTR is needed for the MAC check.", e);
+		}
+		BigInteger[] rs = new BigInteger[amount];
+		for (int i = 0; i < amount; i++) {
+			int offset = i * coefficientSize;
+			rs[i] = new BigInteger(1, Arrays.copyOfRange(stream, offset, offset + coefficientSize)).mod(modulus);
+		}
+		return rs;
+	}
+
+	/**
+	 * Computes a and gamma.
+	 * 
+	 * @param openedValues
+	 *            the opened values a_j. Should be {@link RandomAccess}.
+	 * @param closedValues
+	 *            the closed values, in the same order as the opened values.
+	 * @return a and gamma, reduced by the modulus.
+	 */
+	public BigInteger[] combine(List<BigInteger> openedValues, List<SpdzElement> closedValues) {
+		if (openedValues.size() != closedValues.size()) {
+			throw new MPCException(
+					"Amount of closed values does not equal the amount of partially opened values. Aborting!");
+		}
+		return ForkJoinPool.commonPool()
+				.invoke(new Combination(openedValues, closedValues, 0, openedValues.size()));
+	}
+
+	private class Combination extends RecursiveTask<BigInteger[]> {
+
+		private static final long serialVersionUID = 4610398532240675219L;
+
+		private final List<BigInteger> openedValues;
+		private final List<SpdzElement> closedValues;
+		private final int from, to;
+
+		private Combination(List<BigInteger> openedValues, List<SpdzElement> closedValues, int from, int to) {
+			this.openedValues = openedValues;
+			this.closedValues = closedValues;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected BigInteger[] compute() {
+			if (to - from <= PART_SIZE) {
+				BigInteger[] rs = getCoefficients(from, to - from);
+				// Reduced only once, as the sums grow by a few bits at most.
+				BigInteger a = BigInteger.ZERO;
+				BigInteger gamma = BigInteger.ZERO;
+				for (int i = from; i < to; i++) {
+					BigInteger r = rs[i - from];
+					a = a.add(r.multiply(openedValues.get(i)));
+					gamma = gamma.add(r.multiply(closedValues.get(i).getMac()));
+				}
+				return new BigInteger[] { a.mod(modulus), gamma.mod(modulus) };
+			}
+			int middle = (from + to) >>> 1;
+			Combination left = new Combination(openedValues, closedValues, from, middle);
+			left.fork();
+			BigInteger[] right = new Combination(openedValues, closedValues, middle, to).compute();
+			BigInteger[] sums = left.join();
+			sums[0] = sums[0].add(right[0]).mod(modulus);
+			sums[1] = sums[1].add(right[1]).mod(modulus);
+			return sums;
+		}
+	}
+}
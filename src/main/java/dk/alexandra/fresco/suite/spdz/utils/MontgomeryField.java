@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.suite.spdz.utils;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Arithmetic modulo an odd modulus on fixed width elements. An element is
+ * held in Montgomery form, <i>aR mod p</i> with <i>R = 2<sup>64n</sup></i>,
+ * as <i>n</i> little endian 64 bit limbs at some offset of a long array, so
+ * several elements can share one array. All operations work in place on the
+ * limbs of their first argument, and only leaving the Montgomery form creates
+ * a BigInteger.
+ * 
+ * The number of limbs is the smallest that holds the modulus, so a 64 bit
+ * modulus takes one limb and a 256 bit modulus four. Single limb moduli have
+ * their own multiplication without any loops.
+ */
+public final class MontgomeryField {
+
+	private static final long LOW = 0xFFFFFFFFL;
+
+	private final BigInteger modulus;
+	private final int limbs;
+	private final long[] p;
+	// -p^-1 mod 2^64
+	private final long pInv;
+	// R^2 mod p, which takes a value into Montgomery form when multiplied by
+	private final long[] r2;
+	// 1, which takes a value out of Montgomery form when multiplied by
+	private final long[] one;
+	// The n + 2 limbs of the running product of multiplyN. A field is shared
+	// by the threads evaluating gates, so each thread has its own.
+	private final ThreadLocal<long[]> scratch;
+
+	/**
+	 * @param modulus
+	 *            an odd positive modulus.
+	 */
+	public MontgomeryField(BigInteger modulus) {
+		if (modulus.signum() <= 0 || !modulus.testBit(0)) {
+			throw new IllegalArgumentException("Montgomery arithmetic needs an odd positive modulus, got " + modulus);
+		}
+		this.modulus = modulus;
+		this.limbs = (modulus.bitLength() + 63) / 64;
+		this.p = new long[this.limbs];
+		setLimbs(modulus, this.p, 0);
+		// Newton iteration doubling the number of correct bits of the inverse,
+		// starting from p itself which is its own inverse mod 8.
+		long inv = this.p[0];
+		for (int i = 0; i < 5; i++) {
+			inv *= 2 - this.p[0] * inv;
+		}
+		this.pInv = -inv;
+		this.r2 = new long[this.limbs];
+		setLimbs(BigInteger.ONE.shiftLeft(128 * this.limbs).mod(modulus), this.r2, 0);
+		this.one = new long[this.limbs];
+		this.one[0] = 1;
+		final int scratchLimbs = this.limbs + 2;
+		this.scratch = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				return new long[scratchLimbs];
+			}
+		};
+	}
+
+	public BigInteger getModulus() {
+		return this.modulus;
+	}
+
+	/**
+	 * @return the number of limbs of an element.
+	 */
+	public int getLimbs() {
+		return this.limbs;
+	}
+
+	/**
+	 * @return a new array holding the given value in Montgomery form.
+	 */
+	public long[] toMontgomery(BigInteger x) {
+		long[] res = new long[this.limbs];
+		toMontgomery(x, res, 0);
+		return res;
+	}
+
+	/**
+	 * Writes the given value in Montgomery form to the limbs at the given
+	 * offset. The value is reduced first, so it may be negative or larger than
+	 * the modulus.
+	 */
+	public void toMontgomery(BigInteger x, long[] res, int off) {
+		if (x.signum() < 0 || x.compareTo(this.modulus) >= 0) {
+			x = x.mod(this.modulus);
+		}
+		setLimbs(x, res, off);
+		multiply(res, off, this.r2, 0);
+	}
+
+	/**
+	 * @return the value of the element at the given offset, in the range
+	 *         <i>[0, p)</i>.
+	 */
+	public BigInteger fromMontgomery(long[] a, int off) {
+		long[] plain = new long[this.limbs];
+		System.arraycopy(a, off, plain, 0, this.limbs);
+		multiply(plain, 0, this.one, 0);
+		byte[] bytes = new byte[8 * this.limbs];
+		for (int i = 0; i < this.limbs; i++) {
+			long limb = plain[i];
+			int pos = bytes.length - 8 * i;
+			for (int j = 1; j <= 8; j++) {
+				bytes[pos - j] = (byte) limb;
+				limb >>>= 8;
+			}
+		}
+		return new BigInteger(1, bytes);
+	}
+
+	/**
+	 * Sets a to a + b mod p.
+	 */
+	public void add(long[] a, int aOff, long[] b, int bOff) {
+		long carry = 0;
+		for (int i = 0; i < this.limbs; i++) {
+			long x = a[aOff + i];
+			long y = b[bOff + i];
+			long s = x + y + carry;
+			carry = ((x & y) | ((x | y) & ~s)) >>> 63;
+			a[aOff + i] = s;
+		}
+		if (carry != 0 || !lessThanModulus(a, aOff)) {
+			subtractModulus(a, aOff);
+		}
+	}
+
+	/**
+	 * Sets a to a - b mod p.
+	 */
+	public void subtract(long[] a, int aOff, long[] b, int bOff) {
+		long borrow = 0;
+		for (int i = 0; i < this.limbs; i++) {
+			long x = a[aOff + i];
+			long y = b[bOff + i];
+			long d = x - y - borrow;
+			borrow = ((~x & y) | (~(x ^ y) & d)) >>> 63;
+			a[aOff + i] = d;
+		}
+		if (borrow != 0) {
+			long carry = 0;
+			for (int i = 0; i < this.limbs; i++) {
+				long x = a[aOff + i];
+				long y = this.p[i];
+				long s = x + y + carry;
+				carry = ((x & y) | ((x | y) & ~s)) >>> 63;
+				a[aOff + i] = s;
+			}
+		}
+	}
+
+	/**
+	 * Sets a to the Montgomery product a * b * R^-1 mod p, which is the
+	 * Montgomery form of the product when both are in Montgomery form. The
+	 * two may be the same limbs.
+	 */
+	public void multiply(long[] a, int aOff, long[] b, int bOff) {
+		if (this.limbs == 1) {
+			a[aOff] = multiply1(a[aOff], b[bOff]);
+		} else {
+			multiplyN(a, aOff, b, bOff);
+		}
+	}
+
+	private long multiply1(long a, long b) {
+		long p0 = this.p[0];
+		long lo = a * b;
+		long hi = multiplyHigh(a, b);
+		long m = lo * this.pInv;
+		// lo + m * p0 is 0 mod 2^64 and carries exactly when lo is not 0.
+		long carry = (lo | -lo) >>> 63;
+		long mHi = multiplyHigh(m, p0);
+		long s = hi + mHi + carry;
+		long carryOut = ((hi & mHi) | ((hi | mHi) & ~s)) >>> 63;
+		if (carryOut != 0 || Long.compareUnsigned(s, p0) >= 0) {
+			s -= p0;
+		}
+		return s;
+	}
+
+	/**
+	 * Coarsely integrated operand scanning, interleaving the multiplication by
+	 * each limb of b with a reduction step.
+	 */
+	private void multiplyN(long[] a, int aOff, long[] b, int bOff) {
+		int n = this.limbs;
+		long[] t = this.scratch.get();
+		Arrays.fill(t, 0);
+		for (int i = 0; i < n; i++) {
+			long bi = b[bOff + i];
+			long c = 0;
+			for (int j = 0; j < n; j++) {
+				long x = a[aOff + j];
+				long lo = x * bi;
+				long hi = multiplyHigh(x, bi);
+				long s = lo + t[j];
+				hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+				long s2 = s + c;
+				hi += Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+				t[j] = s2;
+				c = hi;
+			}
+			long s = t[n] + c;
+			t[n + 1] = Long.compareUnsigned(s, c) < 0 ? 1 : 0;
+			t[n] = s;
+
+			long m = t[0] * this.pInv;
+			long lo = m * this.p[0];
+			c = multiplyHigh(m, this.p[0]) + (Long.compareUnsigned(lo + t[0], lo) < 0 ? 1 : 0);
+			for (int j = 1; j < n; j++) {
+				lo = m * this.p[j];
+				long hi = multiplyHigh(m, this.p[j]);
+				s = lo + t[j];
+				hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+				long s2 = s + c;
+				hi += Long.compareUnsigned(s2, s) < 0 ? 1 : 0;
+				t[j - 1] = s2;
+				c = hi;
+			}
+			s = t[n] + c;
+			t[n - 1] = s;
+			t[n] = t[n + 1] + (Long.compareUnsigned(s, c) < 0 ? 1 : 0);
+		}
+		System.arraycopy(t, 0, a, aOff, n);
+		if (t[n] != 0 || !lessThanModulus(a, aOff)) {
+			subtractModulus(a, aOff);
+		}
+	}
+
+	private boolean lessThanModulus(long[] a, int off) {
+		for (int i = this.limbs - 1; i >= 0; i--) {
+			int cmp = Long.compareUnsigned(a[off + i], this.p[i]);
+			if (cmp != 0) {
+				return cmp < 0;
+			}
+		}
+		return false;
+	}
+
+	private void subtractModulus(long[] a, int off) {
+		long borrow = 0;
+		for (int i = 0; i < this.limbs; i++) {
+			long x = a[off + i];
+			long y = this.p[i];
+			long d = x - y - borrow;
+			borrow = ((~x & y) | (~(x ^ y) & d)) >>> 63;
+			a[off + i] = d;
+		}
+	}
+
+	private void setLimbs(BigInteger x, long[] res, int off) {
+		byte[] bytes = x.toByteArray();
+		for (int i = 0; i < this.limbs; i++) {
+			long limb = 0;
+			int end = bytes.length - 8 * i;
+			for (int j = Math.max(0, end - 8); j < end; j++) {
+				limb = (limb << 8) | (bytes[j] & 0xFF);
+			}
+			res[off + i] = limb;
+		}
+	}
+
+	/**
+	 * @return the upper 64 bits of the unsigned 128 bit product.
+	 */
+	private static long multiplyHigh(long x, long y) {
+		long x0 = x & LOW;
+		long x1 = x >>> 32;
+		long y0 = y & LOW;
+		long y1 = y >>> 32;
+		long w0 = x0 * y0;
+		long t = x1 * y0 + (w0 >>> 32);
+		long w1 = (t & LOW) + x0 * y1;
+		return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+	}
+}
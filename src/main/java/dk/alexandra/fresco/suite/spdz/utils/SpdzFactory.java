@@ -45,6 +45,8 @@ import dk.alexandra.fresco.lib.math.integer.exp.ExpFromOIntFactory;
 import dk.alexandra.fresco.lib.math.integer.exp.PreprocessedExpPipeFactory;
 import dk.alexandra.fresco.lib.math.integer.inv.LocalInversionFactory;
 import dk.alexandra.fresco.lib.math.integer.inv.LocalInversionProtocol;
+import dk.alexandra.fresco.lib.math.integer.linalg.EntrywiseProductFactory;
+import dk.alexandra.fresco.lib.math.integer.linalg.EntrywiseProductProtocol;
 import dk.alexandra.fresco.suite.spdz.datatypes.SpdzElement;
 import dk.alexandra.fresco.suite.spdz.datatypes.SpdzOInt;
 import dk.alexandra.fresco.suite.spdz.datatypes.SpdzSInt;
@@ -56,10 +58,12 @@ import dk.alexandra.fresco.suite.spdz.gates.SpdzMultProtocol;
 import dk.alexandra.fresco.suite.spdz.gates.SpdzOutputProtocol;
 import dk.alexandra.fresco.suite.spdz.gates.SpdzOutputToAllProtocol;
 import dk.alexandra.fresco.suite.spdz.gates.SpdzSubtractProtocol;
+import dk.alexandra.fresco.suite.spdz.gates.SpdzVectorMultProtocol;
 import dk.alexandra.fresco.suite.spdz.storage.SpdzStorage;
 
 public class SpdzFactory implements BasicNumericFactory, PreprocessedNumericBitFactory,
-		PreprocessedExpPipeFactory, ExpFromOIntFactory, LocalInversionFactory {
+		PreprocessedExpPipeFactory, ExpFromOIntFactory, LocalInversionFactory,
+		EntrywiseProductFactory {
 
 	private int maxBitLength;
 	private SpdzStorage storage;
@@ -209,6 +213,16 @@ public class SpdzFactory implements BasicNumericFactory, PreprocessedNumericBitF
 		return new SpdzMultProtocol(a, b, out);
 	}
 
+	@Override
+	public EntrywiseProductProtocol getEntrywiseProductProtocol(SInt[] as, SInt[] bs, SInt[] results) {
+		return new SpdzVectorMultProtocol(as, bs, results);
+	}
+
+	@Override
+	public EntrywiseProductProtocol getEntrywiseProductProtocol(SInt[] as, OInt[] bs, SInt[] results) {
+		return new SpdzVectorMultProtocol(as, bs, results);
+	}
+
 	@Override
 	public int getMaxBitLength() {
 		return this.maxBitLength;
@@ -54,6 +54,7 @@ public class Util {
 	
 	private static BigInteger p = null; //Should be set by an initiation call
 	private static BigInteger p_half;
+	private static MontgomeryField field = null; //Set together with the modulus
 	public static int size = 0; //should be set by an initiation call
 	public static int EXP_PIPE_SIZE = 200+1; //R^-1, R, R^2, ..., R^200		
 	
@@ -66,7 +67,28 @@ public class Util {
 		return p;
 	}
 
+	/**
+	 * Returns the arithmetic on fixed width Montgomery limbs for the modulus.
+	 */
+	public static MontgomeryField getField() {
+		if(field == null) {
+			throw new IllegalStateException("You need to set the modulus before you can do field arithmetic.");
+		}
+		return field;
+	}
+
+	/**
+	 * Sets the modulus and the field arithmetic for it.
+	 * 
+	 * @param p
+	 *            an odd positive modulus, as SPDZ works modulo a prime.
+	 * @throws IllegalArgumentException
+	 *             if the modulus is even or not positive.
+	 */
 	public static void setModulus(BigInteger p) {
+		if (field == null || !field.getModulus().equals(p)) {
+			field = new MontgomeryField(p);
+		}
 		Util.p = p;
 		Util.p_half = p.divide(BigInteger.valueOf(2));
 	}
@@ -35,6 +35,8 @@ import java.util.Map;
 
 import dk.alexandra.fresco.framework.MPCException;
 import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.network.CompactWireCodec;
+import dk.alexandra.fresco.framework.network.WireCodec;
 import dk.alexandra.fresco.framework.sce.configuration.ProtocolSuiteConfiguration;
 import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
 import dk.alexandra.fresco.suite.ProtocolSuite;
@@ -70,6 +72,8 @@ import dk.alexandra.fresco.suite.tinytables.storage.TinyTablesStorage;
  */
 public class TinyTablesProtocolSuite implements ProtocolSuite{
 
+	private static final WireCodec CODEC = new CompactWireCodec();
+
 	private TinyTablesStorage storage;
 	private static volatile Map<Integer, TinyTablesProtocolSuite> instances = new HashMap<>();	
 	
@@ -123,4 +127,10 @@ public class TinyTablesProtocolSuite implements ProtocolSuite{
 		
 	}
 
+	@Override
+	public WireCodec getWireCodec() {
+		// The online phase only sends bits, which the codec packs 8 per byte.
+		return CODEC;
+	}
+
 }
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.framework.util.Base64;
+
+public class TestAesGcmCipher {
+
+	private static final byte[] KEY = Base64.decodeFromString("w+1qn2ooNMCN7am9YmYQFQ==");
+	private static final byte[] NONCE_1 = AesGcmCipher.newConnectionNonce();
+	private static final byte[] NONCE_2 = AesGcmCipher.newConnectionNonce();
+
+	private static AesGcmCipher cipher(int senderId, int receiverId, String channel) {
+		return new AesGcmCipher(KEY, senderId, receiverId, channel, NONCE_1, NONCE_2);
+	}
+
+	private static byte[] message(int i) {
+		byte[] message = new byte[100 + i];
+		Arrays.fill(message, (byte) i);
+		return message;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		AesGcmCipher sender = cipher(1, 2, "0");
+		AesGcmCipher receiver = cipher(1, 2, "0");
+		for (int i = 0; i < 10; i++) {
+			byte[] sealed = sender.seal(message(i), 0, message(i).length);
+			int overhead = AesGcmCipher.TAG_SIZE + (i == 0 ? AesGcmCipher.SALT_SIZE : 0);
+			assertEquals(message(i).length + overhead, sealed.length);
+			assertArrayEquals(message(i), receiver.open(sealed));
+		}
+	}
+
+	@Test
+	public void testSaltPerConnection() throws Exception {
+		byte[] first = cipher(1, 2, "0").seal(message(0), 0, 100);
+		byte[] second = cipher(1, 2, "0").seal(message(0), 0, 100);
+		assertFalse(Arrays.equals(first, second));
+	}
+
+	@Test
+	public void testTampered() throws Exception {
+		AesGcmCipher sender = cipher(1, 2, "0");
+		AesGcmCipher receiver = cipher(1, 2, "0");
+		byte[] sealed = sender.seal(message(1), 0, 101);
+		sealed[AesGcmCipher.SALT_SIZE + 3] ^= 1;
+		assertFails(receiver, sealed);
+	}
+
+	@Test
+	public void testReordered() throws Exception {
+		AesGcmCipher sender = cipher(1, 2, "0");
+		AesGcmCipher receiver = cipher(1, 2, "0");
+		receiver.open(sender.seal(message(0), 0, 100));
+		byte[] second = sender.seal(message(1), 0, 101);
+		byte[] third = sender.seal(message(2), 0, 102);
+		assertFails(receiver, third);
+		// A failed message still uses up its sequence number.
+		assertFails(receiver, second);
+	}
+
+	@Test
+	public void testOtherDirectionOrChannel() throws Exception {
+		byte[] sealed = cipher(1, 2, "0").seal(message(0), 0, 100);
+		assertFails(cipher(2, 1, "0"), sealed);
+		assertFails(cipher(1, 2, "1"), sealed);
+	}
+
+	@Test
+	public void testReplayedToOtherConnection() throws Exception {
+		AesGcmCipher sender = cipher(1, 2, "0");
+		AesGcmCipher receiver = cipher(1, 2, "0");
+		byte[] sealed = sender.seal(message(0), 0, 100);
+		assertArrayEquals(message(0), receiver.open(sealed));
+		// A later connection has a fresh nonce of the receiver, so the
+		// recorded stream does not open there.
+		byte[] nonce = AesGcmCipher.newConnectionNonce();
+		assertFails(new AesGcmCipher(KEY, 1, 2, "0", NONCE_1, nonce), sealed);
+		assertFails(new AesGcmCipher(KEY, 1, 2, "0", nonce, NONCE_2), sealed);
+	}
+
+	@Test(expected = MPCException.class)
+	public void testShortNonce() {
+		new AesGcmCipher(KEY, 1, 2, "0", NONCE_1, new byte[AesGcmCipher.CONNECTION_NONCE_SIZE - 1]);
+	}
+
+	private static void assertFails(AesGcmCipher receiver, byte[] sealed) {
+		try {
+			receiver.open(sealed);
+			fail("Opened a message that should not open");
+		} catch (IOException e) {
+			// Expected.
+		}
+	}
+}
@@ -0,0 +1,452 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import dk.alexandra.fresco.framework.Party;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.TestThreadRunner;
+import dk.alexandra.fresco.framework.TestThreadRunner.TestThread;
+import dk.alexandra.fresco.framework.TestThreadRunner.TestThreadConfiguration;
+import dk.alexandra.fresco.framework.TestThreadRunner.TestThreadFactory;
+
+public class TestNioNetwork {
+
+	private abstract static class ThreadWithFixture extends TestThread {
+
+		protected NioNetworkImpl network;
+		protected int timeoutMillis = 10000;
+
+		protected int noOfChannels() {
+			return 1;
+		}
+
+		protected boolean encrypted() {
+			return false;
+		}
+
+		protected int maxMessageSize() {
+			return NioNetworkImpl.DEFAULT_MAX_MESSAGE_SIZE;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			Reporter.init(Level.INFO);
+			if (encrypted()) {
+				for (int id = 1; id <= conf.netConf.noOfParties(); id++) {
+					conf.netConf.getParty(id).setSecretSharedKey("w+1qn2ooNMCN7am9YmYQFQ==");
+				}
+			}
+			network = new NioNetworkImpl(conf.netConf, noOfChannels(), maxMessageSize());
+			network.connect(timeoutMillis);
+		}
+
+		@Override
+		public void tearDown() throws Exception {
+			network.close();
+		}
+	}
+
+	/**
+	 * Every party sends a message to every party, itself included, on every
+	 * channel and checks what it receives.
+	 */
+	private static TestThreadFactory allToAll(final int channels) {
+		return allToAll(channels, false);
+	}
+
+	private static TestThreadFactory allToAll(final int channels, final boolean encrypted) {
+		return new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture() {
+					@Override
+					protected int noOfChannels() {
+						return channels;
+					}
+
+					@Override
+					protected boolean encrypted() {
+						return encrypted;
+					}
+
+					@Override
+					public void test() throws Exception {
+						int me = conf.getMyId();
+						int n = conf.getNoOfParties();
+						for (int c = 0; c < channels; c++) {
+							for (int p = 1; p <= n; p++) {
+								network.send("" + c, p, new Serializable[] { BigInteger.valueOf(me * 1000 + p), c });
+							}
+						}
+						for (int c = 0; c < channels; c++) {
+							for (int p = 1; p <= n; p++) {
+								Serializable[] received = network.receive("" + c, p);
+								assertEquals(BigInteger.valueOf(p * 1000 + me), received[0]);
+								assertEquals(c, received[1]);
+							}
+						}
+					}
+				};
+			}
+		};
+	}
+
+	@Test
+	public void testAllToAll_2() throws Exception {
+		TestThreadRunner.run(allToAll(1), 2);
+	}
+
+	@Test
+	public void testAllToAll_3() throws Exception {
+		TestThreadRunner.run(allToAll(2), 3);
+	}
+
+	@Test
+	public void testAllToAll_4() throws Exception {
+		TestThreadRunner.run(allToAll(3), 4);
+	}
+
+	@Test
+	public void testAllToAll_5() throws Exception {
+		TestThreadRunner.run(allToAll(2), 5);
+	}
+
+	@Test
+	public void testAllToAllEncrypted_3() throws Exception {
+		TestThreadRunner.run(allToAll(2, true), 3);
+	}
+
+	/**
+	 * Every party broadcasts a message larger than a chunk to the others.
+	 */
+	private static TestThreadFactory broadcast(final boolean encrypted) {
+		return new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture() {
+					@Override
+					protected boolean encrypted() {
+						return encrypted;
+					}
+
+					@Override
+					public void test() throws Exception {
+						int me = conf.getMyId();
+						int n = conf.getNoOfParties();
+						byte[] data = message("" + me, 0);
+						network.broadcast("0", data);
+						for (int p = 1; p <= n; p++) {
+							if (p != me) {
+								assertArrayEquals(message("" + p, 0), network.<byte[]> receive("0", p));
+							}
+						}
+					}
+				};
+			}
+		};
+	}
+
+	@Test
+	public void testBroadcast_3() throws Exception {
+		TestThreadRunner.run(broadcast(false), 3);
+	}
+
+	@Test
+	public void testBroadcastEncrypted_3() throws Exception {
+		TestThreadRunner.run(broadcast(true), 3);
+	}
+
+	/**
+	 * Both parties send far more than the socket buffers hold before either
+	 * receives, which deadlocks with blocking sockets.
+	 */
+	@Test
+	public void testLargeSimultaneousSends() throws Exception {
+		final int messages = 16;
+		final int size = 1 << 20;
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture() {
+					@Override
+					public void test() throws Exception {
+						int other = 3 - conf.getMyId();
+						for (int i = 0; i < messages; i++) {
+							byte[] data = new byte[size];
+							data[i] = (byte) conf.getMyId();
+							network.send("0", other, data);
+						}
+						for (int i = 0; i < messages; i++) {
+							byte[] expected = new byte[size];
+							expected[i] = (byte) other;
+							byte[] received = network.receive("0", other);
+							assertArrayEquals(expected, received);
+						}
+					}
+				};
+			}
+		}, 2);
+	}
+
+	/**
+	 * Any channel name can be used, not only the channels the network was
+	 * created with, and each channel keeps its own order.
+	 */
+	@Test
+	public void testNamedChannels() throws Exception {
+		final int channels = 100;
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture() {
+					@Override
+					public void test() throws Exception {
+						int other = 3 - conf.getMyId();
+						for (int c = 0; c < channels; c++) {
+							network.send("session/" + c, other, c);
+							network.send("session/" + c, other, -c);
+						}
+						for (int c = channels - 1; c >= 0; c--) {
+							assertEquals(c, (int) network.<Integer> receive("session/" + c, other));
+							assertEquals(-c, (int) network.<Integer> receive("session/" + c, other));
+						}
+					}
+				};
+			}
+		}, 2);
+	}
+
+	/**
+	 * Several threads send large and small messages on their own channel at
+	 * once, so chunks of messages on different channels are interleaved on the
+	 * connection.
+	 */
+	@Test
+	public void testInterleavedChannels() throws Exception {
+		final int threads = 4;
+		final int messages = 20;
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture() {
+					@Override
+					public void test() throws Exception {
+						final int other = 3 - conf.getMyId();
+						ExecutorService executor = Executors.newFixedThreadPool(2 * threads);
+						List<Future<?>> futures = new ArrayList<Future<?>>();
+						for (int t = 0; t < threads; t++) {
+							final String channel = "" + t;
+							futures.add(executor.submit(new Callable<Void>() {
+								@Override
+								public Void call() throws Exception {
+									for (int i = 0; i < messages; i++) {
+										network.send(channel, other, message(channel, i));
+									}
+									return null;
+								}
+							}));
+							futures.add(executor.submit(new Callable<Void>() {
+								@Override
+								public Void call() throws Exception {
+									for (int i = 0; i < messages; i++) {
+										byte[] received = network.receive(channel, other);
+										assertArrayEquals(message(channel, i), received);
+									}
+									return null;
+								}
+							}));
+						}
+						for (Future<?> future : futures) {
+							future.get();
+						}
+						executor.shutdown();
+					}
+				};
+			}
+		}, 2);
+	}
+
+	private static byte[] message(String channel, int i) {
+		// Every third message spans many chunks.
+		int size = i % 3 == 0 ? 5 * NioNetworkImpl.CHUNK_SIZE + i : 10 + i;
+		byte[] message = new byte[size];
+		for (int j = 0; j < size; j++) {
+			message[j] = (byte) (j + i + channel.hashCode());
+		}
+		return message;
+	}
+
+	/**
+	 * Messages sent right before close are still delivered.
+	 */
+	@Test
+	public void testSendThenClose() throws Exception {
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture() {
+					@Override
+					public void test() throws Exception {
+						if (conf.getMyId() == 1) {
+							for (int i = 0; i < 1000; i++) {
+								network.send("0", 2, i);
+							}
+						} else {
+							for (int i = 0; i < 1000; i++) {
+								int received = network.<Integer> receive("0", 1);
+								assertEquals(i, received);
+							}
+						}
+					}
+				};
+			}
+		}, 2);
+	}
+
+	/**
+	 * Connections that send no hello, claim to be a party that is not
+	 * expected, or close right away do not stop the parties from connecting.
+	 */
+	@Test
+	public void testStrayConnections() throws Exception {
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture() {
+
+					private final List<SocketChannel> strays = new ArrayList<SocketChannel>();
+
+					@Override
+					public void setUp() throws Exception {
+						if (conf.getMyId() == 2) {
+							Party party = conf.netConf.getParty(1);
+							InetSocketAddress address = new InetSocketAddress(party.getHostname(), party.getPort());
+							// Says nothing.
+							strays.add(connect(address));
+							// Claims to be a party that does not exist.
+							SocketChannel unknown = connect(address);
+							ByteBuffer hello = ByteBuffer.allocate(4 + AesGcmCipher.CONNECTION_NONCE_SIZE);
+							hello.putInt(0, 7);
+							while (hello.hasRemaining()) {
+								unknown.write(hello);
+							}
+							strays.add(unknown);
+							// Closes right away.
+							connect(address).close();
+						}
+						super.setUp();
+					}
+
+					@Override
+					public void test() throws Exception {
+						int other = 3 - conf.getMyId();
+						network.send("0", other, conf.getMyId());
+						assertEquals(other, network.<Integer> receive("0", other).intValue());
+					}
+
+					@Override
+					public void tearDown() throws Exception {
+						super.tearDown();
+						for (SocketChannel stray : strays) {
+							stray.close();
+						}
+					}
+				};
+			}
+		}, 2);
+	}
+
+	/**
+	 * A message longer than the maximum message size fails the connection
+	 * rather than being received.
+	 */
+	@Test
+	public void testMessageTooLarge() throws Exception {
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture() {
+
+					@Override
+					protected int maxMessageSize() {
+						return 4 * NioNetworkImpl.CHUNK_SIZE;
+					}
+
+					@Override
+					public void test() throws Exception {
+						if (conf.getMyId() == 1) {
+							network.send("0", 2, new byte[3 * NioNetworkImpl.CHUNK_SIZE]);
+							network.send("0", 2, new byte[5 * NioNetworkImpl.CHUNK_SIZE]);
+						} else {
+							assertEquals(3 * NioNetworkImpl.CHUNK_SIZE, network.<byte[]> receive("0", 1).length);
+							try {
+								network.receive("0", 1);
+								fail("Received a message longer than the maximum message size");
+							} catch (IOException e) {
+								// Expected.
+							}
+						}
+					}
+				};
+			}
+		}, 2);
+	}
+
+	/**
+	 * Connects once the other party listens.
+	 */
+	private static SocketChannel connect(InetSocketAddress address) throws Exception {
+		while (true) {
+			try {
+				return SocketChannel.open(address);
+			} catch (ConnectException e) {
+				Thread.sleep(10);
+			}
+		}
+	}
+}
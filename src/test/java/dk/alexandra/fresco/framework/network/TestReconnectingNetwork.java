@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import dk.alexandra.fresco.framework.TestThreadRunner;
+import dk.alexandra.fresco.framework.TestThreadRunner.TestThread;
+import dk.alexandra.fresco.framework.TestThreadRunner.TestThreadConfiguration;
+import dk.alexandra.fresco.framework.TestThreadRunner.TestThreadFactory;
+import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
+import dk.alexandra.fresco.framework.configuration.TestConfiguration;
+
+public class TestReconnectingNetwork {
+
+	/**
+	 * Party 2 drops its connection. Party 1 notices when receiving, and both
+	 * reconnect and continue with the same network objects.
+	 */
+	@Test
+	public void testReconnectAfterFailure() throws Exception {
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new TestThread() {
+					@Override
+					public void test() throws Exception {
+						ReconnectingNetwork network = new ReconnectingNetwork(NetworkStrategy.SIMULATED,
+								conf.netConf, 1, null);
+						int other = 3 - conf.getMyId();
+						// Sending waits for the connection started here.
+						network.connectAsync(10000);
+						network.send("0", other, 1);
+						assertEquals(1, (int) network.<Integer> receive("0", other));
+						assertFalse(network.isFailed());
+						if (conf.getMyId() == 1) {
+							try {
+								network.receive("0", other);
+								fail("Received from a closed connection");
+							} catch (IOException e) {
+								assertTrue(network.isFailed());
+							}
+						}
+						network.reconnect(10000);
+						assertFalse(network.isFailed());
+						network.send("0", other, 2);
+						assertEquals(2, (int) network.<Integer> receive("0", other));
+						network.close();
+					}
+				};
+			}
+		}, 2);
+	}
+
+	@Test(expected = IOException.class)
+	public void testSendBeforeConnect() throws Exception {
+		NetworkConfiguration conf = TestConfiguration.getNetworkConfigurations(2, Level.FINE).get(1);
+		new ReconnectingNetwork(NetworkStrategy.SIMULATED, conf, 1, null).send("0", 2, 1);
+	}
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestSCENetworkImpl {
+
+	@Test
+	public void testDeliversOwnOutputWithoutNetwork() {
+		SCENetworkImpl net = new SCENetworkImpl(3, 2, 0);
+		BigInteger mine = BigInteger.valueOf(2);
+		net.sendToAll(mine);
+		net.expectInputFromAll();
+		assertTrue(net.isOutputBroadcast());
+		assertTrue(net.getOutputFromThisRound(2).isEmpty());
+		assertFalse(net.isInputExpectedForNextRound(2));
+		assertTrue(net.isInputExpectedForNextRound(1));
+		assertSame(mine, net.getBroadcastOutput().peek());
+		net.addInput(1, BigInteger.ONE);
+		net.addInput(3, BigInteger.valueOf(3));
+		net.nextRound();
+
+		List<BigInteger> received = net.receiveFromAll();
+		assertEquals(BigInteger.ONE, received.get(0));
+		assertSame(mine, received.get(1));
+		assertEquals(BigInteger.valueOf(3), received.get(2));
+	}
+
+	@Test
+	public void testOwnInputLastsOneRound() {
+		SCENetworkImpl net = new SCENetworkImpl(2, 1, 0);
+		Serializable[] shares = new Serializable[] { BigInteger.ONE, BigInteger.TEN };
+		net.sendSharesToAll(shares);
+		assertFalse(net.isOutputBroadcast());
+		assertSame(BigInteger.TEN, net.getOutputFromThisRound(2).peek());
+		net.nextRound();
+		assertTrue(net.isOutputBroadcast());
+		assertTrue(net.getBroadcastOutput().isEmpty());
+		net.nextRound();
+		assertNull(net.receive(1));
+	}
+
+	@Test
+	public void testSinglePartyHasNoBroadcastOutput() {
+		SCENetworkImpl net = new SCENetworkImpl(1, 1, 0);
+		net.sendToAll(BigInteger.ONE);
+		assertTrue(net.getBroadcastOutput().isEmpty());
+		net.nextRound();
+		assertEquals(BigInteger.ONE, net.receive(1));
+	}
+}
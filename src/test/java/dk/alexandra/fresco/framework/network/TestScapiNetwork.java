@@ -173,8 +173,41 @@ public class TestScapiNetwork {
 		};
 		runTest(test, 3);
 	}
-	
-	
+
+	/**
+	 * Both parties send far more than the socket buffers hold before either
+	 * receives, which deadlocks unless sending is asynchronous.
+	 */
+	@Test
+	public void testLargeSimultaneousSends() throws Exception {
+		final int messages = 16;
+		final int size = 1 << 20;
+		final TestThreadFactory test = new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture() {
+					@Override
+					public void test() throws Exception {
+						network.connect(timeoutMillis);
+						int other = 3 - conf.getMyId();
+						for (int i = 0; i < messages; i++) {
+							byte[] data = new byte[size];
+							data[i] = (byte) conf.getMyId();
+							network.send(other, data);
+						}
+						for (int i = 0; i < messages; i++) {
+							byte[] expected = new byte[size];
+							expected[i] = (byte) other;
+							byte[] received = (byte[]) network.receive(other);
+							assertTrue(Arrays.equals(expected, received));
+						}
+						network.close();
+					}
+				};
+			}
+		};
+		runTest(test, 2);
+	}
 	
 //	@Test
 //	public void testPlayerOneAndTwoCanSwapBytes() throws Exception {
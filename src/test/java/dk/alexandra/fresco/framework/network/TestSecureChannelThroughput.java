@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.alexandra.fresco.SlowTest;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.util.Base64;
+import edu.biu.scapi.comm.Channel;
+import edu.biu.scapi.comm.PlainChannel;
+
+/**
+ * Throughput benchmark of the secure channels of the SCAPI network. Sends
+ * coalesced round messages of SPDZ sized field elements, encoded by the wire
+ * codec as the evaluators do, through the encrypt-then-MAC channel and the
+ * AES-GCM channel over a loopback channel that serializes like a socket does,
+ * and reports MB/s for each. Every message is checked to arrive intact, and a
+ * tampered AES-GCM message must be rejected.
+ */
+@Category(SlowTest.class)
+public class TestSecureChannelThroughput {
+
+	private static final String KEY = "w+1qn2ooNMCN7am9YmYQFQ==";
+	private static final int ELEMENTS_PER_MESSAGE = 1000;
+	// Long enough for the JIT to compile the AES-GCM intrinsics.
+	private static final long WARMUP_NANOS = 2000000000L;
+	private static final long MEASURE_NANOS = 2000000000L;
+
+	/**
+	 * Channel that serializes each message and delivers it to itself.
+	 */
+	private static class LoopbackChannel extends PlainChannel {
+
+		private final Queue<byte[]> queue = new ArrayDeque<byte[]>();
+		long bytes;
+
+		LoopbackChannel() {
+			setState(State.READY);
+		}
+
+		@Override
+		public void send(Serializable data) throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(out);
+			oos.writeObject(data);
+			oos.close();
+			this.bytes += out.size();
+			this.queue.add(out.toByteArray());
+		}
+
+		@Override
+		public Serializable receive() throws ClassNotFoundException, IOException {
+			return (Serializable) new ObjectInputStream(new ByteArrayInputStream(this.queue.poll())).readObject();
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean isClosed() {
+			return false;
+		}
+
+		@Override
+		protected boolean connect() throws IOException {
+			return true;
+		}
+
+		@Override
+		protected boolean isConnected() {
+			return true;
+		}
+	}
+
+	@Test
+	public void testThroughput() throws Exception {
+		Reporter.init(Level.INFO);
+		Serializable[] elements = new Serializable[ELEMENTS_PER_MESSAGE + 1];
+		elements[0] = new int[] { ELEMENTS_PER_MESSAGE };
+		Random random = new Random(42);
+		for (int i = 1; i <= ELEMENTS_PER_MESSAGE; i++) {
+			elements[i] = new BigInteger(512, random);
+		}
+		byte[] message = new CompactWireCodec(64).encode(elements);
+
+		LoopbackChannel encThenMacLoopback = new LoopbackChannel();
+		Channel encThenMac = ScapiNetworkImpl.getSecureChannel(encThenMacLoopback, KEY);
+		double encThenMacRate = measure("Enc-then-MAC", encThenMac, encThenMacLoopback, message);
+
+		LoopbackChannel gcmLoopback = new LoopbackChannel();
+		Channel gcm = new GcmChannel(gcmLoopback, Base64.decodeFromString(KEY), 1, 1, "0");
+		double gcmRate = measure("AES-GCM", gcm, gcmLoopback, message);
+		assertTrue(encThenMacRate > 0);
+		assertTrue(gcmRate > 0);
+
+		gcm.send(message);
+		byte[] sealed = (byte[]) gcmLoopback.receive();
+		sealed[sealed.length / 2] ^= 1;
+		gcmLoopback.send(sealed);
+		try {
+			gcm.receive();
+			fail("Received a tampered message");
+		} catch (IOException e) {
+			// Expected.
+		}
+
+		Reporter.info(String.format("AES-GCM is %.1fx the throughput of Enc-then-MAC", gcmRate / encThenMacRate));
+	}
+
+	/**
+	 * @return the throughput in MB/s of serialized messages.
+	 */
+	private static double measure(String name, Channel channel, LoopbackChannel loopback, byte[] message)
+			throws Exception {
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < WARMUP_NANOS) {
+			channel.send(message);
+			assertArrayEquals(message, (byte[]) channel.receive());
+		}
+		loopback.bytes = 0;
+		int messages = 0;
+		start = System.nanoTime();
+		long elapsed;
+		do {
+			channel.send(message);
+			assertArrayEquals(message, (byte[]) channel.receive());
+			messages++;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < MEASURE_NANOS);
+		double rate = loopback.bytes / (elapsed / 1e9) / 1e6;
+		Reporter.info(String.format("%s: %d messages, %.1f MB on the wire, %.1f MB/s", name, messages,
+				loopback.bytes / 1e6, rate));
+		return rate;
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestSendBudget {
+
+	@Test
+	public void testLetsLargeMessageThroughWhenEmpty() throws Exception {
+		SendBudget budget = new SendBudget(10);
+		budget.acquire(100);
+		assertEquals(100, budget.getQueued());
+		budget.release(100);
+		assertEquals(0, budget.getQueued());
+	}
+
+	@Test
+	public void testWaitsUntilReleased() throws Exception {
+		final SendBudget budget = new SendBudget(10);
+		budget.acquire(8);
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread sender = new Thread() {
+			@Override
+			public void run() {
+				try {
+					budget.acquire(4);
+					acquired.countDown();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		sender.start();
+		assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+		budget.release(8);
+		assertTrue(acquired.await(10, TimeUnit.SECONDS));
+		assertEquals(4, budget.getQueued());
+	}
+
+	@Test
+	public void testFailureWakesWaitingSenders() throws Exception {
+		final SendBudget budget = new SendBudget(10);
+		budget.acquire(10);
+		final AtomicReference<IOException> thrown = new AtomicReference<IOException>();
+		Thread sender = new Thread() {
+			@Override
+			public void run() {
+				try {
+					budget.acquire(1);
+				} catch (IOException e) {
+					thrown.set(e);
+				}
+			}
+		};
+		sender.start();
+		IOException cause = new IOException("Connection reset");
+		budget.fail(cause);
+		sender.join(10000);
+		assertEquals(cause, thrown.get().getCause());
+		try {
+			budget.acquire(0);
+			fail("Acquired after failure");
+		} catch (IOException e) {
+			assertEquals(cause, e.getCause());
+		}
+	}
+}
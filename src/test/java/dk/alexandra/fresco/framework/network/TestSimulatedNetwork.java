@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.junit.Test;
+
+import dk.alexandra.fresco.framework.TestThreadRunner;
+import dk.alexandra.fresco.framework.TestThreadRunner.TestThread;
+import dk.alexandra.fresco.framework.TestThreadRunner.TestThreadConfiguration;
+import dk.alexandra.fresco.framework.TestThreadRunner.TestThreadFactory;
+import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
+import dk.alexandra.fresco.framework.configuration.TestConfiguration;
+
+public class TestSimulatedNetwork {
+
+	private abstract static class ThreadWithFixture extends TestThread {
+
+		private final SimulatedNetwork.Hub hub;
+		protected SimulatedNetwork network;
+
+		ThreadWithFixture(SimulatedNetwork.Hub hub) {
+			this.hub = hub;
+		}
+
+		@Override
+		public void setUp() throws Exception {
+			network = new SimulatedNetwork(conf.netConf, hub);
+			network.connect(10000);
+		}
+
+		@Override
+		public void tearDown() throws Exception {
+			network.close();
+		}
+	}
+
+	@Test
+	public void testAllToAll_3() throws Exception {
+		final SimulatedNetwork.Hub hub = new SimulatedNetwork.Hub(3, LinkProfile.LAN);
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture(hub) {
+					@Override
+					public void test() throws Exception {
+						int me = conf.getMyId();
+						for (int p = 1; p <= 3; p++) {
+							network.send("0", p, new Serializable[] { BigInteger.valueOf(me * 1000 + p) });
+						}
+						network.broadcast("1", BigInteger.valueOf(me));
+						for (int p = 1; p <= 3; p++) {
+							Serializable[] received = network.receive("0", p);
+							assertEquals(BigInteger.valueOf(p * 1000 + me), received[0]);
+							if (p != me) {
+								assertEquals(BigInteger.valueOf(p), network.receive("1", p));
+							}
+						}
+					}
+				};
+			}
+		}, 3);
+	}
+
+	/**
+	 * A message is not received before the latency has passed, so a round
+	 * trip takes at least twice the latency.
+	 */
+	@Test
+	public void testLatency() throws Exception {
+		final SimulatedNetwork.Hub hub = new SimulatedNetwork.Hub(2, LinkProfile.ofMillis(50, 0, 0));
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture(hub) {
+					@Override
+					public void test() throws Exception {
+						if (conf.getMyId() == 1) {
+							long start = System.nanoTime();
+							network.send("0", 2, 42);
+							assertEquals(43, (int) network.<Integer> receive("0", 2));
+							assertTrue(System.nanoTime() - start >= 100000000L);
+						} else {
+							int received = network.<Integer> receive("0", 1);
+							network.send("0", 1, received + 1);
+						}
+					}
+				};
+			}
+		}, 2);
+	}
+
+	/**
+	 * Messages queue up behind each other on a link with limited bandwidth.
+	 */
+	@Test
+	public void testBandwidth() throws Exception {
+		// 10 MB/s, so 1 MB takes 100 ms.
+		final SimulatedNetwork.Hub hub = new SimulatedNetwork.Hub(2, LinkProfile.ofMillis(0, 80, 0));
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture(hub) {
+					@Override
+					public void test() throws Exception {
+						if (conf.getMyId() == 1) {
+							for (int i = 0; i < 10; i++) {
+								network.send("0", 2, new byte[100000]);
+							}
+						} else {
+							long start = System.nanoTime();
+							for (int i = 0; i < 10; i++) {
+								network.receive("0", 1);
+							}
+							assertTrue(System.nanoTime() - start >= 90000000L);
+						}
+					}
+				};
+			}
+		}, 2);
+	}
+
+	/**
+	 * Jitter delays messages without reordering them.
+	 */
+	@Test
+	public void testJitterKeepsOrder() throws Exception {
+		final SimulatedNetwork.Hub hub = new SimulatedNetwork.Hub(2, LinkProfile.ofMillis(1, 0, 5), 7);
+		TestThreadRunner.run(new TestThreadFactory() {
+			@Override
+			public TestThread next(TestThreadConfiguration conf) {
+				return new ThreadWithFixture(hub) {
+					@Override
+					public void test() throws Exception {
+						int other = 3 - conf.getMyId();
+						for (int i = 0; i < 100; i++) {
+							network.send("0", other, new byte[] { (byte) i });
+						}
+						for (int i = 0; i < 100; i++) {
+							assertArrayEquals(new byte[] { (byte) i }, network.<byte[]> receive("0", other));
+						}
+					}
+				};
+			}
+		}, 2);
+	}
+
+	@Test
+	public void testPartiesOfConfigurationShareHub() throws Exception {
+		Map<Integer, NetworkConfiguration> netConfs = TestConfiguration.getNetworkConfigurations(2, Level.FINE);
+		SimulatedNetwork.Hub hub = SimulatedNetwork.getHub(netConfs.get(1));
+		assertSame(hub, SimulatedNetwork.getHub(netConfs.get(2)));
+		Network first = NetworkStrategy.fromEnum(NetworkStrategy.SIMULATED, netConfs.get(1), 1);
+		final Network second = NetworkStrategy.fromEnum(NetworkStrategy.SIMULATED, netConfs.get(2), 1);
+		// Connecting waits for all parties.
+		Thread connector = new Thread() {
+			@Override
+			public void run() {
+				try {
+					second.connect(10000);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		connector.start();
+		first.connect(10000);
+		connector.join();
+		first.send("0", 2, 42);
+		assertEquals(42, (int) second.<Integer> receive("0", 1));
+		first.close();
+		second.close();
+		// A hub where everyone has connected is not used again.
+		assertNotSame(hub, SimulatedNetwork.getHub(netConfs.get(1)));
+	}
+}
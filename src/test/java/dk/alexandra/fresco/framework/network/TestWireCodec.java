@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.suite.bgw.BgwWireCodec;
+import dk.alexandra.fresco.suite.bgw.ShamirShare;
+
+public class TestWireCodec {
+
+	private static final BigInteger MODULUS = new BigInteger("6703903964971298549787012499123814115273848577471136527425966013026501536706464354255445443244279389455058889493431223951165286470575994074291745908195329");
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		CompactWireCodec codec = new CompactWireCodec(64);
+		Serializable[] messages = new Serializable[] { new int[] { 3, 1 }, MODULUS.subtract(BigInteger.ONE),
+				BigInteger.ZERO, BigInteger.valueOf(-5), MODULUS.shiftLeft(8),
+				new BigInteger[] { BigInteger.ONE, MODULUS.subtract(BigInteger.ONE) }, new byte[] { 1, 2, 3 }, true,
+				false, true, null, 42, new boolean[] { true, false, false, true, true, false, true, false, true },
+				new Serializable[] { false, BigInteger.TEN, "nested" }, "a string" };
+		Serializable[] decoded = codec.decode(codec.encode(messages));
+		assertEquals(messages.length, decoded.length);
+		assertArrayEquals((int[]) messages[0], (int[]) decoded[0]);
+		for (int i = 1; i <= 4; i++) {
+			assertEquals(messages[i], decoded[i]);
+		}
+		assertTrue(decoded[5] instanceof BigInteger[]);
+		assertArrayEquals((BigInteger[]) messages[5], (BigInteger[]) decoded[5]);
+		assertArrayEquals((byte[]) messages[6], (byte[]) decoded[6]);
+		assertEquals(true, decoded[7]);
+		assertEquals(false, decoded[8]);
+		assertEquals(true, decoded[9]);
+		assertNull(decoded[10]);
+		assertEquals(42, decoded[11]);
+		assertTrue(Arrays.equals((boolean[]) messages[12], (boolean[]) decoded[12]));
+		assertEquals(Serializable[].class, decoded[13].getClass());
+		assertArrayEquals((Serializable[]) messages[13], (Serializable[]) decoded[13]);
+		assertEquals("a string", decoded[14]);
+	}
+
+	@Test
+	public void testCompactness() throws Exception {
+		CompactWireCodec codec = new CompactWireCodec(64);
+		Serializable[] elements = new Serializable[100];
+		for (int i = 0; i < elements.length; i++) {
+			elements[i] = MODULUS.subtract(BigInteger.valueOf(i));
+		}
+		// One length byte, then a tag and 64 bytes per element.
+		assertEquals(1 + elements.length * 65, codec.encode(elements).length);
+
+		Serializable[] bits = new Serializable[100];
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = i % 3 == 0;
+		}
+		byte[] encoded = codec.encode(bits);
+		// Length, tag, run length and 13 bytes of bits.
+		assertEquals(1 + 1 + 1 + 13, encoded.length);
+		assertArrayEquals(bits, codec.decode(encoded));
+	}
+
+	@Test
+	public void testShamirShares() throws Exception {
+		BigInteger modulus = new BigInteger("6455464486734967819");
+		ShamirShare.setPrimeNumber(modulus);
+		BgwWireCodec codec = new BgwWireCodec(modulus);
+		Serializable[] messages = new Serializable[] { new ShamirShare(1, modulus.subtract(BigInteger.ONE)),
+				new ShamirShare(5, BigInteger.valueOf(7)), modulus.subtract(BigInteger.TEN) };
+		byte[] encoded = codec.encode(messages);
+		assertEquals(1 + 2 * (1 + ShamirShare.getSize()) + 1 + 8, encoded.length);
+		Serializable[] decoded = codec.decode(encoded);
+		for (int i = 0; i < 2; i++) {
+			ShamirShare expected = (ShamirShare) messages[i];
+			ShamirShare actual = (ShamirShare) decoded[i];
+			assertEquals(expected.getPoint(), actual.getPoint());
+			assertEquals(expected.getField(), actual.getField());
+		}
+		assertEquals(messages[2], decoded[2]);
+	}
+
+	@Test(expected = MPCException.class)
+	public void testTrailingBytes() throws Exception {
+		CompactWireCodec codec = new CompactWireCodec();
+		byte[] encoded = codec.encode(new Serializable[] { 1 });
+		codec.decode(Arrays.copyOf(encoded, encoded.length + 1));
+	}
+}
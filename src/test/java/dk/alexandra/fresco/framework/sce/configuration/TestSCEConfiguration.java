@@ -33,6 +33,8 @@ import java.util.logging.Level;
 import dk.alexandra.fresco.framework.Party;
 import dk.alexandra.fresco.framework.ProtocolEvaluator;
 import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
+import dk.alexandra.fresco.framework.network.NetworkStrategy;
+import dk.alexandra.fresco.framework.network.SecureChannelStrategy;
 import dk.alexandra.fresco.framework.sce.resources.storage.Storage;
 import dk.alexandra.fresco.framework.sce.resources.storage.StreamedStorage;
 import dk.alexandra.fresco.suite.ProtocolSuite;
@@ -47,6 +49,13 @@ public class TestSCEConfiguration implements SCEConfiguration {
 	private int noOfVmThreads;
 	private ProtocolEvaluator evaluator;
 	private int maxBatchSize;
+	private int minBatchSize = -1;
+	private int batchSizeWindow = 16;
+	private int maxConcurrentSessions = 1;
+	private String traceFile;
+	private int maxMessageSize = -1;
+	private NetworkStrategy network = NetworkStrategy.SCAPI;
+	private SecureChannelStrategy secureChannel = SecureChannelStrategy.ENC_THEN_MAC;
 	
 	public TestSCEConfiguration(ProtocolSuite suite, ProtocolEvaluator evaluator,
 			int noOfThreads, int noOfvmThreads, NetworkConfiguration conf, Storage storage, boolean useSecureConn) {
@@ -105,6 +114,10 @@ public class TestSCEConfiguration implements SCEConfiguration {
 		return this.evaluator;
 	}
 
+	public void setEvaluator(ProtocolEvaluator evaluator) {
+		this.evaluator = evaluator;
+	}
+
 	@Override
 	public int getNoOfVMThreads() {
 		return this.noOfVmThreads;
@@ -119,6 +132,61 @@ public class TestSCEConfiguration implements SCEConfiguration {
 	public int getMaxBatchSize() {
 		return this.maxBatchSize;
 	}
+
+	@Override
+	public int getMinBatchSize() {
+		return this.minBatchSize;
+	}
+
+	public void setMinBatchSize(int minBatchSize) {
+		this.minBatchSize = minBatchSize;
+	}
+
+	@Override
+	public int getBatchSizeWindow() {
+		return this.batchSizeWindow;
+	}
+
+	public void setBatchSizeWindow(int batchSizeWindow) {
+		this.batchSizeWindow = batchSizeWindow;
+	}
+
+	@Override
+	public int getMaxConcurrentSessions() {
+		return this.maxConcurrentSessions;
+	}
+
+	public void setMaxConcurrentSessions(int maxConcurrentSessions) {
+		this.maxConcurrentSessions = maxConcurrentSessions;
+	}
+
+	@Override
+	public String getTraceFile() {
+		return this.traceFile;
+	}
+
+	public void setTraceFile(String traceFile) {
+		this.traceFile = traceFile;
+	}
+
+	@Override
+	public NetworkStrategy getNetworkStrategy() {
+		return this.network;
+	}
+
+	public void setNetworkStrategy(NetworkStrategy network) {
+		this.network = network;
+	}
+
+	@Override
+	public SecureChannelStrategy getSecureChannelStrategy() {
+		return this.secureChannel;
+	}
+
+	public void setSecureChannelStrategy(SecureChannelStrategy secureChannel) {
+		this.secureChannel = secureChannel;
+	}
+
 	@Override
 	public StreamedStorage getStreamedStorage() {
 		if(this.storage instanceof StreamedStorage) {
@@ -128,4 +196,12 @@ public class TestSCEConfiguration implements SCEConfiguration {
 		}
 	}
 
+	@Override
+	public int getMaxMessageSize() {
+		return this.maxMessageSize;
+	}
+
+	public void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
 }
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.evaluator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.alexandra.fresco.SlowTest;
+import dk.alexandra.fresco.framework.NativeProtocol;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.network.CompactWireCodec;
+import dk.alexandra.fresco.framework.network.Network;
+import dk.alexandra.fresco.framework.network.SCENetwork;
+import dk.alexandra.fresco.framework.network.SCENetworkImpl;
+import dk.alexandra.fresco.framework.network.WireCodec;
+import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
+import dk.alexandra.fresco.framework.sce.resources.ResourcePoolImpl;
+import dk.alexandra.fresco.framework.value.Value;
+
+/**
+ * GC-pressure benchmark of the round loop. Evaluates many small two-round
+ * protocols through {@link BatchedStrategy} between two parties connected by
+ * in-memory queues, and reports the number of bytes allocated per gate by
+ * the thread of party 1.
+ * 
+ * The bounds assume the loop has been compiled by the JIT, which escape
+ * analysis depends on, so the test is slow rather than part of the unit
+ * tests.
+ */
+@Category(SlowTest.class)
+public class TestRoundLoopAllocations {
+
+	private static final int BATCH_SIZE = 4096;
+	private static final int WARMUP_BATCHES = 200;
+	private static final int RUNS = 5;
+	private static final int BATCHES_PER_RUN = 50;
+
+	/**
+	 * What is left per gate when the loop itself does not allocate: the
+	 * coalesced message of the first round holds a reference and a message
+	 * count per gate, i.e., 8 to 12 bytes depending on compressed oops. The
+	 * bound leaves room for that, but not for a single object per gate,
+	 * which takes at least 16 bytes.
+	 */
+	private static final long MAX_BYTES_PER_GATE = 12 + 15;
+
+	/**
+	 * What is left per gate when the messages are encoded: the codec writes 9
+	 * bytes per gate (a tagged int and a message count) into a buffer it
+	 * grows by doubling and then copies, which is about 40 bytes, and the
+	 * received message holds a reference and a message count per gate. The
+	 * coalesced message that is sent is reused, so the bound is below the 56
+	 * bytes seen when it was allocated every round.
+	 */
+	private static final long MAX_ENCODED_BYTES_PER_GATE = 40 + 8 + 7;
+
+	/**
+	 * One end of a connection between two parties. Both directions are
+	 * bounded queues, which do not allocate when passing a message.
+	 */
+	private static class QueueNetwork implements Network {
+
+		private final BlockingQueue<Serializable> in;
+		private final BlockingQueue<Serializable> out;
+
+		QueueNetwork(BlockingQueue<Serializable> in, BlockingQueue<Serializable> out) {
+			this.in = in;
+			this.out = out;
+		}
+
+		@Override
+		public void connect(int timeoutMillis) throws IOException {
+		}
+
+		@Override
+		public void send(String channel, int partyId, Serializable data) throws IOException {
+			try {
+				out.put(data);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+
+		@Override
+		public void broadcast(String channel, Serializable data) throws IOException {
+			send(channel, 0, data);
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public <T extends Serializable> T receive(String channel, int partyId) throws IOException {
+			try {
+				return (T) in.take();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+	/**
+	 * Sends a message to all parties in the first round and reads the one of
+	 * party 1 in the second, like an opening does.
+	 */
+	private static class EchoProtocol implements NativeProtocol {
+
+		private static final Integer MESSAGE = 42;
+		private boolean done = false;
+
+		@Override
+		public EvaluationStatus evaluate(int round, ResourcePool resourcePool, SCENetwork network) {
+			if (round == 0) {
+				network.sendToAll(MESSAGE);
+				network.expectInputFromAll();
+				return EvaluationStatus.HAS_MORE_ROUNDS;
+			}
+			Integer received = network.receive(1);
+			if (!MESSAGE.equals(received)) {
+				throw new IllegalStateException("Received " + received);
+			}
+			done = true;
+			return EvaluationStatus.IS_DONE;
+		}
+
+		@Override
+		public int getNextProtocols(NativeProtocol[] nativeProtocols, int pos) {
+			nativeProtocols[pos] = this;
+			return pos + 1;
+		}
+
+		@Override
+		public boolean hasNextProtocols() {
+			return !done;
+		}
+
+		@Override
+		public Value[] getInputValues() {
+			return new Value[0];
+		}
+
+		@Override
+		public Value[] getOutputValues() {
+			return new Value[0];
+		}
+	}
+
+	/**
+	 * The protocols and networks of one party.
+	 */
+	private static class Party {
+
+		final ResourcePool rp;
+		final WireCodec codec;
+		final NativeProtocol[] protocols = new NativeProtocol[BATCH_SIZE];
+		final SCENetworkImpl[] sceNetworks = new SCENetworkImpl[BATCH_SIZE];
+
+		Party(int myId, Network network, WireCodec codec) {
+			this.rp = new ResourcePoolImpl(myId, 2, network, null, null, null, null, null, null);
+			this.codec = codec;
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				protocols[i] = new EchoProtocol();
+				sceNetworks[i] = new SCENetworkImpl(2, myId, 0);
+			}
+		}
+
+		long runBatches(int batches) throws IOException {
+			long gates = 0;
+			for (int b = 0; b < batches; b++) {
+				BatchedStrategy.processBatch(protocols, protocols.length, sceNetworks, "0", rp, codec);
+				gates += protocols.length;
+			}
+			return gates;
+		}
+	}
+
+	@Test
+	public void test_Bytes_Allocated_Per_Gate() throws Exception {
+		long bytesPerGate = bytesAllocatedPerGate(null);
+		assertTrue("Allocated " + bytesPerGate + " bytes per gate", bytesPerGate <= MAX_BYTES_PER_GATE);
+	}
+
+	@Test
+	public void test_Bytes_Allocated_Per_Gate_Encoded() throws Exception {
+		long bytesPerGate = bytesAllocatedPerGate(new CompactWireCodec());
+		assertTrue("Allocated " + bytesPerGate + " bytes per gate", bytesPerGate <= MAX_ENCODED_BYTES_PER_GATE);
+	}
+
+	private long bytesAllocatedPerGate(WireCodec codec) throws Exception {
+		Reporter.init(Level.INFO);
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+
+		BlockingQueue<Serializable> toParty1 = new ArrayBlockingQueue<Serializable>(16);
+		BlockingQueue<Serializable> toParty2 = new ArrayBlockingQueue<Serializable>(16);
+		Party party1 = new Party(1, new QueueNetwork(toParty1, toParty2), codec);
+		final Party party2 = new Party(2, new QueueNetwork(toParty2, toParty1), codec);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Long> other = executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					return party2.runBatches(WARMUP_BATCHES + RUNS * BATCHES_PER_RUN);
+				}
+			});
+			party1.runBatches(WARMUP_BATCHES);
+			// Use the best of several runs, so a run disturbed by the JIT
+			// compiling or deoptimizing the loop does not fail the test. The
+			// allocation counter of the thread does not depend on the GC.
+			long threadId = Thread.currentThread().getId();
+			long bestBytesPerGate = Long.MAX_VALUE;
+			for (int run = 0; run < RUNS; run++) {
+				long before = threadBean.getThreadAllocatedBytes(threadId);
+				long gates = party1.runBatches(BATCHES_PER_RUN);
+				long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+				assertEquals(BATCHES_PER_RUN * BATCH_SIZE, gates);
+				bestBytesPerGate = Math.min(bestBytesPerGate, allocated / gates);
+			}
+			assertEquals(Long.valueOf((WARMUP_BATCHES + RUNS * BATCHES_PER_RUN) * (long) BATCH_SIZE),
+					other.get(60, TimeUnit.SECONDS));
+			Reporter.info("Round loop allocated " + bestBytesPerGate + " bytes per gate"
+					+ (codec == null ? "." : " with " + codec.getClass().getSimpleName() + "."));
+			return bestBytesPerGate;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
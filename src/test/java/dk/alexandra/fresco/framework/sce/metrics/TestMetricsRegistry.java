@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import dk.alexandra.fresco.framework.NativeProtocol;
+import dk.alexandra.fresco.framework.value.SBool;
+import dk.alexandra.fresco.suite.dummy.DummyAndProtocol;
+import dk.alexandra.fresco.suite.dummy.DummyFactory;
+import dk.alexandra.fresco.suite.dummy.DummyXorProtocol;
+
+public class TestMetricsRegistry {
+
+	@Test
+	public void testProtocolCounts() {
+		MetricsRegistry metrics = new MetricsRegistry();
+		DummyFactory fac = new DummyFactory();
+		SBool a = fac.getSBool(), b = fac.getSBool(), c = fac.getSBool();
+		NativeProtocol[] protocols = new NativeProtocol[] {
+				new DummyAndProtocol(a, b, c), new DummyAndProtocol(a, b, c),
+				new DummyXorProtocol(a, b, c), new DummyAndProtocol(a, b, c), null };
+		metrics.protocolsEvaluated(protocols, 4);
+		metrics.batchEvaluated(3);
+		metrics.batchEvaluated(1);
+
+		Map<String, Long> counts = metrics.getProtocolCounts();
+		assertEquals(Long.valueOf(3), counts.get(DummyAndProtocol.class.getName()));
+		assertEquals(Long.valueOf(1), counts.get(DummyXorProtocol.class.getName()));
+		assertEquals(2, metrics.getBatches());
+		assertEquals(4, metrics.getRounds());
+		assertEquals(Long.valueOf(1), metrics.getRoundsPerBatch().get("<4"));
+		assertEquals(Long.valueOf(1), metrics.getRoundsPerBatch().get("<2"));
+
+		metrics.reset();
+		assertTrue(metrics.getProtocolCounts().isEmpty());
+		assertEquals(0, metrics.getBatches());
+	}
+
+	@Test
+	public void testTraffic() {
+		MetricsRegistry metrics = new MetricsRegistry();
+		metrics.messageSent(2, "0", new byte[10]);
+		metrics.messageSent(2, "0", new Serializable[] { BigInteger.valueOf(255), 7 });
+		metrics.messageSent(1, "1", true);
+		metrics.messageReceived(2, "0", new byte[3], 5000);
+
+		assertEquals(Long.valueOf(2), metrics.getMessagesSent().get("2/0"));
+		assertEquals(Long.valueOf(10 + 2 + 4), metrics.getBytesSent().get("2/0"));
+		assertEquals(Long.valueOf(1), metrics.getBytesSent().get("1/1"));
+		assertEquals(Long.valueOf(1), metrics.getMessagesReceived().get("2/0"));
+		assertEquals(Long.valueOf(3), metrics.getBytesReceived().get("2/0"));
+		assertEquals(Long.valueOf(1), metrics.getReceiveBlockedMicros().get("<8"));
+	}
+
+	@Test
+	public void testJmx() throws Exception {
+		MetricsRegistry metrics = MetricsRegistry.getInstance(4711);
+		metrics.reset();
+		metrics.batchEvaluated(2);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("dk.alexandra.fresco:type=Metrics,party=4711");
+		assertEquals(1L, server.getAttribute(name, "Batches"));
+		assertEquals(2L, server.getAttribute(name, "Rounds"));
+	}
+}
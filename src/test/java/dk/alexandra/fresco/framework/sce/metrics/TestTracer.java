@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.framework.sce.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class TestTracer {
+
+	@Test
+	public void testDisabled() throws Exception {
+		Tracer tracer = new Tracer(1);
+		long start = tracer.begin();
+		assertEquals(Tracer.NOT_TRACING, start);
+		tracer.end(Tracer.SEND, start, 2, "0");
+		assertEquals(0, tracer.getEventCount());
+		StringWriter out = new StringWriter();
+		tracer.exportChromeTrace(out);
+		assertFalse(out.toString().contains("\"ph\":\"X\""));
+	}
+
+	@Test
+	public void testExport() throws Exception {
+		Tracer tracer = new Tracer(3);
+		tracer.start(16);
+		tracer.end(Tracer.EVALUATE_BATCH, tracer.begin(), 100, 4);
+		tracer.end(Tracer.RECEIVE, tracer.begin(), 2, "1");
+		assertEquals(2, tracer.getEventCount());
+		tracer.stop();
+		tracer.end(Tracer.SEND, tracer.begin(), 2, "1");
+		assertEquals(2, tracer.getEventCount());
+
+		StringWriter out = new StringWriter();
+		tracer.exportChromeTrace(out);
+		String json = out.toString();
+		assertTrue(json.startsWith("{\"traceEvents\":["));
+		assertTrue(json.contains("\"name\":\"process_name\",\"ph\":\"M\",\"pid\":3"));
+		assertTrue(json.contains("\"tid\":" + Thread.currentThread().getId()));
+		assertTrue(json.contains("\"name\":\"evaluate batch\",\"ph\":\"X\",\"pid\":3"));
+		assertTrue(json.contains("\"args\":{\"protocols\":100,\"rounds\":4}"));
+		assertTrue(json.contains("\"args\":{\"party\":2,\"channel\":\"1\"}"));
+		assertFalse(json.contains("\"name\":\"send\""));
+	}
+
+	@Test
+	public void testRingBufferKeepsNewest() throws Exception {
+		Tracer tracer = new Tracer(1);
+		tracer.start(4);
+		for (int i = 0; i < 10; i++) {
+			tracer.end(Tracer.PRODUCE_BATCH, tracer.begin(), i, 0);
+		}
+		assertEquals(4, tracer.getEventCount());
+		StringWriter out = new StringWriter();
+		tracer.exportChromeTrace(out);
+		String json = out.toString();
+		assertFalse(json.contains("\"protocols\":5}"));
+		for (int i = 6; i < 10; i++) {
+			assertTrue(json.contains("\"protocols\":" + i + "}"));
+		}
+		assertTrue(json.indexOf("\"protocols\":6}") < json.indexOf("\"protocols\":9}"));
+
+		tracer.clear();
+		assertEquals(0, tracer.getEventCount());
+	}
+}
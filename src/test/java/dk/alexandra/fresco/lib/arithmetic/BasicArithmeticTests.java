@@ -31,20 +31,26 @@ import java.math.BigInteger;
 
 import org.junit.Assert;
 
+import dk.alexandra.fresco.framework.MPCException;
 import dk.alexandra.fresco.framework.ProtocolFactory;
 import dk.alexandra.fresco.framework.ProtocolProducer;
 import dk.alexandra.fresco.framework.TestApplication;
 import dk.alexandra.fresco.framework.TestThreadRunner.TestThread;
 import dk.alexandra.fresco.framework.TestThreadRunner.TestThreadConfiguration;
 import dk.alexandra.fresco.framework.TestThreadRunner.TestThreadFactory;
+import dk.alexandra.fresco.framework.network.SCENetwork;
 import dk.alexandra.fresco.framework.sce.SCE;
 import dk.alexandra.fresco.framework.sce.SCEFactory;
+import dk.alexandra.fresco.framework.sce.resources.ResourcePool;
 import dk.alexandra.fresco.framework.value.OInt;
 import dk.alexandra.fresco.framework.value.SInt;
+import dk.alexandra.fresco.framework.value.Value;
 import dk.alexandra.fresco.lib.compare.ComparisonProtocolFactory;
 import dk.alexandra.fresco.lib.compare.ComparisonProtocolFactoryImpl;
 import dk.alexandra.fresco.lib.field.integer.BasicNumericFactory;
 import dk.alexandra.fresco.lib.helper.CopyProtocolImpl;
+import dk.alexandra.fresco.lib.helper.HalfCookedNativeProtocol;
+import dk.alexandra.fresco.lib.helper.ParallelProtocolProducer;
 import dk.alexandra.fresco.lib.helper.builder.NumericIOBuilder;
 import dk.alexandra.fresco.lib.helper.builder.NumericProtocolBuilder;
 import dk.alexandra.fresco.lib.helper.sequential.SequentialProtocolProducer;
@@ -52,6 +58,8 @@ import dk.alexandra.fresco.lib.math.integer.PreprocessedNumericBitFactory;
 import dk.alexandra.fresco.lib.math.integer.exp.ExpFromOIntFactory;
 import dk.alexandra.fresco.lib.math.integer.exp.PreprocessedExpPipeFactory;
 import dk.alexandra.fresco.lib.math.integer.inv.LocalInversionFactory;
+import dk.alexandra.fresco.lib.math.integer.linalg.InnerProductFactory;
+import dk.alexandra.fresco.lib.math.integer.linalg.InnerProductFactoryImpl;
 import dk.alexandra.fresco.lib.math.integer.min.MinInfFracProtocol;
 
 
@@ -460,6 +468,173 @@ public class BasicArithmeticTests {
 		}
 	}
 	
+	/**
+	 * Test several multiplications and additions running concurrently, each
+	 * in its own session of the SCE.
+	 */
+	public static class TestConcurrentMultAndAdd extends TestThreadFactory {
+
+		private final int noOfSessions;
+
+		public TestConcurrentMultAndAdd(int noOfSessions) {
+			this.noOfSessions = noOfSessions;
+		}
+
+		@Override
+		public TestThread next(TestThreadConfiguration conf) {
+			return new ThreadWithFixture() {
+				@Override
+				public void test() throws Exception {
+					TestApplication[] apps = new TestApplication[noOfSessions];
+					for (int s = 0; s < noOfSessions; s++) {
+						final int session = s;
+						apps[s] = new TestApplication() {
+
+							private static final long serialVersionUID = -3127763041862415208L;
+
+							@Override
+							public ProtocolProducer prepareApplication(
+									ProtocolFactory factory) {
+								BasicNumericFactory fac = (BasicNumericFactory) factory;
+								NumericIOBuilder ioBuilder = new NumericIOBuilder(
+										fac);
+								SInt input1 = ioBuilder.input(
+										BigInteger.valueOf(10 + session), 1);
+								SInt input2 = ioBuilder.input(
+										BigInteger.valueOf(5), 2);
+
+								ProtocolProducer inputs = ioBuilder.getProtocol();
+								ioBuilder.reset();
+								NumericProtocolBuilder builder = new NumericProtocolBuilder(
+										fac);
+								SInt addAndMult = builder.mult(input1,
+										builder.add(input1, input2));
+								ProtocolProducer circ = builder.getProtocol();
+
+								OInt output = ioBuilder.output(addAndMult);
+								this.outputs = new OInt[] { output };
+								ProtocolProducer outputs = ioBuilder.getProtocol();
+
+								return new SequentialProtocolProducer(
+										inputs, circ, outputs);
+							}
+						};
+					}
+					sce.runApplicationsConcurrently(apps);
+
+					for (int s = 0; s < noOfSessions; s++) {
+						Assert.assertEquals(BigInteger.valueOf((10 + s) * (10 + s + 5)),
+								apps[s].getOutputs()[0].getValue());
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * Test a multiplication and addition after the connection failed in an
+	 * application that opened values. Party 2 drops the connection once the
+	 * output of the first application is opened, so party 1 fails in the MAC
+	 * check at the end of it, while party 2 fails before. Both reconnect when
+	 * running the next application, whose MAC check must not see the values
+	 * of the failed one.
+	 */
+	public static class TestMultAndAddAfterReconnect extends TestThreadFactory {
+
+		@Override
+		public TestThread next(TestThreadConfiguration conf) {
+			return new ThreadWithFixture() {
+				@Override
+				public void test() throws Exception {
+					TestApplication failed = multAndAdd(10, true);
+					try {
+						sce.runApplication(failed);
+					} catch (MPCException e) {
+						// The MAC check of party 1 failed.
+					}
+					TestApplication app = multAndAdd(7, false);
+					sce.runApplication(app);
+
+					Assert.assertEquals(BigInteger.valueOf(7 * (7 + 5)),
+							app.getOutputs()[0].getValue());
+				}
+			};
+		}
+
+		private static TestApplication multAndAdd(final int value, final boolean dropConnection) {
+			return new TestApplication() {
+
+				private static final long serialVersionUID = -6027617360245613817L;
+
+				@Override
+				public ProtocolProducer prepareApplication(
+						ProtocolFactory factory) {
+					BasicNumericFactory fac = (BasicNumericFactory) factory;
+					NumericIOBuilder ioBuilder = new NumericIOBuilder(
+							fac);
+					SInt input1 = ioBuilder.input(
+							BigInteger.valueOf(value), 1);
+					SInt input2 = ioBuilder.input(
+							BigInteger.valueOf(5), 2);
+
+					ProtocolProducer inputs = ioBuilder.getProtocol();
+					ioBuilder.reset();
+					NumericProtocolBuilder builder = new NumericProtocolBuilder(
+							fac);
+					SInt addAndMult = builder.mult(input1,
+							builder.add(input1, input2));
+					ProtocolProducer circ = builder.getProtocol();
+
+					OInt output = ioBuilder.output(addAndMult);
+					this.outputs = new OInt[] { output };
+					ProtocolProducer outputs = ioBuilder.getProtocol();
+
+					if (dropConnection) {
+						return new SequentialProtocolProducer(
+								inputs, circ, outputs, new DropConnectionProtocol());
+					}
+					return new SequentialProtocolProducer(
+							inputs, circ, outputs);
+				}
+			};
+		}
+	}
+
+	/**
+	 * Party 2 closes its network and waits for a message from party 1, which
+	 * fails. The other parties do nothing.
+	 */
+	private static class DropConnectionProtocol extends HalfCookedNativeProtocol {
+
+		@Override
+		public EvaluationStatus evaluate(int round, ResourcePool resourcePool,
+				SCENetwork network) {
+			if (resourcePool.getMyId() != 2) {
+				return EvaluationStatus.IS_DONE;
+			}
+			if (round == 0) {
+				try {
+					resourcePool.getNetwork().close();
+				} catch (IOException e) {
+					throw new MPCException("Could not close the network", e);
+				}
+				network.expectInputFromPlayer(1);
+				return EvaluationStatus.HAS_MORE_ROUNDS;
+			}
+			return EvaluationStatus.IS_DONE;
+		}
+
+		@Override
+		public Value[] getInputValues() {
+			return new Value[0];
+		}
+
+		@Override
+		public Value[] getOutputValues() {
+			return new Value[0];
+		}
+	}
+
 	/**
 	 * Test a large amount (defined by the REPS constant) multiplication protocols in order to
 	 * stress-test the protocol suite. 
@@ -507,6 +682,65 @@ public class BasicArithmeticTests {
 		}
 	}
 	
+	/**
+	 * Inner products of secret vectors with secret and public vectors, which
+	 * a protocol suite may do with a native vector multiplication.
+	 */
+	public static class TestInnerProduct extends TestThreadFactory {
+
+		@Override
+		public TestThread next(TestThreadConfiguration conf) {
+
+			return new ThreadWithFixture() {
+				@Override
+				public void test() throws Exception {
+					final int length = 200;
+					TestApplication app = new TestApplication() {
+						private static final long serialVersionUID = -4108432917650813402L;
+
+						@Override
+						public ProtocolProducer prepareApplication(
+								ProtocolFactory factory) {
+							BasicNumericFactory fac = (BasicNumericFactory) factory;
+							NumericIOBuilder ioBuilder = new NumericIOBuilder(fac);
+							BigInteger[] aValues = new BigInteger[length];
+							BigInteger[] bValues = new BigInteger[length];
+							OInt[] publicBs = new OInt[length];
+							for (int i = 0; i < length; i++) {
+								aValues[i] = BigInteger.valueOf(i + 1);
+								bValues[i] = BigInteger.valueOf(2 * i + 3);
+								publicBs[i] = fac.getOInt(BigInteger.valueOf(i));
+							}
+							SInt[] as = ioBuilder.inputArray(aValues, 1);
+							SInt[] bs = ioBuilder.inputArray(bValues, 2);
+							ProtocolProducer inputs = ioBuilder.getProtocol();
+
+							InnerProductFactory ipFactory = new InnerProductFactoryImpl(fac);
+							SInt secret = fac.getSInt();
+							SInt halfPublic = fac.getSInt();
+							ProtocolProducer products = new ParallelProtocolProducer(
+									ipFactory.getInnerProductProtocol(as, bs, secret),
+									ipFactory.getInnerProductProtocol(as, publicBs, halfPublic));
+
+							ioBuilder.reset();
+							this.outputs = new OInt[] { ioBuilder.output(secret), ioBuilder.output(halfPublic) };
+							return new SequentialProtocolProducer(inputs, products, ioBuilder.getProtocol());
+						}
+					};
+					sce.runApplication(app);
+					BigInteger secret = BigInteger.ZERO;
+					BigInteger halfPublic = BigInteger.ZERO;
+					for (int i = 0; i < length; i++) {
+						secret = secret.add(BigInteger.valueOf((i + 1) * (2 * i + 3)));
+						halfPublic = halfPublic.add(BigInteger.valueOf((i + 1) * i));
+					}
+					Assert.assertEquals(secret, app.getOutputs()[0].getValue());
+					Assert.assertEquals(halfPublic, app.getOutputs()[1].getValue());
+				}
+			};
+		}
+	}
+	
 	public static class TestMinInfFrac extends TestThreadFactory {
 
 		@Override
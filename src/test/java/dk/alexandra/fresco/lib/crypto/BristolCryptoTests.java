@@ -181,6 +181,66 @@ public class BristolCryptoTests {
 	
 	
 
+	/**
+	 * Testing several AES encryptions running concurrently, each in its own
+	 * session of the SCE.
+	 */
+	public static class ConcurrentAesTest extends TestThreadFactory {
+
+		private final int noOfSessions;
+
+		public ConcurrentAesTest(int noOfSessions) {
+			this.noOfSessions = noOfSessions;
+		}
+
+		@Override
+		public TestThread next(TestThreadConfiguration conf) {
+			return new ThreadWithFixture() {
+
+				final String keyVec = "000102030405060708090a0b0c0d0e0f";
+				final String plainVec = "00112233445566778899aabbccddeeff";
+				final String cipherVec = "69c4e0d86a7b0430d8cdb78070b4c55a";
+
+				@Override
+				public void test() throws Exception {
+					final OBool[][] openedCiphers = new OBool[noOfSessions][];
+					Application[] apps = new Application[noOfSessions];
+					for (int s = 0; s < noOfSessions; s++) {
+						final int session = s;
+						apps[s] = new Application() {
+
+							private static final long serialVersionUID = 7621563498134529384L;
+
+							@Override
+							public ProtocolProducer prepareApplication(ProtocolFactory fac) {
+								AbstractBinaryFactory prov = (AbstractBinaryFactory) fac;
+								BasicLogicBuilder builder = new BasicLogicBuilder(prov);
+								SBool[] plain = builder.knownSBool(toBoolean(plainVec));
+								SBool[] key = builder.knownSBool(toBoolean(keyVec));
+								SBool[] cipher = prov.getSBools(128);
+								BristolCircuit aes = new BristolCryptoFactory(prov).getAesProtocol(plain, key, cipher);
+								builder.addProtocolProducer(aes);
+								openedCiphers[session] = builder.output(cipher);
+								return new SequentialProtocolProducer(builder.getProtocol());
+							}
+						};
+					}
+
+					sce.runApplicationsConcurrently(apps);
+
+					boolean[] expected = toBoolean(cipherVec);
+					for (int s = 0; s < noOfSessions; s++) {
+						boolean[] actual = new boolean[128];
+						for (int i = 0; i < 128; i++) {
+							actual[i] = openedCiphers[s][i].getValue();
+						}
+						Assert.assertTrue(Arrays.equals(expected, actual));
+					}
+				}
+			};
+		}
+	}
+
 	/**
 	 * Testing SHA-1 compression function.
 	 * 
@@ -27,6 +27,7 @@
 package dk.alexandra.fresco.lib.helper.bristol;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.io.BufferedReader;
 import java.io.InputStream;
@@ -78,5 +79,26 @@ public class TestBristolCircuitParser {
 		assertEquals(0, size[2]);
 		
 	}
+
+	@Test
+	public void testCompiledCircuit() throws Exception {
+		String path = "circuits/AES-non-expanded.txt";
+		BristolCircuitPlan plan = BristolCircuitPlan.getPlan(path);
+		assertSame(plan, BristolCircuitPlan.getPlan(path));
+		assertEquals(33872, plan.getNoOfWires());
+
+		BasicLogicFactory boolFac = new DummyFactory();
+		boolean[] in_vals = new boolean[128];
+		SBool[] in1 = boolFac.getKnownConstantSBools(in_vals);
+		SBool[] in2 = boolFac.getKnownConstantSBools(in_vals);
+		SBool[] out = boolFac.getSBools(128);
+		BristolCircuitParser cp = BristolCircuitParser.readCircuitDescription(boolFac, path, in1, in2, out);
+
+		assertEquals(33872, cp.getNoOfWires());
+		Protocol[] c = new Protocol[500];
+		// The compiled circuit ends the first batch at the same gate.
+		assertEquals(168, cp.getNext(c, 0));
+		assertEquals(0, cp.getNext(c, 0));
+	}
 	
 }
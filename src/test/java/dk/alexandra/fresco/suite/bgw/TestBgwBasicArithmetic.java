@@ -110,6 +110,12 @@ public class TestBgwBasicArithmetic {
 	public void test_Input_Sequential_3_1() throws Exception {
 		runTest(new BasicArithmeticTests.TestInput(), 3, 1, EvaluationStrategy.SEQUENTIAL);
 	}
+
+	@Test
+	public void test_Inner_Product_3_1_Sequential() throws Exception {
+		runTest(new BasicArithmeticTests.TestInnerProduct(), 3, 1,
+				EvaluationStrategy.SEQUENTIAL);
+	}
 	
 	@Test
 	public void test_Input_Sequential_4_1() throws Exception {
@@ -59,6 +59,10 @@ import dk.alexandra.fresco.suite.ProtocolSuite;
 public class TestDummyProtocolSuite {
 
 	private void runTest(TestThreadFactory f, EvaluationStrategy evalStrategy) throws Exception {
+		runTest(f, evalStrategy, 1);
+	}
+
+	private void runTest(TestThreadFactory f, EvaluationStrategy evalStrategy, int maxConcurrentSessions) throws Exception {
 		// The dummy protocol suite has the nice property that it can be run by just one player.
 		int noPlayers = 1;
 		Level logLevel = Level.FINE;
@@ -83,7 +87,9 @@ public class TestDummyProtocolSuite {
 			ProtocolSuite protocolSuite = new DummyProtocolSuite();
 			ProtocolEvaluator evaluator = EvaluationStrategy.fromEnum(evalStrategy);
 			Storage storage = new InMemoryStorage();
-			ttc.sceConf = new TestSCEConfiguration(protocolSuite, evaluator, noOfThreads, noOfVMThreads, ttc.netConf, storage, useSecureConnection);
+			TestSCEConfiguration sceConf = new TestSCEConfiguration(protocolSuite, evaluator, noOfThreads, noOfVMThreads, ttc.netConf, storage, useSecureConnection);
+			sceConf.setMaxConcurrentSessions(maxConcurrentSessions);
+			ttc.sceConf = sceConf;
 			conf.put(playerId, ttc);			
 		}
 		TestThreadRunner.run(f, conf);
@@ -114,6 +120,31 @@ public class TestDummyProtocolSuite {
 		runTest(new BristolCryptoTests.AesTest(), EvaluationStrategy.PARALLEL_BATCHED);
 	}
 	
+	@Test
+	public void test_AES_Pipelined() throws Exception {
+		runTest(new BristolCryptoTests.AesTest(), EvaluationStrategy.PIPELINED);
+	}
+	
+	@Test
+	public void test_AES_DependencyGraph() throws Exception {
+		runTest(new BristolCryptoTests.AesTest(), EvaluationStrategy.DEPENDENCY_GRAPH);
+	}
+	
+	@Test
+	public void test_AES_RoundBarrier() throws Exception {
+		runTest(new BristolCryptoTests.AesTest(), EvaluationStrategy.ROUND_BARRIER);
+	}
+	
+	@Test
+	public void test_AES_Concurrent_Sessions_Sequential() throws Exception {
+		runTest(new BristolCryptoTests.ConcurrentAesTest(3), EvaluationStrategy.SEQUENTIAL, 3);
+	}
+	
+	@Test
+	public void test_AES_Concurrent_Sessions_ParallelBatched() throws Exception {
+		runTest(new BristolCryptoTests.ConcurrentAesTest(2), EvaluationStrategy.PARALLEL_BATCHED, 2);
+	}
+	
 	@Test
 	public void test_DES_Sequential() throws Exception {
 		runTest(new BristolCryptoTests.DesTest(), EvaluationStrategy.SEQUENTIAL);
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.suite.spdz;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dk.alexandra.fresco.framework.MPCException;
+import dk.alexandra.fresco.suite.spdz.datatypes.SpdzElement;
+import dk.alexandra.fresco.suite.spdz.utils.MacCheckCombiner;
+
+public class TestMacCheckCombiner {
+
+	private static final BigInteger SEED = BigInteger.valueOf(1234567);
+
+	@Test
+	public void testCoefficientsAreSeekable() {
+		for (BigInteger p : TestMontgomeryField.MODULI) {
+			MacCheckCombiner combiner = new MacCheckCombiner(p, SEED);
+			BigInteger[] all = combiner.getCoefficients(0, 100);
+			assertArrayEquals(Arrays.copyOfRange(all, 37, 100), combiner.getCoefficients(37, 63));
+			assertArrayEquals(Arrays.copyOfRange(all, 99, 100), combiner.getCoefficients(99, 1));
+			for (BigInteger r : all) {
+				assertTrue(r.signum() >= 0 && r.compareTo(p) < 0);
+			}
+			assertNotEquals(all[0], all[1]);
+		}
+	}
+
+	@Test
+	public void testSeedChangesCoefficients() {
+		BigInteger p = TestMontgomeryField.MODULI[2];
+		assertNotEquals(new MacCheckCombiner(p, SEED).getCoefficients(0, 1)[0],
+				new MacCheckCombiner(p, SEED.add(BigInteger.ONE)).getCoefficients(0, 1)[0]);
+	}
+
+	@Test
+	public void testCombineAgreesWithSequentialSums() {
+		Random rand = new Random(42);
+		BigInteger p = TestMontgomeryField.MODULI[3];
+		// Enough values to be split into several tasks.
+		int n = 20000;
+		List<BigInteger> opened = new ArrayList<BigInteger>(n);
+		List<SpdzElement> closed = new ArrayList<SpdzElement>(n);
+		for (int i = 0; i < n; i++) {
+			opened.add(new BigInteger(p.bitLength() - 1, rand));
+			closed.add(new SpdzElement(BigInteger.ZERO, new BigInteger(p.bitLength() - 1, rand)));
+		}
+		MacCheckCombiner combiner = new MacCheckCombiner(p, SEED);
+		BigInteger[] rs = combiner.getCoefficients(0, n);
+		BigInteger a = BigInteger.ZERO;
+		BigInteger gamma = BigInteger.ZERO;
+		for (int i = 0; i < n; i++) {
+			a = a.add(rs[i].multiply(opened.get(i))).mod(p);
+			gamma = gamma.add(rs[i].multiply(closed.get(i).getMac())).mod(p);
+		}
+		BigInteger[] combined = combiner.combine(opened, closed);
+		assertEquals(a, combined[0]);
+		assertEquals(gamma, combined[1]);
+
+		BigInteger[] empty = combiner.combine(new ArrayList<BigInteger>(), new ArrayList<SpdzElement>());
+		assertEquals(BigInteger.ZERO, empty[0]);
+		assertEquals(BigInteger.ZERO, empty[1]);
+	}
+
+	@Test(expected = MPCException.class)
+	public void testMissingClosedValue() {
+		BigInteger p = TestMontgomeryField.MODULI[0];
+		new MacCheckCombiner(p, SEED).combine(Arrays.asList(BigInteger.ONE), new ArrayList<SpdzElement>());
+	}
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.suite.spdz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dk.alexandra.fresco.suite.spdz.datatypes.SpdzElement;
+import dk.alexandra.fresco.suite.spdz.utils.MontgomeryField;
+import dk.alexandra.fresco.suite.spdz.utils.Util;
+
+public class TestMontgomeryField {
+
+	private static final int ROUNDS = 2000;
+
+	/**
+	 * Primes of one, two, four and eight limbs, the largest with the top bit
+	 * of every limb set, and the modulus of the dummy SPDZ data.
+	 */
+	static final BigInteger[] MODULI = new BigInteger[] {
+			BigInteger.ONE.shiftLeft(64).subtract(BigInteger.valueOf(59)),
+			BigInteger.ONE.shiftLeft(127).subtract(BigInteger.ONE),
+			BigInteger.ONE.shiftLeft(256).subtract(BigInteger.valueOf(189)),
+			new BigInteger("6703903964971298549787012499123814115273848577471136527425966013026501536706464354255445443244279389455058889493431223951165286470575994074291745908195329") };
+
+	@Test
+	public void testAgreesWithBigInteger() {
+		Random rand = new Random(42);
+		for (BigInteger p : MODULI) {
+			MontgomeryField field = new MontgomeryField(p);
+			int n = field.getLimbs();
+			for (int i = 0; i < ROUNDS; i++) {
+				BigInteger x = random(p, rand, i);
+				BigInteger y = random(p, rand, i + 1);
+				// Two elements at offsets of one array.
+				long[] limbs = new long[2 * n];
+				field.toMontgomery(x, limbs, 0);
+				field.toMontgomery(y, limbs, n);
+				assertEquals(x, field.fromMontgomery(limbs, 0));
+
+				long[] sum = field.toMontgomery(x);
+				field.add(sum, 0, limbs, n);
+				assertEquals(x.add(y).mod(p), field.fromMontgomery(sum, 0));
+
+				long[] difference = field.toMontgomery(x);
+				field.subtract(difference, 0, limbs, n);
+				assertEquals(x.subtract(y).mod(p), field.fromMontgomery(difference, 0));
+
+				long[] product = field.toMontgomery(x);
+				field.multiply(product, 0, limbs, n);
+				assertEquals(x.multiply(y).mod(p), field.fromMontgomery(product, 0));
+
+				field.multiply(limbs, 0, limbs, 0);
+				assertEquals(x.multiply(x).mod(p), field.fromMontgomery(limbs, 0));
+			}
+		}
+	}
+
+	@Test
+	public void testReducesOutOfRangeValues() {
+		BigInteger p = MODULI[2];
+		MontgomeryField field = new MontgomeryField(p);
+		BigInteger x = p.multiply(BigInteger.TEN).add(BigInteger.valueOf(7));
+		assertEquals(BigInteger.valueOf(7), field.fromMontgomery(field.toMontgomery(x), 0));
+		assertEquals(p.subtract(BigInteger.ONE),
+				field.fromMontgomery(field.toMontgomery(BigInteger.ONE.negate()), 0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectsEvenModulus() {
+		new MontgomeryField(BigInteger.ONE.shiftLeft(64));
+	}
+
+	@Test
+	public void testSetEvenModulus() {
+		Util.setModulus(MODULI[0]);
+		try {
+			Util.setModulus(BigInteger.ONE.shiftLeft(64));
+			fail("Set an even modulus");
+		} catch (IllegalArgumentException e) {
+			// Expected, and the previous modulus is kept.
+		}
+		assertEquals(MODULI[0], Util.getModulus());
+		assertEquals(MODULI[0], Util.getField().getModulus());
+	}
+
+	@Test
+	public void testSpdzElementArithmetic() {
+		BigInteger p = MODULI[3];
+		Util.setModulus(p);
+		Random rand = new Random(7);
+		BigInteger key = random(p, rand, 0);
+		BigInteger a = random(p, rand, 0);
+		BigInteger b = random(p, rand, 0);
+		BigInteger c = random(p, rand, 0);
+		SpdzElement ea = new SpdzElement(a, a.multiply(key).mod(p));
+		SpdzElement eb = new SpdzElement(b, b.multiply(key).mod(p));
+
+		SpdzElement res = ea.multiply(c).subtract(eb);
+		res.addPublicInPlace(Util.getField().toMontgomery(b), Util.getField().toMontgomery(key), 1);
+		BigInteger expected = a.multiply(c).mod(p);
+		assertEquals(new SpdzElement(expected, expected.multiply(key).mod(p)), res);
+		// The operands are unchanged.
+		assertEquals(a, ea.getShare());
+		assertEquals(b.multiply(key).mod(p), eb.getMac());
+
+		SpdzElement other = eb.copy();
+		other.addPublicInPlace(Util.getField().toMontgomery(a), Util.getField().toMontgomery(key), 2);
+		assertEquals(b, other.getShare());
+		assertEquals(a.add(b).multiply(key).mod(p), other.getMac());
+	}
+
+	/**
+	 * Mixes uniform values with the edge values 0, 1 and p - 1.
+	 */
+	private static BigInteger random(BigInteger p, Random rand, int i) {
+		switch (i % 8) {
+		case 0:
+			return BigInteger.ZERO;
+		case 1:
+			return BigInteger.ONE;
+		case 2:
+			return p.subtract(BigInteger.ONE);
+		default:
+			return new BigInteger(p.bitLength() + 8, rand).mod(p);
+		}
+	}
+}
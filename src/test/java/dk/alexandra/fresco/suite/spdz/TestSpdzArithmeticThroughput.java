@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.suite.spdz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.alexandra.fresco.SlowTest;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.suite.spdz.datatypes.SpdzElement;
+import dk.alexandra.fresco.suite.spdz.utils.MontgomeryField;
+import dk.alexandra.fresco.suite.spdz.utils.Util;
+
+/**
+ * Throughput benchmark of the local step of a SPDZ multiplication,
+ * <i>[c] + e[b] + d[a] + ed</i>, done with BigIntegers reduced after every
+ * operation as the gates used to, and with the Montgomery limbs of
+ * SpdzElement. Reports the gates per second of both for moduli of one, two,
+ * four and eight limbs, after checking that both give the same elements.
+ */
+@Category(SlowTest.class)
+public class TestSpdzArithmeticThroughput {
+
+	private static final int ELEMENTS = 1024;
+	private static final long WARMUP_NANOS = 500000000L;
+	private static final long MEASURE_NANOS = 500000000L;
+
+	private interface Gate {
+		SpdzElement evaluate(int i);
+	}
+
+	@Test
+	public void testThroughput() throws Exception {
+		Reporter.init(Level.INFO);
+		for (BigInteger p : TestMontgomeryField.MODULI) {
+			measure(p);
+		}
+	}
+
+	private static void measure(final BigInteger p) {
+		Util.setModulus(p);
+		final MontgomeryField field = Util.getField();
+		Random rand = new Random(42);
+		final BigInteger key = new BigInteger(p.bitLength(), rand).mod(p);
+		final long[] keyLimbs = field.toMontgomery(key);
+		final SpdzElement[] as = new SpdzElement[ELEMENTS];
+		final SpdzElement[] bs = new SpdzElement[ELEMENTS];
+		final SpdzElement[] cs = new SpdzElement[ELEMENTS];
+		final BigInteger[] es = new BigInteger[ELEMENTS];
+		final BigInteger[] ds = new BigInteger[ELEMENTS];
+		for (int i = 0; i < ELEMENTS; i++) {
+			as[i] = element(p, key, rand);
+			bs[i] = element(p, key, rand);
+			cs[i] = element(p, key, rand);
+			es[i] = new BigInteger(p.bitLength(), rand).mod(p);
+			ds[i] = new BigInteger(p.bitLength(), rand).mod(p);
+		}
+
+		Gate bigInteger = new Gate() {
+			@Override
+			public SpdzElement evaluate(int i) {
+				BigInteger e = es[i];
+				BigInteger d = ds[i];
+				BigInteger ed = e.multiply(d).mod(p);
+				BigInteger share = cs[i].getShare().add(bs[i].getShare().multiply(e).mod(p)).mod(p)
+						.add(as[i].getShare().multiply(d).mod(p)).mod(p).add(ed).mod(p);
+				BigInteger mac = cs[i].getMac().add(bs[i].getMac().multiply(e).mod(p)).mod(p)
+						.add(as[i].getMac().multiply(d).mod(p)).mod(p).add(key.multiply(ed).mod(p)).mod(p);
+				return new SpdzElement(share, mac);
+			}
+		};
+		Gate montgomery = new Gate() {
+			@Override
+			public SpdzElement evaluate(int i) {
+				long[] e = field.toMontgomery(es[i]);
+				long[] d = field.toMontgomery(ds[i]);
+				long[] ed = e.clone();
+				field.multiply(ed, 0, d, 0);
+				SpdzElement res = bs[i].multiply(e);
+				res.addInPlace(as[i].multiply(d));
+				res.addInPlace(cs[i]);
+				res.addPublicInPlace(ed, keyLimbs, 1);
+				return res;
+			}
+		};
+		for (int i = 0; i < ELEMENTS; i++) {
+			assertEquals(bigInteger.evaluate(i), montgomery.evaluate(i));
+		}
+		double bigIntegerRate = measure(bigInteger);
+		double montgomeryRate = measure(montgomery);
+		assertTrue(bigIntegerRate > 0);
+		assertTrue(montgomeryRate > 0);
+		Reporter.info(String.format("%d bit modulus: BigInteger %.0f gates/s, Montgomery %.0f gates/s (%.1fx)",
+				p.bitLength(), bigIntegerRate, montgomeryRate, montgomeryRate / bigIntegerRate));
+	}
+
+	private static SpdzElement element(BigInteger p, BigInteger key, Random rand) {
+		BigInteger share = new BigInteger(p.bitLength(), rand).mod(p);
+		return new SpdzElement(share, share.multiply(key).mod(p));
+	}
+
+	/**
+	 * @return the gates per second.
+	 */
+	private static double measure(Gate gate) {
+		long start = System.nanoTime();
+		int i = 0;
+		while (System.nanoTime() - start < WARMUP_NANOS) {
+			gate.evaluate(i++ % ELEMENTS);
+		}
+		long gates = 0;
+		start = System.nanoTime();
+		long elapsed;
+		do {
+			for (i = 0; i < ELEMENTS; i++) {
+				gate.evaluate(i);
+			}
+			gates += ELEMENTS;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < MEASURE_NANOS);
+		return gates / (elapsed / 1e9);
+	}
+}
@@ -32,6 +32,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import dk.alexandra.fresco.framework.ProtocolEvaluator;
@@ -39,10 +40,15 @@ import dk.alexandra.fresco.framework.Reporter;
 import dk.alexandra.fresco.framework.TestThreadRunner;
 import dk.alexandra.fresco.framework.TestThreadRunner.TestThreadConfiguration;
 import dk.alexandra.fresco.framework.TestThreadRunner.TestThreadFactory;
+import dk.alexandra.fresco.framework.configuration.ConfigurationException;
 import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
 import dk.alexandra.fresco.framework.configuration.TestConfiguration;
+import dk.alexandra.fresco.framework.network.NetworkStrategy;
+import dk.alexandra.fresco.framework.network.SecureChannelStrategy;
+import dk.alexandra.fresco.framework.sce.SCEFactory;
 import dk.alexandra.fresco.framework.sce.configuration.TestSCEConfiguration;
 import dk.alexandra.fresco.framework.sce.evaluator.EvaluationStrategy;
+import dk.alexandra.fresco.framework.sce.metrics.MetricsRegistry;
 import dk.alexandra.fresco.framework.sce.resources.storage.InMemoryStorage;
 import dk.alexandra.fresco.framework.sce.resources.storage.StorageStrategy;
 import dk.alexandra.fresco.lib.arithmetic.BasicArithmeticTests;
@@ -62,6 +68,44 @@ public class TestSpdzBasicArithmetic2Parties {
 
 	private void runTest(TestThreadFactory f, EvaluationStrategy evalStrategy,
 			StorageStrategy storageStrategy) throws Exception {
+		runTest(f, evalStrategy, storageStrategy, false);
+	}
+
+	private void runTest(TestThreadFactory f, EvaluationStrategy evalStrategy,
+			StorageStrategy storageStrategy, boolean adaptiveBatchSize) throws Exception {
+		runTest(f, evalStrategy, storageStrategy, adaptiveBatchSize, NetworkStrategy.SCAPI);
+	}
+
+	private void runTest(TestThreadFactory f, EvaluationStrategy evalStrategy,
+			StorageStrategy storageStrategy, boolean adaptiveBatchSize, NetworkStrategy networkStrategy)
+			throws Exception {
+		runTest(f, evalStrategy, storageStrategy, adaptiveBatchSize, networkStrategy, null);
+	}
+
+	private void runTest(TestThreadFactory f, EvaluationStrategy evalStrategy,
+			StorageStrategy storageStrategy, boolean adaptiveBatchSize, NetworkStrategy networkStrategy,
+			SecureChannelStrategy secureChannel) throws Exception {
+		runTest(f, evalStrategy, storageStrategy, adaptiveBatchSize, networkStrategy, secureChannel, false, false,
+				100000, 1);
+	}
+
+	/**
+	 * @param secureChannel
+	 *            how to secure the connections, or null to not use secure
+	 *            connections.
+	 * @param streamingMacCheck
+	 *            whether to use the streaming MAC check.
+	 * @param asyncMacCheck
+	 *            whether to use the asynchronous MAC check.
+	 * @param macCheckThreshold
+	 *            the number of gates between MAC checks.
+	 * @param maxConcurrentSessions
+	 *            the number of sessions the SCE can run concurrently.
+	 */
+	private void runTest(TestThreadFactory f, EvaluationStrategy evalStrategy,
+			StorageStrategy storageStrategy, boolean adaptiveBatchSize, NetworkStrategy networkStrategy,
+			SecureChannelStrategy secureChannel, final boolean streamingMacCheck, final boolean asyncMacCheck,
+			final int macCheckThreshold, int maxConcurrentSessions) throws Exception {
 		Level logLevel = Level.FINE;
 		Reporter.init(logLevel);
 
@@ -96,20 +140,45 @@ public class TestSpdzBasicArithmetic2Parties {
 				public int getMaxBitLength() {
 					return 150;
 				}
+
+				@Override
+				public boolean useStreamingMacCheck() {
+					return streamingMacCheck;
+				}
+
+				@Override
+				public boolean useAsyncMacCheck() {
+					return asyncMacCheck;
+				}
+
+				@Override
+				public int getMacCheckThreshold() {
+					return macCheckThreshold;
+				}
 			};
 			ttc.protocolSuiteConf = spdzConf;
-			boolean useSecureConnection = false; // No tests of secure
-													// connection
-													// here.
+			boolean useSecureConnection = secureChannel != null;
 			int noOfVMThreads = 3;
 			int noOfThreads = 3;
 			ProtocolSuite suite = new SpdzProtocolSuite();
 			ProtocolEvaluator evaluator = EvaluationStrategy
 					.fromEnum(evalStrategy);
 			dk.alexandra.fresco.framework.sce.resources.storage.Storage storage = inMemStore;
-			ttc.sceConf = new TestSCEConfiguration(suite, evaluator,
+			TestSCEConfiguration sceConf = new TestSCEConfiguration(suite, evaluator,
 					noOfThreads, noOfVMThreads, ttc.netConf, storage,
-					useSecureConnection);
+					useSecureConnection, adaptiveBatchSize ? 64 : 4096);
+			if (adaptiveBatchSize) {
+				// Small bounds and windows to make the batch size change
+				// during the test.
+				sceConf.setMinBatchSize(2);
+				sceConf.setBatchSizeWindow(1);
+			}
+			sceConf.setNetworkStrategy(networkStrategy);
+			sceConf.setMaxConcurrentSessions(maxConcurrentSessions);
+			if (useSecureConnection) {
+				sceConf.setSecureChannelStrategy(secureChannel);
+			}
+			ttc.sceConf = sceConf;
 			conf.put(playerId, ttc);
 		}
 		TestThreadRunner.run(f, conf);
@@ -177,12 +246,196 @@ public class TestSpdzBasicArithmetic2Parties {
 				EvaluationStrategy.PARALLEL_BATCHED, StorageStrategy.IN_MEMORY);
 	}
 
+	@Test
+	public void test_Sum_And_Output_Streaming_Mac_Check() throws Exception {
+		runTest(new BasicArithmeticTests.TestSumAndMult(),
+				EvaluationStrategy.PARALLEL_BATCHED, StorageStrategy.IN_MEMORY, false,
+				NetworkStrategy.SCAPI, null, true, false, 100000, 1);
+	}
+
+	@Test
+	public void test_Inner_Product_Streaming_Mac_Check() throws Exception {
+		runTest(new BasicArithmeticTests.TestInnerProduct(),
+				EvaluationStrategy.SEQUENTIAL, StorageStrategy.IN_MEMORY, false,
+				NetworkStrategy.SCAPI, null, true, false, 100000, 1);
+	}
+
+	@Test
+	public void test_Lots_Of_Mults_Async_Mac_Check() throws Exception {
+		// A small threshold to check while evaluating.
+		runTest(new BasicArithmeticTests.TestLotsMult(),
+				EvaluationStrategy.SEQUENTIAL_BATCHED, StorageStrategy.IN_MEMORY, false,
+				NetworkStrategy.SCAPI, null, false, true, 50, 1);
+	}
+
+	@Test
+	public void test_Inner_Product_Async_Streaming_Mac_Check() throws Exception {
+		runTest(new BasicArithmeticTests.TestInnerProduct(),
+				EvaluationStrategy.PARALLEL_BATCHED, StorageStrategy.IN_MEMORY, false,
+				NetworkStrategy.SCAPI, null, true, true, 50, 1);
+	}
+
+	@Test
+	public void test_Mult_And_Add_After_Reconnect() throws Exception {
+		runTest(new BasicArithmeticTests.TestMultAndAddAfterReconnect(),
+				EvaluationStrategy.SEQUENTIAL, StorageStrategy.IN_MEMORY, false,
+				NetworkStrategy.SIMULATED, null, false, false, 100000, 1);
+	}
+
+	@Test
+	public void test_Mult_And_Add_After_Reconnect_Async_Streaming_Mac_Check() throws Exception {
+		runTest(new BasicArithmeticTests.TestMultAndAddAfterReconnect(),
+				EvaluationStrategy.SEQUENTIAL, StorageStrategy.IN_MEMORY, false,
+				NetworkStrategy.SIMULATED, null, true, true, 100000, 1);
+	}
+
+	@Test
+	public void test_Mult_And_Add_Concurrent_Sessions_SequentialBatched() throws Exception {
+		runTest(new BasicArithmeticTests.TestConcurrentMultAndAdd(3),
+				EvaluationStrategy.SEQUENTIAL_BATCHED, StorageStrategy.IN_MEMORY, false,
+				NetworkStrategy.SCAPI, null, false, false, 100000, 3);
+	}
+
+	@Test
+	public void test_Mult_And_Add_Concurrent_Sessions_Async_Mac_Check() throws Exception {
+		// Each session checks the MACs on a suite channel of its own.
+		runTest(new BasicArithmeticTests.TestConcurrentMultAndAdd(2),
+				EvaluationStrategy.PARALLEL_BATCHED, StorageStrategy.IN_MEMORY, false,
+				NetworkStrategy.SCAPI, null, true, true, 1, 2);
+	}
+
+	@Test(expected = ConfigurationException.class)
+	public void test_Concurrent_Sessions_Need_Dummy_Data() throws Exception {
+		List<Integer> ports = new ArrayList<Integer>(noOfParties);
+		for (int i = 1; i <= noOfParties; i++) {
+			ports.add(9000 + i);
+		}
+		NetworkConfiguration netConf = TestConfiguration.getNetworkConfigurations(noOfParties, ports, Level.INFO)
+				.get(1);
+		TestSCEConfiguration sceConf = new TestSCEConfiguration(new SpdzProtocolSuite(),
+				EvaluationStrategy.fromEnum(EvaluationStrategy.SEQUENTIAL_BATCHED), 1, 1, netConf, inMemStore, false);
+		sceConf.setMaxConcurrentSessions(2);
+		SpdzConfiguration spdzConf = new SpdzConfiguration() {
+
+			@Override
+			public boolean useDummyData() {
+				return false;
+			}
+
+			@Override
+			public String getTriplePath() {
+				return null;
+			}
+
+			@Override
+			public int getMaxBitLength() {
+				return 150;
+			}
+		};
+		// Fails when the SCE is created, before connecting to anyone.
+		SCEFactory.getSCEFromConfiguration(sceConf, spdzConf);
+	}
+
+	@Test
+	public void test_Inner_Product_Sequential() throws Exception {
+		runTest(new BasicArithmeticTests.TestInnerProduct(),
+				EvaluationStrategy.SEQUENTIAL, StorageStrategy.IN_MEMORY);
+	}
+
+	@Test
+	public void test_Inner_Product_ParallelBatched() throws Exception {
+		runTest(new BasicArithmeticTests.TestInnerProduct(),
+				EvaluationStrategy.PARALLEL_BATCHED, StorageStrategy.IN_MEMORY);
+	}
+
 	@Test
 	public void test_Lots_Of_Inputs_SequentialBatched() throws Exception {
 		runTest(new BasicArithmeticTests.TestLotsOfInputs(),
 				EvaluationStrategy.SEQUENTIAL_BATCHED,
 				StorageStrategy.IN_MEMORY);
 	}
+
+	@Test
+	public void test_Lots_Of_Inputs_Sequential_Nio() throws Exception {
+		runTest(new BasicArithmeticTests.TestLotsOfInputs(),
+				EvaluationStrategy.SEQUENTIAL, StorageStrategy.IN_MEMORY,
+				false, NetworkStrategy.NIO);
+	}
+
+	@Test
+	public void test_Lots_Of_Inputs_ParallelBatched_Nio() throws Exception {
+		runTest(new BasicArithmeticTests.TestLotsOfInputs(),
+				EvaluationStrategy.PARALLEL_BATCHED, StorageStrategy.IN_MEMORY,
+				false, NetworkStrategy.NIO);
+	}
+
+	@Test
+	public void test_Lots_Of_Inputs_ParallelBatched_Simulated() throws Exception {
+		runTest(new BasicArithmeticTests.TestLotsOfInputs(),
+				EvaluationStrategy.PARALLEL_BATCHED, StorageStrategy.IN_MEMORY,
+				false, NetworkStrategy.SIMULATED);
+	}
+
+	@Test
+	public void test_Lots_Of_Inputs_SequentialBatched_EncThenMac() throws Exception {
+		runTest(new BasicArithmeticTests.TestLotsOfInputs(),
+				EvaluationStrategy.SEQUENTIAL_BATCHED, StorageStrategy.IN_MEMORY,
+				false, NetworkStrategy.SCAPI, SecureChannelStrategy.ENC_THEN_MAC);
+	}
+
+	@Test
+	public void test_Lots_Of_Inputs_SequentialBatched_AesGcm() throws Exception {
+		runTest(new BasicArithmeticTests.TestLotsOfInputs(),
+				EvaluationStrategy.SEQUENTIAL_BATCHED, StorageStrategy.IN_MEMORY,
+				false, NetworkStrategy.SCAPI, SecureChannelStrategy.AES_GCM);
+	}
+
+	@Test
+	public void test_Lots_Of_Inputs_ParallelBatched_Nio_AesGcm() throws Exception {
+		runTest(new BasicArithmeticTests.TestLotsOfInputs(),
+				EvaluationStrategy.PARALLEL_BATCHED, StorageStrategy.IN_MEMORY,
+				false, NetworkStrategy.NIO, SecureChannelStrategy.AES_GCM);
+	}
+	
+	@Test
+	public void test_Lots_Of_Inputs_Pipelined() throws Exception {
+		runTest(new BasicArithmeticTests.TestLotsOfInputs(),
+				EvaluationStrategy.PIPELINED,
+				StorageStrategy.IN_MEMORY);
+	}
+	
+	@Test
+	public void test_Lots_Of_Inputs_RoundBarrier() throws Exception {
+		runTest(new BasicArithmeticTests.TestLotsOfInputs(),
+				EvaluationStrategy.ROUND_BARRIER,
+				StorageStrategy.IN_MEMORY);
+	}
+	
+	@Test
+	public void test_Sum_And_Output_RoundBarrier() throws Exception {
+		runTest(new BasicArithmeticTests.TestSumAndMult(),
+				EvaluationStrategy.ROUND_BARRIER,
+				StorageStrategy.IN_MEMORY);
+	}
+	
+	@Test
+	public void test_Sum_And_Output_DependencyGraph() throws Exception {
+		runTest(new BasicArithmeticTests.TestSumAndMult(),
+				EvaluationStrategy.DEPENDENCY_GRAPH,
+				StorageStrategy.IN_MEMORY);
+	}
+	
+	@Test
+	public void test_Sum_And_Output_SequentialBatched_AdaptiveBatchSize() throws Exception {
+		runTest(new BasicArithmeticTests.TestSumAndMult(),
+				EvaluationStrategy.SEQUENTIAL_BATCHED,
+				StorageStrategy.IN_MEMORY, true);
+		for (int myId = 1; myId <= noOfParties; myId++) {
+			int batchSize = MetricsRegistry.getInstance(myId).getBatchSize();
+			Assert.assertTrue("Batch size " + batchSize + " is outside the configured bounds",
+					batchSize >= 2 && batchSize <= 64);
+		}
+	}
 	
 	@Test
 	public void test_MinInfFrac_Sequential() throws Exception {
@@ -115,6 +115,12 @@ public class TestSpdzBasicArithmetic3Parties {
 				EvaluationStrategy.SEQUENTIAL, StorageStrategy.IN_MEMORY);
 	}
 
+	@Test
+	public void test_Inner_Product_Sequential() throws Exception {
+		runTest(new BasicArithmeticTests.TestInnerProduct(),
+				EvaluationStrategy.SEQUENTIAL, StorageStrategy.IN_MEMORY);
+	}
+
 	@Test
 	public void test_Input_Sequential() throws Exception {
 		runTest(new BasicArithmeticTests.TestInput(),
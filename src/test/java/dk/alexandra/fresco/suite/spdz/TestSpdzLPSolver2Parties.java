@@ -156,6 +156,22 @@ public class TestSpdzLPSolver2Parties {
 		runTest(new LPSolverTests.TestLPSolver(), 2, 1,
 				EvaluationStrategy.SEQUENTIAL_BATCHED, StorageStrategy.IN_MEMORY, true);
 	}	
+
+	@Test
+	public void test_LPSolver_2_Pipelined_dummy() throws Exception {
+		// The solver reads opened values while producing, so it relies on the
+		// evaluation barrier of the pipelined evaluator.
+		runTest(new LPSolverTests.TestLPSolver(), 2, 1,
+				EvaluationStrategy.PIPELINED, StorageStrategy.IN_MEMORY, true);
+	}
+
+	@Test
+	public void test_LPSolver_2_DependencyGraph_dummy() throws Exception {
+		// The solver reads opened values while producing, which drains the
+		// window of the dependency graph evaluator.
+		runTest(new LPSolverTests.TestLPSolver(), 2, 1,
+				EvaluationStrategy.DEPENDENCY_GRAPH, StorageStrategy.IN_MEMORY, true);
+	}
 	
 	@Category(IntegrationTest.class)
 	@Test
@@ -17,6 +17,7 @@ import dk.alexandra.fresco.framework.configuration.NetworkConfiguration;
 import dk.alexandra.fresco.framework.configuration.TestConfiguration;
 import dk.alexandra.fresco.framework.sce.configuration.TestSCEConfiguration;
 import dk.alexandra.fresco.framework.sce.evaluator.EvaluationStrategy;
+import dk.alexandra.fresco.framework.sce.evaluator.RoundBarrierEvaluator;
 import dk.alexandra.fresco.framework.sce.resources.storage.InMemoryStorage;
 import dk.alexandra.fresco.framework.sce.resources.storage.StorageStrategy;
 import dk.alexandra.fresco.lib.math.integer.stat.StatisticsTests;
@@ -94,4 +95,38 @@ public class TestSpdzStatistics {
 		configure(EvaluationStrategy.SEQUENTIAL, StorageStrategy.IN_MEMORY);
 		runTest(new StatisticsTests.TestStatistics());
 	}
+
+	@Test
+	public void test_Exiting_Variable_Pipelined() throws Exception {
+		configure(EvaluationStrategy.PIPELINED, StorageStrategy.IN_MEMORY);
+		runTest(new StatisticsTests.TestStatistics());
+	}
+
+	@Test
+	public void test_Exiting_Variable_Parallel_Batched() throws Exception {
+		configure(EvaluationStrategy.PARALLEL_BATCHED, StorageStrategy.IN_MEMORY);
+		runTest(new StatisticsTests.TestStatistics());
+	}
+
+	@Test
+	public void test_Exiting_Variable_Dependency_Graph() throws Exception {
+		configure(EvaluationStrategy.DEPENDENCY_GRAPH, StorageStrategy.IN_MEMORY);
+		runTest(new StatisticsTests.TestStatistics());
+	}
+
+	@Test
+	public void test_Exiting_Variable_Round_Barrier() throws Exception {
+		configure(EvaluationStrategy.ROUND_BARRIER, StorageStrategy.IN_MEMORY);
+		runTest(new StatisticsTests.TestStatistics());
+	}
+
+	@Test
+	public void test_Exiting_Variable_Round_Barrier_Thread_Per_Protocol() throws Exception {
+		configure(EvaluationStrategy.ROUND_BARRIER, StorageStrategy.IN_MEMORY);
+		// The groups of a lane take turns evaluating each round.
+		for (TestThreadConfiguration ttc : conf.values()) {
+			((TestSCEConfiguration) ttc.sceConf).setEvaluator(new RoundBarrierEvaluator(1));
+		}
+		runTest(new StatisticsTests.TestStatistics());
+	}
 }
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2015 FRESCO (http://github.com/aicis/fresco).
+ *
+ * This file is part of the FRESCO project.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ *
+ * FRESCO uses SCAPI - http://crypto.biu.ac.il/SCAPI, Crypto++, Miracl, NTL,
+ * and Bouncy Castle. Please see these projects for any further licensing issues.
+ *******************************************************************************/
+package dk.alexandra.fresco.suite.spdz;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dk.alexandra.fresco.suite.spdz.datatypes.SpdzElement;
+import dk.alexandra.fresco.suite.spdz.storage.SpdzStreamingStorage;
+
+public class TestSpdzStreamingStorage {
+
+	private static final BigInteger P = TestMontgomeryField.MODULI[2];
+	private static final BigInteger WIDE_P = TestMontgomeryField.MODULI[3];
+	private static final int OPENINGS = 500;
+
+	private final Random rand = new Random(42);
+	private final BigInteger alpha1 = new BigInteger(P.bitLength() - 1, rand);
+	private final BigInteger alpha2 = new BigInteger(P.bitLength() - 1, rand);
+
+	@Test
+	public void testHonestOpeningsPass() {
+		assertEquals(BigInteger.ZERO, deltaSum(P, -1, new byte[] { 1, 2, 3 }));
+	}
+
+	@Test
+	public void testChangedOpeningFails() {
+		assertNotEquals(BigInteger.ZERO, deltaSum(P, OPENINGS / 2, new byte[] { 1, 2, 3 }));
+		assertNotEquals(BigInteger.ZERO, deltaSum(P, OPENINGS - 1, new byte[] { 1, 2, 3 }));
+	}
+
+	@Test
+	public void testWideModulus() {
+		assertEquals(BigInteger.ZERO, deltaSum(WIDE_P, -1, new byte[] { 1, 2, 3 }));
+		assertNotEquals(BigInteger.ZERO, deltaSum(WIDE_P, OPENINGS / 2, new byte[] { 1, 2, 3 }));
+		// The coefficients are not limited to the 256 bits of one hash.
+		for (int i = 0; i < 10; i++) {
+			SpdzStreamingStorage storage = new SpdzStreamingStorage(null, i, WIDE_P);
+			storage.addOpenedValue(BigInteger.ONE);
+			assertTrue(storage.getCombinedOpenedValue().bitLength() > 256);
+		}
+	}
+
+	@Test
+	public void testSeedChangesCoefficients() {
+		SpdzStreamingStorage first = new SpdzStreamingStorage(null, 0, P);
+		SpdzStreamingStorage second = new SpdzStreamingStorage(null, 0, P);
+		SpdzStreamingStorage otherThread = new SpdzStreamingStorage(null, 1, P);
+		second.reseed(new byte[] { 7 });
+		for (int i = 0; i < 10; i++) {
+			BigInteger value = BigInteger.valueOf(i);
+			first.addOpenedValue(value);
+			second.addOpenedValue(value);
+			otherThread.addOpenedValue(value);
+		}
+		assertEquals(10, first.getCount());
+		assertNotEquals(first.getCombinedOpenedValue(), second.getCombinedOpenedValue());
+		assertNotEquals(first.getCombinedOpenedValue(), otherThread.getCombinedOpenedValue());
+	}
+
+	@Test
+	public void testBalance() {
+		SpdzStreamingStorage storage = new SpdzStreamingStorage(null, 0, P);
+		storage.addClosedValue(new SpdzElement(BigInteger.ONE, BigInteger.ONE));
+		assertFalse(storage.isBalanced());
+		storage.addOpenedValue(BigInteger.ONE);
+		assertTrue(storage.isBalanced());
+		storage.addOpenedValue(BigInteger.ONE);
+		assertFalse(storage.isBalanced());
+		storage.reset();
+		assertTrue(storage.isBalanced());
+		assertEquals(0, storage.getCount());
+	}
+
+	/**
+	 * Lets two parties open random values and returns the sum of their
+	 * deltas in the MAC check.
+	 * 
+	 * @param p
+	 *            the modulus of the field.
+	 * @param changed
+	 *            the index of an opened value that is opened with an error, or
+	 *            -1 to open all values correctly.
+	 */
+	private BigInteger deltaSum(BigInteger p, int changed, byte[] seed) {
+		BigInteger alpha = alpha1.add(alpha2).mod(p);
+		SpdzStreamingStorage party1 = new SpdzStreamingStorage(null, 0, p);
+		SpdzStreamingStorage party2 = new SpdzStreamingStorage(null, 0, p);
+		party1.reseed(seed);
+		party2.reseed(seed);
+		for (int i = 0; i < OPENINGS; i++) {
+			BigInteger value = new BigInteger(p.bitLength() - 1, rand);
+			BigInteger share = new BigInteger(p.bitLength() - 1, rand);
+			BigInteger mac = new BigInteger(p.bitLength() - 1, rand);
+			SpdzElement element1 = new SpdzElement(share, mac);
+			SpdzElement element2 = new SpdzElement(value.subtract(share).mod(p),
+					alpha.multiply(value).subtract(mac).mod(p));
+			BigInteger opened = i == changed ? value.add(BigInteger.ONE) : value;
+			// Alternate between adding the closed value before and after
+			// the opened one.
+			if (i % 2 == 0) {
+				party1.addOpenedValue(opened);
+				party2.addOpenedValue(opened);
+				party1.addClosedValue(element1);
+				party2.addClosedValue(element2);
+			} else {
+				party1.addClosedValue(element1);
+				party2.addClosedValue(element2);
+				party1.addOpenedValue(opened);
+				party2.addOpenedValue(opened);
+			}
+		}
+		assertTrue(party1.isBalanced());
+		assertEquals(party1.getCombinedOpenedValue(), party2.getCombinedOpenedValue());
+		BigInteger a = party1.getCombinedOpenedValue();
+		BigInteger delta1 = party1.getCombinedMac().subtract(alpha1.multiply(a));
+		BigInteger delta2 = party2.getCombinedMac().subtract(alpha2.multiply(a));
+		return delta1.add(delta2).mod(p);
+	}
+}